@@ -0,0 +1,153 @@
+/*
+ * Copyright 2017 dmfs GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dmfs.tasks.contract;
+
+import android.content.ContentValues;
+
+import org.dmfs.tasks.contract.TaskContract.PropertyColumns;
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * The format of {@link TaskContract.TaskColumns#PACKED_PROPERTIES}.
+ * <p>
+ * The column contains one record per property, separated by {@link #RECORD_SEPARATOR}. Each record contains the values of {@link #COLUMNS} in that order,
+ * separated by {@link #FIELD_SEPARATOR}. Within a value, the separators and the {@link #ESCAPE} character itself are escaped by a preceding {@link #ESCAPE}
+ * character. A <code>null</code> value is encoded as {@link #NULL}. A task without properties has a <code>null</code> column.
+ *
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+public final class PackedProperties
+{
+    /**
+     * The columns of each record in the order they are packed.
+     */
+    public final static String[] COLUMNS = { PropertyColumns.PROPERTY_ID, PropertyColumns.MIMETYPE, PropertyColumns.VERSION, PropertyColumns.DATA0,
+            PropertyColumns.DATA1, PropertyColumns.DATA2, PropertyColumns.DATA3, PropertyColumns.DATA4, PropertyColumns.DATA5, PropertyColumns.DATA6,
+            PropertyColumns.DATA7, PropertyColumns.DATA8, PropertyColumns.DATA9, PropertyColumns.DATA10, PropertyColumns.DATA11, PropertyColumns.DATA12,
+            PropertyColumns.DATA13, PropertyColumns.DATA14, PropertyColumns.DATA15 };
+
+    public final static char FIELD_SEPARATOR = ',';
+
+    public final static char RECORD_SEPARATOR = ';';
+
+    public final static char ESCAPE = '\\';
+
+    /**
+     * The encoding of a <code>null</code> value.
+     */
+    public final static String NULL = ESCAPE + "N";
+
+
+    private PackedProperties()
+    {
+    }
+
+
+    /**
+     * Decodes the value of a {@link TaskContract.TaskColumns#PACKED_PROPERTIES} column.
+     * <p>
+     * All values are returned as Strings, use {@link ContentValues#getAsLong(String)} or {@link ContentValues#getAsInteger(String)} to get numeric values.
+     *
+     * @param packed
+     *         The packed properties, may be <code>null</code>.
+     *
+     * @return A {@link List} of {@link ContentValues}, one for each property, containing the {@link #COLUMNS}. The list is empty if the task has no
+     * properties.
+     *
+     * @throws IllegalArgumentException
+     *         if the given value is not a valid packed properties value.
+     */
+    public static List<ContentValues> decode(String packed)
+    {
+        List<ContentValues> result = new ArrayList<ContentValues>(8);
+        if (packed == null || packed.length() == 0)
+        {
+            return result;
+        }
+
+        StringBuilder value = new StringBuilder(64);
+        ContentValues record = new ContentValues(COLUMNS.length);
+        int field = 0;
+        boolean escaped = false;
+        boolean isNull = false;
+        for (int i = 0, length = packed.length(); i <= length; ++i)
+        {
+            char c = i < length ? packed.charAt(i) : RECORD_SEPARATOR;
+            if (escaped)
+            {
+                escaped = false;
+                if (c == 'N' && value.length() == 0)
+                {
+                    isNull = true;
+                }
+                else
+                {
+                    value.append(c);
+                }
+            }
+            else if (c == ESCAPE)
+            {
+                if (i == length - 1)
+                {
+                    throw new IllegalArgumentException("Incomplete escape sequence at the end of " + packed);
+                }
+                escaped = true;
+            }
+            else if (c == FIELD_SEPARATOR || c == RECORD_SEPARATOR)
+            {
+                if (field >= COLUMNS.length)
+                {
+                    throw new IllegalArgumentException("Too many fields in record " + result.size() + " of " + packed);
+                }
+                if (isNull)
+                {
+                    record.putNull(COLUMNS[field]);
+                }
+                else
+                {
+                    record.put(COLUMNS[field], value.toString());
+                }
+                value.setLength(0);
+                isNull = false;
+                ++field;
+
+                if (c == RECORD_SEPARATOR)
+                {
+                    if (field != COLUMNS.length)
+                    {
+                        throw new IllegalArgumentException("Too few fields in record " + result.size() + " of " + packed);
+                    }
+                    result.add(record);
+                    record = new ContentValues(COLUMNS.length);
+                    field = 0;
+                }
+            }
+            else if (isNull)
+            {
+                throw new IllegalArgumentException("Unexpected characters after null value in record " + result.size() + " of " + packed);
+            }
+            else
+            {
+                value.append(c);
+            }
+        }
+        return result;
+    }
+}
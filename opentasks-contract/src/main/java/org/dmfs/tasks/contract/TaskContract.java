@@ -17,6 +17,7 @@
 package org.dmfs.tasks.contract;
 
 import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.content.Intent;
 import android.net.Uri;
 import android.provider.BaseColumns;
@@ -60,6 +61,20 @@ public final class TaskContract
      */
     public static final String LOAD_PROPERTIES = "load_properties";
 
+    /**
+     * URI parameter to request the extended properties of a task packed into a single column, see {@link TaskColumns#PACKED_PROPERTIES}. Unlike
+     * {@link #LOAD_PROPERTIES} this returns only one row per task (or instance). Use {@link PackedProperties} to decode the column. This parameter is ignored
+     * if {@link #LOAD_PROPERTIES} is given as well.
+     */
+    public static final String PACK_PROPERTIES = "pack_properties";
+
+    /**
+     * URI parameter to request that the search index of inserted or updated tasks is not updated immediately. The tasks are queued and indexed in the
+     * background instead. This is meant to speed up writing large amounts of tasks, e.g. by sync adapters. Searches wait a short time for the index to catch
+     * up, but may miss tasks that have been written just before.
+     */
+    public static final String DEFER_SEARCH_INDEXING = "defer_search_indexing";
+
     /**
      * URI parameter to submit the account name of the account we operate on.
      */
@@ -103,6 +118,28 @@ public final class TaskContract
      */
     public static final String ACTION_BROADCAST_TASK_STARTING = "org.dmfs.android.tasks.TASK_START";
 
+    /**
+     * The action of the broadcast that's send when tasks become due, if the provider has been configured to batch notifications. Instead of a data
+     * {@link Uri} the broadcast contains the task {@link Uri}s in {@link #EXTRA_TASK_URIS} and the due dates and titles in {@link #EXTRA_TASK_TIMESTAMPS},
+     * {@link #EXTRA_TASK_ALLDAYS}, {@link #EXTRA_TASK_TIMEZONES} and {@link #EXTRA_TASK_TITLES} at the same positions. Many tasks may be split across
+     * multiple broadcasts.
+     */
+    public static final String ACTION_BROADCAST_TASKS_DUE = "org.dmfs.android.tasks.TASKS_DUE";
+
+    /**
+     * The action of the broadcast that's send when tasks start, if the provider has been configured to batch notifications. The extras are the same as in
+     * {@link #ACTION_BROADCAST_TASKS_DUE}.
+     */
+    public static final String ACTION_BROADCAST_TASKS_STARTING = "org.dmfs.android.tasks.TASKS_START";
+
+    /**
+     * The action of the broadcast that's send when alarm properties of tasks are triggered. All alarms that trigger at the same time are sent in one
+     * broadcast. It contains the {@link Uri}s of the tasks the alarms belong to in {@link #EXTRA_TASK_URIS} and the trigger times, task titles and the
+     * messages and types of the alarms in {@link #EXTRA_TASK_TIMESTAMPS}, {@link #EXTRA_TASK_TITLES}, {@link #EXTRA_ALARM_MESSAGES} and {@link
+     * #EXTRA_ALARM_TYPES} at the same positions. Many alarms may be split across multiple broadcasts.
+     */
+    public static final String ACTION_BROADCAST_TASK_ALARMS = "org.dmfs.android.tasks.TASK_ALARMS";
+
     /**
      * A Long extra that contains a timestamp of the event that's triggered. So this is either the timestamp of the start or due date of the task.
      */
@@ -123,9 +160,48 @@ public final class TaskContract
      */
     public final static String EXTRA_TASK_TITLE = "org.dmfs.provider.tasks.extra.TITLE";
 
+    /**
+     * An {@link ArrayList} extra containing the {@link Uri}s of the tasks in a batched broadcast.
+     */
+    public final static String EXTRA_TASK_URIS = "org.dmfs.provider.tasks.extra.URIS";
+
+    /**
+     * A long array extra containing the timestamps of the tasks in a batched broadcast.
+     */
+    public final static String EXTRA_TASK_TIMESTAMPS = "org.dmfs.provider.tasks.extra.TIMESTAMPS";
+
+    /**
+     * A boolean array extra to indicate which of the timestamps in a batched broadcast are all-day dates.
+     */
+    public final static String EXTRA_TASK_ALLDAYS = "org.dmfs.provider.tasks.extra.ALLDAYS";
+
+    /**
+     * A String array extra containing the time zone ids of the tasks in a batched broadcast. An entry is <code>null</code> if the date is floating or
+     * all-day.
+     */
+    public final static String EXTRA_TASK_TIMEZONES = "org.dmfs.provider.tasks.extra.TIMEZONES";
+
+    /**
+     * A String array extra containing the titles of the tasks in a batched broadcast.
+     */
+    public final static String EXTRA_TASK_TITLES = "org.dmfs.provider.tasks.extra.TITLES";
+
+    /**
+     * A String array extra containing the {@link Property.Alarm#MESSAGE}s of the alarms in an {@link #ACTION_BROADCAST_TASK_ALARMS} broadcast.
+     */
+    public final static String EXTRA_ALARM_MESSAGES = "org.dmfs.provider.tasks.extra.ALARM_MESSAGES";
+
+    /**
+     * An int array extra containing the {@link Property.Alarm#ALARM_TYPE}s of the alarms in an {@link #ACTION_BROADCAST_TASK_ALARMS} broadcast.
+     */
+    public final static String EXTRA_ALARM_TYPES = "org.dmfs.provider.tasks.extra.ALARM_TYPES";
+
     /**
      * The name of the {@link Intent#ACTION_PROVIDER_CHANGED} extra that contains the {@link ArrayList} of {@link Uri}s that have been modified. This always
      * goes along with an {@link #EXTRA_OPERATIONS} which contains a code for the operation executed on a Uri at the same index.
+     * <p>
+     * Note, this extra is only present if a transaction modified only a few entities. Receivers should prefer the change ranges, see {@link
+     * #EXTRA_CHANGE_SEQUENCE}.
      */
     public final static String EXTRA_OPERATIONS_URIS = "org.dmfs.tasks.OPERATIONS_URIS";
 
@@ -140,6 +216,87 @@ public final class TaskContract
      */
     public final static String EXTRA_OPERATIONS = "org.dmfs.tasks.OPERATIONS";
 
+    /**
+     * The name of the {@link Intent#ACTION_PROVIDER_CHANGED} extra that contains the sequence number of the changes of a transaction. Sequence numbers
+     * increase monotonically, the changes of a transaction can be retrieved from {@link Changes} at any time later (as long as they are retained).
+     * <p>
+     * The changes are described by ranges of consecutive ids, see {@link #EXTRA_CHANGE_ENTITIES}, {@link #EXTRA_CHANGE_OPERATIONS}, {@link
+     * #EXTRA_CHANGE_FIRST_IDS} and {@link #EXTRA_CHANGE_LAST_IDS}. The elements at the same index of these arrays describe one range.
+     * <p>
+     * Value: long
+     */
+    public final static String EXTRA_CHANGE_SEQUENCE = "org.dmfs.tasks.CHANGE_SEQUENCE";
+
+    /**
+     * The name of the {@link Intent#ACTION_PROVIDER_CHANGED} extra that contains the changed entity of each change range, i.e. the content path of the
+     * entity, like {@link Tasks#CONTENT_URI_PATH} or {@link TaskLists#CONTENT_URI_PATH}.
+     * <p>
+     * Value: String[]
+     */
+    public final static String EXTRA_CHANGE_ENTITIES = "org.dmfs.tasks.CHANGE_ENTITIES";
+
+    /**
+     * The name of the {@link Intent#ACTION_PROVIDER_CHANGED} extra that contains the operation code of each change range, see {@link #EXTRA_OPERATIONS}
+     * for the values.
+     * <p>
+     * Value: int[]
+     */
+    public final static String EXTRA_CHANGE_OPERATIONS = "org.dmfs.tasks.CHANGE_OPERATIONS";
+
+    /**
+     * The name of the {@link Intent#ACTION_PROVIDER_CHANGED} extra that contains the first id of each change range.
+     * <p>
+     * Value: long[]
+     */
+    public final static String EXTRA_CHANGE_FIRST_IDS = "org.dmfs.tasks.CHANGE_FIRST_IDS";
+
+    /**
+     * The name of the {@link Intent#ACTION_PROVIDER_CHANGED} extra that contains the last id (inclusive) of each change range.
+     * <p>
+     * Value: long[]
+     */
+    public final static String EXTRA_CHANGE_LAST_IDS = "org.dmfs.tasks.CHANGE_LAST_IDS";
+
+    /**
+     * The name of the {@link Intent#ACTION_PROVIDER_CHANGED} extra that indicates the changes of a transaction were too many to be broadcast. If this is
+     * <code>true</code> the change ranges are omitted and receivers should fetch the changes with the sequence number in {@link #EXTRA_CHANGE_SEQUENCE}
+     * from {@link Changes} or just assume that everything has changed.
+     * <p>
+     * Value: boolean
+     */
+    public final static String EXTRA_CHANGES_TRUNCATED = "org.dmfs.tasks.CHANGES_TRUNCATED";
+
+    /**
+     * The name of the {@link Intent#ACTION_PROVIDER_CHANGED} extra that contains the number of operations of the batch that resulted in this broadcast. The
+     * batch extras are only present if the transaction has been started by a batch.
+     * <p>
+     * Value: int
+     */
+    public final static String EXTRA_BATCH_OPERATIONS = "org.dmfs.tasks.BATCH_OPERATIONS";
+
+    /**
+     * The name of the {@link Intent#ACTION_PROVIDER_CHANGED} extra that contains the number of times the batch has committed its transaction at a yield point,
+     * either because other threads were waiting for the database or because the transaction exceeded the latency budget of the provider.
+     * <p>
+     * Value: int
+     */
+    public final static String EXTRA_BATCH_YIELDS = "org.dmfs.tasks.BATCH_YIELDS";
+
+    /**
+     * The name of the {@link Intent#ACTION_PROVIDER_CHANGED} extra that contains the longest time in milliseconds the batch held a single transaction. Sync
+     * adapters can use this to place their yield points.
+     * <p>
+     * Value: long
+     */
+    public final static String EXTRA_BATCH_MAX_TRANSACTION_TIME = "org.dmfs.tasks.BATCH_MAX_TRANSACTION_TIME";
+
+    /**
+     * The name of the {@link Intent#ACTION_PROVIDER_CHANGED} extra that contains the total time in milliseconds it took to apply the batch.
+     * <p>
+     * Value: long
+     */
+    public final static String EXTRA_BATCH_DURATION = "org.dmfs.tasks.BATCH_DURATION";
+
 
     /**
      * Private constructor to prevent instantiation.
@@ -828,6 +985,18 @@ public final class TaskContract
          * </p>
          */
         public static final String PINNED = "pinned";
+
+        /**
+         * All extended properties of this task packed into a single string. This column is only available if the {@link Uri} contains
+         * {@link TaskContract#PACK_PROPERTIES}. Use {@link PackedProperties#decode(String)} to get the individual properties.
+         * <p>
+         * Value: String
+         * </p>
+         * <p>
+         * read-only
+         * </p>
+         */
+        public static final String PACKED_PROPERTIES = "packed_properties";
     }
 
 
@@ -940,6 +1109,108 @@ public final class TaskContract
 
         public static final String SEARCH_QUERY_PARAMETER = "q";
 
+        /**
+         * Query parameter of the search {@link Uri} to request ranked search results. Ranked results weight each match by the field it was found in, a match in
+         * the title scores higher than a match in the location, which scores higher than a match in the description or a property. The weights can be changed
+         * with the weight parameters below, each of which enables ranking too.
+         * <p>
+         * Value: Boolean
+         * </p>
+         */
+        public static final String SEARCH_RANKED_PARAMETER = "ranked";
+
+        /**
+         * Query parameter of the search {@link Uri} to set the minimum score of the results. The default is <code>0.4</code>.
+         * <p>
+         * Value: Float in the range [0..1]
+         * </p>
+         */
+        public static final String SEARCH_MIN_SCORE_PARAMETER = "min_score";
+
+        /**
+         * Query parameter of the search {@link Uri} to limit the number of results. Only the results with the highest scores are returned.
+         * <p>
+         * Value: Integer
+         * </p>
+         */
+        public static final String SEARCH_LIMIT_PARAMETER = "limit";
+
+        /**
+         * Query parameter of the search {@link Uri} to set the weight of matches in the title. The default is <code>1.0</code>.
+         * <p>
+         * Value: Float &gt;= 0
+         * </p>
+         */
+        public static final String SEARCH_TITLE_WEIGHT_PARAMETER = "title_weight";
+
+        /**
+         * Query parameter of the search {@link Uri} to set the weight of matches in the location. The default is <code>0.8</code>.
+         * <p>
+         * Value: Float &gt;= 0
+         * </p>
+         */
+        public static final String SEARCH_LOCATION_WEIGHT_PARAMETER = "location_weight";
+
+        /**
+         * Query parameter of the search {@link Uri} to set the weight of matches in the description. The default is <code>0.6</code>.
+         * <p>
+         * Value: Float &gt;= 0
+         * </p>
+         */
+        public static final String SEARCH_DESCRIPTION_WEIGHT_PARAMETER = "description_weight";
+
+        /**
+         * Query parameter of the search {@link Uri} to set the weight of matches in properties like categories. The default is <code>0.4</code>.
+         * <p>
+         * Value: Float &gt;= 0
+         * </p>
+         */
+        public static final String SEARCH_PROPERTY_WEIGHT_PARAMETER = "property_weight";
+
+        /**
+         * The path segment to append to the {@link Uri} of a task to get its entire subtree, see {@link #getSubtreeUri(String, long)}.
+         */
+        public static final String SUBTREE_PATH = "subtree";
+
+        /**
+         * The path segment to append to the {@link Uri} of a task to get all its ancestors, see {@link #getAncestorsUri(String, long)}.
+         */
+        public static final String ANCESTORS_PATH = "ancestors";
+
+        /**
+         * The number of levels between a task and the task the subtree or the ancestors have been requested for. The requested task itself has a depth of
+         * <code>0</code>. This column is only available on subtree and ancestor {@link Uri}s.
+         * <p>
+         * Value: Integer
+         * </p>
+         * <p>
+         * read-only
+         * </p>
+         */
+        public static final String HIERARCHY_DEPTH = "hierarchy_depth";
+
+        /**
+         * The number of direct children of a task. This column is only available on subtree and ancestor {@link Uri}s.
+         * <p>
+         * Value: Integer
+         * </p>
+         * <p>
+         * read-only
+         * </p>
+         */
+        public static final String CHILD_COUNT = "child_count";
+
+        /**
+         * The number of direct children of a task that are not closed yet. This column is only available on subtree and ancestor {@link Uri}s.
+         * <p>
+         * Value: Integer
+         * </p>
+         * <p>
+         * read-only
+         * </p>
+         */
+        public static final String OPEN_CHILD_COUNT = "open_child_count";
+
         public static final String DEFAULT_SORT_ORDER = DUE;
 
         public static final String[] SYNC_ADAPTER_COLUMNS = new String[] {
@@ -961,12 +1232,70 @@ public final class TaskContract
         }
 
 
+        /**
+         * Get a {@link Uri} that returns the given task and all its descendants in a single query. The results are sorted by {@link #HIERARCHY_DEPTH} by
+         * default.
+         *
+         * @param authority
+         *         The authority.
+         * @param taskId
+         *         The row id of the task at the root of the subtree.
+         *
+         * @return A {@link Uri}.
+         */
+        public static Uri getSubtreeUri(String authority, long taskId)
+        {
+            return ContentUris.withAppendedId(getContentUri(authority), taskId).buildUpon().appendPath(SUBTREE_PATH).build();
+        }
+
+
+        /**
+         * Get a {@link Uri} that returns the given task and all its ancestors in a single query. The results are sorted from the root to the given task by
+         * default.
+         *
+         * @param authority
+         *         The authority.
+         * @param taskId
+         *         The row id of the task.
+         *
+         * @return A {@link Uri}.
+         */
+        public static Uri getAncestorsUri(String authority, long taskId)
+        {
+            return ContentUris.withAppendedId(getContentUri(authority), taskId).buildUpon().appendPath(ANCESTORS_PATH).build();
+        }
+
+
         public static Uri getSearchUri(String authority, String query)
         {
             Uri.Builder builder = getUriFactory(authority).getUri(SEARCH_URI_PATH).buildUpon();
             builder.appendQueryParameter(SEARCH_QUERY_PARAMETER, Uri.encode(query));
             return builder.build();
         }
+
+
+        /**
+         * Get a search {@link Uri} that returns ranked results, see {@link #SEARCH_RANKED_PARAMETER}.
+         *
+         * @param authority
+         *         The authority.
+         * @param query
+         *         The search query.
+         * @param minScore
+         *         The minimum score of the results.
+         * @param limit
+         *         The maximum number of results.
+         *
+         * @return A {@link Uri}.
+         */
+        public static Uri getRankedSearchUri(String authority, String query, float minScore, int limit)
+        {
+            Uri.Builder builder = getSearchUri(authority, query).buildUpon();
+            builder.appendQueryParameter(SEARCH_RANKED_PARAMETER, "true");
+            builder.appendQueryParameter(SEARCH_MIN_SCORE_PARAMETER, Float.toString(minScore));
+            builder.appendQueryParameter(SEARCH_LIMIT_PARAMETER, Integer.toString(limit));
+            return builder.build();
+        }
     }
 
 
@@ -1035,15 +1364,25 @@ public final class TaskContract
          */
         public static final String INSTANCE_DURATION = "instance_duration";
 
+        /**
+         * The original start time of a recurring instance in milliseconds since the epoch. This is the time of the instance in the recurrence set, i.e. the
+         * value an exception would use as its {@link TaskColumns#ORIGINAL_INSTANCE_TIME}. It's <code>null</code> for instances of non-recurring tasks.
+         * <p>
+         * Value: Long
+         * </p>
+         * <p>
+         * read-only
+         * </p>
+         */
+        public static final String INSTANCE_ORIGINAL_TIME = "instance_original_time";
+
     }
 
 
     /**
-     * Instances of a task. At present this table is read only. Currently it contains exactly one entry per task (and task exception), so it's merely a copy of
-     * {@link Tasks}.
-     * <p>
-     * TODO: Insert all instances of recurring the tasks.
-     * </p>
+     * Instances of a task. At present this table is read only. It contains one entry per non-recurring task (and task exception). Recurring tasks are expanded
+     * into one entry per instance within a rolling window that is extended by the provider over time. The first instance of a recurring task is always
+     * present.
      * <p>
      * TODO: In later releases it's planned to provide a convenient interface to add, change or delete task instances via this URI.
      * </p>
@@ -1230,6 +1569,109 @@ public final class TaskContract
     }
 
 
+    /**
+     * The columns of the change feed.
+     *
+     * @author Marten Gajda <marten@dmfs.org>
+     */
+    public interface ChangesColumns
+    {
+        /**
+         * The sequence number of the transaction that made the change, see {@link TaskContract#EXTRA_CHANGE_SEQUENCE}.
+         * <p>
+         * Value: Long
+         * </p>
+         */
+        public static final String SEQUENCE = "sequence";
+
+        /**
+         * The changed entity, i.e. the content path of the entity like {@link Tasks#CONTENT_URI_PATH}. A row with a <code>null</code> entity means that the
+         * changes of the given sequence number (and all older ones) are no longer known, so anything may have changed.
+         * <p>
+         * Value: String
+         * </p>
+         */
+        public static final String ENTITY = "entity";
+
+        /**
+         * The operation code, see {@link TaskContract#EXTRA_OPERATIONS} for the values.
+         * <p>
+         * Value: Integer
+         * </p>
+         */
+        public static final String OPERATION = "operation";
+
+        /**
+         * The first id of the range of changed entities.
+         * <p>
+         * Value: Long
+         * </p>
+         */
+        public static final String FIRST_ID = "first_id";
+
+        /**
+         * The last id (inclusive) of the range of changed entities.
+         * <p>
+         * Value: Long
+         * </p>
+         */
+        public static final String LAST_ID = "last_id";
+    }
+
+
+    /**
+     * A read-only feed of the changes in the provider. Each row describes a range of entities with consecutive ids that have been modified by the same
+     * operation in the same transaction. Receivers of {@link Intent#ACTION_PROVIDER_CHANGED} can use it to catch up with all changes since the last sequence
+     * number they've seen. The provider retains only a limited history.
+     *
+     * @author Marten Gajda <marten@dmfs.org>
+     */
+    public static final class Changes implements ChangesColumns
+    {
+        public static final String CONTENT_URI_PATH = "changes";
+
+        /**
+         * Query parameter of the changes {@link Uri} to return only changes with a sequence number larger than or equal to the given one.
+         * <p>
+         * Value: Long
+         * </p>
+         */
+        public static final String FROM_SEQUENCE_PARAMETER = "from";
+
+        public static final String DEFAULT_SORT_ORDER = SEQUENCE;
+
+
+        /**
+         * Get the changes content {@link Uri} using the given authority.
+         *
+         * @param authority
+         *         The authority.
+         *
+         * @return A {@link Uri}.
+         */
+        public static Uri getContentUri(String authority)
+        {
+            return getUriFactory(authority).getUri(CONTENT_URI_PATH);
+        }
+
+
+        /**
+         * Get a {@link Uri} of all changes with a sequence number of at least the given one.
+         *
+         * @param authority
+         *         The authority.
+         * @param fromSequence
+         *         The sequence number of the oldest changes to return.
+         *
+         * @return A {@link Uri}.
+         */
+        public static Uri getContentUri(String authority, long fromSequence)
+        {
+            return getContentUri(authority).buildUpon().appendQueryParameter(FROM_SEQUENCE_PARAMETER, Long.toString(fromSequence)).build();
+        }
+    }
+
+
     public interface PropertySyncColumns
     {
         public static final String SYNC1 = "prop_sync1";
@@ -1666,6 +2108,7 @@ public final class TaskContract
             uriFactory.addUri(Categories.CONTENT_URI_PATH);
             uriFactory.addUri(Alarms.CONTENT_URI_PATH);
             uriFactory.addUri(Properties.CONTENT_URI_PATH);
+            uriFactory.addUri(Changes.CONTENT_URI_PATH);
             sUriFactories.put(authority, uriFactory);
 
         }
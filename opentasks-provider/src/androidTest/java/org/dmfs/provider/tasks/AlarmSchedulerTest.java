@@ -0,0 +1,286 @@
+/*
+ * Copyright 2017 dmfs GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dmfs.provider.tasks;
+
+import android.content.ContentProviderClient;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.dmfs.provider.tasks.TaskDatabaseHelper.Tables;
+import org.dmfs.tasks.contract.TaskContract.Alarms;
+import org.dmfs.tasks.contract.TaskContract.Properties;
+import org.dmfs.tasks.contract.TaskContract.Property.Alarm;
+import org.dmfs.tasks.contract.TaskContract.Tasks;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+
+/**
+ * Tests the next trigger times that {@link AlarmScheduler} materializes for alarm properties.
+ *
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+@RunWith(AndroidJUnit4.class)
+public class AlarmSchedulerTest
+{
+    private final static long MINUTE = 60L * 1000L;
+    private final static long HOUR = 60L * MINUTE;
+    private final static long DAY = 24L * HOUR;
+
+    private TestTaskList mList;
+    private ContentProviderClient mClient;
+    private SQLiteDatabase mDb;
+    private long mNow;
+
+
+    @Before
+    public void setUp()
+    {
+        mList = new TestTaskList(InstrumentationRegistry.getTargetContext());
+        // the provider runs in this process, so we can look at its database directly
+        mClient = mList.resolver().acquireContentProviderClient(mList.authority());
+        mDb = ((TaskProvider) mClient.getLocalContentProvider()).getDatabaseHelper().getReadableDatabase();
+        // use full seconds, so trigger times are easy to compare
+        mNow = System.currentTimeMillis() / 1000 * 1000;
+    }
+
+
+    @After
+    public void tearDown()
+    {
+        mList.delete();
+        mClient.release();
+    }
+
+
+    @Test
+    public void testDueAlarm()
+    {
+        long due = mNow + 2 * HOUR;
+        long task = insertTask(null, due, null);
+        long alarm = insertAlarm(task, 30, Alarm.ALARM_REFERENCE_DUE_DATE);
+
+        assertEquals(Long.valueOf(due - 30 * MINUTE), nextTrigger(alarm));
+    }
+
+
+    @Test
+    public void testStartAlarm()
+    {
+        long start = mNow + 3 * HOUR;
+        long task = insertTask(start, null, null);
+        long alarm = insertAlarm(task, 15, Alarm.ALARM_REFERENCE_START_DATE);
+
+        assertEquals(Long.valueOf(start - 15 * MINUTE), nextTrigger(alarm));
+
+        // an alarm that refers to a date the task doesn't have never triggers
+        long dueAlarm = insertAlarm(task, 15, Alarm.ALARM_REFERENCE_DUE_DATE);
+        assertEquals(null, nextTrigger(dueAlarm));
+    }
+
+
+    @Test
+    public void testChangedDateMovesAlarm()
+    {
+        long due = mNow + 2 * HOUR;
+        long task = insertTask(null, due, null);
+        long alarm = insertAlarm(task, 30, Alarm.ALARM_REFERENCE_DUE_DATE);
+
+        ContentValues values = new ContentValues(1);
+        values.put(Tasks.DUE, due + DAY);
+        updateTask(task, values);
+
+        assertEquals(Long.valueOf(due + DAY - 30 * MINUTE), nextTrigger(alarm));
+    }
+
+
+    @Test
+    public void testClosedTaskDoesNotTrigger()
+    {
+        long task = insertTask(null, mNow + 2 * HOUR, null);
+        long alarm = insertAlarm(task, 30, Alarm.ALARM_REFERENCE_DUE_DATE);
+
+        ContentValues values = new ContentValues(1);
+        values.put(Tasks.STATUS, Tasks.STATUS_COMPLETED);
+        updateTask(task, values);
+
+        assertEquals(null, nextTrigger(alarm));
+    }
+
+
+    @Test
+    public void testRecurringTask()
+    {
+        long start = mNow + HOUR;
+        long task = insertTask(start, null, "FREQ=DAILY;COUNT=5");
+        // the alarm of the first instance has passed already
+        long alarm = insertAlarm(task, 120, Alarm.ALARM_REFERENCE_START_DATE);
+
+        assertEquals(Long.valueOf(start + DAY - 2 * HOUR), nextTrigger(alarm));
+
+        // firing the alarm moves it to the next instance
+        mDb.beginTransaction();
+        try
+        {
+            AlarmScheduler.advance(mDb, Collections.singleton(alarm));
+            mDb.setTransactionSuccessful();
+        }
+        finally
+        {
+            mDb.endTransaction();
+        }
+        assertEquals(Long.valueOf(start + 2 * DAY - 2 * HOUR), nextTrigger(alarm));
+    }
+
+
+    @Test
+    public void testDueAlarms()
+    {
+        long task = insertTask(null, mNow + 2 * HOUR, null);
+        long early = insertAlarm(task, 90, Alarm.ALARM_REFERENCE_DUE_DATE);
+        long late = insertAlarm(task, 10, Alarm.ALARM_REFERENCE_DUE_DATE);
+
+        assertTrue(AlarmScheduler.nextTrigger(mDb) <= mNow + 30 * MINUTE);
+
+        // only the early alarm is due half an hour before the due date
+        Cursor cursor = AlarmScheduler.dueAlarms(mDb, mNow + 90 * MINUTE);
+        try
+        {
+            boolean foundEarly = false;
+            while (cursor.moveToNext())
+            {
+                assertTrue(cursor.getLong(0) != late);
+                foundEarly |= cursor.getLong(0) == early;
+            }
+            assertTrue(foundEarly);
+        }
+        finally
+        {
+            cursor.close();
+        }
+    }
+
+
+    @Test
+    public void testRemovedAlarmIsRemovedFromSchedule()
+    {
+        long task = insertTask(null, mNow + 2 * HOUR, null);
+        long alarm = insertAlarm(task, 30, Alarm.ALARM_REFERENCE_DUE_DATE);
+
+        mList.resolver().delete(ContentUris.withAppendedId(Properties.getContentUri(mList.authority()), alarm), null, null);
+
+        Cursor cursor = mDb.query(Tables.ALARMS, null, Alarms.ALARM_ID + "=" + alarm, null, null, null, null);
+        try
+        {
+            assertEquals(0, cursor.getCount());
+        }
+        finally
+        {
+            cursor.close();
+        }
+    }
+
+
+    @Test
+    public void testAlarmsCanNotBeModifiedByClients()
+    {
+        long due = mNow + 2 * HOUR;
+        long task = insertTask(null, due, null);
+        long alarm = insertAlarm(task, 30, Alarm.ALARM_REFERENCE_DUE_DATE);
+
+        ContentValues values = new ContentValues(1);
+        values.put(Alarms.NEXT_TRIGGER, mNow);
+        try
+        {
+            mList.resolver().update(ContentUris.withAppendedId(Alarms.getContentUri(mList.authority()), alarm), values, null, null);
+            fail("alarm has been updated");
+        }
+        catch (IllegalArgumentException e)
+        {
+            // expected
+        }
+
+        try
+        {
+            mList.resolver().delete(Alarms.getContentUri(mList.authority()), null, null);
+            fail("alarms have been removed");
+        }
+        catch (IllegalArgumentException e)
+        {
+            // expected
+        }
+
+        assertEquals(Long.valueOf(due - 30 * MINUTE), nextTrigger(alarm));
+    }
+
+
+    private long insertTask(Long start, Long due, String rrule)
+    {
+        ContentValues values = new ContentValues(5);
+        values.put(Tasks.TITLE, "Task with alarm");
+        values.put(Tasks.TZ, "UTC");
+        values.put(Tasks.DTSTART, start);
+        values.put(Tasks.DUE, due);
+        values.put(Tasks.RRULE, rrule);
+        return mList.insertTask(values);
+    }
+
+
+    private void updateTask(long task, ContentValues values)
+    {
+        mList.resolver().update(ContentUris.withAppendedId(Tasks.getContentUri(mList.authority()), task), values, null, null);
+    }
+
+
+    private long insertAlarm(long task, int minutesBefore, int reference)
+    {
+        ContentValues values = new ContentValues(5);
+        values.put(Properties.MIMETYPE, Alarm.CONTENT_ITEM_TYPE);
+        values.put(Properties.TASK_ID, task);
+        values.put(Alarm.MINUTES_BEFORE, minutesBefore);
+        values.put(Alarm.REFERENCE, reference);
+        values.put(Alarm.ALARM_TYPE, Alarm.ALARM_TYPE_MESSAGE);
+        return ContentUris.parseId(mList.resolver().insert(Properties.getContentUri(mList.authority()), values));
+    }
+
+
+    private Long nextTrigger(long alarm)
+    {
+        Cursor cursor = mDb.query(Tables.ALARMS, new String[] { Alarms.NEXT_TRIGGER }, Alarms.ALARM_ID + "=" + alarm, null, null, null, null);
+        try
+        {
+            assertTrue(cursor.moveToFirst());
+            return cursor.isNull(0) ? null : cursor.getLong(0);
+        }
+        finally
+        {
+            cursor.close();
+        }
+    }
+}
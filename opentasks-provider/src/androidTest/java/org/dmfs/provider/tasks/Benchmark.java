@@ -0,0 +1,125 @@
+/*
+ * Copyright 2017 dmfs GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dmfs.provider.tasks;
+
+import android.os.Bundle;
+import android.support.test.InstrumentationRegistry;
+import android.util.Log;
+
+import org.junit.Assume;
+
+import java.util.Locale;
+import java.util.Random;
+
+
+/**
+ * Helpers for the benchmarks of the provider.
+ * <p>
+ * Benchmarks take a while and need a real device to give meaningful numbers, so they only run when the instrumentation argument <code>benchmark</code> is
+ * <code>true</code>, e.g.
+ * <pre>
+ * ./gradlew :opentasks-provider:connectedAndroidTest -Pandroid.testInstrumentationRunnerArguments.benchmark=true
+ * </pre>
+ * The results are written to the log with the tag {@value #TAG}.
+ *
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+final class Benchmark
+{
+    final static String TAG = "TaskProviderBenchmark";
+
+    private final static String[] WORDS = {
+            "buy", "groceries", "milk", "call", "mom", "about", "the", "weekend", "meeting", "with", "project", "team", "prepare", "slides", "for",
+            "review", "pull", "request", "fix", "bug", "in", "sync", "adapter", "pay", "rent", "water", "plants", "trip", "book", "hotel", "and", "flights",
+            "renew", "passport", "quarterly", "report", "dentist", "appointment", "birthday", "present", "garden", "bicycle", "repair", "invoice" };
+
+
+    private Benchmark()
+    {
+    }
+
+
+    /**
+     * Skips the current test unless benchmarks have been enabled.
+     */
+    static void assumeEnabled()
+    {
+        Bundle arguments = InstrumentationRegistry.getArguments();
+        Assume.assumeTrue("benchmarks are disabled", arguments != null && "true".equals(arguments.getString("benchmark")));
+    }
+
+
+    /**
+     * Returns the value of an integer instrumentation argument.
+     *
+     * @param name
+     *         The name of the argument.
+     * @param defaultValue
+     *         The value to return if the argument is not present.
+     *
+     * @return The value of the argument.
+     */
+    static int intArgument(String name, int defaultValue)
+    {
+        Bundle arguments = InstrumentationRegistry.getArguments();
+        String value = arguments == null ? null : arguments.getString(name);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+
+
+    /**
+     * Returns a text of the given number of random words.
+     *
+     * @param random
+     *         The {@link Random} to pick the words.
+     * @param words
+     *         The number of words.
+     *
+     * @return The text.
+     */
+    static String text(Random random, int words)
+    {
+        StringBuilder result = new StringBuilder(words * 8);
+        for (int i = 0; i < words; ++i)
+        {
+            if (i > 0)
+            {
+                result.append(' ');
+            }
+            result.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return result.toString();
+    }
+
+
+    /**
+     * Returns a random word of the texts returned by {@link #text(Random, int)}.
+     */
+    static String word(Random random)
+    {
+        return WORDS[random.nextInt(WORDS.length)];
+    }
+
+
+    /**
+     * Writes a result to the log.
+     */
+    static void report(String format, Object... args)
+    {
+        Log.i(TAG, String.format(Locale.ENGLISH, format, args));
+    }
+}
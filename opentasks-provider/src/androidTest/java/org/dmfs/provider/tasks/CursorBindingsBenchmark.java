@@ -0,0 +1,202 @@
+/*
+ * Copyright 2017 dmfs GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dmfs.provider.tasks;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.dmfs.provider.tasks.TaskDatabaseHelper.Tables;
+import org.dmfs.provider.tasks.model.CursorBindings;
+import org.dmfs.provider.tasks.model.CursorContentValuesTaskAdapter;
+import org.dmfs.provider.tasks.model.TaskAdapter;
+import org.dmfs.provider.tasks.model.adapters.FieldAdapter;
+import org.dmfs.tasks.contract.TaskContract.TaskLists;
+import org.dmfs.tasks.contract.TaskContract.Tasks;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+
+/**
+ * Compares reading the fields of the tasks of an update through {@link TaskAdapter}s that share their {@link CursorBindings} with looking up the columns
+ * for every row.
+ * <p>
+ * This mimics the loop of the task update in {@link TaskProvider}: it iterates over all rows of the task view and reads the fields the task processors
+ * usually read, without running the processors themselves. The database contains 10000 tasks by default, set the instrumentation argument
+ * <code>benchmarkTasks</code> to change that. See {@link Benchmark} for how to run it.
+ *
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+@RunWith(AndroidJUnit4.class)
+public class CursorBindingsBenchmark
+{
+    private final static int ROUNDS = 5;
+
+    private final static List<FieldAdapter<?, TaskAdapter>> FIELDS = Arrays.<FieldAdapter<?, TaskAdapter>>asList(TaskAdapter._ID, TaskAdapter.LIST_ID,
+            TaskAdapter.TITLE, TaskAdapter.DESCRIPTION, TaskAdapter.LOCATION, TaskAdapter.STATUS, TaskAdapter.PRIORITY, TaskAdapter.PERCENT_COMPLETE,
+            TaskAdapter.CLASSIFICATION, TaskAdapter.DTSTART_RAW, TaskAdapter.DUE_RAW, TaskAdapter.IS_ALLDAY, TaskAdapter.TIMEZONE_RAW,
+            TaskAdapter.ORIGINAL_INSTANCE_ID, TaskAdapter.ORIGINAL_INSTANCE_SYNC_ID);
+
+    private TaskDatabaseHelper mHelper;
+    private SQLiteDatabase mDb;
+    private int mTaskCount;
+
+
+    @Before
+    public void setUp()
+    {
+        Benchmark.assumeEnabled();
+        mTaskCount = Benchmark.intArgument("benchmarkTasks", 10000);
+
+        mHelper = new TaskDatabaseHelper(InstrumentationRegistry.getTargetContext(), null, null);
+        mDb = mHelper.getWritableDatabase();
+
+        ContentValues values = new ContentValues(4);
+        values.put(TaskLists.ACCOUNT_NAME, "test");
+        values.put(TaskLists.ACCOUNT_TYPE, "org.dmfs.account.TEST");
+        values.put(TaskLists.LIST_NAME, "Test list");
+        values.put(TaskLists.LIST_COLOR, 0xff0000ff);
+        long listId = mDb.insert(Tables.LISTS, null, values);
+
+        Random random = new Random(42);
+        long now = System.currentTimeMillis();
+        mDb.beginTransaction();
+        try
+        {
+            for (int i = 0; i < mTaskCount; ++i)
+            {
+                values = new ContentValues(8);
+                values.put(Tasks.LIST_ID, listId);
+                values.put(Tasks.TITLE, Benchmark.text(random, 2 + random.nextInt(6)));
+                values.put(Tasks.DESCRIPTION, Benchmark.text(random, 10 + random.nextInt(20)));
+                values.put(Tasks.PRIORITY, random.nextInt(10));
+                if (i % 3 != 0)
+                {
+                    values.put(Tasks.TZ, "UTC");
+                    values.put(Tasks.DUE, now + random.nextInt(30 * 24 * 3600) * 1000L);
+                }
+                mDb.insert(Tables.TASKS, null, values);
+            }
+            mDb.setTransactionSuccessful();
+        }
+        finally
+        {
+            mDb.endTransaction();
+        }
+    }
+
+
+    @After
+    public void tearDown()
+    {
+        if (mHelper != null)
+        {
+            mHelper.close();
+        }
+    }
+
+
+    @Test
+    public void testUpdateLoop()
+    {
+        // warm up
+        lookupPerRow();
+        sharedBindings();
+
+        long perRow = Long.MAX_VALUE;
+        long shared = Long.MAX_VALUE;
+        for (int i = 0; i < ROUNDS; ++i)
+        {
+            long start = SystemClock.elapsedRealtime();
+            assertEquals(mTaskCount, lookupPerRow());
+            perRow = Math.min(perRow, SystemClock.elapsedRealtime() - start);
+
+            start = SystemClock.elapsedRealtime();
+            assertEquals(mTaskCount, sharedBindings());
+            shared = Math.min(shared, SystemClock.elapsedRealtime() - start);
+        }
+
+        Benchmark.report("reading %d fields of %d tasks, best of %d rounds: column lookup per row %d ms, shared cursor bindings %d ms", FIELDS.size(),
+                mTaskCount, ROUNDS, perRow, shared);
+    }
+
+
+    /**
+     * Reads the fields by looking up their columns in every row, like the adapters did before {@link CursorBindings}.
+     */
+    private int lookupPerRow()
+    {
+        Cursor cursor = mDb.query(Tables.TASKS_VIEW, null, null, null, null, null, null);
+        try
+        {
+            int count = 0;
+            while (cursor.moveToNext())
+            {
+                ContentValues values = new ContentValues();
+                for (FieldAdapter<?, TaskAdapter> field : FIELDS)
+                {
+                    field.getFrom(cursor, values);
+                }
+                ++count;
+            }
+            return count;
+        }
+        finally
+        {
+            cursor.close();
+        }
+    }
+
+
+    /**
+     * Reads the fields through {@link CursorContentValuesTaskAdapter}s that share the {@link CursorBindings} of the cursor, like {@link TaskProvider} does.
+     */
+    private int sharedBindings()
+    {
+        Cursor cursor = mDb.query(Tables.TASKS_VIEW, null, null, null, null, null, null);
+        CursorBindings bindings = new CursorBindings(cursor);
+        try
+        {
+            int count = 0;
+            while (cursor.moveToNext())
+            {
+                TaskAdapter task = new CursorContentValuesTaskAdapter(bindings, new ContentValues());
+                for (FieldAdapter<?, TaskAdapter> field : FIELDS)
+                {
+                    task.valueOf(field);
+                }
+                ++count;
+            }
+            return count;
+        }
+        finally
+        {
+            cursor.close();
+        }
+    }
+}
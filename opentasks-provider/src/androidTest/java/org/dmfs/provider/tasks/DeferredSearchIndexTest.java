@@ -0,0 +1,270 @@
+/*
+ * Copyright 2017 dmfs GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dmfs.provider.tasks;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.dmfs.provider.tasks.FTSDatabaseHelper.FTSContentColumns;
+import org.dmfs.provider.tasks.TaskDatabaseHelper.Tables;
+import org.dmfs.provider.tasks.search.SearchRanking;
+import org.dmfs.tasks.contract.TaskContract;
+import org.dmfs.tasks.contract.TaskContract.Instances;
+import org.dmfs.tasks.contract.TaskContract.TaskLists;
+import org.dmfs.tasks.contract.TaskContract.Tasks;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+/**
+ * Tests the queue of tasks that are indexed in the background.
+ *
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+@RunWith(AndroidJUnit4.class)
+public class DeferredSearchIndexTest
+{
+    private TaskDatabaseHelper mHelper;
+    private SQLiteDatabase mDb;
+    private long mListId;
+
+
+    @Before
+    public void setUp()
+    {
+        mHelper = new TaskDatabaseHelper(InstrumentationRegistry.getTargetContext(), null, null);
+        mDb = mHelper.getWritableDatabase();
+
+        ContentValues values = new ContentValues(4);
+        values.put(TaskLists.ACCOUNT_NAME, "test");
+        values.put(TaskLists.ACCOUNT_TYPE, "org.dmfs.account.TEST");
+        values.put(TaskLists.LIST_NAME, "Test list");
+        values.put(TaskLists.LIST_COLOR, 0xff0000ff);
+        mListId = mDb.insert(Tables.LISTS, null, values);
+    }
+
+
+    @After
+    public void tearDown()
+    {
+        mHelper.close();
+    }
+
+
+    @Test
+    public void testQueuedTasksAreNotIndexedUntilProcessed()
+    {
+        long task = insertDeferredTask("Buy groceries");
+
+        assertEquals(0, relationCount(task));
+        assertFalse(FTSDatabaseHelper.awaitPendingIndex(mDb, 50));
+
+        assertEquals(1, FTSDatabaseHelper.indexPendingTasks(mDb, 10));
+
+        assertTrue(relationCount(task) > 0);
+        assertTrue(FTSDatabaseHelper.awaitPendingIndex(mDb, 0));
+        assertEquals(0, FTSDatabaseHelper.indexPendingTasks(mDb, 10));
+    }
+
+
+    @Test
+    public void testQueueIsProcessedInBatches()
+    {
+        long task1 = insertDeferredTask("Buy groceries");
+        long task2 = insertDeferredTask("Buy milk");
+        long task3 = insertDeferredTask("Water the plants");
+
+        // the oldest entries are processed first
+        assertEquals(2, FTSDatabaseHelper.indexPendingTasks(mDb, 2));
+        assertTrue(relationCount(task1) > 0);
+        assertTrue(relationCount(task2) > 0);
+        assertEquals(0, relationCount(task3));
+        assertFalse(FTSDatabaseHelper.awaitPendingIndex(mDb, 0));
+
+        assertEquals(1, FTSDatabaseHelper.indexPendingTasks(mDb, 2));
+        assertTrue(relationCount(task3) > 0);
+        assertTrue(FTSDatabaseHelper.awaitPendingIndex(mDb, 0));
+    }
+
+
+    @Test
+    public void testRemovedTasksAreSkipped()
+    {
+        long task = insertDeferredTask("Buy groceries");
+        mDb.delete(Tables.TASKS, Tasks._ID + "=" + task, null);
+
+        assertEquals(1, FTSDatabaseHelper.indexPendingTasks(mDb, 10));
+        assertEquals(0, relationCount(task));
+        assertTrue(FTSDatabaseHelper.awaitPendingIndex(mDb, 0));
+    }
+
+
+    @Test
+    public void testWaitingThreadIsWokenUp() throws InterruptedException
+    {
+        final long task = insertDeferredTask("Buy groceries");
+
+        Thread indexer = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    Thread.sleep(100);
+                }
+                catch (InterruptedException e)
+                {
+                    return;
+                }
+                FTSDatabaseHelper.indexPendingTasks(mDb, 10);
+                FTSDatabaseHelper.notifyPendingIndexUpdated();
+            }
+        };
+        indexer.start();
+
+        // the watermark has been taken before the task was indexed, so this returns only after the indexer is done
+        assertTrue(FTSDatabaseHelper.awaitPendingIndex(mDb, 10000));
+        assertTrue(relationCount(task) > 0);
+        indexer.join();
+    }
+
+
+    @Test
+    public void testLargeBacklogIsNotAwaited()
+    {
+        insertDeferredTask("Buy groceries");
+        insertDeferredTask("Water the plants");
+        insertDeferredTask("Call mom");
+
+        long start = System.currentTimeMillis();
+        // nobody indexes the tasks, so this would wait for the entire timeout if it didn't give up right away
+        assertFalse(FTSDatabaseHelper.awaitPendingIndex(mDb, 60000, 2));
+        assertTrue(System.currentTimeMillis() - start < 30000);
+
+        assertEquals(3, FTSDatabaseHelper.indexPendingTasks(mDb, 10));
+        assertTrue(FTSDatabaseHelper.awaitPendingIndex(mDb, 0, 2));
+    }
+
+
+    @Test
+    public void testSearchFindsPendingTasks()
+    {
+        long pending = insertDeferredTask("Buy 100% organic groceries");
+        long other = insertDeferredTask("Water the plants");
+        insertInstance(pending);
+        insertInstance(other);
+
+        // neither task has been indexed yet
+        assertEquals(0, relationCount(pending));
+        assertEquals(pending, (long) searchResult("organic groceries"));
+        assertEquals(pending, (long) searchResult("100%"));
+        assertEquals(null, searchResult("100_"));
+    }
+
+
+    @Test
+    public void testSearchWaitsForDeferredIndex()
+    {
+        TestTaskList list = new TestTaskList(InstrumentationRegistry.getTargetContext());
+        try
+        {
+            ContentValues values = new ContentValues(2);
+            values.put(Tasks.LIST_ID, list.id());
+            values.put(Tasks.TITLE, "Deferred groceries");
+            long task = ContentUris.parseId(list.resolver().insert(
+                    Tasks.getContentUri(list.authority()).buildUpon().appendQueryParameter(TaskContract.DEFER_SEARCH_INDEXING, "true").build(), values));
+
+            // the search must find the task right away, even though it's indexed in the background
+            Cursor cursor = list.resolver().query(Tasks.getSearchUri(list.authority(), "deferred groceries"), new String[] { Tasks._ID },
+                    Tasks.LIST_ID + "=" + list.id(), null, null);
+            try
+            {
+                assertEquals(1, cursor.getCount());
+                cursor.moveToFirst();
+                assertEquals(task, cursor.getLong(0));
+            }
+            finally
+            {
+                cursor.close();
+            }
+        }
+        finally
+        {
+            list.delete();
+        }
+    }
+
+
+    private long insertDeferredTask(String title)
+    {
+        ContentValues values = new ContentValues(2);
+        values.put(Tasks.LIST_ID, mListId);
+        values.put(Tasks.TITLE, title);
+        long id = mDb.insert(Tables.TASKS, null, values);
+        FTSDatabaseHelper.deferTaskFTSEntries(mDb, id);
+        return id;
+    }
+
+
+    private void insertInstance(long task)
+    {
+        ContentValues values = new ContentValues(1);
+        values.put(Instances.TASK_ID, task);
+        mDb.insert(Tables.INSTANCES, null, values);
+    }
+
+
+    /**
+     * Returns the id of the only task that matches the given search or <code>null</code> if nothing matches.
+     */
+    private Long searchResult(String search)
+    {
+        Cursor cursor = FTSDatabaseHelper.getTaskSearchCursor(mDb, search, null, null, null, null, SearchRanking.DEFAULT);
+        try
+        {
+            if (cursor.getCount() == 0)
+            {
+                return null;
+            }
+            assertEquals(1, cursor.getCount());
+            cursor.moveToFirst();
+            return cursor.getLong(cursor.getColumnIndexOrThrow(Instances.TASK_ID));
+        }
+        finally
+        {
+            cursor.close();
+        }
+    }
+
+
+    private long relationCount(long task)
+    {
+        return DatabaseUtils.queryNumEntries(mDb, FTSDatabaseHelper.FTS_CONTENT_TABLE, FTSContentColumns.TASK_ID + "=" + task);
+    }
+}
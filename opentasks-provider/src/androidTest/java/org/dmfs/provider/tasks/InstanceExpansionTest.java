@@ -0,0 +1,179 @@
+/*
+ * Copyright 2017 dmfs GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dmfs.provider.tasks;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.dmfs.provider.tasks.processors.tasks.InstanceExpander;
+import org.dmfs.tasks.contract.TaskContract.Instances;
+import org.dmfs.tasks.contract.TaskContract.Tasks;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+/**
+ * Tests the expansion of recurring tasks into the instances table.
+ *
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+@RunWith(AndroidJUnit4.class)
+public class InstanceExpansionTest
+{
+    private final static long DAY = 24L * 3600L * 1000L;
+
+    private TestTaskList mList;
+
+
+    @Before
+    public void setUp()
+    {
+        mList = new TestTaskList(InstrumentationRegistry.getTargetContext());
+    }
+
+
+    @After
+    public void tearDown()
+    {
+        mList.delete();
+    }
+
+
+    @Test
+    public void testFiniteRule()
+    {
+        long start = InstanceExpander.windowStart() + 2 * DAY + DAY / 2;
+        long master = insertRecurringTask(start, "FREQ=DAILY;COUNT=5");
+
+        assertEquals(Arrays.asList(start, start + DAY, start + 2 * DAY, start + 3 * DAY, start + 4 * DAY), instances(master));
+    }
+
+
+    @Test
+    public void testInfiniteRuleIsExpandedIntoTheWindow()
+    {
+        long windowStart = InstanceExpander.windowStart();
+        long windowEnd = InstanceExpander.windowEnd();
+        // start two years before the window, at midnight, so one instance is right at the start of the window
+        long start = windowStart - 730 * DAY;
+        long master = insertRecurringTask(start, "FREQ=DAILY");
+
+        List<Long> instances = instances(master);
+
+        // the first instance is always present, followed by all instances in the window
+        assertEquals(1 + (windowEnd - windowStart) / DAY, instances.size());
+        assertEquals(start, (long) instances.get(0));
+        assertEquals(windowStart, (long) instances.get(1));
+        assertEquals(windowEnd - DAY, (long) instances.get(instances.size() - 1));
+    }
+
+
+    @Test
+    public void testExceptionOverridesInstance()
+    {
+        long start = InstanceExpander.windowStart() + 2 * DAY + DAY / 2;
+        long master = insertRecurringTask(start, "FREQ=DAILY;COUNT=5");
+
+        long exception = insertException(master, start + DAY);
+        assertEquals(Arrays.asList(start, start + 2 * DAY, start + 3 * DAY, start + 4 * DAY), instances(master));
+
+        // move the exception to another instance
+        ContentValues values = new ContentValues(1);
+        values.put(Tasks.ORIGINAL_INSTANCE_TIME, start + 3 * DAY);
+        mList.resolver().update(mList.syncAdapterUri(ContentUris.withAppendedId(Tasks.getContentUri(mList.authority()), exception)), values, null, null);
+        assertEquals(Arrays.asList(start, start + DAY, start + 2 * DAY, start + 4 * DAY), instances(master));
+
+        // remove the exception
+        mList.resolver().delete(mList.syncAdapterUri(ContentUris.withAppendedId(Tasks.getContentUri(mList.authority()), exception)), null, null);
+        assertEquals(Arrays.asList(start, start + DAY, start + 2 * DAY, start + 3 * DAY, start + 4 * DAY), instances(master));
+    }
+
+
+    @Test
+    public void testExceptionMarkedAsDeletedStillOverridesInstance()
+    {
+        long start = InstanceExpander.windowStart() + 2 * DAY + DAY / 2;
+        long master = insertRecurringTask(start, "FREQ=DAILY;COUNT=3");
+        long exception = insertException(master, start + DAY);
+
+        // an app only marks the exception as deleted, the sync adapter removes it later
+        mList.resolver().delete(ContentUris.withAppendedId(Tasks.getContentUri(mList.authority()), exception), null, null);
+        assertEquals(Arrays.asList(start, start + 2 * DAY), instances(master));
+
+        mList.resolver().delete(mList.syncAdapterUri(ContentUris.withAppendedId(Tasks.getContentUri(mList.authority()), exception)), null, null);
+        assertEquals(Arrays.asList(start, start + DAY, start + 2 * DAY), instances(master));
+    }
+
+
+    private long insertRecurringTask(long start, String rrule)
+    {
+        ContentValues values = new ContentValues(5);
+        values.put(Tasks.TITLE, "Recurring task");
+        values.put(Tasks.DTSTART, start);
+        values.put(Tasks.TZ, "UTC");
+        values.put(Tasks.RRULE, rrule);
+        return mList.syncInsertTask(values);
+    }
+
+
+    private long insertException(long master, long originalTime)
+    {
+        ContentValues values = new ContentValues(6);
+        values.put(Tasks.TITLE, "Exception");
+        values.put(Tasks.DTSTART, originalTime + 3600L * 1000L);
+        values.put(Tasks.TZ, "UTC");
+        values.put(Tasks.ORIGINAL_INSTANCE_ID, master);
+        values.put(Tasks.ORIGINAL_INSTANCE_TIME, originalTime);
+        return mList.syncInsertTask(values);
+    }
+
+
+    /**
+     * Returns the original times of all instances of the given task in ascending order.
+     */
+    private List<Long> instances(long taskId)
+    {
+        Cursor cursor = mList.resolver().query(Instances.getContentUri(mList.authority()), new String[] { Instances.INSTANCE_ORIGINAL_TIME },
+                Instances.TASK_ID + "=" + taskId, null, Instances.INSTANCE_ORIGINAL_TIME);
+        try
+        {
+            List<Long> result = new ArrayList<Long>(cursor.getCount());
+            while (cursor.moveToNext())
+            {
+                assertTrue(!cursor.isNull(0));
+                result.add(cursor.getLong(0));
+            }
+            return result;
+        }
+        finally
+        {
+            cursor.close();
+        }
+    }
+}
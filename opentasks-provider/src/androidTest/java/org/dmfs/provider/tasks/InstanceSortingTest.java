@@ -0,0 +1,262 @@
+/*
+ * Copyright 2017 dmfs GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dmfs.provider.tasks;
+
+import android.content.ContentProviderClient;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.dmfs.provider.tasks.TaskDatabaseHelper.Tables;
+import org.dmfs.provider.tasks.processors.tasks.InstanceExpander;
+import org.dmfs.provider.tasks.processors.tasks.InstanceSorting;
+import org.dmfs.provider.tasks.processors.tasks.TaskInstancesProcessor;
+import org.dmfs.rfc5545.DateTime;
+import org.dmfs.tasks.contract.TaskContract.Instances;
+import org.dmfs.tasks.contract.TaskContract.Tasks;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+
+/**
+ * Tests that {@link InstanceSorting} updates the sorting values of the instances to a new local time zone.
+ *
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+@RunWith(AndroidJUnit4.class)
+public class InstanceSortingTest
+{
+    private final static long HOUR = 3600L * 1000L;
+    private final static long DAY = 24L * HOUR;
+
+    private final static TimeZone OLD_TZ = TimeZone.getTimeZone("America/New_York");
+    private final static TimeZone NEW_TZ = TimeZone.getTimeZone("Asia/Tokyo");
+
+    private final static String SQL_SELECT_INSTANCES = "SELECT i." + Instances.TASK_ID + ", i." + Instances.INSTANCE_START + ", i." + Instances.INSTANCE_DUE
+            + ", i." + Instances.INSTANCE_START_SORTING + ", i." + Instances.INSTANCE_DUE_SORTING + " FROM " + Tables.INSTANCES + " AS i JOIN " + Tables.TASKS
+            + " AS t ON (t." + Tasks._ID + " = i." + Instances.TASK_ID + ") WHERE t." + Tasks.LIST_ID + " = ?";
+
+    private TimeZone mDefaultTz;
+    private TestTaskList mList;
+    private ContentProviderClient mClient;
+    private SQLiteDatabase mDb;
+
+
+    @Before
+    public void setUp()
+    {
+        mDefaultTz = TimeZone.getDefault();
+        TimeZone.setDefault(OLD_TZ);
+        mList = new TestTaskList(InstrumentationRegistry.getTargetContext());
+        // the provider runs in this process, so we can work on its database directly
+        mClient = mList.resolver().acquireContentProviderClient(mList.authority());
+        mDb = ((TaskProvider) mClient.getLocalContentProvider()).getDatabaseHelper().getWritableDatabase();
+    }
+
+
+    @After
+    public void tearDown()
+    {
+        mList.delete();
+        mClient.release();
+        TimeZone.setDefault(mDefaultTz);
+    }
+
+
+    /**
+     * Checks that the sorting values equal the ones of a full update of all tasks in the new time zone, which is what time zone changes used to do.
+     */
+    @Test
+    public void testSameResultAsFullUpdate()
+    {
+        long now = System.currentTimeMillis();
+        long start = InstanceExpander.windowStart() + 2 * DAY + DAY / 2;
+        insertTask(now, now + 2 * HOUR, null, "Europe/Berlin", 0);
+        insertTask(null, now + DAY, null, "UTC", 0);
+        insertTask(now + 3 * HOUR, null, null, null, 0);
+        insertTask(start, null, "FREQ=DAILY;COUNT=5", "Europe/Berlin", 0);
+        // all-day values are at midnight UTC
+        long day = (now / DAY + 7) * DAY;
+        long allDay = insertTask(day, day + DAY, null, null, 1);
+        insertTask(null, null, null, null, 0);
+        Map<String, Long[]> before = sortingValues();
+
+        assertTrue(updateSorting(NEW_TZ) > 0);
+        Map<String, Long[]> updated = sortingValues();
+
+        // recompute everything the expensive way
+        TimeZone.setDefault(NEW_TZ);
+        ContentValues values = new ContentValues(1);
+        TaskInstancesProcessor.addUpdateRequest(values);
+        mList.resolver().update(mList.syncAdapterUri(Tasks.getContentUri(mList.authority())), values, Tasks.LIST_ID + "=" + mList.id(), null);
+        Map<String, Long[]> expected = sortingValues();
+
+        assertEquals(expected.keySet(), updated.keySet());
+        for (Map.Entry<String, Long[]> entry : expected.entrySet())
+        {
+            assertEquals(entry.getKey() + " start", entry.getValue()[0], updated.get(entry.getKey())[0]);
+            assertEquals(entry.getKey() + " due", entry.getValue()[1], updated.get(entry.getKey())[1]);
+
+            if (entry.getKey().startsWith(allDay + "/"))
+            {
+                // all-day instances don't depend on the local time zone
+                assertEquals(before.get(entry.getKey())[0], entry.getValue()[0]);
+                assertEquals(before.get(entry.getKey())[1], entry.getValue()[1]);
+            }
+            else if (entry.getValue()[0] != null || entry.getValue()[1] != null)
+            {
+                // the offsets of both zones always differ, so every timed value has changed
+                assertFalse(entry.getKey(), equal(before.get(entry.getKey()), entry.getValue()));
+            }
+        }
+    }
+
+
+    @Test
+    public void testUpdatesOnlyChangedInstances()
+    {
+        long now = System.currentTimeMillis();
+        insertTask(now, now + HOUR, null, "Europe/Berlin", 0);
+        insertTask(now, null, null, "UTC", 0);
+
+        // nothing changes if the time zone is still the same
+        assertEquals(0, updateSorting(OLD_TZ));
+
+        assertEquals(2, updateSorting(NEW_TZ));
+        assertEquals(0, updateSorting(NEW_TZ));
+    }
+
+
+    @Test
+    public void testUpdatesManyInstances()
+    {
+        // more than fit into a single update statement
+        int count = 480;
+        long now = System.currentTimeMillis();
+        ContentValues[] tasks = new ContentValues[count];
+        for (int i = 0; i < count; ++i)
+        {
+            tasks[i] = taskValues(now + i * HOUR, i % 3 == 0 ? null : now + (i + 1) * HOUR, null, i % 2 == 0 ? "Europe/Berlin" : "UTC", 0);
+            tasks[i].put(Tasks.LIST_ID, mList.id());
+        }
+        assertEquals(count, mList.resolver().bulkInsert(mList.syncAdapterUri(Tasks.getContentUri(mList.authority())), tasks));
+
+        assertEquals(count, updateSorting(NEW_TZ));
+
+        Map<String, Long[]> updated = sortingValues();
+        assertEquals(count, updated.size());
+        for (Map.Entry<String, Long[]> entry : updated.entrySet())
+        {
+            String[] key = entry.getKey().split("/");
+            assertEquals(new DateTime(NEW_TZ, Long.parseLong(key[1])).getInstance(), (long) entry.getValue()[0]);
+            if ("null".equals(key[2]))
+            {
+                assertNull(entry.getValue()[1]);
+            }
+            else
+            {
+                assertEquals(new DateTime(NEW_TZ, Long.parseLong(key[2])).getInstance(), (long) entry.getValue()[1]);
+            }
+        }
+    }
+
+
+    private int updateSorting(TimeZone timeZone)
+    {
+        mDb.beginTransaction();
+        try
+        {
+            int count = InstanceSorting.update(mDb, timeZone);
+            mDb.setTransactionSuccessful();
+            return count;
+        }
+        finally
+        {
+            mDb.endTransaction();
+        }
+    }
+
+
+    private long insertTask(Long start, Long due, String rrule, String timeZone, int allDay)
+    {
+        return mList.syncInsertTask(taskValues(start, due, rrule, timeZone, allDay));
+    }
+
+
+    private ContentValues taskValues(Long start, Long due, String rrule, String timeZone, int allDay)
+    {
+        ContentValues values = new ContentValues(6);
+        values.put(Tasks.TITLE, "Task");
+        values.put(Tasks.DTSTART, start);
+        values.put(Tasks.DUE, due);
+        values.put(Tasks.TZ, timeZone);
+        values.put(Tasks.IS_ALLDAY, allDay);
+        if (rrule != null)
+        {
+            values.put(Tasks.RRULE, rrule);
+        }
+        return values;
+    }
+
+
+    /**
+     * Returns the start and due sorting values of all instances in the test list, keyed by task id, instance start and instance due.
+     */
+    private Map<String, Long[]> sortingValues()
+    {
+        Cursor cursor = mDb.rawQuery(SQL_SELECT_INSTANCES, new String[] { String.valueOf(mList.id()) });
+        try
+        {
+            Map<String, Long[]> result = new HashMap<String, Long[]>(cursor.getCount() * 2);
+            while (cursor.moveToNext())
+            {
+                String key = cursor.getLong(0) + "/" + value(cursor, 1) + "/" + value(cursor, 2);
+                result.put(key, new Long[] { value(cursor, 3), value(cursor, 4) });
+            }
+            return result;
+        }
+        finally
+        {
+            cursor.close();
+        }
+    }
+
+
+    private static Long value(Cursor cursor, int column)
+    {
+        return cursor.isNull(column) ? null : cursor.getLong(column);
+    }
+
+
+    private static boolean equal(Long[] a, Long[] b)
+    {
+        return (a[0] == null ? b[0] == null : a[0].equals(b[0])) && (a[1] == null ? b[1] == null : a[1].equals(b[1]));
+    }
+}
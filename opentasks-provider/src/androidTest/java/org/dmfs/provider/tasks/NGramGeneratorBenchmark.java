@@ -0,0 +1,231 @@
+/*
+ * Copyright 2017 dmfs GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dmfs.provider.tasks;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import org.dmfs.ngrams.LongHashSet;
+import org.dmfs.ngrams.NGramGenerator;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+
+/**
+ * Compares the throughput of {@link NGramGenerator} with the former String based implementation on a corpus of task texts.
+ * <p>
+ * The best of 20 rounds is reported by default, set the instrumentation argument <code>benchmarkRounds</code> to change that. See {@link Benchmark} for
+ * how to run it.
+ *
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+@RunWith(AndroidJUnit4.class)
+public class NGramGeneratorBenchmark
+{
+    private final static String[] WORDS = {
+            "buy", "groceries", "milk", "call", "Mom", "about", "the", "weekend", "Meeting", "with", "project", "team", "prepare", "slides", "for",
+            "Pr\u00e4sentation", "\u00fcber", "Stra\u00dfenbau", "\u00c4hnlichkeit", "review", "pull", "request", "#42", "fix", "bug", "in", "sync",
+            "adapter", "2017-05-12", "pay", "rent", "water", "the", "plants", "a", "of", "\u0130stanbul", "trip", "book", "hotel", "and", "flights",
+            "renew", "passport" };
+
+    private final static int TEXTS = 2000;
+
+    private int mRounds;
+
+
+    @Before
+    public void setUp()
+    {
+        Benchmark.assumeEnabled();
+        mRounds = Benchmark.intArgument("benchmarkRounds", 20);
+    }
+
+
+    @Test
+    public void testThroughput()
+    {
+        String[] corpus = corpus(new Random(42));
+
+        NGramGenerator trigrams = new NGramGenerator(3, 1).setAddSpaceInFront(true);
+        NGramGenerator tetragrams = new NGramGenerator(4, 3).setAddSpaceInFront(true);
+        LegacyNGramGenerator legacyTrigrams = new LegacyNGramGenerator(3, 1);
+        LegacyNGramGenerator legacyTetragrams = new LegacyNGramGenerator(4, 3);
+
+        // warm up the JIT
+        long sink = 0;
+        for (int i = 0; i < mRounds; ++i)
+        {
+            sink += runLegacy(corpus, legacyTrigrams, legacyTetragrams);
+            sink += runStrings(corpus, trigrams, tetragrams);
+            sink += runPacked(corpus, trigrams, tetragrams);
+        }
+
+        long legacy = Long.MAX_VALUE;
+        long strings = Long.MAX_VALUE;
+        long packed = Long.MAX_VALUE;
+        for (int i = 0; i < mRounds; ++i)
+        {
+            long start = System.nanoTime();
+            sink += runLegacy(corpus, legacyTrigrams, legacyTetragrams);
+            legacy = Math.min(legacy, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            sink += runStrings(corpus, trigrams, tetragrams);
+            strings = Math.min(strings, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            sink += runPacked(corpus, trigrams, tetragrams);
+            packed = Math.min(packed, System.nanoTime() - start);
+        }
+
+        Benchmark.report("n-grams of %d texts, best of %d rounds: legacy %.2f ms, Set<String> %.2f ms, packed %.2f ms (%d)", TEXTS, mRounds, legacy / 1e6,
+                strings / 1e6, packed / 1e6, sink);
+    }
+
+
+    private static long runLegacy(String[] corpus, LegacyNGramGenerator trigrams, LegacyNGramGenerator tetragrams)
+    {
+        long count = 0;
+        for (String text : corpus)
+        {
+            Set<String> ngrams = trigrams.getNgrams(text);
+            tetragrams.getNgrams(ngrams, text);
+            count += ngrams.size();
+        }
+        return count;
+    }
+
+
+    private static long runStrings(String[] corpus, NGramGenerator trigrams, NGramGenerator tetragrams)
+    {
+        long count = 0;
+        for (String text : corpus)
+        {
+            Set<String> ngrams = trigrams.getNgrams(text);
+            tetragrams.getNgrams(ngrams, text);
+            count += ngrams.size();
+        }
+        return count;
+    }
+
+
+    private static long runPacked(String[] corpus, NGramGenerator trigrams, NGramGenerator tetragrams)
+    {
+        // this is how FTSDatabaseHelper collects the n-grams of a text
+        long count = 0;
+        LongHashSet ngrams = new LongHashSet(128);
+        for (String text : corpus)
+        {
+            ngrams.clear();
+            trigrams.getNgrams(text, ngrams);
+            tetragrams.getNgrams(text, ngrams);
+            count += ngrams.size();
+        }
+        return count;
+    }
+
+
+    private static String[] corpus(Random random)
+    {
+        String[] result = new String[TEXTS];
+        for (int i = 0; i < TEXTS; ++i)
+        {
+            // mostly short titles with the occasional longer description
+            int words = i % 10 == 0 ? 40 + random.nextInt(60) : 2 + random.nextInt(8);
+            StringBuilder text = new StringBuilder(words * 8);
+            for (int j = 0; j < words; ++j)
+            {
+                if (j > 0)
+                {
+                    text.append(random.nextInt(8) == 0 ? ", " : " ");
+                }
+                text.append(WORDS[random.nextInt(WORDS.length)]);
+            }
+            result[i] = text.toString();
+        }
+        return result;
+    }
+
+
+    /**
+     * The String based n-gram generator that {@link NGramGenerator} replaced, kept as a baseline.
+     */
+    private final static class LegacyNGramGenerator
+    {
+        private final static Pattern SEPARATOR_PATTERN = Pattern.compile("[^\\p{L}\\p{M}\\d]+");
+
+        private final int mN;
+        private final int mMinWordLen;
+        private final char[] mTempArray;
+
+
+        LegacyNGramGenerator(int n, int minWordLen)
+        {
+            mN = n;
+            mMinWordLen = minWordLen;
+            mTempArray = new char[n];
+            mTempArray[0] = ' ';
+        }
+
+
+        Set<String> getNgrams(String data)
+        {
+            return getNgrams(new HashSet<String>(128), data);
+        }
+
+
+        Set<String> getNgrams(Set<String> set, String data)
+        {
+            for (String word : SEPARATOR_PATTERN.split(data.toLowerCase(Locale.ENGLISH)))
+            {
+                getWordNgrams(word, set);
+            }
+            return set;
+        }
+
+
+        private void getWordNgrams(String word, Set<String> ngrams)
+        {
+            final int len = word.length();
+            if (len < mMinWordLen)
+            {
+                return;
+            }
+
+            final int n = mN;
+            final int last = Math.max(1, len - n + 1);
+            for (int i = 0; i < last; ++i)
+            {
+                ngrams.add(word.substring(i, Math.min(i + n, len)));
+            }
+
+            char[] tempArray = mTempArray;
+            int count = Math.min(len, n - 1);
+            for (int i = 0; i < count; ++i)
+            {
+                tempArray[i + 1] = word.charAt(i);
+            }
+            ngrams.add(new String(tempArray));
+        }
+    }
+}
@@ -0,0 +1,260 @@
+/*
+ * Copyright 2017 dmfs GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dmfs.provider.tasks;
+
+import android.content.ContentProviderClient;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.dmfs.provider.tasks.TaskDatabaseHelper.Tables;
+import org.dmfs.tasks.contract.PackedProperties;
+import org.dmfs.tasks.contract.TaskContract;
+import org.dmfs.tasks.contract.TaskContract.Properties;
+import org.dmfs.tasks.contract.TaskContract.Tasks;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+
+/**
+ * Tests that the {@link TaskContract.TaskColumns#PACKED_PROPERTIES} column built by {@link PackedPropertiesColumn} is decoded by {@link PackedProperties} to
+ * the values in the properties table.
+ *
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+@RunWith(AndroidJUnit4.class)
+public class PackedPropertiesTest
+{
+    private final static String MIMETYPE = "vnd.android.cursor.item/org.dmfs.test.packed";
+
+    private TestTaskList mList;
+    private ContentProviderClient mClient;
+    private SQLiteDatabase mDb;
+
+
+    @Before
+    public void setUp()
+    {
+        mList = new TestTaskList(InstrumentationRegistry.getTargetContext());
+        // the provider runs in this process, so we can look at its database directly
+        mClient = mList.resolver().acquireContentProviderClient(mList.authority());
+        mDb = ((TaskProvider) mClient.getLocalContentProvider()).getDatabaseHelper().getReadableDatabase();
+    }
+
+
+    @After
+    public void tearDown()
+    {
+        mList.delete();
+        mClient.release();
+    }
+
+
+    @Test
+    public void testTaskWithoutProperties()
+    {
+        long task = insertTask();
+
+        assertNull(packedProperties(task));
+        assertTrue(PackedProperties.decode(packedProperties(task)).isEmpty());
+    }
+
+
+    @Test
+    public void testPlainValues()
+    {
+        long task = insertTask();
+        long property = insertProperty(task, "plain", "with spaces", "12345", "\u00e4\u00f6\u00fc");
+
+        List<ContentValues> decoded = PackedProperties.decode(packedProperties(task));
+
+        assertEquals(1, decoded.size());
+        assertStored(property, decoded.get(0));
+    }
+
+
+    @Test
+    public void testSeparatorsAndEscapes()
+    {
+        long task = insertTask();
+        long property = insertProperty(task, "a,b", "a;b", ",;,", "back\\slash", "\\", "\\\\,", "ends with\\", "\\N", "N", "a\\;b\\,c", ";", ",",
+                "\\;");
+
+        List<ContentValues> decoded = PackedProperties.decode(packedProperties(task));
+
+        assertEquals(1, decoded.size());
+        assertStored(property, decoded.get(0));
+    }
+
+
+    @Test
+    public void testNullAndEmptyValues()
+    {
+        long task = insertTask();
+        // only data1 and data3 are set, all other data columns are null
+        ContentValues values = new ContentValues(4);
+        values.put(Properties.MIMETYPE, MIMETYPE);
+        values.put(Properties.TASK_ID, task);
+        values.put(Properties.DATA1, "");
+        values.put(Properties.DATA3, "\\N");
+        long property = ContentUris.parseId(mList.resolver().insert(Properties.getContentUri(mList.authority()), values));
+
+        List<ContentValues> decoded = PackedProperties.decode(packedProperties(task));
+
+        assertEquals(1, decoded.size());
+        ContentValues record = decoded.get(0);
+        assertStored(property, record);
+        assertTrue(record.containsKey(Properties.DATA0));
+        assertNull(record.get(Properties.DATA0));
+        // an empty String is not the same as null
+        assertEquals("", record.getAsString(Properties.DATA1));
+        // neither is the encoding of null, if it's a regular value
+        assertEquals("\\N", record.getAsString(Properties.DATA3));
+    }
+
+
+    @Test
+    public void testMultipleProperties()
+    {
+        long task = insertTask();
+        long property1 = insertProperty(task, "first;", null, ",");
+        long property2 = insertProperty(task, null, "\\second", ";");
+        long property3 = insertProperty(task);
+        // properties of other tasks are not included
+        insertProperty(insertTask(), "other");
+
+        List<ContentValues> decoded = PackedProperties.decode(packedProperties(task));
+
+        assertEquals(3, decoded.size());
+        for (ContentValues record : decoded)
+        {
+            long id = record.getAsLong(Properties.PROPERTY_ID);
+            assertTrue(id == property1 || id == property2 || id == property3);
+            assertStored(id, record);
+        }
+    }
+
+
+    @Test
+    public void testDecodeRejectsInvalidValues()
+    {
+        StringBuilder record = new StringBuilder(64);
+        for (int i = 1; i < PackedProperties.COLUMNS.length; ++i)
+        {
+            record.append(PackedProperties.FIELD_SEPARATOR);
+        }
+
+        assertEquals(1, PackedProperties.decode(record.toString()).size());
+        assertEquals(2, PackedProperties.decode(record.toString() + PackedProperties.RECORD_SEPARATOR + record.toString()).size());
+
+        assertDecodeFails(record.substring(1));
+        assertDecodeFails(record.toString() + PackedProperties.FIELD_SEPARATOR);
+        assertDecodeFails(record.toString() + PackedProperties.ESCAPE);
+        assertDecodeFails(PackedProperties.NULL + "x" + record.toString());
+    }
+
+
+    private void assertDecodeFails(String packed)
+    {
+        try
+        {
+            PackedProperties.decode(packed);
+            fail("decoded invalid value " + packed);
+        }
+        catch (IllegalArgumentException e)
+        {
+            // expected
+        }
+    }
+
+
+    /**
+     * Asserts that the given decoded record equals the row of the given property in the properties table.
+     */
+    private void assertStored(long propertyId, ContentValues record)
+    {
+        assertEquals(PackedProperties.COLUMNS.length, record.size());
+        Cursor cursor = mDb.query(Tables.PROPERTIES, PackedProperties.COLUMNS, Properties.PROPERTY_ID + "=" + propertyId, null, null, null, null);
+        try
+        {
+            assertTrue(cursor.moveToFirst());
+            for (int i = 0; i < PackedProperties.COLUMNS.length; ++i)
+            {
+                String column = PackedProperties.COLUMNS[i];
+                assertTrue(column, record.containsKey(column));
+                assertEquals(column, cursor.isNull(i) ? null : cursor.getString(i), record.getAsString(column));
+            }
+        }
+        finally
+        {
+            cursor.close();
+        }
+    }
+
+
+    private long insertTask()
+    {
+        ContentValues values = new ContentValues(2);
+        values.put(Tasks.TITLE, "Packed");
+        return mList.insertTask(values);
+    }
+
+
+    /**
+     * Inserts a property with the given values in the data columns, starting at {@link Properties#DATA0}.
+     */
+    private long insertProperty(long task, String... data)
+    {
+        ContentValues values = new ContentValues(data.length + 2);
+        values.put(Properties.MIMETYPE, MIMETYPE);
+        values.put(Properties.TASK_ID, task);
+        for (int i = 0; i < data.length; ++i)
+        {
+            values.put("data" + i, data[i]);
+        }
+        return ContentUris.parseId(mList.resolver().insert(Properties.getContentUri(mList.authority()), values));
+    }
+
+
+    private String packedProperties(long task)
+    {
+        Cursor cursor = mList.resolver().query(
+                ContentUris.withAppendedId(Tasks.getContentUri(mList.authority()), task).buildUpon().appendQueryParameter(TaskContract.PACK_PROPERTIES, "true")
+                        .build(), new String[] { Tasks.PACKED_PROPERTIES }, null, null, null);
+        try
+        {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getString(0);
+        }
+        finally
+        {
+            cursor.close();
+        }
+    }
+}
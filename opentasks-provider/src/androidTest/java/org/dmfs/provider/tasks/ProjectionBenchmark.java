@@ -0,0 +1,165 @@
+/*
+ * Copyright 2017 dmfs GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dmfs.provider.tasks;
+
+import android.content.ContentProviderOperation;
+import android.content.OperationApplicationException;
+import android.database.Cursor;
+import android.os.RemoteException;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.dmfs.tasks.contract.TaskContract.Instances;
+import org.dmfs.tasks.contract.TaskContract.Tasks;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+
+/**
+ * Compares the instance query of the task list widget with and without a projection.
+ * <p>
+ * Without a projection the provider has to read the full instance view, with the widget's projection it can join just the tables the query needs. The list
+ * contains 5000 tasks by default, set the instrumentation argument <code>benchmarkTasks</code> to change that. See {@link Benchmark} for how to run it.
+ *
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+@RunWith(AndroidJUnit4.class)
+public class ProjectionBenchmark
+{
+    private final static int ROUNDS = 10;
+
+    /**
+     * The columns the task list widget reads.
+     */
+    private final static String[] WIDGET_PROJECTION = new String[] {
+            Instances.TASK_ID, Tasks.TITLE, Tasks.DUE, Tasks.TZ, Tasks.IS_ALLDAY, Tasks.LIST_COLOR, Tasks.IS_CLOSED };
+
+    private TestTaskList mList;
+    private int mTaskCount;
+
+
+    @Before
+    public void setUp() throws RemoteException, OperationApplicationException
+    {
+        Benchmark.assumeEnabled();
+        mTaskCount = Benchmark.intArgument("benchmarkTasks", 5000);
+        mList = new TestTaskList(InstrumentationRegistry.getTargetContext());
+
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>(mTaskCount);
+        Random random = new Random(42);
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < mTaskCount; ++i)
+        {
+            ContentProviderOperation.Builder builder = ContentProviderOperation.newInsert(mList.syncAdapterUri(Tasks.getContentUri(mList.authority())))
+                    .withValue(Tasks.LIST_ID, mList.id())
+                    .withValue(Tasks.TITLE, Benchmark.text(random, 2 + random.nextInt(6)))
+                    .withValue(Tasks.DESCRIPTION, Benchmark.text(random, 10 + random.nextInt(20)))
+                    .withValue(Tasks.PRIORITY, random.nextInt(10))
+                    .withYieldAllowed(i % 100 == 0);
+            if (i % 3 != 0)
+            {
+                builder.withValue(Tasks.TZ, "UTC").withValue(Tasks.DUE, now + random.nextInt(30 * 24 * 3600) * 1000L);
+            }
+            operations.add(builder.build());
+        }
+        mList.resolver().applyBatch(mList.authority(), operations);
+    }
+
+
+    @After
+    public void tearDown()
+    {
+        if (mList != null)
+        {
+            mList.delete();
+        }
+    }
+
+
+    @Test
+    public void testWidgetQuery()
+    {
+        // warm up the caches of the database
+        query(null);
+        query(WIDGET_PROJECTION);
+
+        long full = Long.MAX_VALUE;
+        long projected = Long.MAX_VALUE;
+        for (int i = 0; i < ROUNDS; ++i)
+        {
+            long start = SystemClock.elapsedRealtime();
+            assertEquals(mTaskCount, query(null));
+            full = Math.min(full, SystemClock.elapsedRealtime() - start);
+
+            start = SystemClock.elapsedRealtime();
+            assertEquals(mTaskCount, query(WIDGET_PROJECTION));
+            projected = Math.min(projected, SystemClock.elapsedRealtime() - start);
+        }
+
+        Benchmark.report("widget query of %d instances, best of %d rounds: without projection %d ms (%.0f rows/s), with projection %d ms (%.0f rows/s)",
+                mTaskCount, ROUNDS, full, rowsPerSecond(full), projected, rowsPerSecond(projected));
+    }
+
+
+    /**
+     * Runs the query of the task list widget and reads all rows.
+     *
+     * @param projection
+     *         The projection of the query, may be <code>null</code>.
+     *
+     * @return The number of rows.
+     */
+    private int query(String[] projection)
+    {
+        Cursor cursor = mList.resolver().query(Instances.getContentUri(mList.authority()), projection,
+                Instances.VISIBLE + ">0 and " + Instances.IS_CLOSED + "=0 and " + Instances.LIST_ID + "=" + mList.id(), null,
+                Instances.INSTANCE_DUE + " is null, " + Instances.DEFAULT_SORT_ORDER + ", " + Instances.PRIORITY + " is null, " + Instances.PRIORITY + ", "
+                        + Instances.INSTANCE_START + " is null, " + Instances.INSTANCE_START_SORTING + ", " + Instances.CREATED + " DESC");
+        try
+        {
+            int titleColumn = cursor.getColumnIndexOrThrow(Tasks.TITLE);
+            int dueColumn = cursor.getColumnIndexOrThrow(Tasks.DUE);
+            int count = 0;
+            while (cursor.moveToNext())
+            {
+                // read the values like the widget does
+                cursor.getString(titleColumn);
+                cursor.getLong(dueColumn);
+                ++count;
+            }
+            return count;
+        }
+        finally
+        {
+            cursor.close();
+        }
+    }
+
+
+    private float rowsPerSecond(long millis)
+    {
+        return mTaskCount * 1000f / Math.max(1, millis);
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright 2017 dmfs GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dmfs.provider.tasks;
+
+import android.content.ContentUris;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.Bundle;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.dmfs.provider.tasks.TaskDatabaseHelper.Tables;
+import org.dmfs.tasks.contract.TaskContract;
+import org.dmfs.tasks.contract.TaskContract.Changes;
+import org.dmfs.tasks.contract.TaskContract.Tasks;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+/**
+ * Tests how {@link ProviderOperationsLog} deals with rolled back transactions.
+ *
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+@RunWith(AndroidJUnit4.class)
+public class ProviderOperationsLogTest
+{
+    private final static Uri TASKS_URI = Tasks.getContentUri("org.dmfs.tasks.test");
+
+    private TaskDatabaseHelper mHelper;
+    private SQLiteDatabase mDb;
+    private ProviderOperationsLog mLog;
+
+
+    @Before
+    public void setUp()
+    {
+        mHelper = new TaskDatabaseHelper(InstrumentationRegistry.getTargetContext(), null, null);
+        mDb = mHelper.getWritableDatabase();
+        mLog = new ProviderOperationsLog(new ChangeJournal());
+    }
+
+
+    @After
+    public void tearDown()
+    {
+        mHelper.close();
+    }
+
+
+    @Test
+    public void testRollbackFollowedByCommit()
+    {
+        mDb.beginTransaction();
+        try
+        {
+            log(1);
+            mLog.markCommitted();
+            mDb.setTransactionSuccessful();
+        }
+        finally
+        {
+            mDb.endTransaction();
+        }
+
+        mDb.beginTransaction();
+        try
+        {
+            log(2);
+            log(10);
+            // no setTransactionSuccessful, so this transaction is rolled back
+        }
+        finally
+        {
+            mDb.endTransaction();
+        }
+        mLog.reset();
+
+        mDb.beginTransaction();
+        try
+        {
+            log(11);
+            mLog.markCommitted();
+            mDb.setTransactionSuccessful();
+        }
+        finally
+        {
+            mDb.endTransaction();
+        }
+
+        // neither the broadcast nor the journal contain the rolled back operations
+        Bundle bundle = mLog.toBundle(true);
+        assertEquals(Arrays.asList(uri(1), uri(11)), bundle.getParcelableArrayList(TaskContract.EXTRA_OPERATIONS_URIS));
+        assertArrayEquals(new long[] { 1, 11 }, bundle.getLongArray(TaskContract.EXTRA_CHANGE_FIRST_IDS));
+        assertArrayEquals(new long[] { 1, 11 }, bundle.getLongArray(TaskContract.EXTRA_CHANGE_LAST_IDS));
+        assertEquals(Arrays.asList(1L, 1L, 11L, 11L), journal(bundle.getLong(TaskContract.EXTRA_CHANGE_SEQUENCE)));
+    }
+
+
+    @Test
+    public void testRollbackOfEverything()
+    {
+        mDb.beginTransaction();
+        try
+        {
+            log(1);
+            log(2);
+        }
+        finally
+        {
+            mDb.endTransaction();
+        }
+        mLog.reset();
+        assertTrue(mLog.isEmpty());
+
+        mDb.beginTransaction();
+        try
+        {
+            log(3);
+            mLog.markCommitted();
+            mDb.setTransactionSuccessful();
+        }
+        finally
+        {
+            mDb.endTransaction();
+        }
+
+        Bundle bundle = mLog.toBundle(true);
+        assertEquals(Arrays.asList(uri(3)), bundle.getParcelableArrayList(TaskContract.EXTRA_OPERATIONS_URIS));
+        // the transaction got its own sequence number, all of its rows are in the journal
+        assertEquals(Arrays.asList(3L, 3L), journal(bundle.getLong(TaskContract.EXTRA_CHANGE_SEQUENCE)));
+    }
+
+
+    private void log(long id)
+    {
+        mLog.log(mDb, ProviderOperation.INSERT, uri(id));
+    }
+
+
+    private Uri uri(long id)
+    {
+        return ContentUris.withAppendedId(TASKS_URI, id);
+    }
+
+
+    /**
+     * Returns the first and last ids of all journal rows of the given sequence, in the order they have been inserted.
+     */
+    private List<Long> journal(long sequence)
+    {
+        Cursor cursor = mDb.query(Tables.CHANGES, new String[] { Changes.FIRST_ID, Changes.LAST_ID }, Changes.SEQUENCE + "=" + sequence + " AND "
+                + Changes.ENTITY + " NOT NULL", null, null, null, "_rowid_");
+        try
+        {
+            List<Long> result = new ArrayList<Long>(cursor.getCount() * 2);
+            while (cursor.moveToNext())
+            {
+                result.add(cursor.getLong(0));
+                result.add(cursor.getLong(1));
+            }
+            return result;
+        }
+        finally
+        {
+            cursor.close();
+        }
+    }
+}
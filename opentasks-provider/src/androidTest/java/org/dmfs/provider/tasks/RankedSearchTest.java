@@ -0,0 +1,160 @@
+/*
+ * Copyright 2017 dmfs GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dmfs.provider.tasks;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.dmfs.tasks.contract.TaskContract.Properties;
+import org.dmfs.tasks.contract.TaskContract.Property.Category;
+import org.dmfs.tasks.contract.TaskContract.Tasks;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+/**
+ * Tests the scores of ranked searches.
+ *
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+@RunWith(AndroidJUnit4.class)
+public class RankedSearchTest
+{
+    private TestTaskList mList;
+
+
+    @Before
+    public void setUp()
+    {
+        mList = new TestTaskList(InstrumentationRegistry.getTargetContext());
+    }
+
+
+    @After
+    public void tearDown()
+    {
+        mList.delete();
+    }
+
+
+    @Test
+    public void testTitleMatchOutranksPropertyMatches()
+    {
+        long titleTask = insertTask("Groceries");
+
+        // the same text in several properties must not add up to more than a single match in the title
+        long propertyTask = insertTask("Something else");
+        insertCategory(propertyTask, "Groceries");
+        insertCategory(propertyTask, "groceries list");
+        insertCategory(propertyTask, "Weekly groceries");
+
+        Cursor cursor = mList.resolver().query(Tasks.getRankedSearchUri(mList.authority(), "groceries", 0f, 0),
+                new String[] { Tasks._ID, Tasks.SCORE }, Tasks.LIST_ID + "=" + mList.id(), null, null);
+        try
+        {
+            assertEquals(2, cursor.getCount());
+
+            cursor.moveToFirst();
+            assertEquals(titleTask, cursor.getLong(0));
+            float titleScore = cursor.getFloat(1);
+
+            cursor.moveToNext();
+            assertEquals(propertyTask, cursor.getLong(0));
+            float propertyScore = cursor.getFloat(1);
+
+            assertEquals(1f, titleScore, 0.001f);
+            assertTrue("property matches scored " + propertyScore, propertyScore < titleScore);
+        }
+        finally
+        {
+            cursor.close();
+        }
+    }
+
+
+    @Test
+    public void testRepeatedMatchesDontMakeUpForMissingTerms()
+    {
+        ContentValues values = new ContentValues(4);
+        values.put(Tasks.TITLE, "Groceries");
+        values.put(Tasks.LOCATION, "Groceries store");
+        values.put(Tasks.DESCRIPTION, "groceries for the week");
+        long task = mList.insertTask(values);
+
+        // "milk" doesn't match at all, so this must not be a perfect match, no matter how often "groceries" matches
+        Cursor cursor = mList.resolver().query(Tasks.getSearchUri(mList.authority(), "groceries milk"), new String[] { Tasks._ID, Tasks.SCORE },
+                Tasks.LIST_ID + "=" + mList.id(), null, null);
+        try
+        {
+            assertEquals(1, cursor.getCount());
+            cursor.moveToFirst();
+            assertEquals(task, cursor.getLong(0));
+            assertTrue("score was " + cursor.getFloat(1), cursor.getFloat(1) < 0.9f);
+        }
+        finally
+        {
+            cursor.close();
+        }
+    }
+
+
+    @Test
+    public void testAllWordsOfAPropertyAreSearchable()
+    {
+        long task = insertTask("Something else");
+        insertCategory(task, "Weekly groceries");
+
+        // the second word of the category must be found just like the first one
+        Cursor cursor = mList.resolver().query(Tasks.getSearchUri(mList.authority(), "groceries"), new String[] { Tasks._ID, Tasks.SCORE },
+                Tasks.LIST_ID + "=" + mList.id(), null, null);
+        try
+        {
+            assertEquals(1, cursor.getCount());
+            cursor.moveToFirst();
+            assertEquals(task, cursor.getLong(0));
+        }
+        finally
+        {
+            cursor.close();
+        }
+    }
+
+
+    private long insertTask(String title)
+    {
+        ContentValues values = new ContentValues(2);
+        values.put(Tasks.TITLE, title);
+        return mList.insertTask(values);
+    }
+
+
+    private void insertCategory(long taskId, String name)
+    {
+        ContentValues values = new ContentValues(3);
+        values.put(Properties.MIMETYPE, Category.CONTENT_ITEM_TYPE);
+        values.put(Properties.TASK_ID, taskId);
+        values.put(Category.CATEGORY_NAME, name);
+        mList.resolver().insert(Properties.getContentUri(mList.authority()), values);
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2017 dmfs GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dmfs.provider.tasks;
+
+import android.annotation.TargetApi;
+import android.content.ContentProviderClient;
+import android.content.ContentProviderOperation;
+import android.database.Cursor;
+import android.os.Build;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.dmfs.tasks.contract.TaskContract.Tasks;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertTrue;
+
+
+/**
+ * Measures how long queries take while a sync adapter applies a large batch, with and without write-ahead logging.
+ * <p>
+ * The batch has 2000 operations by default, set the instrumentation argument <code>benchmarkOperations</code> to change that. See {@link Benchmark} for how
+ * to run it.
+ *
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+@RunWith(AndroidJUnit4.class)
+@TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+public class ReaderLatencyBenchmark
+{
+    private TestTaskList mList;
+    private ContentProviderClient mClient;
+    private TaskDatabaseHelper mHelper;
+    private int mOperations;
+
+
+    @Before
+    public void setUp()
+    {
+        Benchmark.assumeEnabled();
+        // write-ahead logging can't be switched on older versions
+        Assume.assumeTrue(Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN);
+        mOperations = Benchmark.intArgument("benchmarkOperations", 2000);
+        mList = new TestTaskList(InstrumentationRegistry.getTargetContext());
+        mClient = mList.resolver().acquireContentProviderClient(mList.authority());
+        mHelper = (TaskDatabaseHelper) ((TaskProvider) mClient.getLocalContentProvider()).getDatabaseHelper();
+    }
+
+
+    @After
+    public void tearDown()
+    {
+        if (mList != null)
+        {
+            mHelper.setWriteAheadLoggingEnabled(true);
+            mList.delete();
+            mClient.release();
+        }
+    }
+
+
+    @Test
+    public void testReaderLatency() throws InterruptedException
+    {
+        run(false);
+        run(true);
+    }
+
+
+    private void run(boolean writeAheadLogging) throws InterruptedException
+    {
+        mHelper.setWriteAheadLoggingEnabled(writeAheadLogging);
+
+        final ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>(mOperations);
+        Random random = new Random(42);
+        for (int i = 0; i < mOperations; ++i)
+        {
+            // allow the provider to commit every 50 operations, like sync adapters usually do
+            operations.add(ContentProviderOperation.newInsert(mList.syncAdapterUri(Tasks.getContentUri(mList.authority())))
+                    .withValue(Tasks.LIST_ID, mList.id())
+                    .withValue(Tasks.TITLE, Benchmark.text(random, 2 + random.nextInt(6)))
+                    .withValue(Tasks.DESCRIPTION, Benchmark.text(random, 10 + random.nextInt(20)))
+                    .withYieldAllowed(i % 50 == 0).build());
+        }
+
+        final long[] writerTime = new long[1];
+        final Exception[] writerError = new Exception[1];
+        Thread writer = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                long start = SystemClock.elapsedRealtime();
+                try
+                {
+                    mList.resolver().applyBatch(mList.authority(), operations);
+                }
+                catch (Exception e)
+                {
+                    writerError[0] = e;
+                }
+                writerTime[0] = SystemClock.elapsedRealtime() - start;
+            }
+        };
+
+        long[] latencies = new long[1024];
+        int count = 0;
+        writer.start();
+        while (writer.isAlive())
+        {
+            long start = SystemClock.elapsedRealtime();
+            Cursor cursor = mList.queryTasks(new String[] { Tasks._ID, Tasks.TITLE }, null, null);
+            try
+            {
+                cursor.getCount();
+            }
+            finally
+            {
+                cursor.close();
+            }
+            if (count == latencies.length)
+            {
+                latencies = Arrays.copyOf(latencies, count * 2);
+            }
+            latencies[count++] = SystemClock.elapsedRealtime() - start;
+        }
+        writer.join();
+        assertTrue(String.valueOf(writerError[0]), writerError[0] == null);
+        assertTrue(count > 0);
+
+        Arrays.sort(latencies, 0, count);
+        Benchmark.report("%s, batch of %d operations took %d ms, %d queries meanwhile: median %d ms, 95th percentile %d ms, max %d ms",
+                writeAheadLogging ? "write-ahead logging" : "rollback journal", mOperations, writerTime[0], count, latencies[count / 2],
+                latencies[count * 95 / 100], latencies[count - 1]);
+
+        // start over with an empty list
+        mList.resolver().delete(mList.syncAdapterUri(Tasks.getContentUri(mList.authority())), Tasks.LIST_ID + "=" + mList.id(), null);
+    }
+}
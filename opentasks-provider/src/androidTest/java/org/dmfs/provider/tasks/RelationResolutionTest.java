@@ -0,0 +1,213 @@
+/*
+ * Copyright 2017 dmfs GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dmfs.provider.tasks;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.database.Cursor;
+import android.os.RemoteException;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.dmfs.tasks.contract.TaskContract.Properties;
+import org.dmfs.tasks.contract.TaskContract.Property.Relation;
+import org.dmfs.tasks.contract.TaskContract.Property.Relation.RelType;
+import org.dmfs.tasks.contract.TaskContract.Tasks;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+/**
+ * Tests the resolution of relations between tasks at the end of a transaction.
+ *
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+@RunWith(AndroidJUnit4.class)
+public class RelationResolutionTest
+{
+    private TestTaskList mList;
+
+
+    @Before
+    public void setUp()
+    {
+        mList = new TestTaskList(InstrumentationRegistry.getTargetContext());
+    }
+
+
+    @After
+    public void tearDown()
+    {
+        mList.delete();
+    }
+
+
+    @Test
+    public void testParentInsertedLaterInTheSameBatch() throws RemoteException, OperationApplicationException
+    {
+        String parentUid = "parent-" + System.nanoTime();
+
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>(3);
+        operations.add(ContentProviderOperation.newInsert(mList.syncAdapterUri(Tasks.getContentUri(mList.authority())))
+                .withValue(Tasks.LIST_ID, mList.id())
+                .withValue(Tasks.TITLE, "Child").build());
+        // the relation refers to a task that doesn't exist yet
+        operations.add(ContentProviderOperation.newInsert(mList.syncAdapterUri(Properties.getContentUri(mList.authority())))
+                .withValueBackReference(Properties.TASK_ID, 0)
+                .withValue(Properties.MIMETYPE, Relation.CONTENT_ITEM_TYPE)
+                .withValue(Relation.RELATED_TYPE, RelType.PARENT.ordinal())
+                .withValue(Relation.RELATED_UID, parentUid).build());
+        operations.add(ContentProviderOperation.newInsert(mList.syncAdapterUri(Tasks.getContentUri(mList.authority())))
+                .withValue(Tasks.LIST_ID, mList.id())
+                .withValue(Tasks._UID, parentUid)
+                .withValue(Tasks.TITLE, "Parent").build());
+
+        ContentProviderResult[] results = mList.resolver().applyBatch(mList.authority(), operations);
+        long child = ContentUris.parseId(results[0].uri);
+        long relation = ContentUris.parseId(results[1].uri);
+        long parent = ContentUris.parseId(results[2].uri);
+
+        assertEquals(Long.valueOf(parent), parentOf(child));
+        assertEquals(Long.valueOf(parent), relatedId(relation));
+    }
+
+
+    @Test
+    public void testParentInsertedInALaterTransaction()
+    {
+        String parentUid = "parent-" + System.nanoTime();
+        long child = insertTask("Child", null);
+        long relation = insertRelation(child, RelType.PARENT, parentUid);
+
+        // unresolved for now
+        assertEquals(null, parentOf(child));
+        assertEquals(null, relatedId(relation));
+
+        long parent = insertTask("Parent", parentUid);
+
+        assertEquals(Long.valueOf(parent), parentOf(child));
+        assertEquals(Long.valueOf(parent), relatedId(relation));
+    }
+
+
+    @Test
+    public void testChildRelationSetsParentOfChild()
+    {
+        String childUid = "child-" + System.nanoTime();
+        long child = insertTask("Child", childUid);
+        long parent = insertTask("Parent", null);
+
+        insertRelation(parent, RelType.CHILD, childUid);
+
+        assertEquals(Long.valueOf(parent), parentOf(child));
+        assertEquals(null, parentOf(parent));
+    }
+
+
+    @Test
+    public void testSiblingRelationCopiesParent()
+    {
+        String parentUid = "parent-" + System.nanoTime();
+        String siblingUid = "sibling-" + System.nanoTime();
+        long parent = insertTask("Parent", parentUid);
+        long sibling = insertTask("Sibling", siblingUid);
+        insertRelation(sibling, RelType.PARENT, parentUid);
+        assertEquals(Long.valueOf(parent), parentOf(sibling));
+
+        long task = insertTask("Task", null);
+        insertRelation(task, RelType.SIBLING, siblingUid);
+
+        assertEquals(Long.valueOf(parent), parentOf(task));
+    }
+
+
+    @Test
+    public void testUnrelatedTasksAreNotTouched()
+    {
+        String parentUid = "parent-" + System.nanoTime();
+        long other = insertTask("Other", null);
+        long child = insertTask("Child", null);
+        insertRelation(child, RelType.PARENT, parentUid);
+        insertTask("Parent", parentUid);
+
+        assertEquals(null, parentOf(other));
+    }
+
+
+    private long insertTask(String title, String uid)
+    {
+        ContentValues values = new ContentValues(3);
+        values.put(Tasks.TITLE, title);
+        if (uid != null)
+        {
+            values.put(Tasks._UID, uid);
+        }
+        return mList.syncInsertTask(values);
+    }
+
+
+    private long insertRelation(long taskId, RelType type, String relatedUid)
+    {
+        ContentValues values = new ContentValues(4);
+        values.put(Properties.TASK_ID, taskId);
+        values.put(Properties.MIMETYPE, Relation.CONTENT_ITEM_TYPE);
+        values.put(Relation.RELATED_TYPE, type.ordinal());
+        values.put(Relation.RELATED_UID, relatedUid);
+        return ContentUris.parseId(mList.resolver().insert(mList.syncAdapterUri(Properties.getContentUri(mList.authority())), values));
+    }
+
+
+    private Long parentOf(long taskId)
+    {
+        Cursor cursor = mList.queryTasks(new String[] { Tasks.PARENT_ID }, Tasks._ID + "=" + taskId, null);
+        try
+        {
+            assertTrue(cursor.moveToFirst());
+            return cursor.isNull(0) ? null : cursor.getLong(0);
+        }
+        finally
+        {
+            cursor.close();
+        }
+    }
+
+
+    private Long relatedId(long relationId)
+    {
+        Cursor cursor = mList.resolver().query(Properties.getContentUri(mList.authority()), new String[] { Relation.RELATED_ID },
+                Properties.PROPERTY_ID + "=" + relationId, null, null);
+        try
+        {
+            assertTrue(cursor.moveToFirst());
+            return cursor.isNull(0) ? null : cursor.getLong(0);
+        }
+        finally
+        {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,267 @@
+/*
+ * Copyright 2017 dmfs GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dmfs.provider.tasks;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.OperationApplicationException;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.net.Uri;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+
+/**
+ * Tests how {@link SQLiteContentProvider} splits batches into transactions.
+ *
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+@RunWith(AndroidJUnit4.class)
+public class SQLiteContentProviderTest
+{
+    private final static Uri ITEMS_URI = Uri.parse("content://org.dmfs.provider.tasks.test.batch/items");
+
+    private TestProvider mProvider;
+
+
+    @Before
+    public void setUp()
+    {
+        mProvider = new TestProvider();
+        mProvider.attachInfo(InstrumentationRegistry.getTargetContext(), null);
+    }
+
+
+    @After
+    public void tearDown()
+    {
+        mProvider.getDatabaseHelper().close();
+    }
+
+
+    @Test
+    public void testManyOperationsWithoutYieldPoint() throws OperationApplicationException
+    {
+        // this used to fail after 500 operations
+        mProvider.applyBatch(inserts(1200, false));
+
+        assertEquals(1200, itemCount());
+        assertEquals(1200, mProvider.stats.operations);
+        assertEquals(0, mProvider.stats.commits);
+        assertEquals(1, mProvider.beforeCommitCalls);
+    }
+
+
+    @Test
+    public void testNoCommitsWithinLatencyBudget() throws OperationApplicationException
+    {
+        mProvider.setTransactionLatencyBudget(60000);
+        mProvider.applyBatch(inserts(100, true));
+
+        assertEquals(100, itemCount());
+        assertEquals(0, mProvider.stats.commits);
+        assertEquals(0, mProvider.stats.yields);
+        // yield points that don't commit must not complete deferred work, only the final commit does
+        assertEquals(1, mProvider.beforeCommitCalls);
+    }
+
+
+    @Test
+    public void testCommitsAtYieldPointsWhenLatencyBudgetIsExceeded() throws OperationApplicationException
+    {
+        mProvider.setTransactionLatencyBudget(0);
+        mProvider.applyBatch(inserts(10, true));
+
+        assertEquals(10, itemCount());
+        assertEquals(10, mProvider.stats.operations);
+        // every yield point but the first operation commits
+        assertEquals(9, mProvider.stats.commits + mProvider.stats.yields);
+        // deferred work is completed once per commit, including the final one
+        assertEquals(10, mProvider.beforeCommitCalls);
+    }
+
+
+    @Test
+    public void testBeforeCommitOncePerCommit()
+    {
+        mProvider.insert(ITEMS_URI, values("single"));
+        assertEquals(1, mProvider.beforeCommitCalls);
+
+        mProvider.bulkInsert(ITEMS_URI, new ContentValues[] { values("bulk 1"), values("bulk 2"), values("bulk 3") });
+        // nobody else is waiting for the database, so the bulk insert commits only once
+        assertEquals(2, mProvider.beforeCommitCalls);
+    }
+
+
+    @Test
+    public void testFailureRollsBackOnlyTheCurrentTransaction() throws OperationApplicationException
+    {
+        mProvider.setTransactionLatencyBudget(0);
+        ArrayList<ContentProviderOperation> operations = inserts(3, true);
+        operations.add(ContentProviderOperation.newInsert(ITEMS_URI).withValue("value", TestProvider.FAIL).build());
+
+        try
+        {
+            mProvider.applyBatch(operations);
+            fail("batch didn't fail");
+        }
+        catch (IllegalArgumentException e)
+        {
+            // expected
+        }
+
+        // the first two operations have been committed at the yield points, the third one has been rolled back with the failing operation
+        assertEquals(2, itemCount());
+        assertTrue(mProvider.rolledBack);
+    }
+
+
+    private ArrayList<ContentProviderOperation> inserts(int count, boolean yieldAllowed)
+    {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>(count);
+        for (int i = 0; i < count; ++i)
+        {
+            operations.add(ContentProviderOperation.newInsert(ITEMS_URI).withValue("value", "item " + i).withYieldAllowed(yieldAllowed).build());
+        }
+        return operations;
+    }
+
+
+    private ContentValues values(String value)
+    {
+        ContentValues values = new ContentValues(1);
+        values.put("value", value);
+        return values;
+    }
+
+
+    private long itemCount()
+    {
+        return DatabaseUtils.queryNumEntries(mProvider.getDatabaseHelper().getReadableDatabase(), "items");
+    }
+
+
+    /**
+     * A minimal {@link SQLiteContentProvider} with a single in-memory table.
+     */
+    private final static class TestProvider extends SQLiteContentProvider
+    {
+        final static String FAIL = "fail";
+
+        int beforeCommitCalls;
+        boolean rolledBack;
+        BatchStats stats;
+
+
+        @Override
+        protected SQLiteOpenHelper getDatabaseHelper(Context context)
+        {
+            return new SQLiteOpenHelper(context, null, null, 1)
+            {
+                @Override
+                public void onCreate(SQLiteDatabase db)
+                {
+                    db.execSQL("CREATE TABLE items (_id INTEGER PRIMARY KEY AUTOINCREMENT, value TEXT)");
+                }
+
+
+                @Override
+                public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion)
+                {
+                }
+            };
+        }
+
+
+        @Override
+        public Uri insertInTransaction(SQLiteDatabase db, Uri uri, ContentValues values, boolean callerIsSyncAdapter)
+        {
+            if (FAIL.equals(values.getAsString("value")))
+            {
+                throw new IllegalArgumentException("failing on purpose");
+            }
+            return ContentUris.withAppendedId(uri, db.insert("items", null, values));
+        }
+
+
+        @Override
+        public int updateInTransaction(SQLiteDatabase db, Uri uri, ContentValues values, String selection, String[] selectionArgs,
+                                       boolean callerIsSyncAdapter)
+        {
+            return db.update("items", values, selection, selectionArgs);
+        }
+
+
+        @Override
+        public int deleteInTransaction(SQLiteDatabase db, Uri uri, String selection, String[] selectionArgs, boolean callerIsSyncAdapter)
+        {
+            return db.delete("items", selection, selectionArgs);
+        }
+
+
+        @Override
+        public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder)
+        {
+            return getDatabaseHelper().getReadableDatabase().query("items", projection, selection, selectionArgs, null, null, sortOrder);
+        }
+
+
+        @Override
+        public String getType(Uri uri)
+        {
+            return null;
+        }
+
+
+        @Override
+        protected void beforeCommit(SQLiteDatabase db, boolean callerIsSyncAdapter)
+        {
+            ++beforeCommitCalls;
+        }
+
+
+        @Override
+        protected void onEndTransaction(boolean callerIsSyncAdapter)
+        {
+            stats = batchStats();
+            super.onEndTransaction(callerIsSyncAdapter);
+        }
+
+
+        @Override
+        protected void onRollback()
+        {
+            rolledBack = true;
+        }
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2017 dmfs GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dmfs.provider.tasks;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.dmfs.provider.tasks.TaskDatabaseHelper.Tables;
+import org.dmfs.provider.tasks.search.SearchRanking;
+import org.dmfs.tasks.contract.TaskContract.Instances;
+import org.dmfs.tasks.contract.TaskContract.TaskLists;
+import org.dmfs.tasks.contract.TaskContract.Tasks;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertTrue;
+
+
+/**
+ * Compares indexing and search times of the n-gram and the SQLite FTS search backend.
+ * <p>
+ * The database contains 10000 tasks by default, set the instrumentation argument <code>benchmarkTasks</code> to change that. See {@link Benchmark} for how
+ * to run it.
+ *
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+@RunWith(AndroidJUnit4.class)
+public class SearchBackendBenchmark
+{
+    private final static int SEARCHES = 50;
+
+    private TaskDatabaseHelper mHelper;
+    private SQLiteDatabase mDb;
+    private String mBackend;
+    private int mTaskCount;
+
+
+    @Before
+    public void setUp()
+    {
+        Benchmark.assumeEnabled();
+        mBackend = FTSDatabaseHelper.searchBackendName();
+        mTaskCount = Benchmark.intArgument("benchmarkTasks", 10000);
+
+        mHelper = new TaskDatabaseHelper(InstrumentationRegistry.getTargetContext(), null, null);
+        mDb = mHelper.getWritableDatabase();
+
+        ContentValues values = new ContentValues(4);
+        values.put(TaskLists.ACCOUNT_NAME, "test");
+        values.put(TaskLists.ACCOUNT_TYPE, "org.dmfs.account.TEST");
+        values.put(TaskLists.LIST_NAME, "Test list");
+        values.put(TaskLists.LIST_COLOR, 0xff0000ff);
+        long listId = mDb.insert(Tables.LISTS, null, values);
+
+        Random random = new Random(42);
+        mDb.beginTransaction();
+        try
+        {
+            for (int i = 0; i < mTaskCount; ++i)
+            {
+                values = new ContentValues(4);
+                values.put(Tasks.LIST_ID, listId);
+                values.put(Tasks.TITLE, Benchmark.text(random, 2 + random.nextInt(6)));
+                if (i % 4 == 0)
+                {
+                    values.put(Tasks.DESCRIPTION, Benchmark.text(random, 20 + random.nextInt(40)));
+                }
+                long taskId = mDb.insert(Tables.TASKS, null, values);
+
+                // search results are returned from the instances view
+                ContentValues instanceValues = new ContentValues(1);
+                instanceValues.put(Instances.TASK_ID, taskId);
+                mDb.insert(Tables.INSTANCES, null, instanceValues);
+            }
+            mDb.setTransactionSuccessful();
+        }
+        finally
+        {
+            mDb.endTransaction();
+        }
+    }
+
+
+    @After
+    public void tearDown()
+    {
+        if (mHelper != null)
+        {
+            FTSDatabaseHelper.setSearchBackend(mBackend);
+            mHelper.close();
+        }
+    }
+
+
+    @Test
+    public void testBackends()
+    {
+        run(FTSDatabaseHelper.SEARCH_BACKEND_NGRAM);
+        run(FTSDatabaseHelper.SEARCH_BACKEND_FTS);
+    }
+
+
+    private void run(String backend)
+    {
+        FTSDatabaseHelper.setSearchBackend(backend);
+
+        long start = SystemClock.elapsedRealtime();
+        mDb.beginTransaction();
+        try
+        {
+            FTSDatabaseHelper.rebuildSearchIndex(mDb);
+            while (FTSDatabaseHelper.indexPendingTasks(mDb, 500) > 0)
+            {
+                // continue until the queue is empty
+            }
+            mDb.setTransactionSuccessful();
+        }
+        finally
+        {
+            mDb.endTransaction();
+        }
+        long indexing = SystemClock.elapsedRealtime() - start;
+
+        Random random = new Random(7);
+        long results = 0;
+        start = SystemClock.elapsedRealtime();
+        for (int i = 0; i < SEARCHES; ++i)
+        {
+            // every other query has a second term that's just a prefix
+            String prefix = Benchmark.word(random);
+            String query = i % 2 == 0 ? Benchmark.word(random) : Benchmark.word(random) + " " + prefix.substring(0, Math.min(3, prefix.length()));
+            Cursor cursor = FTSDatabaseHelper.getTaskSearchCursor(mDb, query, new String[] { Tasks._ID, Tasks.SCORE }, null, null, null,
+                    SearchRanking.DEFAULT);
+            try
+            {
+                results += cursor.getCount();
+            }
+            finally
+            {
+                cursor.close();
+            }
+        }
+        long searching = SystemClock.elapsedRealtime() - start;
+
+        Benchmark.report("search backend %s, %d tasks: indexing %d ms, %d searches %d ms (%.1f ms per search), %d results", backend, mTaskCount, indexing,
+                SEARCHES, searching, (float) searching / SEARCHES, results);
+        assertTrue(results > 0);
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright 2017 dmfs GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dmfs.provider.tasks;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.dmfs.provider.tasks.FTSDatabaseHelper.FTSContentColumns;
+import org.dmfs.provider.tasks.FTSDatabaseHelper.SearchableTypes;
+import org.dmfs.provider.tasks.TaskDatabaseHelper.Tables;
+import org.dmfs.provider.tasks.model.ContentValuesTaskAdapter;
+import org.dmfs.provider.tasks.model.CursorContentValuesTaskAdapter;
+import org.dmfs.tasks.contract.TaskContract.TaskLists;
+import org.dmfs.tasks.contract.TaskContract.Tasks;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+/**
+ * Tests the incremental updates of the n-gram search index in an in-memory database.
+ *
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+@RunWith(AndroidJUnit4.class)
+public class SearchIndexTest
+{
+    private TaskDatabaseHelper mHelper;
+    private SQLiteDatabase mDb;
+    private long mListId;
+
+
+    @Before
+    public void setUp()
+    {
+        mHelper = new TaskDatabaseHelper(InstrumentationRegistry.getTargetContext(), null, null);
+        mDb = mHelper.getWritableDatabase();
+
+        ContentValues values = new ContentValues(4);
+        values.put(TaskLists.ACCOUNT_NAME, "test");
+        values.put(TaskLists.ACCOUNT_TYPE, "org.dmfs.account.TEST");
+        values.put(TaskLists.LIST_NAME, "Test list");
+        values.put(TaskLists.LIST_COLOR, 0xff0000ff);
+        mListId = mDb.insert(Tables.LISTS, null, values);
+    }
+
+
+    @After
+    public void tearDown()
+    {
+        mHelper.close();
+    }
+
+
+    @Test
+    public void testUnchangedRelationsAreKept()
+    {
+        long task = insertTask("Buy groceries");
+        Map<Long, Long> before = titleRelations(task);
+        assertFalse(before.isEmpty());
+
+        updateTitle(task, "Buy groceries today");
+        Map<Long, Long> after = titleRelations(task);
+
+        // all n-grams of the old title are still there, in the very same rows
+        for (Map.Entry<Long, Long> relation : before.entrySet())
+        {
+            assertEquals(relation.getValue(), after.get(relation.getKey()));
+        }
+        assertTrue(after.size() > before.size());
+    }
+
+
+    @Test
+    public void testIncrementalUpdateMatchesFullIndex()
+    {
+        long task = insertTask("Buy groceries");
+        Map<Long, Long> before = titleRelations(task);
+
+        updateTitle(task, "Buy milk");
+        Map<Long, Long> after = titleRelations(task);
+
+        // the result must be the same as indexing the new title from scratch
+        long reference = insertTask("Buy milk");
+        assertEquals(titleRelations(reference).keySet(), after.keySet());
+
+        // the n-grams of "buy" have not been rewritten
+        int kept = 0;
+        for (Map.Entry<Long, Long> relation : after.entrySet())
+        {
+            if (relation.getValue().equals(before.get(relation.getKey())))
+            {
+                ++kept;
+            }
+        }
+        assertTrue(kept > 0);
+    }
+
+
+    @Test
+    public void testRemovingTitleRemovesRelations()
+    {
+        long task = insertTask("Buy groceries");
+        updateTitle(task, null);
+        assertTrue(titleRelations(task).isEmpty());
+    }
+
+
+    private long insertTask(String title)
+    {
+        ContentValues values = new ContentValues(2);
+        values.put(Tasks.LIST_ID, mListId);
+        values.put(Tasks.TITLE, title);
+        long id = mDb.insert(Tables.TASKS, null, values);
+        FTSDatabaseHelper.updateTaskFTSEntries(mDb, new ContentValuesTaskAdapter(id, values));
+        return id;
+    }
+
+
+    private void updateTitle(long task, String title)
+    {
+        ContentValues values = new ContentValues(1);
+        values.put(Tasks.TITLE, title);
+        Cursor cursor = mDb.query(Tables.TASKS, null, Tasks._ID + "=" + task, null, null, null, null);
+        try
+        {
+            assertTrue(cursor.moveToFirst());
+            FTSDatabaseHelper.updateTaskFTSEntries(mDb, new CursorContentValuesTaskAdapter(task, cursor, values));
+        }
+        finally
+        {
+            cursor.close();
+        }
+        mDb.update(Tables.TASKS, values, Tasks._ID + "=" + task, null);
+    }
+
+
+    /**
+     * Returns the row ids of the title relations of the given task, mapped by n-gram id.
+     */
+    private Map<Long, Long> titleRelations(long task)
+    {
+        Cursor cursor = mDb.query(FTSDatabaseHelper.FTS_CONTENT_TABLE, new String[] { FTSContentColumns.NGRAM_ID, "rowid" },
+                FTSContentColumns.TASK_ID + "=" + task + " AND " + FTSContentColumns.TYPE + "=" + SearchableTypes.TITLE, null, null, null, null);
+        try
+        {
+            Map<Long, Long> result = new HashMap<Long, Long>(cursor.getCount() * 2);
+            while (cursor.moveToNext())
+            {
+                // each n-gram must be related only once
+                assertEquals(null, result.put(cursor.getLong(0), cursor.getLong(1)));
+            }
+            return result;
+        }
+        finally
+        {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright 2017 dmfs GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dmfs.provider.tasks;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.dmfs.tasks.contract.TaskContract.Tasks;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+
+/**
+ * Tests the subtree and ancestor {@link Uri}s that are backed by the closure table of the task hierarchy.
+ *
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+@RunWith(AndroidJUnit4.class)
+public class TaskHierarchyTest
+{
+    private TestTaskList mList;
+
+    private long mRoot;
+    private long mA;
+    private long mB;
+    private long mA1;
+
+
+    /**
+     * Creates the tree
+     * <pre>
+     * root
+     *  +- a
+     *  |   +- a1
+     *  +- b
+     * </pre>
+     */
+    @Before
+    public void setUp()
+    {
+        mList = new TestTaskList(InstrumentationRegistry.getTargetContext());
+        mRoot = insertTask("root", null);
+        mA = insertTask("a", mRoot);
+        mB = insertTask("b", mRoot);
+        mA1 = insertTask("a1", mA);
+    }
+
+
+    @After
+    public void tearDown()
+    {
+        mList.delete();
+    }
+
+
+    @Test
+    public void testSubtree()
+    {
+        assertEquals(Arrays.asList(Arrays.asList(mRoot, 0L), Arrays.asList(mA, 1L), Arrays.asList(mB, 1L), Arrays.asList(mA1, 2L)),
+                query(Tasks.getSubtreeUri(mList.authority(), mRoot), Tasks.HIERARCHY_DEPTH));
+        assertEquals(Arrays.asList(Arrays.asList(mA, 0L), Arrays.asList(mA1, 1L)), query(Tasks.getSubtreeUri(mList.authority(), mA), Tasks.HIERARCHY_DEPTH));
+        assertEquals(Arrays.asList(Arrays.asList(mB, 0L)), query(Tasks.getSubtreeUri(mList.authority(), mB), Tasks.HIERARCHY_DEPTH));
+    }
+
+
+    @Test
+    public void testAncestors()
+    {
+        // the path starts at the root
+        assertEquals(Arrays.asList(Arrays.asList(mRoot, 2L), Arrays.asList(mA, 1L), Arrays.asList(mA1, 0L)),
+                query(Tasks.getAncestorsUri(mList.authority(), mA1), null));
+        assertEquals(Arrays.asList(Arrays.asList(mRoot, 0L)), query(Tasks.getAncestorsUri(mList.authority(), mRoot), null));
+    }
+
+
+    @Test
+    public void testChildCounts()
+    {
+        ContentValues values = new ContentValues(1);
+        values.put(Tasks.STATUS, Tasks.STATUS_COMPLETED);
+        mList.resolver().update(ContentUris.withAppendedId(Tasks.getContentUri(mList.authority()), mB), values, null, null);
+
+        // b has been completed, so root has only one open child
+        assertEquals(Arrays.asList(Arrays.asList(mRoot, 0L, 2L, 1L), Arrays.asList(mA, 1L, 1L, 1L), Arrays.asList(mB, 1L, 0L, 0L),
+                Arrays.asList(mA1, 2L, 0L, 0L)), query(Tasks.getSubtreeUri(mList.authority(), mRoot), Tasks.HIERARCHY_DEPTH,
+                Tasks.CHILD_COUNT, Tasks.OPEN_CHILD_COUNT));
+    }
+
+
+    @Test
+    public void testMoveSubtree()
+    {
+        setParent(mA, mB);
+
+        assertEquals(Arrays.asList(Arrays.asList(mRoot, 3L), Arrays.asList(mB, 2L), Arrays.asList(mA, 1L), Arrays.asList(mA1, 0L)),
+                query(Tasks.getAncestorsUri(mList.authority(), mA1), null));
+        assertEquals(Arrays.asList(Arrays.asList(mB, 0L), Arrays.asList(mA, 1L), Arrays.asList(mA1, 2L)),
+                query(Tasks.getSubtreeUri(mList.authority(), mB), Tasks.HIERARCHY_DEPTH));
+
+        // detach the subtree
+        setParent(mA, null);
+
+        assertEquals(Arrays.asList(Arrays.asList(mA, 1L), Arrays.asList(mA1, 0L)), query(Tasks.getAncestorsUri(mList.authority(), mA1), null));
+        assertEquals(Arrays.asList(Arrays.asList(mRoot, 0L), Arrays.asList(mB, 1L)),
+                query(Tasks.getSubtreeUri(mList.authority(), mRoot), Tasks.HIERARCHY_DEPTH));
+    }
+
+
+    @Test
+    public void testCyclesAreIgnored()
+    {
+        // a task can't become a child of its own descendant
+        setParent(mRoot, mA1);
+
+        assertEquals(Arrays.asList(Arrays.asList(mRoot, 0L)), query(Tasks.getAncestorsUri(mList.authority(), mRoot), null));
+        assertEquals(Arrays.asList(Arrays.asList(mA, 0L), Arrays.asList(mA1, 1L)), query(Tasks.getSubtreeUri(mList.authority(), mA), Tasks.HIERARCHY_DEPTH));
+    }
+
+
+    @Test
+    public void testRemovedTaskIsRemovedFromHierarchy()
+    {
+        mList.resolver().delete(mList.syncAdapterUri(ContentUris.withAppendedId(Tasks.getContentUri(mList.authority()), mB)), null, null);
+
+        assertEquals(Arrays.asList(Arrays.asList(mRoot, 0L), Arrays.asList(mA, 1L), Arrays.asList(mA1, 2L)),
+                query(Tasks.getSubtreeUri(mList.authority(), mRoot), Tasks.HIERARCHY_DEPTH));
+    }
+
+
+    private long insertTask(String title, Long parent)
+    {
+        ContentValues values = new ContentValues(2);
+        values.put(Tasks.TITLE, title);
+        values.put(Tasks.PARENT_ID, parent);
+        return mList.syncInsertTask(values);
+    }
+
+
+    private void setParent(long task, Long parent)
+    {
+        ContentValues values = new ContentValues(1);
+        values.put(Tasks.PARENT_ID, parent);
+        mList.resolver().update(mList.syncAdapterUri(ContentUris.withAppendedId(Tasks.getContentUri(mList.authority()), task)), values, null, null);
+    }
+
+
+    /**
+     * Returns the id and the given columns of all rows of the given {@link Uri}. If <code>sortColumn</code> is not <code>null</code> the result is sorted by
+     * that column and the id, otherwise the default order of the {@link Uri} applies.
+     */
+    private List<List<Long>> query(Uri uri, String sortColumn, String... columns)
+    {
+        String[] projection = new String[columns.length + 2];
+        projection[0] = Tasks._ID;
+        projection[1] = Tasks.HIERARCHY_DEPTH;
+        System.arraycopy(columns, 0, projection, 2, columns.length);
+
+        Cursor cursor = mList.resolver().query(uri, projection, null, null, sortColumn == null ? null : sortColumn + ", " + Tasks._ID);
+        try
+        {
+            List<List<Long>> result = new ArrayList<List<Long>>(cursor.getCount());
+            while (cursor.moveToNext())
+            {
+                List<Long> row = new ArrayList<Long>(projection.length);
+                row.add(cursor.getLong(0));
+                row.add(cursor.getLong(1));
+                for (int i = 2; i < projection.length; ++i)
+                {
+                    row.add(cursor.getLong(i));
+                }
+                result.add(row);
+            }
+            return result;
+        }
+        finally
+        {
+            cursor.close();
+        }
+    }
+}
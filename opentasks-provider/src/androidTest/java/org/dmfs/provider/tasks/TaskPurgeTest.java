@@ -0,0 +1,253 @@
+/*
+ * Copyright 2017 dmfs GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dmfs.provider.tasks;
+
+import android.content.ContentProviderClient;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.dmfs.provider.tasks.FTSDatabaseHelper.FTSContentColumns;
+import org.dmfs.provider.tasks.FTSDatabaseHelper.FTSPendingColumns;
+import org.dmfs.provider.tasks.TaskDatabaseHelper.Tables;
+import org.dmfs.provider.tasks.processors.tasks.InstanceExpander;
+import org.dmfs.tasks.contract.TaskContract.Alarms;
+import org.dmfs.tasks.contract.TaskContract.Instances;
+import org.dmfs.tasks.contract.TaskContract.Properties;
+import org.dmfs.tasks.contract.TaskContract.Property.Alarm;
+import org.dmfs.tasks.contract.TaskContract.Property.Relation;
+import org.dmfs.tasks.contract.TaskContract.Property.Relation.RelType;
+import org.dmfs.tasks.contract.TaskContract.Tasks;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+/**
+ * Tests the bulk removal of tasks by sync adapters through {@link TaskPurge}.
+ *
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+@RunWith(AndroidJUnit4.class)
+public class TaskPurgeTest
+{
+    private final static long DAY = 24L * 3600L * 1000L;
+
+    private TestTaskList mList;
+    private ContentProviderClient mClient;
+    private SQLiteDatabase mDb;
+
+
+    @Before
+    public void setUp()
+    {
+        mList = new TestTaskList(InstrumentationRegistry.getTargetContext());
+        // the provider runs in this process, so we can look at its database directly
+        mClient = mList.resolver().acquireContentProviderClient(mList.authority());
+        mDb = ((TaskProvider) mClient.getLocalContentProvider()).getDatabaseHelper().getReadableDatabase();
+    }
+
+
+    @After
+    public void tearDown()
+    {
+        mList.delete();
+        mClient.release();
+    }
+
+
+    @Test
+    public void testPurgeRemovesTasksAndDependentRows()
+    {
+        long purged1 = insertTask("Buy groceries");
+        long purged2 = insertTask("Water the plants");
+        long kept = insertTask("Call mom");
+        long alarm1 = insertAlarm(purged1);
+        long alarm2 = insertAlarm(purged2);
+        long keptAlarm = insertAlarm(kept);
+
+        String purged = Tasks._ID + " IN (" + purged1 + ", " + purged2 + ")";
+        assertTrue(count(Tables.PROPERTIES, Properties.TASK_ID + " IN (" + purged1 + ", " + purged2 + ")") > 0);
+        assertTrue(count(Tables.INSTANCES, Instances.TASK_ID + " IN (" + purged1 + ", " + purged2 + ")") > 0);
+        assertTrue(searchEntries(purged1) > 0);
+
+        assertEquals(2, mList.resolver().delete(mList.syncAdapterUri(Tasks.getContentUri(mList.authority())), purged, null));
+
+        assertEquals(0, count(Tables.TASKS, purged));
+        assertEquals(0, count(Tables.PROPERTIES, Properties.TASK_ID + " IN (" + purged1 + ", " + purged2 + ")"));
+        assertEquals(0, count(Tables.INSTANCES, Instances.TASK_ID + " IN (" + purged1 + ", " + purged2 + ")"));
+        assertEquals(0, count(Tables.ALARMS, Alarms.ALARM_ID + " IN (" + alarm1 + ", " + alarm2 + ")"));
+        assertEquals(0, searchEntries(purged1));
+        assertEquals(0, searchEntries(purged2));
+        assertEquals(0, count(Tables.TASKS_PURGE, null));
+
+        // the other task is left alone
+        assertEquals(1, count(Tables.TASKS, Tasks._ID + "=" + kept));
+        assertEquals(1, count(Tables.PROPERTIES, Properties.PROPERTY_ID + "=" + keptAlarm));
+        assertEquals(1, count(Tables.INSTANCES, Instances.TASK_ID + "=" + kept));
+        assertEquals(1, count(Tables.ALARMS, Alarms.ALARM_ID + "=" + keptAlarm));
+        assertTrue(searchEntries(kept) > 0);
+    }
+
+
+    @Test
+    public void testPurgeRemovesRelationsToPurgedTasks()
+    {
+        long purged = insertTask("Parent");
+        long kept = insertTask("Child");
+
+        ContentValues values = new ContentValues(4);
+        values.put(Properties.MIMETYPE, Relation.CONTENT_ITEM_TYPE);
+        values.put(Properties.TASK_ID, kept);
+        values.put(Relation.RELATED_ID, purged);
+        values.put(Relation.RELATED_TYPE, RelType.PARENT.ordinal());
+        long relation = ContentUris.parseId(mList.resolver().insert(Properties.getContentUri(mList.authority()), values));
+
+        mList.resolver().delete(mList.syncAdapterUri(ContentUris.withAppendedId(Tasks.getContentUri(mList.authority()), purged)), null, null);
+
+        assertEquals(0, count(Tables.PROPERTIES, Properties.PROPERTY_ID + "=" + relation));
+        assertEquals(1, count(Tables.TASKS, Tasks._ID + "=" + kept));
+    }
+
+
+    @Test
+    public void testPurgedExceptionRestoresOverriddenInstance()
+    {
+        long start = InstanceExpander.windowStart() + 2 * DAY + DAY / 2;
+        long master = insertRecurringTask(start, "FREQ=DAILY;COUNT=3");
+        long exception1 = insertException(master, start + DAY);
+        long exception2 = insertException(master, start + 2 * DAY);
+        assertEquals(Arrays.asList(start), instances(master));
+
+        // both exceptions are removed at once, neither of them has been marked as deleted before
+        mList.resolver().delete(mList.syncAdapterUri(Tasks.getContentUri(mList.authority())),
+                Tasks._ID + " IN (" + exception1 + ", " + exception2 + ")", null);
+
+        assertEquals(Arrays.asList(start, start + DAY, start + 2 * DAY), instances(master));
+    }
+
+
+    @Test
+    public void testPurgeMasterWithExceptions()
+    {
+        long start = InstanceExpander.windowStart() + 2 * DAY + DAY / 2;
+        long master = insertRecurringTask(start, "FREQ=DAILY;COUNT=3");
+        long exception = insertException(master, start + DAY);
+
+        mList.resolver().delete(mList.syncAdapterUri(Tasks.getContentUri(mList.authority())), Tasks._ID + " IN (" + master + ", " + exception + ")",
+                null);
+
+        assertEquals(0, count(Tables.TASKS, Tasks._ID + " IN (" + master + ", " + exception + ")"));
+        assertEquals(0, count(Tables.INSTANCES, Instances.TASK_ID + " IN (" + master + ", " + exception + ")"));
+    }
+
+
+    private long insertTask(String title)
+    {
+        ContentValues values = new ContentValues(4);
+        values.put(Tasks.TITLE, title);
+        values.put(Tasks.DUE, System.currentTimeMillis() + DAY);
+        values.put(Tasks.TZ, "UTC");
+        return mList.syncInsertTask(values);
+    }
+
+
+    private long insertAlarm(long task)
+    {
+        ContentValues values = new ContentValues(5);
+        values.put(Properties.MIMETYPE, Alarm.CONTENT_ITEM_TYPE);
+        values.put(Properties.TASK_ID, task);
+        values.put(Alarm.MINUTES_BEFORE, 30);
+        values.put(Alarm.REFERENCE, Alarm.ALARM_REFERENCE_DUE_DATE);
+        values.put(Alarm.ALARM_TYPE, Alarm.ALARM_TYPE_MESSAGE);
+        return ContentUris.parseId(mList.resolver().insert(Properties.getContentUri(mList.authority()), values));
+    }
+
+
+    private long insertRecurringTask(long start, String rrule)
+    {
+        ContentValues values = new ContentValues(5);
+        values.put(Tasks.TITLE, "Recurring task");
+        values.put(Tasks.DTSTART, start);
+        values.put(Tasks.TZ, "UTC");
+        values.put(Tasks.RRULE, rrule);
+        return mList.syncInsertTask(values);
+    }
+
+
+    private long insertException(long master, long originalTime)
+    {
+        ContentValues values = new ContentValues(6);
+        values.put(Tasks.TITLE, "Exception");
+        values.put(Tasks.DTSTART, originalTime + 3600L * 1000L);
+        values.put(Tasks.TZ, "UTC");
+        values.put(Tasks.ORIGINAL_INSTANCE_ID, master);
+        values.put(Tasks.ORIGINAL_INSTANCE_TIME, originalTime);
+        return mList.syncInsertTask(values);
+    }
+
+
+    /**
+     * Returns the number of search index entries of the given task, including entries that are still waiting to be indexed.
+     */
+    private long searchEntries(long task)
+    {
+        return count(FTSDatabaseHelper.FTS_CONTENT_TABLE, FTSContentColumns.TASK_ID + "=" + task) + count(FTSDatabaseHelper.FTS_PENDING_TABLE,
+                FTSPendingColumns.TASK_ID + "=" + task);
+    }
+
+
+    private long count(String table, String selection)
+    {
+        return DatabaseUtils.queryNumEntries(mDb, table, selection);
+    }
+
+
+    /**
+     * Returns the original times of all instances of the given task in ascending order.
+     */
+    private List<Long> instances(long taskId)
+    {
+        Cursor cursor = mDb.query(Tables.INSTANCES, new String[] { Instances.INSTANCE_ORIGINAL_TIME }, Instances.TASK_ID + "=" + taskId, null, null, null,
+                Instances.INSTANCE_ORIGINAL_TIME);
+        try
+        {
+            List<Long> result = new ArrayList<Long>(cursor.getCount());
+            while (cursor.moveToNext())
+            {
+                result.add(cursor.getLong(0));
+            }
+            return result;
+        }
+        finally
+        {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2017 dmfs GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dmfs.provider.tasks;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+
+import org.dmfs.tasks.contract.TaskContract;
+import org.dmfs.tasks.contract.TaskContract.TaskLists;
+import org.dmfs.tasks.contract.TaskContract.Tasks;
+
+
+/**
+ * A task list of a test account in the {@link TaskProvider} of the test package. Each instance creates a new list, call {@link #delete()} to remove it
+ * with all its tasks.
+ *
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+final class TestTaskList
+{
+    private final static String ACCOUNT_TYPE = "org.dmfs.account.TEST";
+
+    private final ContentResolver mResolver;
+    private final String mAuthority;
+    private final String mAccountName;
+    private final long mId;
+
+
+    TestTaskList(Context context)
+    {
+        mResolver = context.getContentResolver();
+        mAuthority = context.getString(org.dmfs.tasks.provider.R.string.opentasks_authority);
+        mAccountName = "test-" + System.nanoTime();
+
+        ContentValues values = new ContentValues(4);
+        values.put(TaskLists.LIST_NAME, "Test list");
+        values.put(TaskLists.LIST_COLOR, 0xff0000ff);
+        values.put(TaskLists.SYNC_ENABLED, 1);
+        values.put(TaskLists.VISIBLE, 1);
+        mId = ContentUris.parseId(mResolver.insert(syncAdapterUri(TaskLists.getContentUri(mAuthority)), values));
+    }
+
+
+    public ContentResolver resolver()
+    {
+        return mResolver;
+    }
+
+
+    public String authority()
+    {
+        return mAuthority;
+    }
+
+
+    public long id()
+    {
+        return mId;
+    }
+
+
+    /**
+     * Returns the given {@link Uri} with the parameters of a sync adapter of the test account.
+     */
+    public Uri syncAdapterUri(Uri uri)
+    {
+        return uri.buildUpon().appendQueryParameter(TaskContract.CALLER_IS_SYNCADAPTER, "true")
+                .appendQueryParameter(TaskContract.ACCOUNT_NAME, mAccountName)
+                .appendQueryParameter(TaskContract.ACCOUNT_TYPE, ACCOUNT_TYPE).build();
+    }
+
+
+    /**
+     * Inserts a task with the given values into this list like an app would do.
+     *
+     * @return The row id of the new task.
+     */
+    public long insertTask(ContentValues values)
+    {
+        values.put(Tasks.LIST_ID, mId);
+        return ContentUris.parseId(mResolver.insert(Tasks.getContentUri(mAuthority), values));
+    }
+
+
+    /**
+     * Inserts a task with the given values into this list like a sync adapter would do.
+     *
+     * @return The row id of the new task.
+     */
+    public long syncInsertTask(ContentValues values)
+    {
+        values.put(Tasks.LIST_ID, mId);
+        return ContentUris.parseId(mResolver.insert(syncAdapterUri(Tasks.getContentUri(mAuthority)), values));
+    }
+
+
+    /**
+     * Queries the given columns of all tasks in this list.
+     */
+    public Cursor queryTasks(String[] projection, String selection, String sortOrder)
+    {
+        String listSelection = Tasks.LIST_ID + "=" + mId;
+        return mResolver.query(Tasks.getContentUri(mAuthority), projection, selection == null ? listSelection : "(" + selection + ") AND " + listSelection,
+                null, sortOrder);
+    }
+
+
+    /**
+     * Removes this list and all its tasks.
+     */
+    public void delete()
+    {
+        mResolver.delete(syncAdapterUri(TaskLists.getContentUri(mAuthority)), TaskLists._ID + "=" + mId, null);
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright 2017 dmfs GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dmfs.ngrams;
+
+import java.util.Arrays;
+
+
+/**
+ * A simple hash set of primitive <code>long</code> values that doesn't box its elements. It uses open addressing with linear probing.
+ * <p>
+ * Note, <code>0</code> is used to mark empty slots and can not be added to this set. This class is not thread-safe.
+ *
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+public final class LongHashSet
+{
+    /**
+     * The multiplier to spread the hash values, see Knuth's multiplicative hashing.
+     */
+    private final static long HASH_MULTIPLIER = 0x9E3779B97F4A7C15L;
+
+    private long[] mTable;
+    private int mShift;
+    private int mSize;
+
+
+    /**
+     * Creates a new set with room for at least the given number of elements before it needs to grow.
+     *
+     * @param expectedSize
+     *         The number of elements this set is expected to hold.
+     */
+    public LongHashSet(int expectedSize)
+    {
+        int capacity = 8;
+        while (capacity < expectedSize * 2)
+        {
+            capacity <<= 1;
+        }
+        mTable = new long[capacity];
+        mShift = 64 - Integer.numberOfTrailingZeros(capacity);
+    }
+
+
+    /**
+     * Adds the given value to this set.
+     *
+     * @param value
+     *         The value to add, must not be <code>0</code>.
+     *
+     * @return <code>true</code> if the value has been added, <code>false</code> if the set already contained it.
+     */
+    public boolean add(long value)
+    {
+        if (value == 0)
+        {
+            throw new IllegalArgumentException("0 can not be added to a LongHashSet");
+        }
+
+        long[] table = mTable;
+        int mask = table.length - 1;
+        int index = index(value);
+        long current;
+        while ((current = table[index]) != 0)
+        {
+            if (current == value)
+            {
+                return false;
+            }
+            index = (index + 1) & mask;
+        }
+        table[index] = value;
+
+        // keep the load factor below 0.5
+        if (++mSize * 2 > table.length)
+        {
+            grow();
+        }
+        return true;
+    }
+
+
+    /**
+     * Returns whether this set contains the given value.
+     *
+     * @param value
+     *         The value to check.
+     *
+     * @return <code>true</code> if the value is an element of this set.
+     */
+    public boolean contains(long value)
+    {
+        if (value == 0)
+        {
+            return false;
+        }
+
+        long[] table = mTable;
+        int mask = table.length - 1;
+        int index = index(value);
+        long current;
+        while ((current = table[index]) != 0)
+        {
+            if (current == value)
+            {
+                return true;
+            }
+            index = (index + 1) & mask;
+        }
+        return false;
+    }
+
+
+    /**
+     * Returns the number of elements in this set.
+     *
+     * @return The number of elements.
+     */
+    public int size()
+    {
+        return mSize;
+    }
+
+
+    /**
+     * Removes all elements from this set. The capacity is retained, so the set can be reused without allocating memory.
+     */
+    public void clear()
+    {
+        Arrays.fill(mTable, 0);
+        mSize = 0;
+    }
+
+
+    /**
+     * Returns all elements in this set in no particular order.
+     *
+     * @return A new array containing all elements.
+     */
+    public long[] toArray()
+    {
+        long[] result = new long[mSize];
+        int pos = 0;
+        for (long value : mTable)
+        {
+            if (value != 0)
+            {
+                result[pos++] = value;
+            }
+        }
+        return result;
+    }
+
+
+    private int index(long value)
+    {
+        return (int) ((value * HASH_MULTIPLIER) >>> mShift);
+    }
+
+
+    private void grow()
+    {
+        long[] oldTable = mTable;
+        mTable = new long[oldTable.length * 2];
+        mShift -= 1;
+        int mask = mTable.length - 1;
+        for (long value : oldTable)
+        {
+            if (value != 0)
+            {
+                int index = index(value);
+                while (mTable[index] != 0)
+                {
+                    index = (index + 1) & mask;
+                }
+                mTable[index] = value;
+            }
+        }
+    }
+}
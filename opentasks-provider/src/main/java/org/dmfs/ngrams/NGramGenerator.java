@@ -19,34 +19,34 @@ package org.dmfs.ngrams;
 import java.util.HashSet;
 import java.util.Locale;
 import java.util.Set;
-import java.util.regex.Pattern;
 
 
 /**
  * Generator for N-grams from a given String.
+ * <p>
+ * Words consist of letters, marks and (ASCII) digits, anything else separates words. Internally each N-gram is packed into a <code>long</code> with 16 bits
+ * per character. The first character is stored in the most significant bits, shorter N-grams are padded with zeros. That's why N must not be larger than
+ * {@link #MAX_N}. Use {@link #getNgrams(CharSequence, LongHashSet)} to get the packed N-grams without allocating any objects.
+ * <p>
+ * Instances can be used by multiple threads concurrently once they have been configured.
  *
  * @author Marten Gajda <marten@dmfs.org>
  */
 public final class NGramGenerator
 {
     /**
-     * A {@link Pattern} that matches anything that doesn't belong to a word or number.
+     * The maximum N supported by this class.
      */
-    private final static Pattern SEPARATOR_PATTERN = Pattern.compile("[^\\p{L}\\p{M}\\d]+");
+    public final static int MAX_N = 4;
 
-    /**
-     * A {@link Pattern} that matches anything that doesn't belong to a word.
-     */
-    private final static Pattern SEPARATOR_PATTERN_NO_NUMBERS = Pattern.compile("[^\\p{L}\\p{M}]+");
+    private final static int BITS_PER_CHAR = 16;
 
     private final int mN;
     private final int mMinWordLen;
     private boolean mAllLowercase = true;
     private boolean mReturnNumbers = true;
     private boolean mAddSpaceInFront = false;
-    private Locale mLocale = Locale.getDefault();
-
-    private char[] mTempArray;
+    private boolean mDotlessI = hasDotlessI(Locale.getDefault());
 
 
     public NGramGenerator(int n)
@@ -57,10 +57,12 @@ public final class NGramGenerator
 
     public NGramGenerator(int n, int minWordLen)
     {
+        if (n < 1 || n > MAX_N)
+        {
+            throw new IllegalArgumentException("N must be in the range 1.." + MAX_N + ", got " + n);
+        }
         mN = n;
         mMinWordLen = minWordLen;
-        mTempArray = new char[n];
-        mTempArray[0] = ' ';
     }
 
 
@@ -105,7 +107,7 @@ public final class NGramGenerator
      */
     public NGramGenerator setLocale(Locale locale)
     {
-        mLocale = locale;
+        mDotlessI = hasDotlessI(locale);
         return this;
     }
 
@@ -138,64 +140,203 @@ public final class NGramGenerator
      */
     public Set<String> getNgrams(Set<String> set, String data)
     {
-        if (mAllLowercase)
+        LongHashSet ngrams = new LongHashSet(128);
+        getNgrams(data, ngrams);
+        return decode(ngrams, set);
+    }
+
+
+    public void getNgrams(String word, Set<String> ngrams)
+    {
+        LongHashSet packedNgrams = new LongHashSet(32);
+        addWordNgrams(word, 0, word.length(), packedNgrams);
+        decode(packedNgrams, ngrams);
+    }
+
+
+    /**
+     * Adds the packed codes of all N-grams contained in the given {@link CharSequence} to the given {@link LongHashSet}. This method doesn't allocate any
+     * memory unless the set needs to grow.
+     *
+     * @param data
+     *         The text to analyze.
+     * @param ngrams
+     *         The {@link LongHashSet} to add the N-grams to.
+     */
+    public void getNgrams(CharSequence data, LongHashSet ngrams)
+    {
+        final int length = data.length();
+        int i = 0;
+        while (i < length)
         {
-            data = data.toLowerCase(mLocale);
+            int codePoint = Character.codePointAt(data, i);
+            if (!isWordCodePoint(codePoint))
+            {
+                i += Character.charCount(codePoint);
+                continue;
+            }
+
+            // find the end of the word
+            final int start = i;
+            do
+            {
+                i += Character.charCount(codePoint);
+            }
+            while (i < length && isWordCodePoint(codePoint = Character.codePointAt(data, i)));
+
+            addWordNgrams(data, start, i, ngrams);
         }
+    }
 
-        String[] words = mReturnNumbers ? SEPARATOR_PATTERN.split(data) : SEPARATOR_PATTERN_NO_NUMBERS.split(data);
 
-        if (set == null)
+    /**
+     * Returns the String representation of a packed N-gram.
+     *
+     * @param ngram
+     *         A packed N-gram as returned by {@link #getNgrams(CharSequence, LongHashSet)}.
+     *
+     * @return The N-gram String.
+     */
+    public static String decode(long ngram)
+    {
+        char[] chars = new char[MAX_N];
+        int len = 0;
+        for (int i = MAX_N - 1; i >= 0; --i)
         {
-            set = new HashSet<String>(128);
+            char c = (char) (ngram >>> (i * BITS_PER_CHAR));
+            if (c == 0)
+            {
+                break;
+            }
+            chars[len++] = c;
         }
+        return new String(chars, 0, len);
+    }
+
 
-        for (String word : words)
+    /**
+     * Adds the String representations of all packed N-grams in the given {@link LongHashSet} to a {@link Set}.
+     *
+     * @param ngrams
+     *         The packed N-grams.
+     * @param set
+     *         The set to add all the N-grams to, or <code>null</code> to create a new set.
+     *
+     * @return The {@link Set} containing the N-grams.
+     */
+    public static Set<String> decode(LongHashSet ngrams, Set<String> set)
+    {
+        if (set == null)
         {
-            getNgrams(word, set);
+            set = new HashSet<String>(ngrams.size() * 2);
+        }
+        for (long ngram : ngrams.toArray())
+        {
+            set.add(decode(ngram));
         }
-
         return set;
     }
 
 
-    public void getNgrams(String word, Set<String> ngrams)
+    /**
+     * Adds all N-grams of the word in the given range.
+     */
+    private void addWordNgrams(CharSequence data, int start, int end, LongHashSet ngrams)
     {
-        final int len = word.length();
-        final int minWordLen = mMinWordLen;
+        final int len = end - start;
 
-        if (len < minWordLen)
+        if (len < mMinWordLen || len == 0)
         {
             return;
         }
 
         final int n = mN;
-        final int last = Math.max(1, len - n + 1);
 
-        for (int i = 0; i < last; ++i)
+        if (len <= n)
+        {
+            // the entire word is the only N-gram
+            long ngram = 0;
+            for (int i = start; i < end; ++i)
+            {
+                ngram = ngram << BITS_PER_CHAR | toLowerCase(data.charAt(i));
+            }
+            ngrams.add(ngram << ((MAX_N - len) * BITS_PER_CHAR));
+        }
+        else
         {
-            ngrams.add(word.substring(i, Math.min(i + n, len)));
+            // slide a window of n characters over the word
+            final long mask = n == MAX_N ? -1L : (1L << (n * BITS_PER_CHAR)) - 1;
+            final int shift = (MAX_N - n) * BITS_PER_CHAR;
+            final int first = start + n - 1;
+            long window = 0;
+            for (int i = start; i < end; ++i)
+            {
+                window = (window << BITS_PER_CHAR | toLowerCase(data.charAt(i))) & mask;
+                if (i >= first)
+                {
+                    ngrams.add(window << shift);
+                }
+            }
         }
 
         if (mAddSpaceInFront)
         {
-            /*
-             * Add another String with a space and the first n-1 characters of the word.
-			 * 
-			 * We could just call
-			 * 
-			 * ngrams.add(" " + word.substring(0, Math.min(len, n - 1));
-			 * 
-			 * But it's probably way more efficient like this:
-			 */
-            char[] tempArray = mTempArray;
-
-            int count = Math.min(len, n - 1);
-            for (int i = 0; i < count; ++i)
+            // add another N-gram with a space and the first n-1 characters of the word
+            final int count = Math.min(len, n - 1);
+            long ngram = ' ';
+            for (int i = start; i < start + count; ++i)
             {
-                tempArray[i + 1] = word.charAt(i);
+                ngram = ngram << BITS_PER_CHAR | toLowerCase(data.charAt(i));
             }
-            ngrams.add(new String(tempArray));
+            ngrams.add(ngram << ((MAX_N - 1 - count) * BITS_PER_CHAR));
         }
     }
+
+
+    private boolean isWordCodePoint(int codePoint)
+    {
+        switch (Character.getType(codePoint))
+        {
+            case Character.UPPERCASE_LETTER:
+            case Character.LOWERCASE_LETTER:
+            case Character.TITLECASE_LETTER:
+            case Character.MODIFIER_LETTER:
+            case Character.OTHER_LETTER:
+            case Character.NON_SPACING_MARK:
+            case Character.ENCLOSING_MARK:
+            case Character.COMBINING_SPACING_MARK:
+                return true;
+            default:
+                return mReturnNumbers && codePoint >= '0' && codePoint <= '9';
+        }
+    }
+
+
+    private char toLowerCase(char c)
+    {
+        if (!mAllLowercase)
+        {
+            return c;
+        }
+        if (mDotlessI)
+        {
+            // Turkish and Azerbaijani have a dotted and a dotless i
+            if (c == 'I')
+            {
+                return '\u0131';
+            }
+            if (c == '\u0130')
+            {
+                return 'i';
+            }
+        }
+        return Character.toLowerCase(c);
+    }
+
+
+    private static boolean hasDotlessI(Locale locale)
+    {
+        String language = locale.getLanguage();
+        return "tr".equals(language) || "az".equals(language);
+    }
 }
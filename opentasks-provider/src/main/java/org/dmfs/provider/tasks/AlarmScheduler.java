@@ -0,0 +1,284 @@
+/*
+ * Copyright 2017 dmfs GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dmfs.provider.tasks;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.dmfs.provider.tasks.TaskDatabaseHelper.Tables;
+import org.dmfs.tasks.contract.TaskContract.Alarms;
+import org.dmfs.tasks.contract.TaskContract.Instances;
+import org.dmfs.tasks.contract.TaskContract.Properties;
+import org.dmfs.tasks.contract.TaskContract.Property.Alarm;
+import org.dmfs.tasks.contract.TaskContract.Tasks;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TimeZone;
+
+
+/**
+ * Materializes the next trigger time of every alarm property in the {@link Tables#ALARMS} table.
+ * <p>
+ * The table contains one row per alarm property with the time the alarm has been triggered last and the time it triggers next, taking all instances of
+ * recurring tasks into account. The next trigger times are indexed, so the earliest alarm can always be found with a single index lookup and all alarms that
+ * are due can be fired at once.
+ * <p>
+ * The next trigger times are updated incrementally. Changes to alarms and to the dates or status of tasks mark the task as pending and all pending tasks are
+ * updated with a few set based statements right before the transaction is committed. Like {@link org.dmfs.provider.tasks.handler.RelationResolver}, the
+ * pending tasks are kept per thread.
+ *
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+public final class AlarmScheduler
+{
+    /**
+     * The column that contains the id of the task the alarm belongs to.
+     */
+    public final static String TASK_ID = "task_id";
+
+    /**
+     * The maximum number of ids in a single statement.
+     */
+    private final static int MAX_IDS = 500;
+
+    private final static String SQL_CREATE_ALARMS_TABLE = "CREATE TABLE " + Tables.ALARMS + " ( " + Alarms.ALARM_ID + " INTEGER PRIMARY KEY, " + TASK_ID
+            + " INTEGER NOT NULL, " + Alarms.LAST_TRIGGER + " INTEGER, " + Alarms.NEXT_TRIGGER + " INTEGER);";
+
+    private final static String ALARM_SELECTION = Properties.MIMETYPE + " = '" + Alarm.CONTENT_ITEM_TYPE + "'";
+
+    /**
+     * Adds the alarms of the tasks in <code>%1$s</code> that are not in the table yet. New alarms only trigger after the time in <code>%2$d</code>.
+     */
+    private final static String SQL_INSERT_ALARMS = "INSERT OR IGNORE INTO " + Tables.ALARMS + " (" + Alarms.ALARM_ID + ", " + TASK_ID + ", "
+            + Alarms.LAST_TRIGGER + ") SELECT " + Properties.PROPERTY_ID + ", " + Properties.TASK_ID + ", %2$d FROM " + Tables.PROPERTIES + " WHERE "
+            + ALARM_SELECTION + " AND " + Properties.TASK_ID + " IN (%1$s)";
+
+    /**
+     * The trigger time of an alarm for a specific instance. Floating and all-day instances are shifted by the local time zone offset in <code>%1$d</code>.
+     */
+    private final static String TRIGGER_TIME = "(CASE p." + Alarm.REFERENCE + " WHEN " + Alarm.ALARM_REFERENCE_DUE_DATE + " THEN i." + Instances.INSTANCE_DUE
+            + " ELSE i." + Instances.INSTANCE_START + " END - p." + Alarm.MINUTES_BEFORE + " * 60000 - CASE WHEN t." + Tasks.TZ
+            + " IS NULL THEN %1$d ELSE 0 END)";
+
+    /**
+     * Sets the next trigger time of the alarms that match the selection in <code>%2$s</code> to the earliest trigger after the last one.
+     */
+    private final static String SQL_UPDATE_NEXT_TRIGGER = "UPDATE " + Tables.ALARMS + " SET " + Alarms.NEXT_TRIGGER + " = (SELECT min(" + TRIGGER_TIME
+            + ") FROM " + Tables.PROPERTIES + " AS p JOIN " + Tables.TASKS + " AS t ON (t." + Tasks._ID + " = p." + Properties.TASK_ID + ") JOIN "
+            + Tables.INSTANCES + " AS i ON (i." + Instances.TASK_ID + " = p." + Properties.TASK_ID + ") WHERE p." + Properties.PROPERTY_ID + " = "
+            + Tables.ALARMS + "." + Alarms.ALARM_ID + " AND p." + Alarm.ALARM_TYPE + " <> " + Alarm.ALARM_TYPE_NOTHING + " AND t." + Tasks.IS_CLOSED
+            + " = 0 AND t." + Tasks._DELETED + " = 0 AND " + TRIGGER_TIME + " > ifnull(" + Tables.ALARMS + "." + Alarms.LAST_TRIGGER + ", 0)) WHERE %2$s";
+
+    /**
+     * The ids of the tasks with pending alarms or <code>null</code> if nothing is pending.
+     */
+    private final static ThreadLocal<Set<Long>> PENDING = new ThreadLocal<Set<Long>>();
+
+
+    /**
+     * Creates the alarms table and its indices.
+     *
+     * @param db
+     *         The {@link SQLiteDatabase}.
+     */
+    public static void onCreate(SQLiteDatabase db)
+    {
+        db.execSQL(SQL_CREATE_ALARMS_TABLE);
+        db.execSQL(TaskDatabaseHelper.createIndexString(Tables.ALARMS, false, Alarms.NEXT_TRIGGER));
+        db.execSQL(TaskDatabaseHelper.createIndexString(Tables.ALARMS, false, TASK_ID));
+    }
+
+
+    /**
+     * Adds all existing alarms and computes their next trigger times. This is only required when the table is added to an existing database.
+     *
+     * @param db
+     *         A writable {@link SQLiteDatabase}.
+     */
+    public static void populate(SQLiteDatabase db)
+    {
+        db.execSQL("INSERT OR IGNORE INTO " + Tables.ALARMS + " (" + Alarms.ALARM_ID + ", " + TASK_ID + ", " + Alarms.LAST_TRIGGER + ") SELECT "
+                + Properties.PROPERTY_ID + ", " + Properties.TASK_ID + ", " + System.currentTimeMillis() + " FROM " + Tables.PROPERTIES + " WHERE "
+                + ALARM_SELECTION);
+        updateAll(db);
+    }
+
+
+    /**
+     * Records that the alarms of the given task need to be updated before the current transaction is committed.
+     *
+     * @param taskId
+     *         The row id of the task.
+     */
+    public static void markPending(long taskId)
+    {
+        Set<Long> pending = PENDING.get();
+        if (pending == null)
+        {
+            pending = new HashSet<Long>(16);
+            PENDING.set(pending);
+        }
+        pending.add(taskId);
+    }
+
+
+    /**
+     * Updates the alarms of all pending tasks. Call this right before the transaction is committed.
+     *
+     * @param db
+     *         A writable {@link SQLiteDatabase}.
+     *
+     * @return <code>true</code> if any alarms have been updated, <code>false</code> otherwise.
+     */
+    public static boolean resolve(SQLiteDatabase db)
+    {
+        Set<Long> taskIds = PENDING.get();
+        if (taskIds == null)
+        {
+            // nothing to do
+            return false;
+        }
+        PENDING.remove();
+
+        long now = System.currentTimeMillis();
+        long offset = localOffset(now);
+        List<Long> ids = new ArrayList<Long>(taskIds);
+        for (int start = 0, count = ids.size(); start < count; start += MAX_IDS)
+        {
+            String idList = idList(ids.subList(start, Math.min(count, start + MAX_IDS)));
+            db.execSQL(String.format(SQL_INSERT_ALARMS, idList, now));
+            db.execSQL(String.format(SQL_UPDATE_NEXT_TRIGGER, offset, TASK_ID + " IN (" + idList + ")"));
+        }
+        return true;
+    }
+
+
+    /**
+     * Drops all pending tasks of the current thread. Call this when a transaction has been rolled back.
+     */
+    public static void clear()
+    {
+        PENDING.remove();
+    }
+
+
+    /**
+     * Updates the next trigger times of all alarms, e.g. after the local time zone has changed or new instances have been expanded.
+     *
+     * @param db
+     *         A writable {@link SQLiteDatabase}.
+     */
+    public static void updateAll(SQLiteDatabase db)
+    {
+        db.execSQL(String.format(SQL_UPDATE_NEXT_TRIGGER, localOffset(System.currentTimeMillis()), "1"));
+    }
+
+
+    /**
+     * Returns the earliest next trigger time of all alarms.
+     *
+     * @param db
+     *         The {@link SQLiteDatabase}.
+     *
+     * @return The timestamp of the next alarm or <code>-1</code> if there is no pending alarm.
+     */
+    public static long nextTrigger(SQLiteDatabase db)
+    {
+        // this is a single lookup in the index on the next trigger time
+        Cursor cursor = db.rawQuery("SELECT min(" + Alarms.NEXT_TRIGGER + ") FROM " + Tables.ALARMS, null);
+        try
+        {
+            return cursor.moveToFirst() && !cursor.isNull(0) ? cursor.getLong(0) : -1;
+        }
+        finally
+        {
+            cursor.close();
+        }
+    }
+
+
+    /**
+     * Returns a {@link Cursor} of all alarms that trigger at or before the given time, including the {@link Alarm#MESSAGE}, the {@link Alarm#ALARM_TYPE} and
+     * the {@link Tasks#TITLE} of the task.
+     *
+     * @param db
+     *         The {@link SQLiteDatabase}.
+     * @param until
+     *         The timestamp until which to return alarms.
+     *
+     * @return A {@link Cursor} with the columns {@link Alarms#ALARM_ID}, {@link #TASK_ID}, {@link Alarms#NEXT_TRIGGER}, {@link Alarm#MESSAGE}, {@link
+     * Alarm#ALARM_TYPE} and {@link Tasks#TITLE}, in that order.
+     */
+    public static Cursor dueAlarms(SQLiteDatabase db, long until)
+    {
+        return db.rawQuery("SELECT a." + Alarms.ALARM_ID + ", a." + TASK_ID + ", a." + Alarms.NEXT_TRIGGER + ", p." + Alarm.MESSAGE + ", p."
+                + Alarm.ALARM_TYPE + ", t." + Tasks.TITLE + " FROM " + Tables.ALARMS + " AS a JOIN " + Tables.PROPERTIES + " AS p ON (p."
+                + Properties.PROPERTY_ID + " = a." + Alarms.ALARM_ID + ") JOIN " + Tables.TASKS + " AS t ON (t." + Tasks._ID + " = a." + TASK_ID + ") WHERE a."
+                + Alarms.NEXT_TRIGGER + " <= ? ORDER BY a." + Alarms.NEXT_TRIGGER, new String[] { Long.toString(until) });
+    }
+
+
+    /**
+     * Marks the given alarms as triggered and moves them to their next trigger time.
+     *
+     * @param db
+     *         A writable {@link SQLiteDatabase}.
+     * @param alarmIds
+     *         The ids of the alarms that have been triggered.
+     */
+    public static void advance(SQLiteDatabase db, Collection<Long> alarmIds)
+    {
+        long offset = localOffset(System.currentTimeMillis());
+        List<Long> ids = new ArrayList<Long>(alarmIds);
+        for (int start = 0, count = ids.size(); start < count; start += MAX_IDS)
+        {
+            String selection = Alarms.ALARM_ID + " IN (" + idList(ids.subList(start, Math.min(count, start + MAX_IDS))) + ")";
+            db.execSQL("UPDATE " + Tables.ALARMS + " SET " + Alarms.LAST_TRIGGER + " = " + Alarms.NEXT_TRIGGER + " WHERE " + selection);
+            db.execSQL(String.format(SQL_UPDATE_NEXT_TRIGGER, offset, selection));
+        }
+    }
+
+
+    /**
+     * Returns the offset of the local time zone at the given time. Floating and all-day dates are stored in UTC, so they need to be shifted by this offset.
+     * Note that this doesn't take DST changes between now and the trigger time into account. Since all trigger times are recomputed when the time zone changes
+     * and when alarms are fired, this only affects alarms across a DST change.
+     */
+    private static long localOffset(long timestamp)
+    {
+        return TimeZone.getDefault().getOffset(timestamp);
+    }
+
+
+    private static String idList(List<Long> ids)
+    {
+        StringBuilder result = new StringBuilder(ids.size() * 8);
+        for (Long id : ids)
+        {
+            if (result.length() > 0)
+            {
+                result.append(',');
+            }
+            result.append(id);
+        }
+        return result.toString();
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2017 dmfs GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dmfs.provider.tasks;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.dmfs.provider.tasks.ProviderOperationsLog.ChangeRange;
+import org.dmfs.provider.tasks.TaskDatabaseHelper.Tables;
+import org.dmfs.tasks.contract.TaskContract.Changes;
+
+
+/**
+ * The persistent journal of the changes served by {@link Changes}. Each row describes a range of entities with consecutive ids that have been modified by
+ * the same operation in the same transaction.
+ * <p>
+ * The journal only retains a limited number of rows. A row with a <code>null</code> {@link Changes#ENTITY} marks the sequence number up to which the changes
+ * are no longer known.
+ *
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+public final class ChangeJournal
+{
+    /**
+     * SQL command to create the journal table.
+     */
+    private final static String SQL_CREATE_CHANGES_TABLE = "CREATE TABLE " + Tables.CHANGES + " ( " + Changes.SEQUENCE + " INTEGER NOT NULL, "
+            + Changes.ENTITY + " TEXT, " + Changes.OPERATION + " INTEGER, " + Changes.FIRST_ID + " INTEGER, " + Changes.LAST_ID + " INTEGER);";
+
+    /**
+     * The last sequence number handed out or <code>0</code> if it hasn't been loaded yet.
+     */
+    private long mLastSequence;
+
+
+    /**
+     * Creates the journal table.
+     *
+     * @param db
+     *         The {@link SQLiteDatabase}.
+     */
+    public static void onCreate(SQLiteDatabase db)
+    {
+        db.execSQL(SQL_CREATE_CHANGES_TABLE);
+        db.execSQL(TaskDatabaseHelper.createIndexString(Tables.CHANGES, false, Changes.SEQUENCE));
+        // sequence numbers are seeded with the current time, so they keep increasing if the database is recreated
+        insertMarker(db, System.currentTimeMillis());
+    }
+
+
+    /**
+     * Returns a new sequence number.
+     *
+     * @param db
+     *         The {@link SQLiteDatabase}.
+     *
+     * @return The sequence number.
+     */
+    public synchronized long nextSequence(SQLiteDatabase db)
+    {
+        if (mLastSequence == 0)
+        {
+            mLastSequence = DatabaseUtils.longForQuery(db, "SELECT max(" + Changes.SEQUENCE + ") FROM " + Tables.CHANGES, null);
+        }
+        return ++mLastSequence;
+    }
+
+
+    /**
+     * Adds the given {@link ChangeRange} to the journal.
+     *
+     * @param db
+     *         A writable {@link SQLiteDatabase}.
+     * @param sequence
+     *         The sequence number of the transaction.
+     * @param range
+     *         The {@link ChangeRange} to add.
+     *
+     * @return The row id of the new journal row.
+     */
+    public long insert(SQLiteDatabase db, long sequence, ChangeRange range)
+    {
+        ContentValues values = new ContentValues(5);
+        values.put(Changes.SEQUENCE, sequence);
+        values.put(Changes.ENTITY, range.entity);
+        values.put(Changes.OPERATION, range.operation);
+        values.put(Changes.FIRST_ID, range.firstId);
+        values.put(Changes.LAST_ID, range.lastId);
+        return db.insert(Tables.CHANGES, null, values);
+    }
+
+
+    /**
+     * Updates the last id of a journal row.
+     *
+     * @param db
+     *         A writable {@link SQLiteDatabase}.
+     * @param rowId
+     *         The row id of the journal row.
+     * @param lastId
+     *         The new last id of the range.
+     *
+     * @return <code>true</code> if the row has been updated, <code>false</code> if it no longer exists.
+     */
+    public boolean updateLastId(SQLiteDatabase db, long rowId, long lastId)
+    {
+        ContentValues values = new ContentValues(1);
+        values.put(Changes.LAST_ID, lastId);
+        return db.update(Tables.CHANGES, values, "_rowid_ = " + rowId, null) > 0;
+    }
+
+
+    /**
+     * Removes the oldest rows from the journal, keeping roughly the given number of rows. The sequence numbers of the removed rows are marked as unknown.
+     *
+     * @param db
+     *         A writable {@link SQLiteDatabase}.
+     * @param maxRows
+     *         The number of rows to keep.
+     */
+    public static void trim(SQLiteDatabase db, int maxRows)
+    {
+        Cursor cursor = db.query(Tables.CHANGES, new String[] { Changes.SEQUENCE }, null, null, null, null, Changes.SEQUENCE + " DESC", maxRows + ", 1");
+        try
+        {
+            if (!cursor.moveToFirst())
+            {
+                // nothing to remove
+                return;
+            }
+
+            long sequence = cursor.getLong(0);
+            db.delete(Tables.CHANGES, Changes.SEQUENCE + " <= " + sequence, null);
+            insertMarker(db, sequence);
+        }
+        finally
+        {
+            cursor.close();
+        }
+    }
+
+
+    private static void insertMarker(SQLiteDatabase db, long sequence)
+    {
+        ContentValues values = new ContentValues(1);
+        values.put(Changes.SEQUENCE, sequence);
+        db.insert(Tables.CHANGES, null, values);
+    }
+}
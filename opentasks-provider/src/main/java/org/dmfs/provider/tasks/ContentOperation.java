@@ -17,6 +17,7 @@
 package org.dmfs.provider.tasks;
 
 import android.annotation.SuppressLint;
+import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
@@ -30,22 +31,26 @@ import android.os.Build;
 import android.os.Handler;
 import android.util.Log;
 
+import org.dmfs.provider.tasks.TaskDatabaseHelper.Tables;
 import org.dmfs.provider.tasks.model.CursorContentValuesTaskAdapter;
 import org.dmfs.provider.tasks.model.TaskAdapter;
-import org.dmfs.provider.tasks.processors.tasks.TaskInstancesProcessor;
+import org.dmfs.provider.tasks.processors.tasks.InstanceExpander;
+import org.dmfs.provider.tasks.processors.tasks.InstanceSorting;
 import org.dmfs.rfc5545.DateTime;
 import org.dmfs.tasks.contract.TaskContract;
 import org.dmfs.tasks.contract.TaskContract.Instances;
 import org.dmfs.tasks.contract.TaskContract.Tasks;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.TimeZone;
 
 
 public enum ContentOperation
 {
     /**
-     * When the local timezone has been changed we need to update the due and start sorting values. This handler will take care of running the appropriate
-     * update. In addition it fires an operation to update all notifications.
+     * When the local timezone has been changed we need to update the due and start sorting values. This handler recomputes the sorting values of all
+     * instances, see {@link InstanceSorting}. In addition it fires an operation to update all notifications.
      */
     UPDATE_TIMEZONE(new OperationHandler()
     {
@@ -53,20 +58,32 @@ public enum ContentOperation
         public void handleOperation(Context context, Uri uri, SQLiteDatabase db, ContentValues values)
         {
             long start = System.currentTimeMillis();
+            int count;
 
-            // request an update of all instance values
-            ContentValues vals = new ContentValues(1);
-            TaskInstancesProcessor.addUpdateRequest(vals);
+            // only the sorting values of the instances depend on the local time zone, there is no need to update the tasks
+            db.beginTransaction();
+            try
+            {
+                count = InstanceSorting.update(db, TimeZone.getDefault());
+                // floating alarms move with the time zone
+                AlarmScheduler.updateAll(db);
+                db.setTransactionSuccessful();
+            }
+            finally
+            {
+                db.endTransaction();
+            }
 
-            // execute update that triggers a recalculation of all due and start sorting values
-            int count = context.getContentResolver().update(
-                    TaskContract.Tasks.getContentUri(uri.getAuthority()).buildUpon().appendQueryParameter(TaskContract.CALLER_IS_SYNCADAPTER, "true").build(),
-                    vals, null, null);
+            Log.i("TaskProvider", "time to update " + count + " instances: " + (System.currentTimeMillis() - start) + " ms");
 
-            Log.i("TaskProvider", "time to update " + count + " tasks: " + (System.currentTimeMillis() - start) + " ms");
+            if (count > 0)
+            {
+                context.getContentResolver().notifyChange(Instances.getContentUri(uri.getAuthority()), null);
+            }
 
             // now update alarms as well
             UPDATE_NOTIFICATION_ALARM.fire(context, null);
+            UPDATE_ALARMS.fire(context, null);
         }
     }),
 
@@ -79,54 +96,49 @@ public enum ContentOperation
         @Override
         public void handleOperation(Context context, Uri uri, SQLiteDatabase db, ContentValues values)
         {
-            TimeZone localTimeZone = TimeZone.getDefault();
+            String localTimeZoneId = TimeZone.getDefault().getID();
 
             // the date-time of when the last notification was shown
             DateTime lastAlarm = getLastAlarmTimestamp(context);
             // the current time, we show all notifications between <set> and now
             DateTime now = DateTime.nowAndHere();
 
-            String lastAlarmString = Long.toString(lastAlarm.getInstance());
-            String nowString = Long.toString(now.getInstance());
-
             // load all tasks that have started or became due since the last time we've shown a notification.
-            Cursor taskCursor = db.query(TaskDatabaseHelper.Tables.INSTANCE_VIEW, null, "((" + TaskContract.Instances.INSTANCE_DUE_SORTING + ">? and "
-                    + TaskContract.Instances.INSTANCE_DUE_SORTING + "<=?) or (" + TaskContract.Instances.INSTANCE_START_SORTING + ">? and "
-                    + TaskContract.Instances.INSTANCE_START_SORTING + "<=?)) and " + Instances.IS_CLOSED + " = 0 and " + Tasks._DELETED + "=0", new String[] {
-                    lastAlarmString, nowString, lastAlarmString, nowString }, null, null, null);
+            Cursor taskCursor = db.rawQuery(SQL_NOTIFICATIONS, new String[] { Long.toString(lastAlarm.getInstance()), Long.toString(now.getInstance()) });
 
             try
             {
+                Uri tasksUri = Tasks.getContentUri(uri.getAuthority());
+                boolean batched = sBatchedNotifications;
+                NotificationBatch dueBatch = batched ? new NotificationBatch(context, TaskContract.ACTION_BROADCAST_TASKS_DUE) : null;
+                NotificationBatch startBatch = batched ? new NotificationBatch(context, TaskContract.ACTION_BROADCAST_TASKS_STARTING) : null;
+
                 while (taskCursor.moveToNext())
                 {
-                    TaskAdapter task = new CursorContentValuesTaskAdapter(TaskAdapter.INSTANCE_TASK_ID.getFrom(taskCursor), taskCursor, null);
-
-                    DateTime instanceDue = task.valueOf(TaskAdapter.INSTANCE_DUE);
-                    if (instanceDue != null && !instanceDue.isFloating())
+                    // the query tells us whether the task became due or has started, due takes precedence
+                    Uri taskUri = ContentUris.withAppendedId(tasksUri, taskCursor.getLong(0));
+                    boolean isDue = taskCursor.getInt(1) != 0;
+                    long timestamp = taskCursor.getLong(2);
+                    boolean allDay = taskCursor.getInt(3) != 0;
+                    // floating and all-day dates don't have a time zone, all other dates are reported in local time
+                    String timeZoneId = allDay || taskCursor.isNull(4) ? null : localTimeZoneId;
+                    String title = taskCursor.getString(5);
+
+                    if (batched)
                     {
-                        // make sure we compare instances in local time
-                        instanceDue = instanceDue.shiftTimeZone(localTimeZone);
+                        (isDue ? dueBatch : startBatch).add(taskUri, timestamp, allDay, timeZoneId, title);
                     }
-
-                    DateTime instanceStart = task.valueOf(TaskAdapter.INSTANCE_START);
-                    if (instanceStart != null && !instanceStart.isFloating())
+                    else
                     {
-                        // make sure we compare instances in local time
-                        instanceStart = instanceStart.shiftTimeZone(localTimeZone);
+                        sendBroadcast(context, isDue ? TaskContract.ACTION_BROADCAST_TASK_DUE : TaskContract.ACTION_BROADCAST_TASK_STARTING, taskUri,
+                                timestamp, allDay, timeZoneId, title);
                     }
+                }
 
-                    if (instanceDue != null && lastAlarm.getInstance() < instanceDue.getInstance() && instanceDue.getInstance() <= now.getInstance())
-                    {
-                        // this task became due since the last alarm, send a due broadcast
-                        sendBroadcast(context, TaskContract.ACTION_BROADCAST_TASK_DUE, task.uri(uri.getAuthority()), instanceDue,
-                                task.valueOf(TaskAdapter.TITLE));
-                    }
-                    else if (instanceStart != null && lastAlarm.getInstance() < instanceStart.getInstance() && instanceStart.getInstance() <= now.getInstance())
-                    {
-                        // this task has started since the last alarm, send a start broadcast
-                        sendBroadcast(context, TaskContract.ACTION_BROADCAST_TASK_STARTING, task.uri(uri.getAuthority()), instanceStart,
-                                task.valueOf(TaskAdapter.TITLE));
-                    }
+                if (batched)
+                {
+                    dueBatch.send();
+                    startBatch.send();
                 }
             }
             finally
@@ -175,20 +187,24 @@ public enum ContentOperation
          *         The broadcast action.
          * @param uri
          *         The task uri.
-         * @param datetime
-         *         The datetime to add.
+         * @param timestamp
+         *         The timestamp of the start or due date.
+         * @param allDay
+         *         Whether the date is an all-day date.
+         * @param timeZoneId
+         *         The time zone of the date or <code>null</code> if the date is floating.
          * @param title
          *         The task title.
          */
-        private void sendBroadcast(Context context, String action, Uri uri, DateTime datetime, String title)
+        private void sendBroadcast(Context context, String action, Uri uri, long timestamp, boolean allDay, String timeZoneId, String title)
         {
             Intent intent = new Intent(action);
             intent.setData(uri);
-            intent.putExtra(TaskContract.EXTRA_TASK_TIMESTAMP, datetime.getTimestamp());
-            intent.putExtra(TaskContract.EXTRA_TASK_ALLDAY, datetime.isAllDay());
-            if (!datetime.isFloating())
+            intent.putExtra(TaskContract.EXTRA_TASK_TIMESTAMP, timestamp);
+            intent.putExtra(TaskContract.EXTRA_TASK_ALLDAY, allDay);
+            if (timeZoneId != null)
             {
-                intent.putExtra(TaskContract.EXTRA_TASK_TIMEZONE, datetime.getTimeZone().getID());
+                intent.putExtra(TaskContract.EXTRA_TASK_TIMEZONE, timeZoneId);
             }
             intent.putExtra(TaskContract.EXTRA_TASK_TITLE, title);
             context.sendBroadcast(intent);
@@ -302,6 +318,261 @@ public enum ContentOperation
             return new DateTime(TimeZone.getDefault(), prefs.getLong(PREFS_KEY_LAST_ALARM_TIMESTAMP, System.currentTimeMillis()));
         }
 
+    }),
+
+    /**
+     * Moves the instance expansion window of recurring tasks forward. This materializes all instances that entered the window since the last run and removes
+     * instances that left it. The operation returns immediately if the window has not moved since the last run.
+     */
+    EXPAND_INSTANCES(new OperationHandler()
+    {
+
+        @Override
+        public void handleOperation(Context context, Uri uri, SQLiteDatabase db, ContentValues values)
+        {
+            long windowEnd = InstanceExpander.windowEnd();
+            SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+            if (prefs.getLong(PREFS_KEY_INSTANCE_WINDOW_END, 0) >= windowEnd)
+            {
+                // window didn't move, nothing to do
+                return;
+            }
+
+            long start = System.currentTimeMillis();
+            int count;
+
+            db.beginTransaction();
+            try
+            {
+                count = InstanceExpander.extendAll(db, windowEnd);
+                if (count > 0)
+                {
+                    // the new instances may contain the next trigger of an alarm
+                    AlarmScheduler.updateAll(db);
+                }
+                db.setTransactionSuccessful();
+            }
+            finally
+            {
+                db.endTransaction();
+            }
+
+            Log.i("TaskProvider", "time to expand " + count + " instances: " + (System.currentTimeMillis() - start) + " ms");
+
+            prefs.edit().putLong(PREFS_KEY_INSTANCE_WINDOW_END, windowEnd).commit();
+
+            if (count > 0)
+            {
+                context.getContentResolver().notifyChange(Instances.getContentUri(uri.getAuthority()), null);
+                UPDATE_NOTIFICATION_ALARM.fire(context, null);
+                UPDATE_ALARMS.fire(context, null);
+            }
+        }
+    }),
+
+    /**
+     * Indexes all tasks in the queue of deferred search index updates. The queue is processed in small batches, each in its own transaction, so other writers
+     * are not blocked for long.
+     */
+    UPDATE_SEARCH_INDEX(new OperationHandler()
+    {
+
+        @Override
+        public void handleOperation(Context context, Uri uri, SQLiteDatabase db, ContentValues values)
+        {
+            long start = System.currentTimeMillis();
+            int total = 0;
+            int count;
+
+            do
+            {
+                boolean success = false;
+                db.beginTransaction();
+                try
+                {
+                    count = FTSDatabaseHelper.indexPendingTasks(db, SEARCH_INDEX_BATCH_SIZE);
+                    db.setTransactionSuccessful();
+                    success = true;
+                }
+                finally
+                {
+                    db.endTransaction();
+                    if (!success)
+                    {
+                        // n-grams inserted in this transaction are gone
+                        FTSDatabaseHelper.invalidateNGramCache();
+                    }
+                }
+                // wake up waiting searches
+                FTSDatabaseHelper.notifyPendingIndexUpdated();
+                total += count;
+            }
+            while (count > 0);
+
+            if (total > 0)
+            {
+                Log.i("TaskProvider", "time to index " + total + " tasks: " + (System.currentTimeMillis() - start) + " ms");
+
+                // search results are attached to the tasks Uri
+                context.getContentResolver().notifyChange(Tasks.getContentUri(uri.getAuthority()), null);
+            }
+        }
+    }),
+
+    /**
+     * Rebuilds the search index if the search backend has been changed since the last run. The tasks are queued for indexing and indexed by
+     * {@link #UPDATE_SEARCH_INDEX}.
+     */
+    REBUILD_SEARCH_INDEX(new OperationHandler()
+    {
+
+        @Override
+        public void handleOperation(Context context, Uri uri, SQLiteDatabase db, ContentValues values)
+        {
+            String backend = FTSDatabaseHelper.searchBackendName();
+            SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+            // the n-gram index is the one we've always had
+            if (backend.equals(prefs.getString(PREFS_KEY_SEARCH_BACKEND, FTSDatabaseHelper.SEARCH_BACKEND_NGRAM)))
+            {
+                // backend didn't change, nothing to do
+                return;
+            }
+
+            long start = System.currentTimeMillis();
+
+            boolean success = false;
+            db.beginTransaction();
+            try
+            {
+                FTSDatabaseHelper.rebuildSearchIndex(db);
+                db.setTransactionSuccessful();
+                success = true;
+            }
+            finally
+            {
+                db.endTransaction();
+                if (!success)
+                {
+                    FTSDatabaseHelper.invalidateNGramCache();
+                }
+            }
+
+            Log.i("TaskProvider", "time to reset search index for backend " + backend + ": " + (System.currentTimeMillis() - start) + " ms");
+
+            prefs.edit().putString(PREFS_KEY_SEARCH_BACKEND, backend).commit();
+
+            UPDATE_SEARCH_INDEX.fire(context, null);
+        }
+    }),
+
+    /**
+     * Removes the oldest entries from the change journal.
+     */
+    TRIM_CHANGE_JOURNAL(new OperationHandler()
+    {
+
+        @Override
+        public void handleOperation(Context context, Uri uri, SQLiteDatabase db, ContentValues values)
+        {
+            ChangeJournal.trim(db, CHANGE_JOURNAL_SIZE);
+        }
+    }),
+
+    /**
+     * Schedules a single system alarm for the earliest trigger time of all alarm properties, see {@link AlarmScheduler}.
+     */
+    UPDATE_ALARMS(new OperationHandler()
+    {
+
+        @Override
+        public void handleOperation(Context context, Uri uri, SQLiteDatabase db, ContentValues values)
+        {
+            long nextTrigger = AlarmScheduler.nextTrigger(db);
+            if (nextTrigger >= 0)
+            {
+                TaskProviderBroadcastReceiver.planTaskAlarm(context, nextTrigger);
+            }
+            else
+            {
+                TaskProviderBroadcastReceiver.cancelTaskAlarm(context);
+            }
+        }
+    }),
+
+    /**
+     * Sends a {@link TaskContract#ACTION_BROADCAST_TASK_ALARMS} broadcast with all alarm properties that have been triggered, moves these alarms to their next
+     * trigger time and schedules the next system alarm.
+     */
+    POST_ALARMS(new OperationHandler()
+    {
+
+        @Override
+        public void handleOperation(Context context, Uri uri, SQLiteDatabase db, ContentValues values)
+        {
+            List<Long> alarmIds = new ArrayList<Long>(8);
+            ArrayList<Uri> taskUris = new ArrayList<Uri>(8);
+            List<Long> timestamps = new ArrayList<Long>(8);
+            List<String> messages = new ArrayList<String>(8);
+            List<Integer> types = new ArrayList<Integer>(8);
+            List<String> titles = new ArrayList<String>(8);
+
+            // load all alarms that are due in one go
+            Cursor cursor = AlarmScheduler.dueAlarms(db, System.currentTimeMillis());
+            try
+            {
+                while (cursor.moveToNext())
+                {
+                    alarmIds.add(cursor.getLong(0));
+                    taskUris.add(ContentUris.withAppendedId(Tasks.getContentUri(uri.getAuthority()), cursor.getLong(1)));
+                    timestamps.add(cursor.getLong(2));
+                    messages.add(cursor.getString(3));
+                    types.add(cursor.getInt(4));
+                    titles.add(cursor.getString(5));
+                }
+            }
+            finally
+            {
+                cursor.close();
+            }
+
+            if (!alarmIds.isEmpty())
+            {
+                db.beginTransaction();
+                try
+                {
+                    AlarmScheduler.advance(db, alarmIds);
+                    db.setTransactionSuccessful();
+                }
+                finally
+                {
+                    db.endTransaction();
+                }
+
+                // send all alarms in as few broadcasts as possible
+                for (int start = 0, count = alarmIds.size(); start < count; start += MAX_ALARMS_PER_BROADCAST)
+                {
+                    int end = Math.min(start + MAX_ALARMS_PER_BROADCAST, count);
+                    long[] batchTimestamps = new long[end - start];
+                    int[] batchTypes = new int[end - start];
+                    for (int i = start; i < end; ++i)
+                    {
+                        batchTimestamps[i - start] = timestamps.get(i);
+                        batchTypes[i - start] = types.get(i);
+                    }
+
+                    Intent intent = new Intent(TaskContract.ACTION_BROADCAST_TASK_ALARMS);
+                    intent.putParcelableArrayListExtra(TaskContract.EXTRA_TASK_URIS, new ArrayList<Uri>(taskUris.subList(start, end)));
+                    intent.putExtra(TaskContract.EXTRA_TASK_TIMESTAMPS, batchTimestamps);
+                    intent.putExtra(TaskContract.EXTRA_TASK_TITLES, titles.subList(start, end).toArray(new String[end - start]));
+                    intent.putExtra(TaskContract.EXTRA_ALARM_MESSAGES, messages.subList(start, end).toArray(new String[end - start]));
+                    intent.putExtra(TaskContract.EXTRA_ALARM_TYPES, batchTypes);
+                    context.sendBroadcast(intent);
+                }
+            }
+
+            // set the system alarm for the next trigger
+            UPDATE_ALARMS.fire(context, null);
+        }
     });
 
     /**
@@ -319,8 +590,59 @@ public enum ContentOperation
      */
     private final OperationHandler mHandler;
 
+    /**
+     * The number of queued tasks to index in one transaction.
+     */
+    private static final int SEARCH_INDEX_BATCH_SIZE = 100;
+
+    /**
+     * The maximum number of alarms in one {@link TaskContract#ACTION_BROADCAST_TASK_ALARMS} broadcast. This keeps each broadcast well below the size limit of
+     * a binder transaction.
+     */
+    private static final int MAX_ALARMS_PER_BROADCAST = 250;
+
+    /**
+     * The number of rows to retain in the change journal.
+     */
+    private static final int CHANGE_JOURNAL_SIZE = 10000;
+
+    /**
+     * A condition that matches instances that became due in the window between the first (exclusive) and the second (inclusive) argument.
+     */
+    private static final String SQL_DUE_IN_WINDOW = Tables.INSTANCES + "." + Instances.INSTANCE_DUE_SORTING + " > ?1 AND " + Tables.INSTANCES + "."
+            + Instances.INSTANCE_DUE_SORTING + " <= ?2";
+
+    /**
+     * A condition that matches instances that have started in the window between the first (exclusive) and the second (inclusive) argument.
+     */
+    private static final String SQL_START_IN_WINDOW = Tables.INSTANCES + "." + Instances.INSTANCE_START_SORTING + " > ?1 AND " + Tables.INSTANCES + "."
+            + Instances.INSTANCE_START_SORTING + " <= ?2";
+
+    /**
+     * The query of {@link #POST_NOTIFICATIONS}. It returns all open tasks with an instance that became due or has started in the given window. The window
+     * bounds are sorting values, so the comparison happens in local time without loading any dates. The columns are the task id, 1 if the instance became
+     * due or 0 if it has started, the timestamp of the respective date, the all-day flag, the time zone and the title.
+     */
+    private static final String SQL_NOTIFICATIONS = "SELECT " + Tables.INSTANCES + "." + Instances.TASK_ID + ", "
+            + "CASE WHEN " + SQL_DUE_IN_WINDOW + " THEN 1 ELSE 0 END, "
+            + "CASE WHEN " + SQL_DUE_IN_WINDOW + " THEN " + Tables.INSTANCES + "." + Instances.INSTANCE_DUE + " ELSE " + Tables.INSTANCES + "."
+            + Instances.INSTANCE_START + " END, "
+            + Tables.TASKS + "." + Tasks.IS_ALLDAY + ", " + Tables.TASKS + "." + Tasks.TZ + ", " + Tables.TASKS + "." + Tasks.TITLE
+            + " FROM " + Tables.INSTANCES + " JOIN " + Tables.TASKS + " ON (" + Tables.TASKS + "." + Tasks._ID + " = " + Tables.INSTANCES + "."
+            + Instances.TASK_ID + ")"
+            + " WHERE ((" + SQL_DUE_IN_WINDOW + ") OR (" + SQL_START_IN_WINDOW + ")) AND " + Tables.TASKS + "." + Tasks.IS_CLOSED + " = 0 AND " + Tables.TASKS
+            + "." + Tasks._DELETED + " = 0";
+
+    /**
+     * Whether {@link #POST_NOTIFICATIONS} sends {@link TaskContract#ACTION_BROADCAST_TASKS_DUE} and {@link TaskContract#ACTION_BROADCAST_TASKS_STARTING}
+     * instead of one broadcast per task.
+     */
+    private static volatile boolean sBatchedNotifications;
+
     private static final String PREFS_NAME = "org.dmfs.provider.tasks";
     private static final String PREFS_KEY_LAST_ALARM_TIMESTAMP = "org.dmfs.provider.tasks.prefs.LAST_ALARM_TIMESTAMP";
+    private static final String PREFS_KEY_INSTANCE_WINDOW_END = "org.dmfs.provider.tasks.prefs.INSTANCE_WINDOW_END";
+    private static final String PREFS_KEY_SEARCH_BACKEND = "org.dmfs.provider.tasks.prefs.SEARCH_BACKEND";
 
 
     private ContentOperation(OperationHandler handler)
@@ -329,6 +651,20 @@ public enum ContentOperation
     }
 
 
+    /**
+     * Selects how {@link #POST_NOTIFICATIONS} notifies about tasks that became due or have started. By default one {@link
+     * TaskContract#ACTION_BROADCAST_TASK_DUE} or {@link TaskContract#ACTION_BROADCAST_TASK_STARTING} broadcast is sent per task. In batched mode all tasks
+     * are sent in {@link TaskContract#ACTION_BROADCAST_TASKS_DUE} and {@link TaskContract#ACTION_BROADCAST_TASKS_STARTING} broadcasts.
+     *
+     * @param batched
+     *         <code>true</code> to send batched broadcasts, <code>false</code> to send one broadcast per task.
+     */
+    public static void setBatchedNotifications(boolean batched)
+    {
+        sBatchedNotifications = batched;
+    }
+
+
     /**
      * Execute this {@link ContentOperation} with the given values.
      *
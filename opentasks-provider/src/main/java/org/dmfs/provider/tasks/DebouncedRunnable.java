@@ -0,0 +1,95 @@
+/*
+ * Copyright 2017 dmfs GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dmfs.provider.tasks;
+
+import android.os.Handler;
+import android.os.SystemClock;
+
+
+/**
+ * Runs a {@link Runnable} on a {@link Handler}, collapsing all requests that arrive in short succession into a single run.
+ * <p>
+ * A run takes place once no new request has been made for the quiet period, but no later than the maximum delay after the first pending request. Requests
+ * that arrive while the {@link Runnable} is running schedule another run.
+ *
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+public final class DebouncedRunnable implements Runnable
+{
+    private final Handler mHandler;
+    private final Runnable mRunnable;
+    private final long mQuietPeriod;
+    private final long mMaxDelay;
+
+    /**
+     * The uptime of the first pending request or <code>-1</code> if no run is pending.
+     */
+    private long mFirstRequest = -1;
+
+
+    /**
+     * Creates a {@link DebouncedRunnable}.
+     *
+     * @param handler
+     *         The {@link Handler} to run the {@link Runnable} on.
+     * @param runnable
+     *         The {@link Runnable} to run.
+     * @param quietPeriod
+     *         The time in milliseconds without any new request before the {@link Runnable} runs.
+     * @param maxDelay
+     *         The maximum time in milliseconds a request may be delayed.
+     */
+    public DebouncedRunnable(Handler handler, Runnable runnable, long quietPeriod, long maxDelay)
+    {
+        if (quietPeriod < 0 || maxDelay < quietPeriod)
+        {
+            throw new IllegalArgumentException("Invalid delays, quiet period " + quietPeriod + ", max delay " + maxDelay);
+        }
+        mHandler = handler;
+        mRunnable = runnable;
+        mQuietPeriod = quietPeriod;
+        mMaxDelay = maxDelay;
+    }
+
+
+    /**
+     * Requests a run of the {@link Runnable}. If a run is pending already it's postponed until the quiet period has passed, unless that exceeds the maximum
+     * delay.
+     */
+    public synchronized void schedule()
+    {
+        long now = SystemClock.uptimeMillis();
+        if (mFirstRequest < 0)
+        {
+            mFirstRequest = now;
+        }
+        mHandler.removeCallbacks(this);
+        mHandler.postAtTime(this, Math.min(now + mQuietPeriod, mFirstRequest + mMaxDelay));
+    }
+
+
+    @Override
+    public void run()
+    {
+        synchronized (this)
+        {
+            // any request from now on needs another run
+            mFirstRequest = -1;
+        }
+        mRunnable.run();
+    }
+}
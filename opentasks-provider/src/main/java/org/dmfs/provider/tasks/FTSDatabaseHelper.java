@@ -16,25 +16,42 @@
 
 package org.dmfs.provider.tasks;
 
-import android.content.ContentValues;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 import android.text.TextUtils;
 
+import org.dmfs.ngrams.LongHashSet;
 import org.dmfs.ngrams.NGramGenerator;
 import org.dmfs.provider.tasks.TaskDatabaseHelper.Tables;
 import org.dmfs.provider.tasks.model.TaskAdapter;
+import org.dmfs.provider.tasks.search.SQLiteFtsSearchBackend;
+import org.dmfs.provider.tasks.search.SearchBackend;
+import org.dmfs.provider.tasks.search.SearchRanking;
 import org.dmfs.tasks.contract.TaskContract;
 import org.dmfs.tasks.contract.TaskContract.Properties;
+import org.dmfs.tasks.contract.TaskContract.Property.Category;
 import org.dmfs.tasks.contract.TaskContract.TaskColumns;
 import org.dmfs.tasks.contract.TaskContract.Tasks;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 
 /**
  * Supports the {@link TaskDatabaseHelper} in the manner of full-text-search.
+ * <p>
+ * The actual index is maintained by a {@link SearchBackend}. By default this is an n-gram index that also finds partial words. Alternatively the native SQLite
+ * full text search can be used, see {@link #setSearchBackend(String)}. Only the active backend is kept up to date.
  *
  * @author Tobias Reinsch <tobias@dmfs.org>
  * @author Marten Gajda <marten@dmfs.org>
@@ -42,7 +59,38 @@ import java.util.Set;
 public class FTSDatabaseHelper
 {
 
-    private final static float SEARCH_RESULTS_MIN_SCORE = 0.4f;
+    /**
+     * The name of the n-gram {@link SearchBackend}. This is the default.
+     */
+    public final static String SEARCH_BACKEND_NGRAM = "ngram";
+
+    /**
+     * The name of the {@link SearchBackend} that uses an SQLite full text search table.
+     */
+    public final static String SEARCH_BACKEND_FTS = "fts";
+
+    /**
+     * The maximum number of n-gram ids to keep in {@link #NGRAM_ID_CACHE}.
+     */
+    private final static int NGRAM_ID_CACHE_SIZE = 8192;
+
+    /**
+     * The maximum number of arguments we bind to a single statement. SQLite supports 999 by default.
+     */
+    private final static int MAX_BIND_ARGS = 400;
+
+    /**
+     * An LRU cache of n-gram ids. N-grams are never removed from the n-gram table, so cached ids stay valid unless the transaction that inserted them is
+     * rolled back, see {@link #invalidateNGramCache()}.
+     */
+    private final static Map<String, Long> NGRAM_ID_CACHE = new LinkedHashMap<String, Long>(256, 0.75f, true)
+    {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Long> eldest)
+        {
+            return size() > NGRAM_ID_CACHE_SIZE;
+        }
+    };
 
     /**
      * A Generator for 3-grams.
@@ -106,8 +154,29 @@ public class FTSDatabaseHelper
     }
 
 
+    /**
+     * The columns of the queue of tasks that still need to be indexed.
+     *
+     * @author Marten Gajda <marten@dmfs.org>
+     */
+    public interface FTSPendingColumns
+    {
+        /**
+         * The sequence number of the queue entry. Entries are processed in the order of their sequence numbers.
+         */
+        public static final String SEQUENCE = "fts_pending_seq";
+
+        /**
+         * The row id of the task to index.
+         */
+        public static final String TASK_ID = "fts_pending_task_id";
+
+    }
+
+
     public static final String FTS_CONTENT_TABLE = "FTS_Content";
     public static final String FTS_NGRAM_TABLE = "FTS_Ngram";
+    public static final String FTS_PENDING_TABLE = "FTS_Pending";
     public static final String FTS_TASK_VIEW = "FTS_Task_View";
     public static final String FTS_TASK_PROPERTY_VIEW = "FTS_Task_Property_View";
 
@@ -118,7 +187,7 @@ public class FTSDatabaseHelper
             + FTSContentColumns.NGRAM_ID + " Integer, " + FTSContentColumns.PROPERTY_ID + " Integer, " + FTSContentColumns.TYPE + " Integer, " + "FOREIGN KEY("
             + FTSContentColumns.TASK_ID + ") REFERENCES " + Tables.TASKS + "(" + TaskColumns._ID + ")," + "FOREIGN KEY(" + FTSContentColumns.TASK_ID
             + ") REFERENCES " + Tables.TASKS + "(" + TaskColumns._ID + ") UNIQUE (" + FTSContentColumns.TASK_ID + ", " + FTSContentColumns.TYPE + ", "
-            + FTSContentColumns.PROPERTY_ID + ") ON CONFLICT IGNORE )";
+            + FTSContentColumns.PROPERTY_ID + ", " + FTSContentColumns.NGRAM_ID + ") ON CONFLICT IGNORE )";
 
     /**
      * SQL command to create the table that stores the NGRAMS
@@ -126,21 +195,125 @@ public class FTSDatabaseHelper
     private final static String SQL_CREATE_NGRAM_TABLE = "CREATE TABLE " + FTS_NGRAM_TABLE + "( " + NGramColumns.NGRAM_ID
             + " Integer PRIMARY KEY AUTOINCREMENT, " + NGramColumns.TEXT + " Text)";
 
-    // FIXME: at present the minimum score is hard coded can we leave that decision to the caller?
-    private final static String SQL_RAW_QUERY_SEARCH_TASK = "SELECT %s " + ", min(1.0*count(*)/?, 1.0) as " + TaskContract.Tasks.SCORE + " from "
-            + FTS_NGRAM_TABLE + " join " + FTS_CONTENT_TABLE + " on (" + FTS_NGRAM_TABLE + "." + NGramColumns.NGRAM_ID + "=" + FTS_CONTENT_TABLE + "."
-            + FTSContentColumns.NGRAM_ID + ") join " + Tables.INSTANCE_VIEW + " on (" + Tables.INSTANCE_VIEW + "." + TaskContract.Instances.TASK_ID + " = " + FTS_CONTENT_TABLE + "."
-            + FTSContentColumns.TASK_ID + ") where %s group by " + TaskContract.Instances.TASK_ID + " having " + TaskContract.Tasks.SCORE + " >= " + SEARCH_RESULTS_MIN_SCORE
-            + " order by %s;";
+    /**
+     * SQL command to create the queue of tasks that need to be indexed.
+     */
+    private final static String SQL_CREATE_PENDING_TABLE = "CREATE TABLE " + FTS_PENDING_TABLE + "( " + FTSPendingColumns.SEQUENCE
+            + " Integer PRIMARY KEY AUTOINCREMENT, " + FTSPendingColumns.TASK_ID + " Integer)";
+
+    private final static String SQL_INSERT_PENDING_TASK = "INSERT INTO " + FTS_PENDING_TABLE + " (" + FTSPendingColumns.TASK_ID + ") VALUES (?)";
+
+    private final static String SQL_SELECT_LAST_PENDING_SEQUENCE = "SELECT ifnull(max(" + FTSPendingColumns.SEQUENCE + "), 0) FROM " + FTS_PENDING_TABLE;
+
+    private final static String SQL_COUNT_PENDING_UP_TO = "SELECT count(*) FROM " + FTS_PENDING_TABLE + " WHERE " + FTSPendingColumns.SEQUENCE + " <= ?";
+
+    private final static String SQL_HAS_PENDING_TASKS = "SELECT EXISTS (SELECT 1 FROM " + FTS_PENDING_TABLE + ")";
+
+    /**
+     * Selects the tasks in the queue of pending tasks that contain the search string in their title, location or description. These are returned with the
+     * highest score, since they contain the entire search string.
+     */
+    private final static String SQL_SELECT_PENDING_MATCHES = "SELECT " + Tasks._ID + " AS " + FTSContentColumns.TASK_ID + ", 1.0 AS " + Tasks.SCORE
+            + " FROM " + Tables.TASKS + " WHERE " + Tasks._ID + " IN (SELECT " + FTSPendingColumns.TASK_ID + " FROM " + FTS_PENDING_TABLE + ") AND ("
+            + Tasks.TITLE + " LIKE ? ESCAPE '\\' OR " + Tasks.LOCATION + " LIKE ? ESCAPE '\\' OR " + Tasks.DESCRIPTION + " LIKE ? ESCAPE '\\')";
+
+    /**
+     * Combines the scores of the search backend with the matches of the pending tasks.
+     */
+    private final static String SQL_SELECT_SCORES_WITH_PENDING = "SELECT " + FTSContentColumns.TASK_ID + ", max(" + Tasks.SCORE + ") AS " + Tasks.SCORE
+            + " FROM (%s UNION ALL " + SQL_SELECT_PENDING_MATCHES + ") GROUP BY " + FTSContentColumns.TASK_ID;
+
+    /**
+     * A lock to wait for the queue of pending index updates to be processed. It's notified whenever a batch of queued tasks has been indexed.
+     */
+    private final static Object PENDING_INDEX_LOCK = new Object();
+
+    /**
+     * The n-gram {@link SearchBackend}.
+     */
+    private final static SearchBackend NGRAM_SEARCH_BACKEND = new SearchBackend()
+    {
+        @Override
+        public void updateTaskEntries(SQLiteDatabase db, long taskId, int[] types, String[] oldTexts, String[] texts)
+        {
+            updateEntries(db, taskId, -1, types, oldTexts, texts);
+        }
+
+
+        @Override
+        public void updatePropertyEntry(SQLiteDatabase db, long taskId, long propertyId, String text)
+        {
+            updateEntries(db, taskId, propertyId, new int[] { SearchableTypes.PROPERTY }, null, new String[] { text });
+        }
 
-    private final static String SQL_RAW_QUERY_SEARCH_TASK_DEFAULT_PROJECTION = Tables.INSTANCE_VIEW + ".* ," + FTS_NGRAM_TABLE + "." + NGramColumns.TEXT;
+
+        @Override
+        public void clear(SQLiteDatabase db)
+        {
+            // n-grams are never removed, so the cache stays valid
+            db.delete(FTS_CONTENT_TABLE, null, null);
+        }
+
+
+        @Override
+        public String scoreQuery(String searchString, SearchRanking ranking, List<String> args)
+        {
+            Set<String> ngrams = ngrams(searchString);
+            args.add(String.valueOf(ngrams.size()));
+
+            String weight = ranking.weightExpression(FTSContentColumns.TYPE);
+
+            if (searchString != null && searchString.length() > 1)
+            {
+                args.addAll(ngrams);
+                return String.format(SQL_SELECT_NGRAM_SCORES, weight, NGramColumns.TEXT + " IN (" + placeholders(ngrams.size()) + ")", ranking.minScore());
+            }
+
+            args.add(" " + searchString + "%");
+            return String.format(SQL_SELECT_NGRAM_SCORES, weight, NGramColumns.TEXT + " LIKE ?", ranking.minScore());
+        }
+    };
+
+    /**
+     * The {@link SearchBackend} using the native SQLite full text search.
+     */
+    private final static SearchBackend FTS_SEARCH_BACKEND = new SQLiteFtsSearchBackend();
+
+    /**
+     * The name of the active {@link SearchBackend}.
+     */
+    private static volatile String sSearchBackendName = SEARCH_BACKEND_NGRAM;
+
+    /**
+     * Returns the ids and scores of all tasks that share a minimum fraction of (weighted) n-grams with the search string. Each n-gram counts only once per
+     * task, with the highest weight of the fields it occurs in.
+     */
+    private final static String SQL_SELECT_NGRAM_SCORES = "SELECT " + FTSContentColumns.TASK_ID + ", min(1.0*sum(weight)/?, 1.0) AS " + Tasks.SCORE
+            + " FROM (SELECT " + FTSContentColumns.TASK_ID + ", max(%s) AS weight FROM " + FTS_NGRAM_TABLE + " JOIN " + FTS_CONTENT_TABLE + " ON ("
+            + FTS_NGRAM_TABLE + "." + NGramColumns.NGRAM_ID + " = " + FTS_CONTENT_TABLE + "." + FTSContentColumns.NGRAM_ID + ") WHERE %s GROUP BY "
+            + FTSContentColumns.TASK_ID + ", " + FTS_CONTENT_TABLE + "." + FTSContentColumns.NGRAM_ID + ") GROUP BY " + FTSContentColumns.TASK_ID
+            + " HAVING " + Tasks.SCORE + " >= %s";
+
+    /**
+     * Joins the scores of the matching tasks with the instances. This returns one row per task, regardless of the number of instances.
+     */
+    private final static String SQL_SELECT_SEARCH_RESULTS = "SELECT " + Tables.INSTANCE_VIEW + ".*, " + Tasks.SCORE + " FROM (%s) AS search_scores JOIN "
+            + Tables.INSTANCE_VIEW + " ON (" + Tables.INSTANCE_VIEW + "." + TaskContract.Instances.TASK_ID + " = search_scores." + FTSContentColumns.TASK_ID
+            + ") WHERE %s GROUP BY " + Tables.INSTANCE_VIEW + "." + TaskContract.Instances.TASK_ID + " ORDER BY %s%s";
 
     private final static String SQL_CREATE_SEARCH_TASK_DELETE_TRIGGER = "CREATE TRIGGER search_task_delete_trigger AFTER DELETE ON " + Tables.TASKS + " BEGIN "
             + " DELETE FROM " + FTS_CONTENT_TABLE + " WHERE " + FTSContentColumns.TASK_ID + " =  old." + Tasks._ID + "; END";
 
     private final static String SQL_CREATE_SEARCH_TASK_DELETE_PROPERTY_TRIGGER = "CREATE TRIGGER search_task_delete_property_trigger AFTER DELETE ON "
-            + Tables.PROPERTIES + " BEGIN " + " DELETE FROM " + FTS_CONTENT_TABLE + " WHERE " + FTSContentColumns.TASK_ID + " =  old." + Properties.TASK_ID
-            + " AND " + FTSContentColumns.PROPERTY_ID + " = old." + Properties.PROPERTY_ID + "; END";
+            + Tables.PROPERTIES + " BEGIN " + " DELETE FROM " + FTS_CONTENT_TABLE + " WHERE "
+            + FTSContentColumns.TASK_ID + " =  old." + Properties.TASK_ID + " AND " + FTSContentColumns.PROPERTY_ID + " = old." + Properties.PROPERTY_ID
+            + "; END";
+
+
+    private final static String SQL_DELETE_TASK_RELATIONS = "DELETE FROM " + FTS_CONTENT_TABLE + " WHERE " + FTSContentColumns.TASK_ID + " = ? AND "
+            + FTSContentColumns.TYPE + " = ?";
+
+    private final static String SQL_DELETE_PROPERTY_RELATIONS = SQL_DELETE_TASK_RELATIONS + " AND " + FTSContentColumns.PROPERTY_ID + " = ?";
 
 
     /**
@@ -177,6 +350,8 @@ public class FTSDatabaseHelper
     public static void onCreate(SQLiteDatabase db)
     {
         initializeFTS(db);
+        db.execSQL(SQL_CREATE_PENDING_TABLE);
+        SQLiteFtsSearchBackend.onCreate(db);
     }
 
 
@@ -192,6 +367,31 @@ public class FTSDatabaseHelper
             db.execSQL(TaskDatabaseHelper.createIndexString(FTS_CONTENT_TABLE, true, FTSContentColumns.TYPE, FTSContentColumns.TASK_ID,
                     FTSContentColumns.PROPERTY_ID));
         }
+        if (oldVersion < 18)
+        {
+            db.execSQL(SQL_CREATE_PENDING_TABLE);
+        }
+        if (oldVersion < 19)
+        {
+            // the index is populated when the backend is activated
+            SQLiteFtsSearchBackend.onCreate(db);
+        }
+        if (oldVersion < 20)
+        {
+            // the unique constraints allowed only one n-gram per property, recreate the table and index everything again
+            db.execSQL("DROP TABLE " + FTS_CONTENT_TABLE);
+            createContentTable(db);
+            rebuildSearchIndex(db);
+        }
+        if (oldVersion < 26)
+        {
+            // the triggers no longer skip tasks that are removed in bulk
+            db.execSQL("DROP TRIGGER IF EXISTS search_task_delete_trigger");
+            db.execSQL(SQL_CREATE_SEARCH_TASK_DELETE_TRIGGER);
+            db.execSQL("DROP TRIGGER IF EXISTS search_task_delete_property_trigger");
+            db.execSQL(SQL_CREATE_SEARCH_TASK_DELETE_PROPERTY_TRIGGER);
+            SQLiteFtsSearchBackend.updateTriggers(db);
+        }
     }
 
 
@@ -203,21 +403,33 @@ public class FTSDatabaseHelper
      */
     private static void initializeFTS(SQLiteDatabase db)
     {
-        db.execSQL(SQL_CREATE_SEARCH_CONTENT_TABLE);
+        createContentTable(db);
         db.execSQL(SQL_CREATE_NGRAM_TABLE);
         db.execSQL(SQL_CREATE_SEARCH_TASK_DELETE_TRIGGER);
         db.execSQL(SQL_CREATE_SEARCH_TASK_DELETE_PROPERTY_TRIGGER);
 
         // create indices
         db.execSQL(TaskDatabaseHelper.createIndexString(FTS_NGRAM_TABLE, true, NGramColumns.TEXT));
+    }
+
+
+    /**
+     * Creates the table of the n-gram relations and its indices.
+     *
+     * @param db
+     *         The {@link SQLiteDatabase}.
+     */
+    private static void createContentTable(SQLiteDatabase db)
+    {
+        db.execSQL(SQL_CREATE_SEARCH_CONTENT_TABLE);
         db.execSQL(TaskDatabaseHelper.createIndexString(FTS_CONTENT_TABLE, false, FTSContentColumns.NGRAM_ID));
         db.execSQL(TaskDatabaseHelper.createIndexString(FTS_CONTENT_TABLE, false, FTSContentColumns.TASK_ID));
         db.execSQL(TaskDatabaseHelper.createIndexString(FTS_CONTENT_TABLE, true, FTSContentColumns.PROPERTY_ID, FTSContentColumns.TASK_ID,
                 FTSContentColumns.NGRAM_ID));
 
-        db.execSQL(TaskDatabaseHelper.createIndexString(FTS_CONTENT_TABLE, true, FTSContentColumns.TYPE, FTSContentColumns.TASK_ID,
+        // an entry has many n-grams, so this can't be unique
+        db.execSQL(TaskDatabaseHelper.createIndexString(FTS_CONTENT_TABLE, false, FTSContentColumns.TYPE, FTSContentColumns.TASK_ID,
                 FTSContentColumns.PROPERTY_ID));
-
     }
 
 
@@ -253,29 +465,14 @@ public class FTSDatabaseHelper
      */
     private static void insertTaskFTSEntries(SQLiteDatabase db, long taskId, String title, String description, String location)
     {
-        // title
-        if (title != null && title.length() > 0)
-        {
-            updateEntry(db, taskId, -1, SearchableTypes.TITLE, title);
-        }
-
-        // location
-        if (location != null && location.length() > 0)
-        {
-            updateEntry(db, taskId, -1, SearchableTypes.LOCATION, location);
-        }
-
-        // description
-        if (description != null && description.length() > 0)
-        {
-            updateEntry(db, taskId, -1, SearchableTypes.DESCRIPTION, description);
-        }
-
+        updateEntries(db, taskId, -1, new int[] { SearchableTypes.TITLE, SearchableTypes.LOCATION, SearchableTypes.DESCRIPTION }, null,
+                new String[] { title, location, description });
     }
 
 
     /**
-     * Updates the existing searchables entries for the task.
+     * Updates the existing searchables entries for the task. Only the relations of n-grams that have been added or removed are written. The old n-grams are
+     * derived from the old values of the given task.
      *
      * @param db
      *         The writable {@link SQLiteDatabase}.
@@ -284,24 +481,39 @@ public class FTSDatabaseHelper
      */
     public static void updateTaskFTSEntries(SQLiteDatabase db, TaskAdapter task)
     {
+        int[] types = new int[3];
+        String[] oldTexts = new String[3];
+        String[] texts = new String[3];
+        int count = 0;
+
         // title
         if (task.isUpdated(TaskAdapter.TITLE))
         {
-            updateEntry(db, task.id(), -1, SearchableTypes.TITLE, task.valueOf(TaskAdapter.TITLE));
+            types[count] = SearchableTypes.TITLE;
+            oldTexts[count] = task.oldValueOf(TaskAdapter.TITLE);
+            texts[count++] = task.valueOf(TaskAdapter.TITLE);
         }
 
         // location
         if (task.isUpdated(TaskAdapter.LOCATION))
         {
-            updateEntry(db, task.id(), -1, SearchableTypes.LOCATION, task.valueOf(TaskAdapter.LOCATION));
+            types[count] = SearchableTypes.LOCATION;
+            oldTexts[count] = task.oldValueOf(TaskAdapter.LOCATION);
+            texts[count++] = task.valueOf(TaskAdapter.LOCATION);
         }
 
         // description
         if (task.isUpdated(TaskAdapter.DESCRIPTION))
         {
-            updateEntry(db, task.id(), -1, SearchableTypes.DESCRIPTION, task.valueOf(TaskAdapter.DESCRIPTION));
+            types[count] = SearchableTypes.DESCRIPTION;
+            oldTexts[count] = task.oldValueOf(TaskAdapter.DESCRIPTION);
+            texts[count++] = task.valueOf(TaskAdapter.DESCRIPTION);
         }
 
+        if (count > 0)
+        {
+            searchBackend().updateTaskEntries(db, task.id(), Arrays.copyOf(types, count), Arrays.copyOf(oldTexts, count), Arrays.copyOf(texts, count));
+        }
     }
 
 
@@ -319,108 +531,665 @@ public class FTSDatabaseHelper
      */
     public static void updatePropertyFTSEntry(SQLiteDatabase db, long taskId, long propertyId, String searchableText)
     {
-        updateEntry(db, taskId, propertyId, SearchableTypes.PROPERTY, searchableText);
+        searchBackend().updatePropertyEntry(db, taskId, propertyId, searchableText);
+    }
+
+
+    /**
+     * Selects the {@link SearchBackend} to use for indexing and searching.
+     * <p>
+     * Note, the index of a new backend is empty. Call {@link #rebuildSearchIndex(SQLiteDatabase)} when the backend has been changed.
+     *
+     * @param name
+     *         The name of the backend, either {@link #SEARCH_BACKEND_NGRAM} or {@link #SEARCH_BACKEND_FTS}.
+     *
+     * @throws IllegalArgumentException
+     *         if there is no backend with the given name.
+     */
+    public static void setSearchBackend(String name)
+    {
+        if (!SEARCH_BACKEND_NGRAM.equals(name) && !SEARCH_BACKEND_FTS.equals(name))
+        {
+            throw new IllegalArgumentException("Unknown search backend " + name);
+        }
+        sSearchBackendName = name;
+    }
+
+
+    /**
+     * Returns the name of the active {@link SearchBackend}.
+     *
+     * @return {@link #SEARCH_BACKEND_NGRAM} or {@link #SEARCH_BACKEND_FTS}.
+     */
+    public static String searchBackendName()
+    {
+        return sSearchBackendName;
+    }
+
+
+    private static SearchBackend searchBackend()
+    {
+        return SEARCH_BACKEND_FTS.equals(sSearchBackendName) ? FTS_SEARCH_BACKEND : NGRAM_SEARCH_BACKEND;
+    }
+
+
+    /**
+     * Removes the content of all search indices and populates the index of the active backend. The properties are indexed immediately, all tasks are added
+     * to the queue of tasks to index, see {@link #indexPendingTasks(SQLiteDatabase, int)}.
+     *
+     * @param db
+     *         The writable {@link SQLiteDatabase}.
+     */
+    public static void rebuildSearchIndex(SQLiteDatabase db)
+    {
+        NGRAM_SEARCH_BACKEND.clear(db);
+        FTS_SEARCH_BACKEND.clear(db);
+
+        db.execSQL("INSERT INTO " + FTS_PENDING_TABLE + " (" + FTSPendingColumns.TASK_ID + ") SELECT " + Tasks._ID + " FROM " + Tables.TASKS);
+
+        // at present categories are the only searchable properties
+        SearchBackend backend = searchBackend();
+        Cursor c = db.query(Tables.PROPERTIES, new String[] { Properties.PROPERTY_ID, Properties.TASK_ID, Category.CATEGORY_NAME },
+                Properties.MIMETYPE + " = ?", new String[] { Category.CONTENT_ITEM_TYPE }, null, null, null);
+        try
+        {
+            while (c.moveToNext())
+            {
+                backend.updatePropertyEntry(db, c.getLong(1), c.getLong(0), c.getString(2));
+            }
+        }
+        finally
+        {
+            c.close();
+        }
+    }
+
+
+    /**
+     * Removes all search index entries of the tasks staged by {@link TaskPurge}.
+     *
+     * @param db
+     *         The writable {@link SQLiteDatabase}.
+     */
+    static void deleteStagedTasks(SQLiteDatabase db)
+    {
+        db.execSQL("DELETE FROM " + FTS_CONTENT_TABLE + " WHERE " + FTSContentColumns.TASK_ID + " IN " + TaskPurge.STAGED_TASK_IDS);
+        db.execSQL("DELETE FROM " + FTS_PENDING_TABLE + " WHERE " + FTSPendingColumns.TASK_ID + " IN " + TaskPurge.STAGED_TASK_IDS);
+        SQLiteFtsSearchBackend.deleteStagedTasks(db);
+    }
+
+
+    /**
+     * Adds the given task to the queue of tasks to index. The index of the task is updated when {@link #indexPendingTasks(SQLiteDatabase, int)} is called the
+     * next time.
+     *
+     * @param db
+     *         The writable {@link SQLiteDatabase}.
+     * @param taskId
+     *         The row id of the task.
+     */
+    public static void deferTaskFTSEntries(SQLiteDatabase db, long taskId)
+    {
+        db.execSQL(SQL_INSERT_PENDING_TASK, new Object[] { taskId });
+    }
+
+
+    /**
+     * Indexes the title, location and description of the oldest tasks in the queue of pending tasks and removes them from the queue.
+     * <p>
+     * Call {@link #notifyPendingIndexUpdated()} once the transaction has been committed.
+     *
+     * @param db
+     *         The writable {@link SQLiteDatabase}.
+     * @param limit
+     *         The maximum number of queue entries to process.
+     *
+     * @return The number of processed queue entries, <code>0</code> if the queue is empty.
+     */
+    public static int indexPendingTasks(SQLiteDatabase db, int limit)
+    {
+        Set<Long> taskIds = new HashSet<Long>(limit * 2);
+        long lastSequence = 0;
+        int count = 0;
+
+        Cursor c = db.query(FTS_PENDING_TABLE, new String[] { FTSPendingColumns.SEQUENCE, FTSPendingColumns.TASK_ID }, null, null, null, null,
+                FTSPendingColumns.SEQUENCE, Integer.toString(limit));
+        try
+        {
+            while (c.moveToNext())
+            {
+                lastSequence = c.getLong(0);
+                taskIds.add(c.getLong(1));
+                ++count;
+            }
+        }
+        finally
+        {
+            c.close();
+        }
+
+        if (count == 0)
+        {
+            return 0;
+        }
+
+        // tasks that have been removed in the meantime are not found, their FTS entries have been removed by a trigger
+        StringBuilder selection = new StringBuilder(32 + taskIds.size() * 8);
+        selection.append(Tasks._ID).append(" IN (");
+        appendIds(selection, taskIds).append(')');
+        Cursor tasks = db.query(Tables.TASKS, new String[] { Tasks._ID, Tasks.TITLE, Tasks.LOCATION, Tasks.DESCRIPTION }, selection.toString(), null, null,
+                null, null);
+        SearchBackend backend = searchBackend();
+        int[] types = new int[] { SearchableTypes.TITLE, SearchableTypes.LOCATION, SearchableTypes.DESCRIPTION };
+        try
+        {
+            while (tasks.moveToNext())
+            {
+                backend.updateTaskEntries(db, tasks.getLong(0), types, null,
+                        new String[] { tasks.getString(1), tasks.getString(2), tasks.getString(3) });
+            }
+        }
+        finally
+        {
+            tasks.close();
+        }
+
+        db.delete(FTS_PENDING_TABLE, FTSPendingColumns.SEQUENCE + " <= ?", new String[] { Long.toString(lastSequence) });
+        return count;
+    }
+
+
+    /**
+     * Wakes up all threads waiting in {@link #awaitPendingIndex(SQLiteDatabase, long)}. Call this after a transaction that indexed pending tasks has been
+     * committed.
+     */
+    public static void notifyPendingIndexUpdated()
+    {
+        synchronized (PENDING_INDEX_LOCK)
+        {
+            PENDING_INDEX_LOCK.notifyAll();
+        }
+    }
+
+
+    /**
+     * Waits until all tasks that have been queued for indexing before this method has been called have been indexed.
+     *
+     * @param db
+     *         The {@link SQLiteDatabase}.
+     * @param timeout
+     *         The maximum time to wait in milliseconds.
+     *
+     * @return <code>true</code> if the index is up to date, <code>false</code> if the timeout elapsed before.
+     */
+    public static boolean awaitPendingIndex(SQLiteDatabase db, long timeout)
+    {
+        return awaitPendingIndex(db, timeout, Integer.MAX_VALUE);
+    }
+
+
+    /**
+     * Waits until all tasks that have been queued for indexing before this method has been called have been indexed, unless there are more than the given
+     * number of tasks in the queue. In that case this returns right away and leaves the queue to the background indexer.
+     *
+     * @param db
+     *         The {@link SQLiteDatabase}.
+     * @param timeout
+     *         The maximum time to wait in milliseconds.
+     * @param maxBacklog
+     *         The maximum number of queued tasks to wait for.
+     *
+     * @return <code>true</code> if the index is up to date, <code>false</code> if the timeout elapsed before or the queue is too long.
+     */
+    public static boolean awaitPendingIndex(SQLiteDatabase db, long timeout, int maxBacklog)
+    {
+        long watermark = DatabaseUtils.longForQuery(db, SQL_SELECT_LAST_PENDING_SEQUENCE, null);
+        if (watermark == 0)
+        {
+            // nothing queued
+            return true;
+        }
+
+        String[] args = new String[] { Long.toString(watermark) };
+        if (DatabaseUtils.longForQuery(db, SQL_COUNT_PENDING_UP_TO, args) > maxBacklog)
+        {
+            // the indexer won't catch up in time anyway, e.g. after the entire index has been queued for rebuilding
+            return false;
+        }
+
+        long end = System.currentTimeMillis() + timeout;
+        synchronized (PENDING_INDEX_LOCK)
+        {
+            while (DatabaseUtils.longForQuery(db, SQL_COUNT_PENDING_UP_TO, args) > 0)
+            {
+                long remaining = end - System.currentTimeMillis();
+                if (remaining <= 0)
+                {
+                    return false;
+                }
+                try
+                {
+                    PENDING_INDEX_LOCK.wait(remaining);
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        }
+        return true;
     }
 
 
     /**
-     * Inserts NGrams into the NGram database.
+     * Drops all cached n-gram ids. This must be called whenever a transaction that might have inserted new n-grams has been rolled back.
+     */
+    public static void invalidateNGramCache()
+    {
+        synchronized (NGRAM_ID_CACHE)
+        {
+            NGRAM_ID_CACHE.clear();
+        }
+    }
+
+
+    /**
+     * Returns the ids of the given n-grams, inserting any n-grams that don't exist yet. Ids are taken from the n-gram cache if possible, the remaining ones
+     * are resolved with a single query per {@link #MAX_BIND_ARGS} n-grams.
      *
      * @param db
      *         A writable {@link SQLiteDatabase}.
      * @param ngrams
      *         The set of NGrams.
      *
-     * @return The ids of the ngrams in the given set.
+     * @return A map of the given n-grams to their ids.
      */
-    private static Set<Long> insertNGrams(SQLiteDatabase db, Set<String> ngrams)
+    private static Map<String, Long> insertNGrams(SQLiteDatabase db, Set<String> ngrams)
     {
-        Set<Long> nGramIds = new HashSet<Long>(ngrams.size());
-        ContentValues values = new ContentValues(1);
-        for (String ngram : ngrams)
+        Map<String, Long> nGramIds = new HashMap<String, Long>(ngrams.size() * 2);
+        List<String> missing = cachedNGramIds(ngrams, nGramIds);
+
+        if (missing.isEmpty())
+        {
+            return nGramIds;
+        }
+
+        queryNGramIds(db, missing, nGramIds);
+
+        if (nGramIds.size() < ngrams.size())
         {
-            values.put(NGramColumns.TEXT, ngram);
-            long nGramId = db.insertWithOnConflict(FTS_NGRAM_TABLE, null, values, SQLiteDatabase.CONFLICT_IGNORE);
-            if (nGramId == -1)
+            // insert the n-grams we don't know yet and fetch their ids
+            List<String> newNGrams = new ArrayList<String>(ngrams.size() - nGramIds.size());
+            for (String ngram : missing)
             {
-                // the docs say insertWithOnConflict returns the existing row id when CONFLICT_IGNORE is specified an the values conflict with an existing
-                // column, however, that doesn't seem to work reliably, so we when for an error condition and get the row id ourselves
-                Cursor c = db
-                        .query(FTS_NGRAM_TABLE, new String[] { NGramColumns.NGRAM_ID }, NGramColumns.TEXT + "=?", new String[] { ngram }, null, null, null);
+                if (!nGramIds.containsKey(ngram))
+                {
+                    newNGrams.add(ngram);
+                }
+            }
+
+            for (int start = 0, count = newNGrams.size(); start < count; start += MAX_BIND_ARGS)
+            {
+                List<String> chunk = newNGrams.subList(start, Math.min(count, start + MAX_BIND_ARGS));
+                SQLiteStatement statement = db.compileStatement(insertNGramsSql(chunk.size()));
                 try
                 {
-                    if (c.moveToFirst())
+                    for (int i = 0, chunkSize = chunk.size(); i < chunkSize; ++i)
                     {
-                        nGramId = c.getLong(0);
+                        statement.bindString(i + 1, chunk.get(i));
                     }
+                    statement.execute();
                 }
                 finally
                 {
-                    c.close();
+                    statement.close();
                 }
-
             }
-            nGramIds.add(nGramId);
+
+            queryNGramIds(db, newNGrams, nGramIds);
         }
+
+        cacheNGramIds(missing, nGramIds);
         return nGramIds;
+    }
+
 
+    /**
+     * Returns the ids of the given n-grams without inserting missing n-grams.
+     *
+     * @param db
+     *         A {@link SQLiteDatabase}.
+     * @param ngrams
+     *         The set of NGrams.
+     *
+     * @return A map of the given n-grams to their ids. N-grams that don't exist in the database are not contained.
+     */
+    private static Map<String, Long> lookupNGrams(SQLiteDatabase db, Set<String> ngrams)
+    {
+        Map<String, Long> nGramIds = new HashMap<String, Long>(ngrams.size() * 2);
+        List<String> missing = cachedNGramIds(ngrams, nGramIds);
+        if (!missing.isEmpty())
+        {
+            queryNGramIds(db, missing, nGramIds);
+            cacheNGramIds(missing, nGramIds);
+        }
+        return nGramIds;
+    }
+
+
+    /**
+     * Puts the cached ids of the given n-grams into the given map.
+     *
+     * @return The n-grams that are not in the cache.
+     */
+    private static List<String> cachedNGramIds(Set<String> ngrams, Map<String, Long> result)
+    {
+        List<String> missing = new ArrayList<String>();
+        synchronized (NGRAM_ID_CACHE)
+        {
+            for (String ngram : ngrams)
+            {
+                Long id = NGRAM_ID_CACHE.get(ngram);
+                if (id == null)
+                {
+                    missing.add(ngram);
+                }
+                else
+                {
+                    result.put(ngram, id);
+                }
+            }
+        }
+        return missing;
+    }
+
+
+    private static void cacheNGramIds(List<String> ngrams, Map<String, Long> nGramIds)
+    {
+        synchronized (NGRAM_ID_CACHE)
+        {
+            for (String ngram : ngrams)
+            {
+                Long id = nGramIds.get(ngram);
+                if (id != null)
+                {
+                    NGRAM_ID_CACHE.put(ngram, id);
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Looks up the ids of the given n-grams and puts them into the given map. N-grams that don't exist in the database are ignored.
+     *
+     * @param db
+     *         A {@link SQLiteDatabase}.
+     * @param ngrams
+     *         The n-grams to look up.
+     * @param result
+     *         The map to store the ids in.
+     */
+    private static void queryNGramIds(SQLiteDatabase db, List<String> ngrams, Map<String, Long> result)
+    {
+        for (int start = 0, count = ngrams.size(); start < count; start += MAX_BIND_ARGS)
+        {
+            List<String> chunk = ngrams.subList(start, Math.min(count, start + MAX_BIND_ARGS));
+            Cursor c = db.rawQuery("SELECT " + NGramColumns.NGRAM_ID + ", " + NGramColumns.TEXT + " FROM " + FTS_NGRAM_TABLE + " WHERE " + NGramColumns.TEXT
+                    + " IN (" + placeholders(chunk.size()) + ")", chunk.toArray(new String[chunk.size()]));
+            try
+            {
+                while (c.moveToNext())
+                {
+                    result.put(c.getString(1), c.getLong(0));
+                }
+            }
+            finally
+            {
+                c.close();
+            }
+        }
+    }
+
+
+    /**
+     * Returns an SQL statement that inserts the given number of n-grams, ignoring the ones that already exist. We don't use a multi-row VALUES clause,
+     * because it's not supported by the SQLite version of older Android releases.
+     */
+    private static String insertNGramsSql(int count)
+    {
+        StringBuilder sql = new StringBuilder(64 + count * 18);
+        sql.append("INSERT OR IGNORE INTO ").append(FTS_NGRAM_TABLE).append(" (").append(NGramColumns.TEXT).append(") SELECT ?");
+        for (int i = 1; i < count; ++i)
+        {
+            sql.append(" UNION ALL SELECT ?");
+        }
+        return sql.toString();
+    }
+
+
+    private static String placeholders(int count)
+    {
+        StringBuilder result = new StringBuilder(count * 2);
+        for (int i = 0; i < count; ++i)
+        {
+            if (i > 0)
+            {
+                result.append(',');
+            }
+            result.append('?');
+        }
+        return result.toString();
     }
 
 
-    private static void updateEntry(SQLiteDatabase db, long taskId, long propertyId, int type, String searchableText)
+    /**
+     * Updates the searchable entries of the given types. The n-grams of all entries are resolved at once. If the old texts are known only the difference
+     * between the old and the new n-grams is written, otherwise all relations of the entries are replaced.
+     *
+     * @param db
+     *         A writable {@link SQLiteDatabase}.
+     * @param taskId
+     *         The row id of the task.
+     * @param propertyId
+     *         The row id of the property, ignored unless the type is {@link SearchableTypes#PROPERTY}.
+     * @param types
+     *         The {@link SearchableTypes} of the entries.
+     * @param oldSearchableTexts
+     *         The texts the index currently contains for the entries or <code>null</code> if they are not known.
+     * @param searchableTexts
+     *         The new texts of the entries, <code>null</code> or empty texts remove an entry.
+     */
+    private static void updateEntries(SQLiteDatabase db, long taskId, long propertyId, int[] types, String[] oldSearchableTexts, String[] searchableTexts)
     {
-        // delete existing NGram relations
-        deleteNGramRelations(db, taskId, propertyId, type);
+        int count = types.length;
+        List<Set<String>> addedNGrams = new ArrayList<Set<String>>(count);
+        List<Set<String>> removedNGrams = new ArrayList<Set<String>>(count);
+        Set<String> allAdded = new HashSet<String>();
+        Set<String> allRemoved = new HashSet<String>();
 
-        if (searchableText != null && searchableText.length() > 0)
+        for (int i = 0; i < count; ++i)
         {
-            // generate nGrams
-            Set<String> propertyNgrams = TRIGRAM_GENERATOR.getNgrams(searchableText);
+            Set<String> ngrams = ngrams(searchableTexts[i]);
+            if (oldSearchableTexts == null)
+            {
+                // we don't know what's in the index, replace everything
+                deleteNGramRelations(db, taskId, propertyId, types[i]);
+                addedNGrams.add(ngrams);
+                removedNGrams.add(Collections.<String>emptySet());
+            }
+            else if (TextUtils.equals(oldSearchableTexts[i], searchableTexts[i]))
+            {
+                // nothing changed
+                addedNGrams.add(Collections.<String>emptySet());
+                removedNGrams.add(Collections.<String>emptySet());
+            }
+            else
+            {
+                Set<String> oldNGrams = ngrams(oldSearchableTexts[i]);
+                Set<String> removed = new HashSet<String>(oldNGrams);
+                removed.removeAll(ngrams);
+                ngrams.removeAll(oldNGrams);
+                addedNGrams.add(ngrams);
+                removedNGrams.add(removed);
+            }
+            allAdded.addAll(addedNGrams.get(i));
+            allRemoved.addAll(removedNGrams.get(i));
+        }
 
-            TETRAGRAM_GENERATOR.getNgrams(propertyNgrams, searchableText);
+        // resolve the ids of all n-grams at once
+        Map<String, Long> addedIds = allAdded.isEmpty() ? Collections.<String, Long>emptyMap() : insertNGrams(db, allAdded);
+        Map<String, Long> removedIds = allRemoved.isEmpty() ? Collections.<String, Long>emptyMap() : lookupNGrams(db, allRemoved);
+
+        for (int i = 0; i < count; ++i)
+        {
+            deleteNGramRelations(db, ids(removedNGrams.get(i), removedIds), taskId, propertyId, types[i]);
+            insertNGramRelations(db, ids(addedNGrams.get(i), addedIds), taskId, propertyId, types[i]);
+        }
+    }
 
-            // insert ngrams
-            Set<Long> propertyNgramIds = insertNGrams(db, propertyNgrams);
 
-            // insert ngram relations
-            insertNGramRelations(db, propertyNgramIds, taskId, propertyId, type);
+    /**
+     * Returns a modifiable set of the n-grams of the given text.
+     */
+    private static Set<String> ngrams(String searchableText)
+    {
+        if (searchableText == null || searchableText.length() == 0)
+        {
+            return new HashSet<String>();
         }
+        // collect the packed n-grams of both generators first, that way duplicates are removed before any String is created
+        LongHashSet ngrams = new LongHashSet(searchableText.length() * 3);
+        TRIGRAM_GENERATOR.getNgrams(searchableText, ngrams);
+        TETRAGRAM_GENERATOR.getNgrams(searchableText, ngrams);
+        return NGramGenerator.decode(ngrams, null);
+    }
+
+
+    private static List<Long> ids(Set<String> ngrams, Map<String, Long> nGramIds)
+    {
+        List<Long> ids = new ArrayList<Long>(ngrams.size());
+        for (String ngram : ngrams)
+        {
+            Long id = nGramIds.get(ngram);
+            if (id != null)
+            {
+                ids.add(id);
+            }
+        }
+        return ids;
     }
 
 
     /**
-     * Inserts NGrams relations for a task entry.
+     * Inserts NGrams relations for a task entry. All relations are inserted with a single statement.
      *
      * @param db
      *         A writable {@link SQLiteDatabase}.
      * @param ngramIds
-     *         The set of NGram ids.
+     *         The NGram ids.
      * @param taskId
      *         The row id of the task.
      * @param propertyId
      *         The row id of the property.
-     * @param The
-     *         entry type of the relation (title, description, property).
+     * @param contentType
+     *         The entry type of the relation (title, description, property).
      */
-    private static void insertNGramRelations(SQLiteDatabase db, Set<Long> ngramIds, long taskId, Long propertyId, int contentType)
+    private static void insertNGramRelations(SQLiteDatabase db, Collection<Long> ngramIds, long taskId, long propertyId, int contentType)
     {
-        ContentValues values = new ContentValues(4);
-        for (Long ngramId : ngramIds)
+        if (ngramIds.isEmpty())
         {
-            values.put(FTSContentColumns.TASK_ID, taskId);
-            values.put(FTSContentColumns.NGRAM_ID, ngramId);
-            values.put(FTSContentColumns.TYPE, contentType);
+            return;
+        }
+
+        // the ids are numbers, so it's safe to put them into the statement
+        StringBuilder sql = new StringBuilder(256 + ngramIds.size() * 8);
+        sql.append("INSERT OR IGNORE INTO ").append(FTS_CONTENT_TABLE).append(" (").append(FTSContentColumns.TASK_ID).append(", ");
+        sql.append(FTSContentColumns.NGRAM_ID).append(", ").append(FTSContentColumns.PROPERTY_ID).append(", ").append(FTSContentColumns.TYPE);
+        sql.append(") SELECT ?, ").append(NGramColumns.NGRAM_ID).append(", ?, ? FROM ").append(FTS_NGRAM_TABLE).append(" WHERE ");
+        sql.append(NGramColumns.NGRAM_ID).append(" IN (");
+        appendIds(sql, ngramIds).append(')');
+
+        SQLiteStatement statement = db.compileStatement(sql.toString());
+        try
+        {
+            statement.bindLong(1, taskId);
             if (contentType == SearchableTypes.PROPERTY)
             {
-                values.put(FTSContentColumns.PROPERTY_ID, propertyId);
+                statement.bindLong(2, propertyId);
             }
             else
             {
-                values.putNull(FTSContentColumns.PROPERTY_ID);
+                statement.bindNull(2);
             }
-            db.insertWithOnConflict(FTS_CONTENT_TABLE, null, values, SQLiteDatabase.CONFLICT_IGNORE);
+            statement.bindLong(3, contentType);
+            statement.execute();
+        }
+        finally
+        {
+            statement.close();
         }
+    }
+
 
+    /**
+     * Deletes the relations of the given n-grams of a task entry.
+     *
+     * @param db
+     *         A writable {@link SQLiteDatabase}.
+     * @param ngramIds
+     *         The ids of the NGrams to remove.
+     * @param taskId
+     *         The row id of the task.
+     * @param propertyId
+     *         The row id of the property, ignored if <code>contentType</code> is not {@link SearchableTypes#PROPERTY}.
+     * @param contentType
+     *         The {@link SearchableTypes} type.
+     */
+    private static void deleteNGramRelations(SQLiteDatabase db, Collection<Long> ngramIds, long taskId, long propertyId, int contentType)
+    {
+        if (ngramIds.isEmpty())
+        {
+            return;
+        }
+
+        boolean isProperty = contentType == SearchableTypes.PROPERTY;
+        StringBuilder sql = new StringBuilder(128 + ngramIds.size() * 8);
+        sql.append(isProperty ? SQL_DELETE_PROPERTY_RELATIONS : SQL_DELETE_TASK_RELATIONS).append(" AND ").append(FTSContentColumns.NGRAM_ID).append(" IN (");
+        appendIds(sql, ngramIds).append(')');
+
+        SQLiteStatement statement = db.compileStatement(sql.toString());
+        try
+        {
+            statement.bindLong(1, taskId);
+            statement.bindLong(2, contentType);
+            if (isProperty)
+            {
+                statement.bindLong(3, propertyId);
+            }
+            statement.execute();
+        }
+        finally
+        {
+            statement.close();
+        }
+    }
+
+
+    private static StringBuilder appendIds(StringBuilder builder, Collection<Long> ids)
+    {
+        boolean first = true;
+        for (Long id : ids)
+        {
+            if (!first)
+            {
+                builder.append(',');
+            }
+            builder.append(id);
+            first = false;
+        }
+        return builder;
     }
 
 
@@ -435,18 +1204,25 @@ public class FTSDatabaseHelper
      *         The property row id, ignored if <code>contentType</code> is not {@link SearchableTypes#PROPERTY}.
      * @param contentType
      *         The {@link SearchableTypes} type.
-     *
-     * @return The number of deleted relations.
      */
-    private static int deleteNGramRelations(SQLiteDatabase db, long taskId, long propertyId, int contentType)
+    private static void deleteNGramRelations(SQLiteDatabase db, long taskId, long propertyId, int contentType)
     {
-        StringBuilder whereClause = new StringBuilder(FTSContentColumns.TASK_ID).append(" = ").append(taskId);
-        whereClause.append(" AND ").append(FTSContentColumns.TYPE).append(" = ").append(contentType);
-        if (contentType == SearchableTypes.PROPERTY)
+        boolean isProperty = contentType == SearchableTypes.PROPERTY;
+        SQLiteStatement statement = db.compileStatement(isProperty ? SQL_DELETE_PROPERTY_RELATIONS : SQL_DELETE_TASK_RELATIONS);
+        try
+        {
+            statement.bindLong(1, taskId);
+            statement.bindLong(2, contentType);
+            if (isProperty)
+            {
+                statement.bindLong(3, propertyId);
+            }
+            statement.execute();
+        }
+        finally
         {
-            whereClause.append(" AND ").append(FTSContentColumns.PROPERTY_ID).append(" = ").append(propertyId);
+            statement.close();
         }
-        return db.delete(FTS_CONTENT_TABLE, whereClause.toString(), null);
     }
 
 
@@ -465,91 +1241,38 @@ public class FTSDatabaseHelper
      *         The arguments for the query.
      * @param sortOrder
      *         The sorting order of the query.
+     * @param ranking
+     *         The {@link SearchRanking} of the search.
      *
      * @return A cursor of the task database with the search result.
      */
     public static Cursor getTaskSearchCursor(SQLiteDatabase db, String searchString, String[] projection, String selection, String[] selectionArgs,
-                                             String sortOrder)
+                                             String sortOrder, SearchRanking ranking)
     {
+        List<String> queryArgs = new ArrayList<String>(64);
+        String scoreQuery = searchBackend().scoreQuery(searchString, ranking, queryArgs);
 
-        StringBuilder selectionBuilder = new StringBuilder(1024);
-
-        if (!TextUtils.isEmpty(selection))
-        {
-            selectionBuilder.append(" (");
-            selectionBuilder.append(selection);
-            selectionBuilder.append(") AND (");
-        }
-        else
+        String trimmed = searchString == null ? "" : searchString.trim();
+        if (trimmed.length() > 0 && DatabaseUtils.longForQuery(db, SQL_HAS_PENDING_TASKS, null) > 0)
         {
-            selectionBuilder.append(" (");
+            // tasks that haven't been indexed yet are not known to the backend, match them with a plain LIKE
+            scoreQuery = String.format(SQL_SELECT_SCORES_WITH_PENDING, scoreQuery);
+            String pattern = "%" + trimmed.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_") + "%";
+            queryArgs.add(pattern);
+            queryArgs.add(pattern);
+            queryArgs.add(pattern);
         }
 
-        Set<String> ngrams = TRIGRAM_GENERATOR.getNgrams(searchString);
-        TETRAGRAM_GENERATOR.getNgrams(ngrams, searchString);
-
-        String[] queryArgs;
-
-        if (searchString != null && searchString.length() > 1)
-        {
-
-            selectionBuilder.append(NGramColumns.TEXT);
-            selectionBuilder.append(" in (");
-
-            for (int i = 0, count = ngrams.size(); i < count; ++i)
-            {
-                if (i > 0)
-                {
-                    selectionBuilder.append(",");
-                }
-                selectionBuilder.append("?");
-
-            }
-
-            // selection arguments
-            if (selectionArgs != null && selectionArgs.length > 0)
-            {
-                queryArgs = new String[selectionArgs.length + ngrams.size() + 1];
-                queryArgs[0] = String.valueOf(ngrams.size());
-                System.arraycopy(selectionArgs, 0, queryArgs, 1, selectionArgs.length);
-                String[] ngramArray = ngrams.toArray(new String[ngrams.size()]);
-                System.arraycopy(ngramArray, 0, queryArgs, selectionArgs.length + 1, ngramArray.length);
-            }
-            else
-            {
-                String[] temp = ngrams.toArray(new String[ngrams.size()]);
-
-                queryArgs = new String[temp.length + 1];
-                queryArgs[0] = String.valueOf(ngrams.size());
-                System.arraycopy(temp, 0, queryArgs, 1, temp.length);
-            }
-            selectionBuilder.append(" ) ");
-        }
-        else
+        StringBuilder selectionBuilder = new StringBuilder(256);
+        if (!TextUtils.isEmpty(selection))
         {
-            selectionBuilder.append(NGramColumns.TEXT);
-            selectionBuilder.append(" like ?");
-
-            // selection arguments
-            if (selectionArgs != null && selectionArgs.length > 0)
+            selectionBuilder.append("(").append(selection).append(") AND ");
+            if (selectionArgs != null)
             {
-                queryArgs = new String[selectionArgs.length + 2];
-                queryArgs[0] = String.valueOf(ngrams.size());
-                System.arraycopy(selectionArgs, 0, queryArgs, 1, selectionArgs.length);
-                queryArgs[queryArgs.length - 1] = " " + searchString + "%";
+                queryArgs.addAll(Arrays.asList(selectionArgs));
             }
-            else
-            {
-                queryArgs = new String[2];
-                queryArgs[0] = String.valueOf(ngrams.size());
-                queryArgs[1] = " " + searchString + "%";
-            }
-
         }
-
-        selectionBuilder.append(") AND ");
-        selectionBuilder.append(Tasks._DELETED);
-        selectionBuilder.append(" = 0");
+        selectionBuilder.append(Tasks._DELETED).append(" = 0");
 
         if (sortOrder == null)
         {
@@ -559,9 +1282,11 @@ public class FTSDatabaseHelper
         {
             sortOrder = Tasks.SCORE + " desc, " + sortOrder;
         }
-        Cursor c = db.rawQueryWithFactory(null,
-                String.format(SQL_RAW_QUERY_SEARCH_TASK, SQL_RAW_QUERY_SEARCH_TASK_DEFAULT_PROJECTION, selectionBuilder.toString(), sortOrder), queryArgs,
-                null);
-        return c;
+
+        // with a limit SQLite only needs to keep the top results while sorting
+        String limit = ranking.limit() > 0 ? " LIMIT " + ranking.limit() : "";
+
+        return db.rawQueryWithFactory(null, String.format(SQL_SELECT_SEARCH_RESULTS, scoreQuery, selectionBuilder.toString(), sortOrder, limit),
+                queryArgs.toArray(new String[queryArgs.size()]), null);
     }
 }
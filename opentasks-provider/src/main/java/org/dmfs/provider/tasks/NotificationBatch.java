@@ -0,0 +1,118 @@
+/*
+ * Copyright 2017 dmfs GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dmfs.provider.tasks;
+
+import android.content.Context;
+import android.content.Intent;
+import android.net.Uri;
+
+import org.dmfs.tasks.contract.TaskContract;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+
+/**
+ * Collects the tasks that became due or have started and sends them in as few broadcasts as possible, see {@link TaskContract#ACTION_BROADCAST_TASKS_DUE}
+ * and {@link TaskContract#ACTION_BROADCAST_TASKS_STARTING}.
+ *
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+final class NotificationBatch
+{
+    /**
+     * The maximum number of tasks in one broadcast. This keeps each broadcast well below the size limit of a binder transaction.
+     */
+    private final static int MAX_BATCH_SIZE = 250;
+
+    private final Context mContext;
+    private final String mAction;
+
+    private final ArrayList<Uri> mUris = new ArrayList<Uri>(16);
+    private final long[] mTimestamps = new long[MAX_BATCH_SIZE];
+    private final boolean[] mAllDays = new boolean[MAX_BATCH_SIZE];
+    private final String[] mTimeZones = new String[MAX_BATCH_SIZE];
+    private final String[] mTitles = new String[MAX_BATCH_SIZE];
+
+
+    /**
+     * Creates a new batch.
+     *
+     * @param context
+     *         A {@link Context}.
+     * @param action
+     *         The broadcast action.
+     */
+    public NotificationBatch(Context context, String action)
+    {
+        mContext = context;
+        mAction = action;
+    }
+
+
+    /**
+     * Adds a task to this batch. The batch is sent if it's full.
+     *
+     * @param uri
+     *         The task uri.
+     * @param timestamp
+     *         The timestamp of the start or due date.
+     * @param allDay
+     *         Whether the date is an all-day date.
+     * @param timeZoneId
+     *         The time zone of the date or <code>null</code> if the date is floating or all-day.
+     * @param title
+     *         The task title.
+     */
+    public void add(Uri uri, long timestamp, boolean allDay, String timeZoneId, String title)
+    {
+        int index = mUris.size();
+        mUris.add(uri);
+        mTimestamps[index] = timestamp;
+        mAllDays[index] = allDay;
+        mTimeZones[index] = timeZoneId;
+        mTitles[index] = title;
+
+        if (index + 1 == MAX_BATCH_SIZE)
+        {
+            send();
+        }
+    }
+
+
+    /**
+     * Sends all tasks that have been added since the last broadcast. Does nothing if there are none.
+     */
+    public void send()
+    {
+        int count = mUris.size();
+        if (count == 0)
+        {
+            return;
+        }
+
+        Intent intent = new Intent(mAction);
+        intent.putParcelableArrayListExtra(TaskContract.EXTRA_TASK_URIS, new ArrayList<Uri>(mUris));
+        intent.putExtra(TaskContract.EXTRA_TASK_TIMESTAMPS, Arrays.copyOf(mTimestamps, count));
+        intent.putExtra(TaskContract.EXTRA_TASK_ALLDAYS, Arrays.copyOf(mAllDays, count));
+        intent.putExtra(TaskContract.EXTRA_TASK_TITLES, Arrays.copyOf(mTitles, count));
+        intent.putExtra(TaskContract.EXTRA_TASK_TIMEZONES, Arrays.copyOf(mTimeZones, count));
+        mContext.sendBroadcast(intent);
+
+        mUris.clear();
+    }
+}
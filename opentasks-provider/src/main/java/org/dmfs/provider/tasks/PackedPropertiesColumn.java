@@ -0,0 +1,85 @@
+/*
+ * Copyright 2017 dmfs GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dmfs.provider.tasks;
+
+import org.dmfs.provider.tasks.TaskDatabaseHelper.Tables;
+import org.dmfs.tasks.contract.PackedProperties;
+import org.dmfs.tasks.contract.TaskContract.Properties;
+import org.dmfs.tasks.contract.TaskContract.TaskColumns;
+
+
+/**
+ * Builds the {@link TaskColumns#PACKED_PROPERTIES} column in SQL.
+ * <p>
+ * In contrast to the property views, which return one row per property, the properties of a task are aggregated into a single column in the format of
+ * {@link PackedProperties}, so each task is returned only once.
+ *
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+public final class PackedPropertiesColumn
+{
+    /**
+     * The expression that packs all properties of the task with the id in <code>%1$s</code>.
+     */
+    private final static String SQL_PACKED_PROPERTIES = "(SELECT group_concat(" + record() + ", '" + PackedProperties.RECORD_SEPARATOR + "') FROM "
+            + Tables.PROPERTIES + " WHERE " + Tables.PROPERTIES + "." + Properties.TASK_ID + " = %1$s)";
+
+
+    private PackedPropertiesColumn()
+    {
+    }
+
+
+    /**
+     * Returns the given tables extended by the {@link TaskColumns#PACKED_PROPERTIES} column.
+     *
+     * @param tables
+     *         The tables (or view) to extend.
+     * @param taskIdColumn
+     *         The column of the given tables that contains the task id.
+     *
+     * @return The tables to use with a {@link android.database.sqlite.SQLiteQueryBuilder}.
+     */
+    public static String tables(String tables, String taskIdColumn)
+    {
+        return "(SELECT packed_source.*, " + String.format(SQL_PACKED_PROPERTIES, "packed_source." + taskIdColumn) + " AS "
+                + TaskColumns.PACKED_PROPERTIES + " FROM " + tables + " AS packed_source)";
+    }
+
+
+    private static String record()
+    {
+        StringBuilder result = new StringBuilder(1024);
+        for (String column : PackedProperties.COLUMNS)
+        {
+            if (result.length() > 0)
+            {
+                result.append(" || '").append(PackedProperties.FIELD_SEPARATOR).append("' || ");
+            }
+            result.append("ifnull(");
+            result.append("replace(replace(replace(").append(Tables.PROPERTIES).append('.').append(column);
+            // escape the escape character first
+            result.append(", '").append(PackedProperties.ESCAPE).append("', '").append(PackedProperties.ESCAPE).append(PackedProperties.ESCAPE).append("')");
+            result.append(", '").append(PackedProperties.FIELD_SEPARATOR).append("', '").append(PackedProperties.ESCAPE).append(PackedProperties.FIELD_SEPARATOR)
+                    .append("')");
+            result.append(", '").append(PackedProperties.RECORD_SEPARATOR).append("', '").append(PackedProperties.ESCAPE)
+                    .append(PackedProperties.RECORD_SEPARATOR).append("')");
+            result.append(", '").append(PackedProperties.NULL).append("')");
+        }
+        return result.toString();
+    }
+}
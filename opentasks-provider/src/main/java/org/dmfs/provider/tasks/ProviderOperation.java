@@ -130,7 +130,7 @@ public enum ProviderOperation
 
         if (this != UPDATE || entityAdapter.hasUpdates()) // don't log empty operations
         {
-            log.log(this, entityAdapter.uri(authority));
+            log.log(db, this, entityAdapter.uri(authority));
         }
     }
 }
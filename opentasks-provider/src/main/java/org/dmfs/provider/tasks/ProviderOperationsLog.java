@@ -16,40 +16,171 @@
 
 package org.dmfs.provider.tasks;
 
+import android.content.ContentUris;
+import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
 import android.os.Bundle;
 
 import org.dmfs.tasks.contract.TaskContract;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 
 /**
  * A log to track all content provider operations.
+ * <p>
+ * The log collapses the operations into ranges of consecutive ids per entity and operation and writes them to the {@link ChangeJournal} under the
+ * sequence number of the current transaction.
  *
  * @author Marten Gajda <marten@dmfs.org>
  */
 public class ProviderOperationsLog
 {
+    /**
+     * The maximum number of operations to add to the broadcast as individual {@link Uri}s.
+     */
+    private final static int MAX_URIS = 100;
+
+    /**
+     * The maximum number of change ranges to add to the broadcast. If a transaction results in more ranges the broadcast is truncated.
+     */
+    private final static int MAX_RANGES = 200;
+
+    private final ChangeJournal mJournal;
+
+    /**
+     * The sequence number of the logged operations or <code>0</code> if the log is empty.
+     */
+    private long mSequence;
+
     private ArrayList<Uri> mUris = new ArrayList<Uri>(16);
 
     private ArrayList<Integer> mOperations = new ArrayList<Integer>(16);
 
+    private int mCount;
+
+    private final List<ChangeRange> mRanges = new ArrayList<ChangeRange>(16);
 
     /**
-     * Add an operation on the given {@link Uri} to the log.
+     * The range each entity/operation combination currently adds to.
+     */
+    private final Map<String, ChangeRange> mOpenRanges = new HashMap<String, ChangeRange>(8);
+
+    /**
+     * The number of operations that have been committed.
+     */
+    private int mCommittedCount;
+
+    /**
+     * The number of ranges that have been committed.
+     */
+    private int mCommittedRanges;
+
+
+    /**
+     * Creates a log that writes its changes to the given {@link ChangeJournal}.
      *
+     * @param journal
+     *         The {@link ChangeJournal}.
+     */
+    public ProviderOperationsLog(ChangeJournal journal)
+    {
+        mJournal = journal;
+    }
+
+
+    /**
+     * Add an operation on the given {@link Uri} to the log and the {@link ChangeJournal}.
+     *
+     * @param db
+     *         The {@link SQLiteDatabase} the operation was executed on.
      * @param operation
      *         The {@link ProviderOperation} that was executed.
      * @param uri
      *         The {@link Uri} that the operation was executed on.
      */
-    public void log(ProviderOperation operation, Uri uri)
+    public void log(SQLiteDatabase db, ProviderOperation operation, Uri uri)
     {
         synchronized (this)
         {
-            mUris.add(uri);
-            mOperations.add(operation.ordinal());
+            if (mSequence == 0)
+            {
+                mSequence = mJournal.nextSequence(db);
+            }
+
+            if (++mCount <= MAX_URIS)
+            {
+                mUris.add(uri);
+                mOperations.add(operation.ordinal());
+            }
+
+            String entity = uri.getPathSegments().get(0);
+            long id = ContentUris.parseId(uri);
+            String key = entity + "/" + operation.ordinal();
+
+            ChangeRange range = mOpenRanges.get(key);
+            if (range != null && id >= range.firstId && id <= range.lastId)
+            {
+                // already logged
+                return;
+            }
+
+            if (range != null && id == range.lastId + 1 && mJournal.updateLastId(db, range.rowId, id))
+            {
+                // extend the range, this is the common case when a sync adapter inserts or updates many entities in a row
+                range.lastId = id;
+            }
+            else
+            {
+                range = new ChangeRange(entity, operation.ordinal(), id);
+                range.rowId = mJournal.insert(db, mSequence, range);
+                mRanges.add(range);
+                mOpenRanges.put(key, range);
+            }
+        }
+    }
+
+
+    /**
+     * Marks all operations logged so far as committed. Call this right before the transaction is committed.
+     * <p>
+     * Committed ranges are never extended, so a later rollback can't leave a committed range with a last id that doesn't exist in the journal.
+     */
+    public void markCommitted()
+    {
+        synchronized (this)
+        {
+            mOpenRanges.clear();
+            mCommittedCount = mCount;
+            mCommittedRanges = mRanges.size();
+        }
+    }
+
+
+    /**
+     * Removes all operations that have been logged since the last {@link #markCommitted()}. Call this when a transaction has been rolled back, because the
+     * journal rows of these operations no longer exist.
+     */
+    public void reset()
+    {
+        synchronized (this)
+        {
+            mOpenRanges.clear();
+            mRanges.subList(mCommittedRanges, mRanges.size()).clear();
+            if (mCommittedCount < mUris.size())
+            {
+                mUris.subList(mCommittedCount, mUris.size()).clear();
+                mOperations.subList(mCommittedCount, mOperations.size()).clear();
+            }
+            mCount = mCommittedCount;
+            if (mCount == 0)
+            {
+                // nothing has been committed under this sequence number, the next transaction gets a new one
+                mSequence = 0;
+            }
         }
     }
 
@@ -68,18 +199,59 @@ public class ProviderOperationsLog
     {
         if (bundle == null)
         {
-            bundle = new Bundle(2);
+            bundle = new Bundle(8);
         }
 
         synchronized (this)
         {
-            bundle.putParcelableArrayList(TaskContract.EXTRA_OPERATIONS_URIS, mUris);
-            bundle.putIntegerArrayList(TaskContract.EXTRA_OPERATIONS, mOperations);
+            if (mCount <= MAX_URIS)
+            {
+                bundle.putParcelableArrayList(TaskContract.EXTRA_OPERATIONS_URIS, mUris);
+                bundle.putIntegerArrayList(TaskContract.EXTRA_OPERATIONS, mOperations);
+            }
+
+            if (mCount > 0)
+            {
+                bundle.putLong(TaskContract.EXTRA_CHANGE_SEQUENCE, mSequence);
+
+                int rangeCount = mRanges.size();
+                if (rangeCount <= MAX_RANGES)
+                {
+                    String[] entities = new String[rangeCount];
+                    int[] operations = new int[rangeCount];
+                    long[] firstIds = new long[rangeCount];
+                    long[] lastIds = new long[rangeCount];
+                    for (int i = 0; i < rangeCount; ++i)
+                    {
+                        ChangeRange range = mRanges.get(i);
+                        entities[i] = range.entity;
+                        operations[i] = range.operation;
+                        firstIds[i] = range.firstId;
+                        lastIds[i] = range.lastId;
+                    }
+                    bundle.putStringArray(TaskContract.EXTRA_CHANGE_ENTITIES, entities);
+                    bundle.putIntArray(TaskContract.EXTRA_CHANGE_OPERATIONS, operations);
+                    bundle.putLongArray(TaskContract.EXTRA_CHANGE_FIRST_IDS, firstIds);
+                    bundle.putLongArray(TaskContract.EXTRA_CHANGE_LAST_IDS, lastIds);
+                }
+                else
+                {
+                    // too many changes for a broadcast, receivers have to ask for them
+                    bundle.putBoolean(TaskContract.EXTRA_CHANGES_TRUNCATED, true);
+                }
+            }
+
             if (clearLog)
             {
                 // we can't just clear the ArrayLists, because the Bundle keeps a reference to them
                 mUris = new ArrayList<Uri>(16);
                 mOperations = new ArrayList<Integer>(16);
+                mRanges.clear();
+                mOpenRanges.clear();
+                mCount = 0;
+                mCommittedCount = 0;
+                mCommittedRanges = 0;
+                mSequence = 0;
             }
         }
         return bundle;
@@ -107,6 +279,47 @@ public class ProviderOperationsLog
      */
     public boolean isEmpty()
     {
-        return mUris.size() == 0;
+        return mCount == 0;
+    }
+
+
+    /**
+     * A range of entities with consecutive ids that have been modified by the same operation.
+     */
+    public final static class ChangeRange
+    {
+        /**
+         * The content path of the entity.
+         */
+        public final String entity;
+
+        /**
+         * The ordinal of the {@link ProviderOperation}.
+         */
+        public final int operation;
+
+        /**
+         * The first id of the range.
+         */
+        public final long firstId;
+
+        /**
+         * The last id of the range (inclusive).
+         */
+        public long lastId;
+
+        /**
+         * The row id of the range in the {@link ChangeJournal}.
+         */
+        public long rowId;
+
+
+        public ChangeRange(String entity, int operation, long id)
+        {
+            this.entity = entity;
+            this.operation = operation;
+            this.firstId = id;
+            this.lastId = id;
+        }
     }
-}
\ No newline at end of file
+}
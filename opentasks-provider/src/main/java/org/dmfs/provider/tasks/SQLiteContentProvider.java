@@ -25,7 +25,10 @@ import android.content.Context;
 import android.content.OperationApplicationException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteTransactionListener;
 import android.net.Uri;
+import android.os.SystemClock;
+import android.util.Log;
 
 import java.util.ArrayList;
 import java.util.HashSet;
@@ -46,20 +49,113 @@ import java.util.Set;
 abstract class SQLiteContentProvider extends ContentProvider
 {
 
-    @SuppressWarnings("unused")
     private static final String TAG = "SQLiteContentProvider";
 
     private SQLiteOpenHelper mOpenHelper;
     private Set<Uri> mChangedUris;
 
     private final ThreadLocal<Boolean> mApplyingBatch = new ThreadLocal<Boolean>();
-    private static final int SLEEP_AFTER_YIELD_DELAY = 4000;
 
     /**
-     * Maximum number of operations allowed in a batch between yield points.
+     * The default of the maximum time in milliseconds a batch may hold a transaction.
+     */
+    private static final long DEFAULT_LATENCY_BUDGET = 500;
+
+    /**
+     * Number of operations in a batch between yield points that results in a warning.
      */
     private static final int MAX_OPERATIONS_PER_YIELD_POINT = 500;
 
+    private volatile long mLatencyBudget = DEFAULT_LATENCY_BUDGET;
+
+    private final ThreadLocal<BatchStats> mBatchStats = new ThreadLocal<BatchStats>();
+
+
+    /**
+     * Statistics of a batch, see {@link #batchStats()}.
+     */
+    protected final static class BatchStats
+    {
+        /**
+         * The number of operations that have been applied.
+         */
+        public int operations;
+
+        /**
+         * The number of times the transaction has been committed because other threads were waiting for the database.
+         */
+        public int yields;
+
+        /**
+         * The number of times the transaction has been committed because it exceeded the latency budget.
+         */
+        public int commits;
+
+        /**
+         * The longest time in milliseconds a single transaction has been held.
+         */
+        public long maxTransactionTime;
+
+        /**
+         * The total time in milliseconds it took to apply the batch.
+         */
+        public long duration;
+
+
+        void transactionEnded(long transactionTime)
+        {
+            maxTransactionTime = Math.max(maxTransactionTime, transactionTime);
+        }
+    }
+
+
+    /**
+     * A {@link SQLiteTransactionListener} that calls {@link #beforeCommit(SQLiteDatabase, boolean)} right before the transaction is actually committed and
+     * forwards rollbacks to {@link #onRollback()}. SQLite calls {@link #onCommit()} for every commit, including the ones in {@link
+     * SQLiteDatabase#yieldIfContendedSafely()}, so deferred work is completed exactly once per commit.
+     */
+    private final class CommitListener implements SQLiteTransactionListener
+    {
+        private final SQLiteDatabase mDb;
+        private boolean mCallerIsSyncAdapter;
+
+
+        CommitListener(SQLiteDatabase db, boolean callerIsSyncAdapter)
+        {
+            mDb = db;
+            mCallerIsSyncAdapter = callerIsSyncAdapter;
+        }
+
+
+        @Override
+        public void onBegin()
+        {
+        }
+
+
+        @Override
+        public void onCommit()
+        {
+            try
+            {
+                beforeCommit(mDb, mCallerIsSyncAdapter);
+            }
+            catch (RuntimeException e)
+            {
+                // SQLite rolls back the transaction, but doesn't call onRollback() in that case
+                SQLiteContentProvider.this.onRollback();
+                throw e;
+            }
+        }
+
+
+        @Override
+        public void onRollback()
+        {
+            SQLiteContentProvider.this.onRollback();
+        }
+    }
+
 
     @Override
     public boolean onCreate()
@@ -132,7 +228,7 @@ abstract class SQLiteContentProvider extends ContentProvider
         SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         if (!applyingBatch)
         {
-            db.beginTransaction();
+            db.beginTransactionWithListener(new CommitListener(db, callerIsSyncAdapter));
             try
             {
                 result = insertInTransaction(db, uri, values, callerIsSyncAdapter);
@@ -159,7 +255,7 @@ abstract class SQLiteContentProvider extends ContentProvider
         int numValues = values.length;
         boolean callerIsSyncAdapter = isCallerSyncAdapter(uri);
         SQLiteDatabase db = mOpenHelper.getWritableDatabase();
-        db.beginTransaction();
+        db.beginTransactionWithListener(new CommitListener(db, callerIsSyncAdapter));
         try
         {
             for (int i = 0; i < numValues; i++)
@@ -188,7 +284,7 @@ abstract class SQLiteContentProvider extends ContentProvider
         SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         if (!applyingBatch)
         {
-            db.beginTransaction();
+            db.beginTransactionWithListener(new CommitListener(db, callerIsSyncAdapter));
             try
             {
                 count = updateInTransaction(db, uri, values, selection, selectionArgs, callerIsSyncAdapter);
@@ -219,7 +315,7 @@ abstract class SQLiteContentProvider extends ContentProvider
         SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         if (!applyingBatch)
         {
-            db.beginTransaction();
+            db.beginTransactionWithListener(new CommitListener(db, callerIsSyncAdapter));
             try
             {
                 count = deleteInTransaction(db, uri, selection, selectionArgs, callerIsSyncAdapter);
@@ -243,11 +339,14 @@ abstract class SQLiteContentProvider extends ContentProvider
     @Override
     public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations) throws OperationApplicationException
     {
-        int ypCount = 0;
         int opCount = 0;
         boolean callerIsSyncAdapter = false;
+        BatchStats stats = new BatchStats();
+        long start = SystemClock.elapsedRealtime();
+        long transactionStart = start;
         SQLiteDatabase db = mOpenHelper.getWritableDatabase();
-        db.beginTransaction();
+        CommitListener listener = new CommitListener(db, false);
+        db.beginTransactionWithListener(listener);
         try
         {
             mApplyingBatch.set(true);
@@ -255,25 +354,41 @@ abstract class SQLiteContentProvider extends ContentProvider
             final ContentProviderResult[] results = new ContentProviderResult[numOperations];
             for (int i = 0; i < numOperations; i++)
             {
-                if (++opCount >= MAX_OPERATIONS_PER_YIELD_POINT)
+                if (++opCount == MAX_OPERATIONS_PER_YIELD_POINT)
                 {
-                    throw new OperationApplicationException("Too many content provider operations between yield points. "
-                            + "The maximum number of operations per yield point is " + MAX_OPERATIONS_PER_YIELD_POINT, ypCount);
+                    // we can't commit without a yield point, but we don't want to fail either
+                    Log.w(TAG, "More than " + MAX_OPERATIONS_PER_YIELD_POINT + " operations without yield point, the transaction may block other writers");
                 }
                 final ContentProviderOperation operation = operations.get(i);
                 if (!callerIsSyncAdapter && isCallerSyncAdapter(operation.getUri()))
                 {
                     callerIsSyncAdapter = true;
+                    listener.mCallerIsSyncAdapter = true;
                 }
                 if (i > 0 && operation.isYieldAllowed())
                 {
                     opCount = 0;
-                    if (db.yieldIfContendedSafely(SLEEP_AFTER_YIELD_DELAY))
+                    long now = SystemClock.elapsedRealtime();
+                    if (db.yieldIfContendedSafely())
+                    {
+                        // someone else was waiting for the database
+                        stats.yields++;
+                        stats.transactionEnded(now - transactionStart);
+                        transactionStart = SystemClock.elapsedRealtime();
+                    }
+                    else if (now - transactionStart >= mLatencyBudget)
                     {
-                        ypCount++;
+                        // the transaction has been held for too long, commit what we have so far, so other writers don't have to wait too long
+                        db.setTransactionSuccessful();
+                        db.endTransaction();
+                        db.beginTransactionWithListener(listener);
+                        stats.commits++;
+                        stats.transactionEnded(now - transactionStart);
+                        transactionStart = SystemClock.elapsedRealtime();
                     }
                 }
                 results[i] = operation.apply(this, results, i);
+                stats.operations++;
             }
             db.setTransactionSuccessful();
             return results;
@@ -281,12 +396,69 @@ abstract class SQLiteContentProvider extends ContentProvider
         finally
         {
             mApplyingBatch.set(false);
-            db.endTransaction();
-            onEndTransaction(callerIsSyncAdapter);
+            // a failing commit at a yield point leaves us without a transaction
+            if (db.inTransaction())
+            {
+                db.endTransaction();
+            }
+            long end = SystemClock.elapsedRealtime();
+            stats.transactionEnded(end - transactionStart);
+            stats.duration = end - start;
+            mBatchStats.set(stats);
+            try
+            {
+                onEndTransaction(callerIsSyncAdapter);
+            }
+            finally
+            {
+                mBatchStats.remove();
+            }
         }
     }
 
 
+    /**
+     * Sets the maximum time a batch may hold a transaction before it's committed at the next yield point, even if no other thread is waiting for the
+     * database.
+     *
+     * @param latencyBudget
+     *         The latency budget in milliseconds.
+     */
+    protected void setTransactionLatencyBudget(long latencyBudget)
+    {
+        mLatencyBudget = latencyBudget;
+    }
+
+
+    /**
+     * Returns the {@link BatchStats} of the batch that has just been applied. This is only available in {@link #onEndTransaction(boolean)} after {@link
+     * #applyBatch(ArrayList)}.
+     *
+     * @return The {@link BatchStats} or <code>null</code> if the transaction didn't result from a batch.
+     */
+    protected BatchStats batchStats()
+    {
+        return mBatchStats.get();
+    }
+
+
+    /**
+     * Called right before a transaction is committed. Subclasses can use this to complete any work they have deferred until all operations of the
+     * transaction have been executed. Any exception thrown here rolls back the transaction.
+     * <p>
+     * Batches and bulk inserts call this whenever they actually commit, i.e. at the end and at yield points that commit the transaction. Yield points that
+     * don't commit don't call this, so deferred work is not completed before it has to be.
+     *
+     * @param db
+     *         The {@link SQLiteDatabase} of the transaction.
+     * @param callerIsSyncAdapter
+     *         Whether the transaction has been started by a sync adapter.
+     */
+    protected void beforeCommit(SQLiteDatabase db, boolean callerIsSyncAdapter)
+    {
+    }
+
+
     protected void onEndTransaction(boolean callerIsSyncAdapter)
     {
         Set<Uri> changed;
@@ -304,6 +476,14 @@ abstract class SQLiteContentProvider extends ContentProvider
     }
 
 
+    /**
+     * Called when a transaction has been rolled back. Subclasses should drop any state they have derived from data written in that transaction.
+     */
+    protected void onRollback()
+    {
+    }
+
+
     protected boolean syncToNetwork(Uri uri)
     {
         return false;
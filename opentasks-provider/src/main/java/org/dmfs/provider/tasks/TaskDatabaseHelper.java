@@ -16,10 +16,13 @@
 
 package org.dmfs.provider.tasks;
 
+import android.annotation.TargetApi;
 import android.content.ContentValues;
 import android.content.Context;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
 import android.util.Log;
 
 import org.dmfs.tasks.contract.TaskContract;
@@ -60,7 +63,7 @@ public class TaskDatabaseHelper extends SQLiteOpenHelper
     /**
      * The database version.
      */
-    static final int DATABASE_VERSION = 16;
+    static final int DATABASE_VERSION = 26;
 
 
     /**
@@ -95,6 +98,16 @@ public class TaskDatabaseHelper extends SQLiteOpenHelper
         public static final String ALARMS = "Alarms";
 
         public static final String SYNCSTATE = "SyncState";
+
+        public static final String CHANGES = "Changes";
+
+        public static final String TASKS_PURGE = "Tasks_Purge";
+
+        public static final String TASK_HIERARCHY = "Task_Hierarchy";
+
+        public static final String TASK_SUBTREE_VIEW = "Task_Subtree_View";
+
+        public static final String TASK_ANCESTOR_VIEW = "Task_Ancestor_View";
     }
 
 
@@ -244,15 +257,15 @@ public class TaskDatabaseHelper extends SQLiteOpenHelper
 		  + TaskContract.Instances.INSTANCE_DUE + " INTEGER, "
 		  + TaskContract.Instances.INSTANCE_START_SORTING + " INTEGER, "
 		  + TaskContract.Instances.INSTANCE_DUE_SORTING + " INTEGER, "
-		  + TaskContract.Instances.INSTANCE_DURATION + " INTEGER);";
+		  + TaskContract.Instances.INSTANCE_DURATION + " INTEGER, "
+		  + TaskContract.Instances.INSTANCE_ORIGINAL_TIME + " INTEGER);";
 
 	
 	/**
 	 * SQL command to create a trigger to clean up data of removed tasks.
 	 */
 	private final static String SQL_CREATE_TASKS_CLEANUP_TRIGGER =
-		"CREATE TRIGGER task_cleanup_trigger AFTER DELETE ON " + Tables.TASKS
-		+ " BEGIN "
+		"CREATE TRIGGER task_cleanup_trigger AFTER DELETE ON " + Tables.TASKS		+ " BEGIN "
 		+ " DELETE FROM " + Tables.PROPERTIES + " WHERE " + TaskContract.Properties.TASK_ID + "= old." + TaskContract.Tasks._ID + ";"
 		+ " DELETE FROM " + Tables.INSTANCES + " WHERE " + TaskContract.Instances.TASK_ID + "=old." + TaskContract.Tasks._ID + ";"
 		+ " END;";
@@ -271,6 +284,12 @@ public class TaskDatabaseHelper extends SQLiteOpenHelper
 	 */
 	private final static String SQL_DROP_TASKS_CLEANUP_TRIGGER =
 		"DROP TRIGGER task_cleanup_trigger;";
+
+	/**
+	 * SQL command to drop the property clean up trigger.
+	 */
+	private final static String SQL_DROP_TASK_PROPERTY_CLEANUP_TRIGGER =
+		"DROP TRIGGER IF EXISTS task_property_cleanup_trigger;";
 	
 	
 	/**
@@ -553,8 +572,46 @@ public class TaskDatabaseHelper extends SQLiteOpenHelper
 
     TaskDatabaseHelper(Context context, OnDatabaseOperationListener listener)
     {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this(context, DATABASE_NAME, listener);
+    }
+
+
+    /**
+     * Creates a helper for the database with the given name.
+     *
+     * @param context
+     *         A {@link Context}.
+     * @param name
+     *         The name of the database file or <code>null</code> for an in-memory database.
+     * @param listener
+     *         An {@link OnDatabaseOperationListener} or <code>null</code>.
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    TaskDatabaseHelper(Context context, String name, OnDatabaseOperationListener listener)
+    {
+        super(context, name, null, DATABASE_VERSION);
         mListener = listener;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN)
+        {
+            // readers must not wait for sync adapters to finish their transactions
+            setWriteAheadLoggingEnabled(true);
+        }
+    }
+
+
+    /**
+     * Enables write-ahead logging on Android versions that don't support {@link #setWriteAheadLoggingEnabled(boolean)}. With write-ahead logging enabled
+     * the database keeps a pool of connections for queries that run concurrently to a write transaction.
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    @Override
+    public void onOpen(SQLiteDatabase db)
+    {
+        super.onOpen(db);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB && Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN && !db.isReadOnly())
+        {
+            db.enableWriteAheadLogging();
+        }
     }
 
 
@@ -570,6 +627,9 @@ public class TaskDatabaseHelper extends SQLiteOpenHelper
         // create task list table
         db.execSQL(SQL_CREATE_LISTS_TABLE);
 
+        // create the staging table of bulk deletes
+        TaskPurge.onCreate(db);
+
         // trigger that removes tasks of a list that has been removed
         db.execSQL("CREATE TRIGGER task_list_cleanup_trigger AFTER DELETE ON " + Tables.LISTS + " BEGIN DELETE FROM " + Tables.TASKS + " WHERE "
                 + TaskContract.Tasks.LIST_ID + "= old." + TaskContract.TaskLists._ID + "; END");
@@ -597,7 +657,7 @@ public class TaskDatabaseHelper extends SQLiteOpenHelper
         db.execSQL(SQL_CREATE_CATEGORIES_MAPPING_TABLE);
 
         // create alarms table
-        db.execSQL(SQL_CREATE_ALARMS_TABLE);
+        AlarmScheduler.onCreate(db);
 
         // create properties table
         db.execSQL(SQL_CREATE_PROPERTIES_TABLE);
@@ -620,6 +680,7 @@ public class TaskDatabaseHelper extends SQLiteOpenHelper
         db.execSQL(createIndexString(Tables.LISTS, false, TaskContract.TaskLists.ACCOUNT_NAME, // not sure if necessary
                 TaskContract.TaskLists.ACCOUNT_TYPE));
         db.execSQL(createIndexString(Tables.TASKS, false, TaskContract.Tasks.STATUS, TaskContract.Tasks.LIST_ID, TaskContract.Tasks._SYNC_ID));
+        db.execSQL(createIndexString(Tables.TASKS, false, TaskContract.Tasks._UID));
         db.execSQL(createIndexString(Tables.PROPERTIES, false, TaskContract.Properties.MIMETYPE, TaskContract.Properties.TASK_ID));
         db.execSQL(createIndexString(Tables.PROPERTIES, false, TaskContract.Properties.TASK_ID));
         db.execSQL(createIndexString(Tables.CATEGORIES, false, TaskContract.Categories.ACCOUNT_NAME, TaskContract.Categories.ACCOUNT_TYPE,
@@ -647,6 +708,12 @@ public class TaskDatabaseHelper extends SQLiteOpenHelper
         // initialize FTS
         FTSDatabaseHelper.onCreate(db);
 
+        // create the change journal
+        ChangeJournal.onCreate(db);
+
+        // create the closure table of the task hierarchy
+        TaskHierarchy.onCreate(db);
+
         if (mListener != null)
         {
             mListener.onDatabaseCreated(db);
@@ -784,6 +851,72 @@ public class TaskDatabaseHelper extends SQLiteOpenHelper
             db.execSQL(createIndexString(Tables.INSTANCES, false, TaskContract.Instances.INSTANCE_DUE_SORTING));
         }
 
+        if (oldVersion < 17)
+        {
+            // add the original instance time, recurring tasks have been stored with their first instance only so far
+            db.execSQL("ALTER TABLE " + Tables.INSTANCES + " ADD COLUMN " + TaskContract.Instances.INSTANCE_ORIGINAL_TIME + " INTEGER");
+            db.execSQL("UPDATE " + Tables.INSTANCES + " SET " + TaskContract.Instances.INSTANCE_ORIGINAL_TIME + " = coalesce("
+                    + TaskContract.Instances.INSTANCE_START + ", " + TaskContract.Instances.INSTANCE_DUE + ") WHERE " + TaskContract.Instances.TASK_ID
+                    + " IN (SELECT " + Tasks._ID + " FROM " + Tables.TASKS + " WHERE " + Tasks.RRULE + " NOT NULL OR " + Tasks.RDATE + " NOT NULL)");
+        }
+
+        if (oldVersion < 21)
+        {
+            // add the change journal
+            ChangeJournal.onCreate(db);
+        }
+
+        if (oldVersion < 22)
+        {
+            // add the staging table of bulk deletes
+            TaskPurge.onCreate(db);
+        }
+
+        if (oldVersion < 23)
+        {
+            // relations are resolved by UID
+            db.execSQL(createIndexString(Tables.TASKS, false, TaskContract.Tasks._UID));
+        }
+
+        if (oldVersion < 24)
+        {
+            // add the closure table of the task hierarchy
+            TaskHierarchy.onCreate(db);
+            TaskHierarchy.populate(db);
+        }
+
+        if (oldVersion < 25)
+        {
+            // the alarms table has never been used, replace it by the table of next trigger times
+            db.execSQL("DROP TABLE " + Tables.ALARMS + ";");
+            AlarmScheduler.onCreate(db);
+            AlarmScheduler.populate(db);
+        }
+
+        if (oldVersion < 26)
+        {
+            // the cleanup triggers no longer skip staged tasks, a purge removes their data before the triggers fire
+            db.execSQL(SQL_DROP_TASKS_CLEANUP_TRIGGER);
+            db.execSQL(SQL_CREATE_TASKS_CLEANUP_TRIGGER);
+            db.execSQL(SQL_DROP_TASK_PROPERTY_CLEANUP_TRIGGER);
+            db.execSQL(SQL_CREATE_TASK_PROPERTY_CLEANUP_TRIGGER);
+
+            db.execSQL("DROP TRIGGER alarm_count_delete_trigger;");
+            db.execSQL(SQL_CREATE_ALARM_COUNT_DELETE_TRIGGER);
+            db.execSQL("DROP TRIGGER alarm_property_cleanup_trigger;");
+            db.execSQL(SQL_CREATE_ALARM_PROPERTY_CLEANUP_TRIGGER);
+
+            // this trigger only exists in databases that have been upgraded from version 9 or older
+            if (DatabaseUtils.longForQuery(db, "SELECT count(*) FROM sqlite_master WHERE type = 'trigger' AND name = 'category_property_cleanup_trigger'",
+                    null) > 0)
+            {
+                db.execSQL("DROP TRIGGER category_property_cleanup_trigger;");
+                db.execSQL(SQL_CREATE_CATEGORY_PROPERTY_CLEANUP_TRIGGER);
+            }
+
+            TaskHierarchy.updateTriggers(db);
+        }
+
         // upgrade FTS
         FTSDatabaseHelper.onUpgrade(db, oldVersion, newVersion);
 
@@ -0,0 +1,206 @@
+/*
+ * Copyright 2017 dmfs GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dmfs.provider.tasks;
+
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.dmfs.provider.tasks.TaskDatabaseHelper.Tables;
+import org.dmfs.tasks.contract.TaskContract.Tasks;
+
+
+/**
+ * The closure table of the task hierarchy.
+ * <p>
+ * For each task the table contains one row per ancestor (including the task itself at depth <code>0</code>), so an entire subtree or the path to the root
+ * can be loaded with a single query. The table is maintained by triggers on {@link Tasks#PARENT_ID}, so it follows any change of the parent, no matter whether
+ * it has been made by a client or has been derived from the relations of a task.
+ * <p>
+ * Changes that would create a cycle are not reflected in the table.
+ *
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+public final class TaskHierarchy
+{
+    /**
+     * The column that contains the id of the ancestor.
+     */
+    public final static String ANCESTOR_ID = "ancestor_id";
+
+    /**
+     * The column that contains the id of the descendant.
+     */
+    public final static String DESCENDANT_ID = "descendant_id";
+
+    /**
+     * The column that contains the number of levels between ancestor and descendant.
+     */
+    public final static String DEPTH = "depth";
+
+    /**
+     * The column of the hierarchy views that contains the id of the task the subtree or the ancestors belong to.
+     */
+    public final static String ANCHOR_ID = "hierarchy_anchor";
+
+    private final static String SQL_CREATE_HIERARCHY_TABLE = "CREATE TABLE " + Tables.TASK_HIERARCHY + " ( " + ANCESTOR_ID + " INTEGER NOT NULL, "
+            + DESCENDANT_ID + " INTEGER NOT NULL, " + DEPTH + " INTEGER NOT NULL, PRIMARY KEY (" + ANCESTOR_ID + ", " + DESCENDANT_ID + "));";
+
+    /**
+     * A sub-query that selects the subtree of the task with the given id, including the task itself.
+     */
+    private final static String SUBTREE_OF = "(SELECT " + DESCENDANT_ID + " FROM " + Tables.TASK_HIERARCHY + " WHERE " + ANCESTOR_ID + " = %s)";
+
+    /**
+     * A sub-query that selects the ancestors of the task with the given id, including the task itself.
+     */
+    private final static String ANCESTORS_OF = "(SELECT " + ANCESTOR_ID + " FROM " + Tables.TASK_HIERARCHY + " WHERE " + DESCENDANT_ID + " = %s)";
+
+    private final static String SQL_INSERT_SELF = "INSERT OR IGNORE INTO " + Tables.TASK_HIERARCHY + " (" + ANCESTOR_ID + ", " + DESCENDANT_ID + ", "
+            + DEPTH + ") VALUES (new." + Tasks._ID + ", new." + Tasks._ID + ", 0); ";
+
+    /**
+     * Connects the subtree of a task to all ancestors of its new parent, unless the new parent is part of the subtree.
+     */
+    private final static String SQL_ATTACH_SUBTREE = "INSERT OR IGNORE INTO " + Tables.TASK_HIERARCHY + " (" + ANCESTOR_ID + ", " + DESCENDANT_ID + ", "
+            + DEPTH + ") SELECT a." + ANCESTOR_ID + ", d." + DESCENDANT_ID + ", a." + DEPTH + " + d." + DEPTH + " + 1 FROM " + Tables.TASK_HIERARCHY + " AS a, "
+            + Tables.TASK_HIERARCHY + " AS d WHERE a." + DESCENDANT_ID + " = new." + Tasks.PARENT_ID + " AND d." + ANCESTOR_ID + " = new." + Tasks._ID
+            + " AND new." + Tasks.PARENT_ID + " NOT IN " + String.format(SUBTREE_OF, "new." + Tasks._ID) + "; ";
+
+    /**
+     * Disconnects the subtree of a task from all its ancestors.
+     */
+    private final static String SQL_DETACH_SUBTREE = "DELETE FROM " + Tables.TASK_HIERARCHY + " WHERE " + DESCENDANT_ID + " IN " + String.format(SUBTREE_OF,
+            "%1$s") + " AND " + ANCESTOR_ID + " IN " + String.format(ANCESTORS_OF, "%1$s") + " AND " + ANCESTOR_ID + " <> %1$s; ";
+
+    /**
+     * Removes a task and all paths through it.
+     */
+    private final static String SQL_REMOVE_TASK = "DELETE FROM " + Tables.TASK_HIERARCHY + " WHERE " + DESCENDANT_ID + " IN " + String.format(SUBTREE_OF,
+            "old." + Tasks._ID) + " AND " + ANCESTOR_ID + " IN " + String.format(ANCESTORS_OF, "old." + Tasks._ID) + "; ";
+
+    private final static String SQL_CREATE_INSERT_TRIGGER = "CREATE TRIGGER task_hierarchy_insert_trigger AFTER INSERT ON " + Tables.TASKS + " BEGIN "
+            + SQL_INSERT_SELF + SQL_ATTACH_SUBTREE + " END;";
+
+    private final static String SQL_CREATE_UPDATE_TRIGGER = "CREATE TRIGGER task_hierarchy_update_trigger AFTER UPDATE OF " + Tasks.PARENT_ID + " ON "
+            + Tables.TASKS + " WHEN new." + Tasks.PARENT_ID + " IS NOT old." + Tasks.PARENT_ID + " BEGIN " + String.format(SQL_DETACH_SUBTREE,
+            "new." + Tasks._ID) + SQL_ATTACH_SUBTREE + " END;";
+
+    private final static String SQL_CREATE_DELETE_TRIGGER = "CREATE TRIGGER task_hierarchy_delete_trigger AFTER DELETE ON " + Tables.TASKS + " BEGIN "
+            + SQL_REMOVE_TASK + " END;";
+
+    /**
+     * The aggregate columns of the hierarchy views.
+     */
+    private final static String AGGREGATE_COLUMNS = "(SELECT count(*) FROM " + Tables.TASKS + " AS child WHERE child." + Tasks.PARENT_ID + " = "
+            + Tables.TASKS_VIEW + "." + Tasks._ID + " AND child." + Tasks._DELETED + " = 0) AS " + Tasks.CHILD_COUNT + ", (SELECT count(*) FROM "
+            + Tables.TASKS + " AS child WHERE child." + Tasks.PARENT_ID + " = " + Tables.TASKS_VIEW + "." + Tasks._ID + " AND child." + Tasks._DELETED
+            + " = 0 AND child." + Tasks.IS_CLOSED + " = 0) AS " + Tasks.OPEN_CHILD_COUNT;
+
+    private final static String SQL_CREATE_SUBTREE_VIEW = "CREATE VIEW " + Tables.TASK_SUBTREE_VIEW + " AS SELECT " + Tables.TASKS_VIEW + ".*, h."
+            + ANCESTOR_ID + " AS " + ANCHOR_ID + ", h." + DEPTH + " AS " + Tasks.HIERARCHY_DEPTH + ", " + AGGREGATE_COLUMNS + " FROM " + Tables.TASK_HIERARCHY
+            + " AS h JOIN " + Tables.TASKS_VIEW + " ON (" + Tables.TASKS_VIEW + "." + Tasks._ID + " = h." + DESCENDANT_ID + ");";
+
+    private final static String SQL_CREATE_ANCESTOR_VIEW = "CREATE VIEW " + Tables.TASK_ANCESTOR_VIEW + " AS SELECT " + Tables.TASKS_VIEW + ".*, h."
+            + DESCENDANT_ID + " AS " + ANCHOR_ID + ", h." + DEPTH + " AS " + Tasks.HIERARCHY_DEPTH + ", " + AGGREGATE_COLUMNS + " FROM "
+            + Tables.TASK_HIERARCHY + " AS h JOIN " + Tables.TASKS_VIEW + " ON (" + Tables.TASKS_VIEW + "." + Tasks._ID + " = h." + ANCESTOR_ID + ");";
+
+    /**
+     * Adds the direct children of all tasks at the given depth to the ancestors of their parents.
+     */
+    private final static String SQL_POPULATE_LEVEL = "INSERT OR IGNORE INTO " + Tables.TASK_HIERARCHY + " (" + ANCESTOR_ID + ", " + DESCENDANT_ID + ", "
+            + DEPTH + ") SELECT h." + ANCESTOR_ID + ", t." + Tasks._ID + ", h." + DEPTH + " + 1 FROM " + Tables.TASK_HIERARCHY + " AS h JOIN " + Tables.TASKS
+            + " AS t ON (t." + Tasks.PARENT_ID + " = h." + DESCENDANT_ID + ") WHERE h." + DEPTH + " = ?";
+
+
+    /**
+     * Creates the hierarchy table, its triggers and views.
+     *
+     * @param db
+     *         The {@link SQLiteDatabase}.
+     */
+    public static void onCreate(SQLiteDatabase db)
+    {
+        db.execSQL(SQL_CREATE_HIERARCHY_TABLE);
+        db.execSQL(TaskDatabaseHelper.createIndexString(Tables.TASK_HIERARCHY, false, DESCENDANT_ID, ANCESTOR_ID));
+        db.execSQL(TaskDatabaseHelper.createIndexString(Tables.TASKS, false, Tasks.PARENT_ID));
+        db.execSQL(SQL_CREATE_INSERT_TRIGGER);
+        db.execSQL(SQL_CREATE_UPDATE_TRIGGER);
+        db.execSQL(SQL_CREATE_DELETE_TRIGGER);
+        db.execSQL(SQL_CREATE_SUBTREE_VIEW);
+        db.execSQL(SQL_CREATE_ANCESTOR_VIEW);
+    }
+
+
+    /**
+     * Recreates the delete trigger of the hierarchy table.
+     *
+     * @param db
+     *         The {@link SQLiteDatabase}.
+     */
+    public static void updateTriggers(SQLiteDatabase db)
+    {
+        db.execSQL("DROP TRIGGER IF EXISTS task_hierarchy_delete_trigger");
+        db.execSQL(SQL_CREATE_DELETE_TRIGGER);
+    }
+
+
+    /**
+     * Builds the hierarchy of all existing tasks. This is only required when the table is added to an existing database.
+     *
+     * @param db
+     *         A writable {@link SQLiteDatabase}.
+     */
+    public static void populate(SQLiteDatabase db)
+    {
+        db.execSQL("INSERT OR IGNORE INTO " + Tables.TASK_HIERARCHY + " (" + ANCESTOR_ID + ", " + DESCENDANT_ID + ", " + DEPTH + ") SELECT " + Tasks._ID
+                + ", " + Tasks._ID + ", 0 FROM " + Tables.TASKS);
+
+        // add one level at a time until no new paths show up, the primary key ensures this terminates even if the data contains cycles
+        long count = countRows(db);
+        for (int depth = 0; ; ++depth)
+        {
+            db.execSQL(SQL_POPULATE_LEVEL, new Object[] { depth });
+            long newCount = countRows(db);
+            if (newCount == count)
+            {
+                break;
+            }
+            count = newCount;
+        }
+    }
+
+
+    /**
+     * Removes all staged tasks of a {@link TaskPurge} and all paths through them.
+     *
+     * @param db
+     *         A writable {@link SQLiteDatabase}.
+     */
+    public static void deleteStagedTasks(SQLiteDatabase db)
+    {
+        db.execSQL("DELETE FROM " + Tables.TASK_HIERARCHY + " WHERE EXISTS (SELECT 1 FROM " + Tables.TASK_HIERARCHY + " AS a JOIN " + Tables.TASK_HIERARCHY
+                + " AS d ON (a." + DESCENDANT_ID + " = d." + ANCESTOR_ID + ") WHERE a." + DESCENDANT_ID + " IN " + TaskPurge.STAGED_TASK_IDS + " AND a."
+                + ANCESTOR_ID + " = " + Tables.TASK_HIERARCHY + "." + ANCESTOR_ID + " AND d." + DESCENDANT_ID + " = " + Tables.TASK_HIERARCHY + "."
+                + DESCENDANT_ID + ")");
+    }
+
+
+    private static long countRows(SQLiteDatabase db)
+    {
+        return DatabaseUtils.longForQuery(db, "SELECT count(*) FROM " + Tables.TASK_HIERARCHY, null);
+    }
+}
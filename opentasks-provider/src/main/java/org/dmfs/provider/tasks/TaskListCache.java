@@ -0,0 +1,161 @@
+/*
+ * Copyright 2017 dmfs GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dmfs.provider.tasks;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteStatement;
+
+import org.dmfs.provider.tasks.TaskDatabaseHelper.Tables;
+import org.dmfs.tasks.contract.TaskContract.TaskLists;
+import org.dmfs.tasks.contract.TaskContract.Tasks;
+
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ * A provider wide cache of the task list meta data that's needed to validate tasks and properties.
+ * <p>
+ * There are only a few task lists, so the cache always loads all of them at once. It must be invalidated whenever a task list is inserted, updated or removed
+ * and when a transaction is rolled back, see {@link #invalidate()}.
+ *
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+public final class TaskListCache
+{
+    /**
+     * The meta data of a task list.
+     */
+    public final static class ListInfo
+    {
+        public final long id;
+        public final String accountName;
+        public final String accountType;
+        public final int accessLevel;
+        public final boolean syncEnabled;
+        public final boolean visible;
+
+
+        ListInfo(long id, String accountName, String accountType, int accessLevel, boolean syncEnabled, boolean visible)
+        {
+            this.id = id;
+            this.accountName = accountName;
+            this.accountType = accountType;
+            this.accessLevel = accessLevel;
+            this.syncEnabled = syncEnabled;
+            this.visible = visible;
+        }
+    }
+
+
+    private final static String[] LIST_PROJECTION = { TaskLists._ID, TaskLists.ACCOUNT_NAME, TaskLists.ACCOUNT_TYPE, TaskLists.ACCESS_LEVEL,
+            TaskLists.SYNC_ENABLED, TaskLists.VISIBLE };
+
+    private final static String SQL_SELECT_TASK_LIST = "SELECT " + Tasks.LIST_ID + " FROM " + Tables.TASKS + " WHERE " + Tasks._ID + " = ?";
+
+    /**
+     * The cached lists or <code>null</code> if the cache needs to be loaded.
+     */
+    private static Map<Long, ListInfo> sLists;
+
+
+    /**
+     * Returns the {@link ListInfo} of the task list with the given id.
+     *
+     * @param db
+     *         The {@link SQLiteDatabase}.
+     * @param listId
+     *         The row id of the task list.
+     *
+     * @return The {@link ListInfo} or <code>null</code> if there is no such task list.
+     */
+    public static ListInfo get(SQLiteDatabase db, long listId)
+    {
+        synchronized (TaskListCache.class)
+        {
+            if (sLists == null)
+            {
+                sLists = load(db);
+            }
+            return sLists.get(listId);
+        }
+    }
+
+
+    /**
+     * Returns the {@link ListInfo} of the task list of the given task.
+     *
+     * @param db
+     *         The {@link SQLiteDatabase}.
+     * @param taskId
+     *         The row id of the task.
+     *
+     * @return The {@link ListInfo} or <code>null</code> if there is no such task.
+     */
+    public static ListInfo getByTask(SQLiteDatabase db, long taskId)
+    {
+        SQLiteStatement statement = db.compileStatement(SQL_SELECT_TASK_LIST);
+        try
+        {
+            statement.bindLong(1, taskId);
+            return get(db, statement.simpleQueryForLong());
+        }
+        catch (SQLiteDoneException e)
+        {
+            // no such task
+            return null;
+        }
+        finally
+        {
+            statement.close();
+        }
+    }
+
+
+    /**
+     * Drops all cached lists. Call this whenever a task list has been inserted, updated or removed and when a transaction has been rolled back.
+     */
+    public static void invalidate()
+    {
+        synchronized (TaskListCache.class)
+        {
+            sLists = null;
+        }
+    }
+
+
+    private static Map<Long, ListInfo> load(SQLiteDatabase db)
+    {
+        Map<Long, ListInfo> lists = new HashMap<Long, ListInfo>(16);
+        Cursor cursor = db.query(Tables.LISTS, LIST_PROJECTION, null, null, null, null, null);
+        try
+        {
+            while (cursor.moveToNext())
+            {
+                long id = cursor.getLong(0);
+                lists.put(id, new ListInfo(id, cursor.getString(1), cursor.getString(2), cursor.getInt(3), cursor.getInt(4) > 0, cursor.getInt(5) > 0));
+            }
+        }
+        finally
+        {
+            cursor.close();
+        }
+        return lists;
+    }
+}
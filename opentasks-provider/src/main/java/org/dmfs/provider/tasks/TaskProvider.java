@@ -42,16 +42,21 @@ import android.net.Uri;
 import android.os.Build;
 import android.os.Handler;
 import android.os.HandlerThread;
+import android.provider.BaseColumns;
 import android.text.TextUtils;
 
 import org.dmfs.provider.tasks.TaskDatabaseHelper.OnDatabaseOperationListener;
 import org.dmfs.provider.tasks.TaskDatabaseHelper.Tables;
+import org.dmfs.provider.tasks.handler.CategoryCache;
 import org.dmfs.provider.tasks.handler.PropertyHandler;
 import org.dmfs.provider.tasks.handler.PropertyHandlerFactory;
+import org.dmfs.provider.tasks.handler.RelationResolver;
 import org.dmfs.provider.tasks.model.ContentValuesListAdapter;
 import org.dmfs.provider.tasks.model.ContentValuesTaskAdapter;
+import org.dmfs.provider.tasks.model.CursorBindings;
 import org.dmfs.provider.tasks.model.CursorContentValuesListAdapter;
 import org.dmfs.provider.tasks.model.CursorContentValuesTaskAdapter;
+import org.dmfs.provider.tasks.model.EntityAdapter;
 import org.dmfs.provider.tasks.model.ListAdapter;
 import org.dmfs.provider.tasks.model.TaskAdapter;
 import org.dmfs.provider.tasks.processors.EntityProcessor;
@@ -64,9 +69,10 @@ import org.dmfs.provider.tasks.processors.tasks.RelationProcessor;
 import org.dmfs.provider.tasks.processors.tasks.TaskExecutionProcessor;
 import org.dmfs.provider.tasks.processors.tasks.TaskInstancesProcessor;
 import org.dmfs.provider.tasks.processors.tasks.TaskValidatorProcessor;
+import org.dmfs.provider.tasks.search.SearchRanking;
 import org.dmfs.tasks.contract.TaskContract;
-import org.dmfs.tasks.contract.TaskContract.Alarms;
 import org.dmfs.tasks.contract.TaskContract.Categories;
+import org.dmfs.tasks.contract.TaskContract.Changes;
 import org.dmfs.tasks.contract.TaskContract.CategoriesColumns;
 import org.dmfs.tasks.contract.TaskContract.Instances;
 import org.dmfs.tasks.contract.TaskContract.Properties;
@@ -109,6 +115,8 @@ public final class TaskProvider extends SQLiteContentProvider implements OnAccou
     private static final int TASK_ID = 102;
     private static final int INSTANCES = 103;
     private static final int INSTANCE_ID = 104;
+    private static final int TASK_SUBTREE = 105;
+    private static final int TASK_ANCESTORS = 106;
     private static final int CATEGORIES = 1001;
     private static final int CATEGORY_ID = 1002;
     private static final int PROPERTIES = 1003;
@@ -118,11 +126,67 @@ public final class TaskProvider extends SQLiteContentProvider implements OnAccou
     private static final int SEARCH = 1007;
     private static final int SYNCSTATE = 1008;
     private static final int SYNCSTATE_ID = 1009;
+    private static final int CHANGES = 1010;
 
     private static final int OPERATIONS = 100000;
 
+    /**
+     * The name of the provider meta-data to select the search backend. Supported values are {@link FTSDatabaseHelper#SEARCH_BACKEND_NGRAM} (the default)
+     * and {@link FTSDatabaseHelper#SEARCH_BACKEND_FTS}.
+     */
+    public static final String META_DATA_SEARCH_BACKEND = "org.dmfs.provider.tasks.SEARCH_BACKEND";
+
+    /**
+     * The name of the provider meta-data to set the maximum time in milliseconds a batch may hold a transaction before it's committed at the next yield
+     * point.
+     */
+    public static final String META_DATA_TRANSACTION_LATENCY_BUDGET = "org.dmfs.provider.tasks.TRANSACTION_LATENCY_BUDGET";
+
+    /**
+     * The name of the boolean provider meta-data to send one {@link TaskContract#ACTION_BROADCAST_TASKS_DUE} and {@link
+     * TaskContract#ACTION_BROADCAST_TASKS_STARTING} broadcast with all tasks that became due or have started instead of one broadcast per task.
+     */
+    public static final String META_DATA_BATCHED_NOTIFICATIONS = "org.dmfs.provider.tasks.BATCHED_NOTIFICATIONS";
+
+    /**
+     * The maximum time in milliseconds a search waits for the search index to catch up with deferred updates.
+     */
+    private static final long SEARCH_INDEX_TIMEOUT = 500;
+
+    /**
+     * The maximum number of tasks in the queue of the search index a search waits for. With more tasks in the queue the search doesn't wait and matches
+     * the queued tasks with a plain LIKE instead.
+     */
+    private static final int SEARCH_INDEX_MAX_BACKLOG = 100;
+
+    /**
+     * The time in milliseconds without any changes before the change journal is trimmed.
+     */
+    private static final long CHANGE_JOURNAL_TRIM_QUIET_PERIOD = 10000;
+
+    /**
+     * The maximum time in milliseconds trimming the change journal is delayed by subsequent changes.
+     */
+    private static final long CHANGE_JOURNAL_TRIM_MAX_DELAY = 60000;
+
+    /**
+     * The time in milliseconds without any relevant change before the notification alarm is updated.
+     */
+    private static final long NOTIFICATION_ALARM_QUIET_PERIOD = 500;
+
+    /**
+     * The maximum time in milliseconds an update of the notification alarm is delayed by subsequent changes.
+     */
+    private static final long NOTIFICATION_ALARM_MAX_DELAY = 5000;
+
     private final static Set<String> TASK_LIST_SYNC_COLUMNS = new HashSet<String>(Arrays.asList(TaskLists.SYNC_ADAPTER_COLUMNS));
 
+    /**
+     * The task columns that affect the start or due notifications of a task.
+     */
+    private final static Set<String> TASK_ALARM_COLUMNS = new HashSet<String>(Arrays.asList(Tasks.DTSTART, Tasks.DUE, Tasks.DURATION, Tasks.TZ,
+            Tasks.IS_ALLDAY, Tasks.STATUS, Tasks.RRULE, Tasks.RDATE, Tasks.EXDATE, Tasks.ORIGINAL_INSTANCE_TIME, Tasks._DELETED));
+
     /**
      * A list of {@link TaskProcessor}s to execute when doing operations on the tasks table.
      */
@@ -151,7 +215,27 @@ public final class TaskProvider extends SQLiteContentProvider implements OnAccou
     /**
      * An {@link ProviderOperationsLog} to track all changes within a transaction.
      */
-    private ProviderOperationsLog mOperationsLog = new ProviderOperationsLog();
+    private ProviderOperationsLog mOperationsLog = new ProviderOperationsLog(new ChangeJournal());
+
+    /**
+     * Indicates that tasks have been queued for a deferred search index update in the current transaction.
+     */
+    private volatile boolean mSearchIndexDeferred;
+
+    /**
+     * Indicates that the current transaction contains changes that may affect the next start or due notification.
+     */
+    private volatile boolean mNotificationAlarmChanged;
+
+    /**
+     * Collapses the updates of the notification alarm.
+     */
+    private DebouncedRunnable mNotificationAlarmUpdater;
+
+    /**
+     * Collapses the requests to trim the change journal.
+     */
+    private DebouncedRunnable mChangeJournalTrimmer;
 
 
     @Override
@@ -161,6 +245,21 @@ public final class TaskProvider extends SQLiteContentProvider implements OnAccou
 
         mAuthority = providerInfo.authority;
 
+        if (providerInfo.metaData != null && providerInfo.metaData.containsKey(META_DATA_SEARCH_BACKEND))
+        {
+            FTSDatabaseHelper.setSearchBackend(providerInfo.metaData.getString(META_DATA_SEARCH_BACKEND));
+        }
+
+        if (providerInfo.metaData != null && providerInfo.metaData.containsKey(META_DATA_TRANSACTION_LATENCY_BUDGET))
+        {
+            setTransactionLatencyBudget(providerInfo.metaData.getInt(META_DATA_TRANSACTION_LATENCY_BUDGET));
+        }
+
+        if (providerInfo.metaData != null && providerInfo.metaData.containsKey(META_DATA_BATCHED_NOTIFICATIONS))
+        {
+            ContentOperation.setBatchedNotifications(providerInfo.metaData.getBoolean(META_DATA_BATCHED_NOTIFICATIONS));
+        }
+
         mTaskProcessors.add(new TaskValidatorProcessor());
         mTaskProcessors.add(new AutoUpdateProcessor());
         mTaskProcessors.add(new RelationProcessor());
@@ -179,6 +278,8 @@ public final class TaskProvider extends SQLiteContentProvider implements OnAccou
 
         mUriMatcher.addURI(mAuthority, TaskContract.Tasks.CONTENT_URI_PATH, TASKS);
         mUriMatcher.addURI(mAuthority, TaskContract.Tasks.CONTENT_URI_PATH + "/#", TASK_ID);
+        mUriMatcher.addURI(mAuthority, TaskContract.Tasks.CONTENT_URI_PATH + "/#/" + TaskContract.Tasks.SUBTREE_PATH, TASK_SUBTREE);
+        mUriMatcher.addURI(mAuthority, TaskContract.Tasks.CONTENT_URI_PATH + "/#/" + TaskContract.Tasks.ANCESTORS_PATH, TASK_ANCESTORS);
 
         mUriMatcher.addURI(mAuthority, TaskContract.Instances.CONTENT_URI_PATH, INSTANCES);
         mUriMatcher.addURI(mAuthority, TaskContract.Instances.CONTENT_URI_PATH + "/#", INSTANCE_ID);
@@ -197,6 +298,8 @@ public final class TaskProvider extends SQLiteContentProvider implements OnAccou
         mUriMatcher.addURI(mAuthority, TaskContract.SyncState.CONTENT_URI_PATH, SYNCSTATE);
         mUriMatcher.addURI(mAuthority, TaskContract.SyncState.CONTENT_URI_PATH + "/#", SYNCSTATE_ID);
 
+        mUriMatcher.addURI(mAuthority, TaskContract.Changes.CONTENT_URI_PATH, CHANGES);
+
         ContentOperation.register(mUriMatcher, mAuthority, OPERATIONS);
 
         boolean result = super.onCreate();
@@ -205,12 +308,50 @@ public final class TaskProvider extends SQLiteContentProvider implements OnAccou
         HandlerThread thread = new HandlerThread("backgroundHandler");
         thread.start();
         mAsyncHandler = new Handler(thread.getLooper());
+        mNotificationAlarmUpdater = new DebouncedRunnable(mAsyncHandler, new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                ContentOperation.UPDATE_NOTIFICATION_ALARM.fire(getContext(), null);
+                ContentOperation.UPDATE_ALARMS.fire(getContext(), null);
+            }
+        }, NOTIFICATION_ALARM_QUIET_PERIOD, NOTIFICATION_ALARM_MAX_DELAY);
+        mChangeJournalTrimmer = new DebouncedRunnable(mAsyncHandler, new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                ContentOperation.TRIM_CHANGE_JOURNAL.fire(getContext(), null);
+            }
+        }, CHANGE_JOURNAL_TRIM_QUIET_PERIOD, CHANGE_JOURNAL_TRIM_MAX_DELAY);
 
         AccountManager accountManager = AccountManager.get(getContext());
         accountManager.addOnAccountsUpdatedListener(this, mAsyncHandler, true);
 
         updateNotifications();
 
+        // make sure the instances of recurring tasks cover the current window
+        mAsyncHandler.post(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                ContentOperation.EXPAND_INSTANCES.fire(getContext(), null);
+            }
+        });
+
+        // rebuild the search index if the backend has been changed and index all tasks that have been queued before the provider was shut down
+        mAsyncHandler.post(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                ContentOperation.REBUILD_SEARCH_INDEX.fire(getContext(), null);
+            }
+        });
+        updateSearchIndex();
+
         return result;
     }
 
@@ -247,6 +388,36 @@ public final class TaskProvider extends SQLiteContentProvider implements OnAccou
     }
 
 
+    /**
+     * Return true if the URI requests the extended properties in a single column with {@link TaskContract#PACK_PROPERTIES}.
+     *
+     * @param uri
+     *         The {@link Uri} to check.
+     *
+     * @return <code>true</code> if the URI requests packed extended properties, <code>false</code> otherwise.
+     */
+    public boolean shouldPackProperties(Uri uri)
+    {
+        String param = uri.getQueryParameter(TaskContract.PACK_PROPERTIES);
+        return param != null && !"false".equals(param);
+    }
+
+
+    /**
+     * Return true if the URI requests to update the search index in the background with {@link TaskContract#DEFER_SEARCH_INDEXING}.
+     *
+     * @param uri
+     *         The {@link Uri} to check.
+     *
+     * @return <code>true</code> if the URI requests deferred indexing, <code>false</code> otherwise.
+     */
+    private boolean shouldDeferSearchIndexing(Uri uri)
+    {
+        String param = uri.getQueryParameter(TaskContract.DEFER_SEARCH_INDEXING);
+        return param != null && !"false".equals(param);
+    }
+
+
     /**
      * Get the account name from the given {@link Uri}.
      *
@@ -508,7 +679,8 @@ public final class TaskProvider extends SQLiteContentProvider implements OnAccou
     @Override
     public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder)
     {
-        final SQLiteDatabase db = getDatabaseHelper().getWritableDatabase();
+        // with write-ahead logging queries get their own connection and don't wait for running write transactions
+        final SQLiteDatabase db = getDatabaseHelper().getReadableDatabase();
         SQLiteQueryBuilder sqlBuilder = new SQLiteQueryBuilder();
         // initialize appendWhere, this allows us to append all other selections with a preceding "AND"
         sqlBuilder.appendWhere(" 1=1 ");
@@ -555,10 +727,6 @@ public final class TaskProvider extends SQLiteContentProvider implements OnAccou
                     // extended properties were requested, therefore change to task view that includes these properties
                     sqlBuilder.setTables(Tables.TASKS_PROPERTY_VIEW);
                 }
-                else
-                {
-                    sqlBuilder.setTables(Tables.TASKS_VIEW);
-                }
                 if (!isSyncAdapter)
                 {
                     // do not return deleted rows if caller is not a sync adapter
@@ -570,6 +738,12 @@ public final class TaskProvider extends SQLiteContentProvider implements OnAccou
                 {
                     sortOrder = TaskContract.Tasks.DEFAULT_SORT_ORDER;
                 }
+                if (!shouldLoadProperties(uri))
+                {
+                    // don't join tables the query doesn't need
+                    String tables = ViewSelector.taskTables(db, projection, selection, sortOrder, isSyncAdapter ? null : Tasks._DELETED);
+                    sqlBuilder.setTables(shouldPackProperties(uri) ? PackedPropertiesColumn.tables(tables, Tasks._ID) : tables);
+                }
                 break;
 
             case TASK_ID:
@@ -578,10 +752,6 @@ public final class TaskProvider extends SQLiteContentProvider implements OnAccou
                     // extended properties were requested, therefore change to task view that includes these properties
                     sqlBuilder.setTables(Tables.TASKS_PROPERTY_VIEW);
                 }
-                else
-                {
-                    sqlBuilder.setTables(Tables.TASKS_VIEW);
-                }
                 selectId(sqlBuilder, TaskColumns._ID, uri);
                 if (!isSyncAdapter)
                 {
@@ -594,6 +764,46 @@ public final class TaskProvider extends SQLiteContentProvider implements OnAccou
                 {
                     sortOrder = TaskContract.Tasks.DEFAULT_SORT_ORDER;
                 }
+                if (!shouldLoadProperties(uri))
+                {
+                    // don't join tables the query doesn't need
+                    String tables = ViewSelector.taskTables(db, projection, selection, sortOrder, isSyncAdapter ? null : Tasks._DELETED);
+                    sqlBuilder.setTables(shouldPackProperties(uri) ? PackedPropertiesColumn.tables(tables, Tasks._ID) : tables);
+                }
+                break;
+
+            case TASK_SUBTREE:
+                sqlBuilder.setTables(Tables.TASK_SUBTREE_VIEW);
+                selectId(sqlBuilder, TaskHierarchy.ANCHOR_ID, uri);
+                if (!isSyncAdapter)
+                {
+                    // do not return deleted rows if caller is not a sync adapter
+                    sqlBuilder.appendWhere(" AND ");
+                    sqlBuilder.appendWhere(Tasks._DELETED);
+                    sqlBuilder.appendWhere("=0");
+                }
+                if (sortOrder == null || sortOrder.length() == 0)
+                {
+                    // parents first
+                    sortOrder = Tasks.HIERARCHY_DEPTH + ", " + TaskContract.Tasks.DEFAULT_SORT_ORDER;
+                }
+                break;
+
+            case TASK_ANCESTORS:
+                sqlBuilder.setTables(Tables.TASK_ANCESTOR_VIEW);
+                selectId(sqlBuilder, TaskHierarchy.ANCHOR_ID, uri);
+                if (!isSyncAdapter)
+                {
+                    // do not return deleted rows if caller is not a sync adapter
+                    sqlBuilder.appendWhere(" AND ");
+                    sqlBuilder.appendWhere(Tasks._DELETED);
+                    sqlBuilder.appendWhere("=0");
+                }
+                if (sortOrder == null || sortOrder.length() == 0)
+                {
+                    // start at the root
+                    sortOrder = Tasks.HIERARCHY_DEPTH + " DESC";
+                }
                 break;
 
             case INSTANCES:
@@ -602,10 +812,6 @@ public final class TaskProvider extends SQLiteContentProvider implements OnAccou
                     // extended properties were requested, therefore change to instance view that includes these properties
                     sqlBuilder.setTables(Tables.INSTANCE_PROPERTY_VIEW);
                 }
-                else
-                {
-                    sqlBuilder.setTables(Tables.INSTANCE_VIEW);
-                }
                 if (!isSyncAdapter)
                 {
                     // do not return deleted rows if caller is not a sync adapter
@@ -617,6 +823,12 @@ public final class TaskProvider extends SQLiteContentProvider implements OnAccou
                 {
                     sortOrder = TaskContract.Instances.DEFAULT_SORT_ORDER;
                 }
+                if (!shouldLoadProperties(uri))
+                {
+                    // don't join tables the query doesn't need
+                    String tables = ViewSelector.instanceTables(db, projection, selection, sortOrder, isSyncAdapter ? null : Tasks._DELETED);
+                    sqlBuilder.setTables(shouldPackProperties(uri) ? PackedPropertiesColumn.tables(tables, Instances.TASK_ID) : tables);
+                }
                 break;
 
             case INSTANCE_ID:
@@ -625,10 +837,6 @@ public final class TaskProvider extends SQLiteContentProvider implements OnAccou
                     // extended properties were requested, therefore change to instance view that includes these properties
                     sqlBuilder.setTables(Tables.INSTANCE_PROPERTY_VIEW);
                 }
-                else
-                {
-                    sqlBuilder.setTables(Tables.INSTANCE_VIEW);
-                }
                 selectId(sqlBuilder, Instances._ID, uri);
                 if (!isSyncAdapter)
                 {
@@ -641,6 +849,12 @@ public final class TaskProvider extends SQLiteContentProvider implements OnAccou
                 {
                     sortOrder = TaskContract.Instances.DEFAULT_SORT_ORDER;
                 }
+                if (!shouldLoadProperties(uri))
+                {
+                    // don't join tables the query doesn't need
+                    String tables = ViewSelector.instanceTables(db, projection, selection, sortOrder, isSyncAdapter ? null : Tasks._DELETED);
+                    sqlBuilder.setTables(shouldPackProperties(uri) ? PackedPropertiesColumn.tables(tables, Instances.TASK_ID) : tables);
+                }
                 break;
 
             case CATEGORIES:
@@ -674,7 +888,10 @@ public final class TaskProvider extends SQLiteContentProvider implements OnAccou
             case SEARCH:
                 String searchString = uri.getQueryParameter(Tasks.SEARCH_QUERY_PARAMETER);
                 searchString = Uri.decode(searchString);
-                Cursor searchCursor = FTSDatabaseHelper.getTaskSearchCursor(db, searchString, projection, selection, selectionArgs, sortOrder);
+                // give the background indexer a chance to catch up with a few recent writes, but never wait for a large backlog
+                FTSDatabaseHelper.awaitPendingIndex(db, SEARCH_INDEX_TIMEOUT, SEARCH_INDEX_MAX_BACKLOG);
+                Cursor searchCursor = FTSDatabaseHelper.getTaskSearchCursor(db, searchString, projection, selection, selectionArgs, sortOrder,
+                        SearchRanking.fromUri(uri));
                 if (searchCursor != null)
                 {
                     // attach tasks uri for notifications, that way the search results are updated when a task changes
@@ -682,6 +899,26 @@ public final class TaskProvider extends SQLiteContentProvider implements OnAccou
                 }
                 return searchCursor;
 
+            case CHANGES:
+                sqlBuilder.setTables(Tables.CHANGES);
+                String fromSequence = uri.getQueryParameter(Changes.FROM_SEQUENCE_PARAMETER);
+                if (fromSequence != null)
+                {
+                    try
+                    {
+                        sqlBuilder.appendWhere(" AND " + Changes.SEQUENCE + " >= " + Long.parseLong(fromSequence));
+                    }
+                    catch (NumberFormatException e)
+                    {
+                        throw new IllegalArgumentException("Invalid sequence number in " + uri, e);
+                    }
+                }
+                if (sortOrder == null || sortOrder.length() == 0)
+                {
+                    sortOrder = Changes.DEFAULT_SORT_ORDER;
+                }
+                break;
+
             default:
                 throw new IllegalArgumentException("Unknown URI " + uri);
         }
@@ -735,18 +972,27 @@ public final class TaskProvider extends SQLiteContentProvider implements OnAccou
                     {
                         throw new IllegalArgumentException("Sync adapters must specify an account and account type: " + uri);
                     }
+
+                    // remove the tasks of the lists in bulk, otherwise the triggers would remove them one by one
+                    if (TaskPurge.stageListTasks(db, selection, selectionArgs) > 0)
+                    {
+                        TaskPurge.purge(db);
+                    }
                 }
 
                 // iterate over all lists that match the selection. We iterate "manually" to execute any processors before or after deletion.
                 final Cursor cursor = db.query(Tables.LISTS, null, selection, selectionArgs, null, null, null, null);
+                final CursorBindings bindings = new CursorBindings(cursor);
 
                 try
                 {
                     while (cursor.moveToNext())
                     {
-                        final ListAdapter list = new CursorContentValuesListAdapter(ListAdapter._ID.getFrom(cursor), cursor, new ContentValues());
+                        final ListAdapter list = new CursorContentValuesListAdapter(bindings.of(ListAdapter._ID).value(), bindings, new ContentValues());
 
                         ProviderOperation.DELETE.execute(db, mListProcessors, list, isSyncAdapter, mOperationsLog, mAuthority);
+                        // the tasks of the list are removed as well
+                        mNotificationAlarmChanged = true;
                         count++;
                     }
                 }
@@ -775,18 +1021,24 @@ public final class TaskProvider extends SQLiteContentProvider implements OnAccou
                     {
                         throw new IllegalArgumentException("Sync adapters must specify an account and account type: " + uri);
                     }
+
+                    // sync adapters remove tasks right away, which is done in bulk
+                    count = purgeTasks(db, selection, selectionArgs);
+                    break;
                 }
 
                 // iterate over all tasks that match the selection. We iterate "manually" to execute any processors before or after deletion.
                 final Cursor cursor = db.query(Tables.TASKS_VIEW, null, selection, selectionArgs, null, null, null, null);
+                final CursorBindings bindings = new CursorBindings(cursor);
 
                 try
                 {
                     while (cursor.moveToNext())
                     {
-                        final TaskAdapter task = new CursorContentValuesTaskAdapter(cursor, new ContentValues());
+                        final TaskAdapter task = new CursorContentValuesTaskAdapter(bindings, new ContentValues());
 
                         ProviderOperation.DELETE.execute(db, mTaskProcessors, task, isSyncAdapter, mOperationsLog, mAuthority);
+                        mNotificationAlarmChanged = true;
                         count++;
                     }
                 }
@@ -798,13 +1050,9 @@ public final class TaskProvider extends SQLiteContentProvider implements OnAccou
                 break;
             }
             case ALARM_ID:
-                // add id to selection and fall through
-                selection = updateSelection(selectId(uri), selection);
-
             case ALARMS:
-
-                count = db.delete(Tables.ALARMS, selection, selectionArgs);
-                break;
+                // the alarms table is maintained by the AlarmScheduler, removed alarm properties are removed from it automatically
+                throw new IllegalArgumentException("alarms can not be removed: " + uri);
 
             case PROPERTY_ID:
                 selection = updateSelection(selectPropertyId(uri), selection);
@@ -892,9 +1140,16 @@ public final class TaskProvider extends SQLiteContentProvider implements OnAccou
                 break;
             }
             case TASKS:
+                if (shouldDeferSearchIndexing(uri))
+                {
+                    FtsProcessor.addDeferRequest(values);
+                    mSearchIndexDeferred = true;
+                }
+
                 final TaskAdapter task = new ContentValuesTaskAdapter(values);
 
                 ProviderOperation.INSERT.execute(db, mTaskProcessors, task, isSyncAdapter, mOperationsLog, mAuthority);
+                mNotificationAlarmChanged = true;
 
                 rowId = task.id();
                 result_uri = TaskContract.Tasks.getContentUri(mAuthority);
@@ -994,8 +1249,17 @@ public final class TaskProvider extends SQLiteContentProvider implements OnAccou
 
             case LISTS:
             {
+                if (values.size() > 0 && !needsProcessing(mListProcessors, values, isSyncAdapter))
+                {
+                    // none of the processors cares about these values (e.g. toggling the visibility), update all lists at once
+                    count = bulkUpdate(db, Tables.LISTS, Tables.LISTS, TaskLists.getContentUri(mAuthority), values, selection, selectionArgs);
+                    TaskListCache.invalidate();
+                    break;
+                }
+
                 // iterate over all task lists that match the selection. We iterate "manually" to execute any processors before or after insert.
                 final Cursor cursor = db.query(Tables.LISTS, null, selection, selectionArgs, null, null, null, null);
+                final CursorBindings bindings = new CursorBindings(cursor);
 
                 int idCol = cursor.getColumnIndex(TaskContract.TaskLists._ID);
 
@@ -1007,7 +1271,7 @@ public final class TaskProvider extends SQLiteContentProvider implements OnAccou
 
                         // clone list values if we have more than one list to update
                         // we need this, because the processors may change the values
-                        final ListAdapter list = new CursorContentValuesListAdapter(listId, cursor, cursor.getCount() > 1 ? new ContentValues(values) : values);
+                        final ListAdapter list = new CursorContentValuesListAdapter(listId, bindings, cursor.getCount() > 1 ? new ContentValues(values) : values);
 
                         ProviderOperation.UPDATE.execute(db, mListProcessors, list, isSyncAdapter, mOperationsLog, mAuthority);
                         count++;
@@ -1025,24 +1289,20 @@ public final class TaskProvider extends SQLiteContentProvider implements OnAccou
 
             case TASKS:
             {
-                // iterate over all tasks that match the selection. We iterate "manually" to execute any processors before or after insert.
-                final Cursor cursor = db.query(Tables.TASKS_VIEW, null, selection, selectionArgs, null, null, null, null);
+                boolean alarmChanged = affectsNotificationAlarm(values);
 
-                try
+                if (values.size() > 0 && !needsProcessing(mTaskProcessors, values, isSyncAdapter))
                 {
-                    while (cursor.moveToNext())
+                    // none of the processors cares about these values (e.g. a sync adapter clearing the dirty flags), update all tasks at once
+                    count = bulkUpdate(db, Tables.TASKS, Tables.TASKS_VIEW, Tasks.getContentUri(mAuthority), values, selection, selectionArgs);
+                    if (alarmChanged && count > 0)
                     {
-                        // clone task values if we have more than one task to update
-                        // we need this, because the processors may change the values
-                        final TaskAdapter task = new CursorContentValuesTaskAdapter(cursor, cursor.getCount() > 1 ? new ContentValues(values) : values);
-
-                        ProviderOperation.UPDATE.execute(db, mTaskProcessors, task, isSyncAdapter, mOperationsLog, mAuthority);
-                        count++;
+                        mNotificationAlarmChanged = true;
                     }
                 }
-                finally
+                else
                 {
-                    cursor.close();
+                    count = updateTasks(db, values, selection, selectionArgs, isSyncAdapter, shouldDeferSearchIndexing(uri), alarmChanged);
                 }
 
                 if (count > 0)
@@ -1103,12 +1363,11 @@ public final class TaskProvider extends SQLiteContentProvider implements OnAccou
                 String newCategorySelection = updateSelection(selectId(uri), selection);
                 validateCategoryValues(values, false, isSyncAdapter);
                 count = db.update(Tables.CATEGORIES, values, newCategorySelection, selectionArgs);
+                CategoryCache.invalidate();
                 break;
             case ALARM_ID:
-                String newAlarmSelection = updateSelection(selectId(uri), selection);
-                validateAlarmValues(values, false, isSyncAdapter);
-                count = db.update(Tables.ALARMS, values, newAlarmSelection, selectionArgs);
-                break;
+                // the alarms table is maintained by the AlarmScheduler, alarms are modified through their alarm properties
+                throw new IllegalArgumentException("alarms can not be modified: " + uri);
             default:
                 ContentOperation operation = ContentOperation.get(mUriMatcher.match(uri), OPERATIONS);
 
@@ -1146,9 +1405,223 @@ public final class TaskProvider extends SQLiteContentProvider implements OnAccou
 
 
     /**
-     * Update task due and task start notifications.
+     * Removes all tasks matching the given selection at once, bypassing the task processors. The removed tasks are added to the operations log.
+     *
+     * @param db
+     *         A writable {@link SQLiteDatabase}.
+     * @param selection
+     *         The selection of the tasks to remove.
+     * @param selectionArgs
+     *         The arguments of the selection.
+     *
+     * @return The number of removed tasks.
+     */
+    private int purgeTasks(SQLiteDatabase db, String selection, String[] selectionArgs)
+    {
+        int count = TaskPurge.stageTasks(db, selection, selectionArgs);
+        if (count == 0)
+        {
+            return 0;
+        }
+
+        Cursor cursor = db.query(Tables.TASKS_PURGE, new String[] { TaskPurge.TASK_ID }, null, null, null, null, TaskPurge.TASK_ID);
+        try
+        {
+            Uri tasksUri = Tasks.getContentUri(mAuthority);
+            while (cursor.moveToNext())
+            {
+                mOperationsLog.log(db, ProviderOperation.DELETE, ContentUris.withAppendedId(tasksUri, cursor.getLong(0)));
+            }
+        }
+        finally
+        {
+            cursor.close();
+        }
+
+        TaskPurge.purge(db);
+        mNotificationAlarmChanged = true;
+        return count;
+    }
+
+
+    /**
+     * Updates all tasks matching the given selection one by one, running all task processors on each of them.
+     *
+     * @param db
+     *         A writable {@link SQLiteDatabase}.
+     * @param values
+     *         The new values.
+     * @param selection
+     *         The selection of the tasks to update.
+     * @param selectionArgs
+     *         The arguments of the selection.
+     * @param isSyncAdapter
+     *         <code>true</code> if the caller is a sync adapter.
+     * @param deferSearchIndexing
+     *         <code>true</code> to defer the search index update.
+     * @param alarmChanged
+     *         <code>true</code> if the values affect the notification alarm.
+     *
+     * @return The number of updated tasks.
+     */
+    private int updateTasks(SQLiteDatabase db, ContentValues values, String selection, String[] selectionArgs, boolean isSyncAdapter,
+                            boolean deferSearchIndexing, boolean alarmChanged)
+    {
+        if (deferSearchIndexing)
+        {
+            FtsProcessor.addDeferRequest(values);
+            mSearchIndexDeferred = true;
+        }
+
+        int count = 0;
+
+        // iterate over all tasks that match the selection. We iterate "manually" to execute any processors before or after insert.
+        final Cursor cursor = db.query(Tables.TASKS_VIEW, null, selection, selectionArgs, null, null, null, null);
+        final CursorBindings bindings = new CursorBindings(cursor);
+
+        try
+        {
+            while (cursor.moveToNext())
+            {
+                // clone task values if we have more than one task to update
+                // we need this, because the processors may change the values
+                final TaskAdapter task = new CursorContentValuesTaskAdapter(bindings, cursor.getCount() > 1 ? new ContentValues(values) : values);
+
+                ProviderOperation.UPDATE.execute(db, mTaskProcessors, task, isSyncAdapter, mOperationsLog, mAuthority);
+                if (alarmChanged)
+                {
+                    mNotificationAlarmChanged = true;
+                    AlarmScheduler.markPending(task.id());
+                }
+                count++;
+            }
+        }
+        finally
+        {
+            cursor.close();
+        }
+        return count;
+    }
+
+
+    /**
+     * Returns whether any of the given processors needs to see the given update values row by row.
+     *
+     * @param processors
+     *         The {@link EntityProcessor}s of the entity.
+     * @param values
+     *         The values of the update.
+     * @param isSyncAdapter
+     *         <code>true</code> if the caller is a sync adapter.
+     *
+     * @return <code>true</code> if the update has to run through the processors, <code>false</code> if it can be executed by a single statement.
+     */
+    private static <T extends EntityAdapter<?>> boolean needsProcessing(List<EntityProcessor<T>> processors, ContentValues values, boolean isSyncAdapter)
+    {
+        for (EntityProcessor<T> processor : processors)
+        {
+            Set<String> interests = processor.updateInterests(isSyncAdapter);
+            if (interests == null)
+            {
+                // this processor needs to see every update
+                return true;
+            }
+
+            for (Entry<String, Object> entry : values.valueSet())
+            {
+                String key = entry.getKey();
+                // keys with a dot are pseudo columns that request some processing
+                if (key.indexOf('.') >= 0 || interests.contains(key))
+                {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+
+    /**
+     * Updates all rows matching the given selection with a single statement. The updated rows are added to the operations log, but no processors are run.
+     *
+     * @param db
+     *         A writable {@link SQLiteDatabase}.
+     * @param table
+     *         The table to update.
+     * @param view
+     *         The table or view the selection refers to.
+     * @param contentUri
+     *         The content {@link Uri} of the entity, used to log the updated rows.
+     * @param values
+     *         The new values.
+     * @param selection
+     *         The selection of the rows to update.
+     * @param selectionArgs
+     *         The arguments of the selection.
+     *
+     * @return The number of updated rows.
+     */
+    private int bulkUpdate(SQLiteDatabase db, String table, String view, Uri contentUri, ContentValues values, String selection, String[] selectionArgs)
+    {
+        // log the rows first, the update may change the values the selection refers to
+        Cursor cursor = db.query(view, new String[] { BaseColumns._ID }, selection, selectionArgs, null, null, null);
+        try
+        {
+            if (cursor.getCount() == 0)
+            {
+                return 0;
+            }
+
+            while (cursor.moveToNext())
+            {
+                mOperationsLog.log(db, ProviderOperation.UPDATE, ContentUris.withAppendedId(contentUri, cursor.getLong(0)));
+            }
+        }
+        finally
+        {
+            cursor.close();
+        }
+
+        String where = BaseColumns._ID + " IN (SELECT " + BaseColumns._ID + " FROM " + view + (TextUtils.isEmpty(selection) ? "" : " WHERE " + selection)
+                + ")";
+        return db.update(table, values, where, selectionArgs);
+    }
+
+
+    /**
+     * Update task due and task start notifications. Multiple requests in short succession result in a single update.
      */
     private void updateNotifications()
+    {
+        mNotificationAlarmUpdater.schedule();
+    }
+
+
+    /**
+     * Returns whether the given task values contain any column that affects the start or due notifications.
+     *
+     * @param values
+     *         The values of a task update.
+     *
+     * @return <code>true</code> if the notification alarm may need an update.
+     */
+    private static boolean affectsNotificationAlarm(ContentValues values)
+    {
+        for (String column : TASK_ALARM_COLUMNS)
+        {
+            if (values.containsKey(column))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    /**
+     * Index all tasks that have been queued for a deferred search index update.
+     */
+    private void updateSearchIndex()
     {
         mAsyncHandler.post(new Runnable()
         {
@@ -1156,7 +1629,7 @@ public final class TaskProvider extends SQLiteContentProvider implements OnAccou
             @Override
             public void run()
             {
-                ContentOperation.UPDATE_NOTIFICATION_ALARM.fire(getContext(), null);
+                ContentOperation.UPDATE_SEARCH_INDEX.fire(getContext(), null);
             }
         });
     }
@@ -1191,24 +1664,6 @@ public final class TaskProvider extends SQLiteContentProvider implements OnAccou
     }
 
 
-    /**
-     * Validate the given alarm values.
-     *
-     * @param values
-     *         The alarm values to validate
-     *
-     * @throws IllegalArgumentException
-     *         if any of the values is invalid.
-     */
-    private void validateAlarmValues(ContentValues values, boolean isNew, boolean isSyncAdapter)
-    {
-        if (values.containsKey(Alarms.ALARM_ID))
-        {
-            throw new IllegalArgumentException("ALARM_ID can not be set manually");
-        }
-    }
-
-
     @Override
     public String getType(Uri uri)
     {
@@ -1222,8 +1677,13 @@ public final class TaskProvider extends SQLiteContentProvider implements OnAccou
                 return ContentResolver.CURSOR_DIR_BASE_TYPE + "/org.dmfs.tasks." + Tasks.CONTENT_URI_PATH;
             case TASK_ID:
                 return ContentResolver.CURSOR_ITEM_BASE_TYPE + "/org.dmfs.tasks." + Tasks.CONTENT_URI_PATH;
+            case TASK_SUBTREE:
+            case TASK_ANCESTORS:
+                return ContentResolver.CURSOR_DIR_BASE_TYPE + "/org.dmfs.tasks." + Tasks.CONTENT_URI_PATH;
             case INSTANCES:
                 return ContentResolver.CURSOR_DIR_BASE_TYPE + "/org.dmfs.tasks." + Instances.CONTENT_URI_PATH;
+            case CHANGES:
+                return ContentResolver.CURSOR_DIR_BASE_TYPE + "/org.dmfs.tasks." + Changes.CONTENT_URI_PATH;
             default:
                 throw new IllegalArgumentException("Unsupported URI: " + uri);
         }
@@ -1233,14 +1693,35 @@ public final class TaskProvider extends SQLiteContentProvider implements OnAccou
     @Override
     protected void onEndTransaction(boolean callerIsSyncAdapter)
     {
+        if (!mOperationsLog.isEmpty())
+        {
+            postNotifyUri(Changes.getContentUri(mAuthority));
+            mChangeJournalTrimmer.schedule();
+        }
         super.onEndTransaction(callerIsSyncAdapter);
         Intent providerChangedIntent = new Intent(Intent.ACTION_PROVIDER_CHANGED, TaskContract.getContentUri(mAuthority));
-        if (!mOperationsLog.isEmpty())
+        if (mNotificationAlarmChanged)
         {
+            // only changes of start, due or status can move the next notification
+            mNotificationAlarmChanged = false;
             updateNotifications();
         }
+        if (mSearchIndexDeferred)
+        {
+            mSearchIndexDeferred = false;
+            updateSearchIndex();
+        }
         // add the change log to the broadcast
         providerChangedIntent.putExtras(mOperationsLog.toBundle(true));
+        BatchStats stats = batchStats();
+        if (stats != null)
+        {
+            // add the batch statistics, so sync adapters can tune their batches
+            providerChangedIntent.putExtra(TaskContract.EXTRA_BATCH_OPERATIONS, stats.operations);
+            providerChangedIntent.putExtra(TaskContract.EXTRA_BATCH_YIELDS, stats.yields + stats.commits);
+            providerChangedIntent.putExtra(TaskContract.EXTRA_BATCH_MAX_TRANSACTION_TIME, stats.maxTransactionTime);
+            providerChangedIntent.putExtra(TaskContract.EXTRA_BATCH_DURATION, stats.duration);
+        }
         getContext().sendBroadcast(providerChangedIntent);
     }
 
@@ -1291,6 +1772,35 @@ public final class TaskProvider extends SQLiteContentProvider implements OnAccou
     }
 
 
+    @Override
+    protected void beforeCommit(SQLiteDatabase db, boolean callerIsSyncAdapter)
+    {
+        // resolve the relations of this transaction at once, now that all related tasks are known
+        RelationResolver.resolve(db);
+        // the instances are final now, so the next trigger of the alarms can be updated
+        if (AlarmScheduler.resolve(db))
+        {
+            mNotificationAlarmChanged = true;
+        }
+        mOperationsLog.markCommitted();
+    }
+
+
+    @Override
+    protected void onRollback()
+    {
+        RelationResolver.clear();
+        AlarmScheduler.clear();
+        // the journal rows of the rolled back operations are gone
+        mOperationsLog.reset();
+        // n-gram ids inserted in the failed transaction are gone
+        FTSDatabaseHelper.invalidateNGramCache();
+        // so are the changes to task lists and categories
+        TaskListCache.invalidate();
+        CategoryCache.invalidate();
+    }
+
+
     /**
      * Returns a {@link ProviderInfo} object for this provider.
      *
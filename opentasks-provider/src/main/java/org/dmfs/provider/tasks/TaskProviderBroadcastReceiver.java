@@ -41,6 +41,10 @@ public class TaskProviderBroadcastReceiver extends BroadcastReceiver
 
     private final static String ACTION_NOTIFICATION_ALARM = "org.dmfs.tasks.provider.NOTIFICATION_ALARM";
 
+    private final static int REQUEST_CODE_TASK_ALARM = 1338;
+
+    private final static String ACTION_TASK_ALARM = "org.dmfs.tasks.provider.TASK_ALARM";
+
 
     /**
      * Registers a system alarm to update notifications at a specific time.
@@ -81,12 +85,66 @@ public class TaskProviderBroadcastReceiver extends BroadcastReceiver
     }
 
 
+    /**
+     * Registers a system alarm to fire the alarm properties of tasks at a specific time. This replaces any previous alarm, so there is always only one wake-up
+     * for the earliest alarm.
+     *
+     * @param context
+     *         A Context.
+     * @param triggerTime
+     *         The timestamp of the next alarm.
+     */
+    @SuppressLint("NewApi")
+    static void planTaskAlarm(Context context, long triggerTime)
+    {
+        AlarmManager am = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        PendingIntent pendingIntent = taskAlarmIntent(context);
+
+        // AlarmManager API changed in v19 (KitKat) and the "set" method is not called at the exact time anymore
+        if (Build.VERSION.SDK_INT > 18)
+        {
+            am.setExact(AlarmManager.RTC_WAKEUP, triggerTime, pendingIntent);
+        }
+        else
+        {
+            am.set(AlarmManager.RTC_WAKEUP, triggerTime, pendingIntent);
+        }
+    }
+
+
+    /**
+     * Cancels the system alarm for the alarm properties of tasks.
+     *
+     * @param context
+     *         A Context.
+     */
+    static void cancelTaskAlarm(Context context)
+    {
+        AlarmManager am = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        am.cancel(taskAlarmIntent(context));
+    }
+
+
+    private static PendingIntent taskAlarmIntent(Context context)
+    {
+        Intent alarmIntent = new Intent(context, TaskProviderBroadcastReceiver.class);
+        alarmIntent.setAction(ACTION_TASK_ALARM);
+        return PendingIntent.getBroadcast(context, REQUEST_CODE_TASK_ALARM, alarmIntent, PendingIntent.FLAG_UPDATE_CURRENT);
+    }
+
+
     @Override
     public void onReceive(Context context, Intent intent)
     {
         String action = intent.getAction();
         switch (action)
         {
+            case ACTION_TASK_ALARM:
+            {
+                // fire all alarms that are due, this also schedules the next alarm
+                ContentOperation.POST_ALARMS.fire(context, null);
+                break;
+            }
             case Intent.ACTION_TIMEZONE_CHANGED:
             {
                 // the local timezone has been changed, notify the provider to take the necessary steps.
@@ -100,8 +158,12 @@ public class TaskProviderBroadcastReceiver extends BroadcastReceiver
             }
             default:
             {
+                // move the instance window forward, if necessary
+                ContentOperation.EXPAND_INSTANCES.fire(context, null);
                 // at this time all other actions trigger an update of the notification alarm
                 ContentOperation.UPDATE_NOTIFICATION_ALARM.fire(context, null);
+                // system alarms don't survive a reboot, so schedule the next task alarm as well
+                ContentOperation.UPDATE_ALARMS.fire(context, null);
             }
         }
     }
@@ -0,0 +1,186 @@
+/*
+ * Copyright 2017 dmfs GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dmfs.provider.tasks;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.text.TextUtils;
+
+import org.dmfs.provider.tasks.TaskDatabaseHelper.CategoriesMapping;
+import org.dmfs.provider.tasks.TaskDatabaseHelper.Tables;
+import org.dmfs.provider.tasks.processors.tasks.InstanceExpander;
+import org.dmfs.tasks.contract.TaskContract;
+import org.dmfs.tasks.contract.TaskContract.Instances;
+import org.dmfs.tasks.contract.TaskContract.Properties;
+import org.dmfs.tasks.contract.TaskContract.Property.Alarm;
+import org.dmfs.tasks.contract.TaskContract.Property.Relation;
+import org.dmfs.tasks.contract.TaskContract.TaskLists;
+import org.dmfs.tasks.contract.TaskContract.Tasks;
+
+
+/**
+ * Removes many tasks at once, including all the data that depends on them.
+ * <p>
+ * Deleting a task fires a number of triggers that remove its properties, instances and search index entries row by row. That's fine for a few tasks, but
+ * purging an entire account that way takes very long. Instead the ids of the tasks to remove are collected in a staging table and all dependent rows are
+ * removed with a few set based statements before the tasks themselves are deleted, so the triggers don't find anything left to remove. The staging table is
+ * always emptied again in the same transaction, so other transactions never see any rows in it.
+ *
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+public final class TaskPurge
+{
+    /**
+     * The column of the staging table that contains the ids of the tasks to remove.
+     */
+    public final static String TASK_ID = "task_id";
+
+    /**
+     * A sub-query that selects the ids of all staged tasks.
+     */
+    public final static String STAGED_TASK_IDS = "(SELECT " + TASK_ID + " FROM " + Tables.TASKS_PURGE + ")";
+
+    private final static String SQL_CREATE_PURGE_TABLE = "CREATE TABLE " + Tables.TASKS_PURGE + " ( " + TASK_ID + " INTEGER PRIMARY KEY);";
+
+    private final static String SQL_STAGE_TASKS = "INSERT OR IGNORE INTO " + Tables.TASKS_PURGE + " (" + TASK_ID + ") SELECT " + Tasks._ID + " FROM %s";
+
+
+    /**
+     * Creates the staging table.
+     *
+     * @param db
+     *         The {@link SQLiteDatabase}.
+     */
+    public static void onCreate(SQLiteDatabase db)
+    {
+        db.execSQL(SQL_CREATE_PURGE_TABLE);
+    }
+
+
+    /**
+     * Stages all tasks that match the given selection for removal.
+     *
+     * @param db
+     *         A writable {@link SQLiteDatabase}.
+     * @param selection
+     *         A selection on {@link Tables#TASKS_VIEW}.
+     * @param selectionArgs
+     *         The arguments of the selection.
+     *
+     * @return The number of tasks that are staged for removal.
+     */
+    public static int stageTasks(SQLiteDatabase db, String selection, String[] selectionArgs)
+    {
+        return stage(db, Tables.TASKS_VIEW + (TextUtils.isEmpty(selection) ? "" : " WHERE " + selection), selectionArgs);
+    }
+
+
+    /**
+     * Stages all tasks of the task lists that match the given selection for removal.
+     *
+     * @param db
+     *         A writable {@link SQLiteDatabase}.
+     * @param listSelection
+     *         A selection on {@link Tables#LISTS}.
+     * @param selectionArgs
+     *         The arguments of the selection.
+     *
+     * @return The number of tasks that are staged for removal.
+     */
+    public static int stageListTasks(SQLiteDatabase db, String listSelection, String[] selectionArgs)
+    {
+        return stage(db, Tables.TASKS + " WHERE " + Tasks.LIST_ID + " IN (SELECT " + TaskLists._ID + " FROM " + Tables.LISTS + (TextUtils.isEmpty(
+                listSelection) ? "" : " WHERE " + listSelection) + ")", selectionArgs);
+    }
+
+
+    /**
+     * Removes all staged tasks and everything that depends on them and clears the staging table.
+     * <p>
+     * Relations of other tasks to the removed tasks are removed as well and the instances that removed exceptions have overridden are restored.
+     *
+     * @param db
+     *         A writable {@link SQLiteDatabase}.
+     */
+    public static void purge(SQLiteDatabase db)
+    {
+        // the masters of removed exceptions that are not removed themselves
+        long[] masterIds = stagedExceptionMasters(db);
+
+        // relations of other tasks to the removed tasks
+        db.execSQL("DELETE FROM " + Tables.PROPERTIES + " WHERE " + Properties.MIMETYPE + " = '" + Relation.CONTENT_ITEM_TYPE + "' AND "
+                + Relation.RELATED_ID + " IN " + STAGED_TASK_IDS + " AND " + Properties.TASK_ID + " NOT IN " + STAGED_TASK_IDS);
+
+        // everything the property triggers would remove
+        db.execSQL("DELETE FROM " + Tables.ALARMS + " WHERE " + TaskContract.Alarms.ALARM_ID + " IN (SELECT " + Properties.PROPERTY_ID + " FROM "
+                + Tables.PROPERTIES + " WHERE " + Properties.MIMETYPE + " = '" + Alarm.CONTENT_ITEM_TYPE + "' AND " + Properties.TASK_ID + " IN "
+                + STAGED_TASK_IDS + ")");
+        db.execSQL("DELETE FROM " + Tables.CATEGORIES_MAPPING + " WHERE " + CategoriesMapping.TASK_ID + " IN " + STAGED_TASK_IDS);
+
+        // everything the task triggers would remove
+        FTSDatabaseHelper.deleteStagedTasks(db);
+        TaskHierarchy.deleteStagedTasks(db);
+        db.execSQL("DELETE FROM " + Tables.PROPERTIES + " WHERE " + Properties.TASK_ID + " IN " + STAGED_TASK_IDS);
+        db.execSQL("DELETE FROM " + Tables.INSTANCES + " WHERE " + Instances.TASK_ID + " IN " + STAGED_TASK_IDS);
+
+        db.execSQL("DELETE FROM " + Tables.TASKS + " WHERE " + Tasks._ID + " IN " + STAGED_TASK_IDS);
+        db.execSQL("DELETE FROM " + Tables.TASKS_PURGE);
+
+        // restore the instances the removed exceptions have overridden
+        for (long masterId : masterIds)
+        {
+            InstanceExpander.reexpand(db, masterId);
+        }
+    }
+
+
+    private static long[] stagedExceptionMasters(SQLiteDatabase db)
+    {
+        Cursor cursor = db.rawQuery("SELECT DISTINCT " + Tasks.ORIGINAL_INSTANCE_ID + " FROM " + Tables.TASKS + " WHERE " + Tasks._ID + " IN "
+                + STAGED_TASK_IDS + " AND " + Tasks.ORIGINAL_INSTANCE_ID + " NOT NULL AND " + Tasks.ORIGINAL_INSTANCE_ID + " NOT IN " + STAGED_TASK_IDS, null);
+        try
+        {
+            long[] result = new long[cursor.getCount()];
+            int i = 0;
+            while (cursor.moveToNext())
+            {
+                result[i++] = cursor.getLong(0);
+            }
+            return result;
+        }
+        finally
+        {
+            cursor.close();
+        }
+    }
+
+
+    private static int stage(SQLiteDatabase db, String source, String[] selectionArgs)
+    {
+        String sql = String.format(SQL_STAGE_TASKS, source);
+        if (selectionArgs == null || selectionArgs.length == 0)
+        {
+            db.execSQL(sql);
+        }
+        else
+        {
+            db.execSQL(sql, selectionArgs);
+        }
+        return (int) DatabaseUtils.longForQuery(db, "SELECT count(*) FROM " + Tables.TASKS_PURGE, null);
+    }
+}
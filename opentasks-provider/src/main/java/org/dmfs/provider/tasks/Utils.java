@@ -101,14 +101,27 @@ public class Utils
                 return;
             }
 
-            // remove all accounts in the list
+            StringBuilder selection = new StringBuilder(obsoleteLists.size() * 8 + 16);
+            selection.append(TaskListColumns._ID).append(" IN (");
+            boolean first = true;
             for (Long id : obsoleteLists)
             {
-                if (id != null)
+                if (!first)
                 {
-                    db.delete(Tables.LISTS, TaskListColumns._ID + "=" + id, null);
+                    selection.append(',');
                 }
+                selection.append(id);
+                first = false;
             }
+            selection.append(')');
+
+            // remove the tasks of all obsolete lists in bulk, then the lists
+            if (TaskPurge.stageListTasks(db, selection.toString(), null) > 0)
+            {
+                TaskPurge.purge(db);
+            }
+            db.delete(Tables.LISTS, selection.toString(), null);
+            TaskListCache.invalidate();
             db.setTransactionSuccessful();
         }
         finally
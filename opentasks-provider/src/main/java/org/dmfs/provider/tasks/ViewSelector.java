@@ -0,0 +1,305 @@
+/*
+ * Copyright 2017 dmfs GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dmfs.provider.tasks;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.dmfs.provider.tasks.TaskDatabaseHelper.Tables;
+import org.dmfs.tasks.contract.TaskContract.Instances;
+import org.dmfs.tasks.contract.TaskContract.TaskLists;
+import org.dmfs.tasks.contract.TaskContract.Tasks;
+
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+
+/**
+ * Selects the narrowest tables that can serve a query on {@link Tables#TASKS_VIEW} or {@link Tables#INSTANCE_VIEW}.
+ * <p>
+ * Both views join all columns of the tasks with some columns of the task lists (and the instances), even if a client asks for a few columns only. This class
+ * looks at the columns a query refers to in its projection, selection and sort order and returns a join of only the tables that are actually required. The
+ * result always has the same column names as the view it replaces, so the client can't tell the difference.
+ * <p>
+ * The analysis is conservative. If the projection is <code>null</code> or contains a wildcard or if a column is qualified with the name of the view, the full
+ * view is used.
+ *
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+public final class ViewSelector
+{
+    /**
+     * The task list columns of the views.
+     */
+    private final static Set<String> LIST_COLUMNS = lowerCase(Tasks.ACCOUNT_NAME, Tasks.ACCOUNT_TYPE, Tasks.LIST_OWNER, Tasks.LIST_NAME,
+            Tasks.LIST_ACCESS_LEVEL, Tasks.LIST_COLOR, Tasks.VISIBLE);
+
+    /**
+     * The columns of the tasks table or <code>null</code> if they have not been loaded yet.
+     */
+    private static Set<String> sTaskColumns;
+
+    /**
+     * The columns of the instances table or <code>null</code> if they have not been loaded yet.
+     */
+    private static Set<String> sInstanceColumns;
+
+
+    private ViewSelector()
+    {
+    }
+
+
+    /**
+     * Returns the tables to query instead of {@link Tables#TASKS_VIEW}.
+     *
+     * @param db
+     *         The {@link SQLiteDatabase}.
+     * @param projection
+     *         The projection of the query, may be <code>null</code>.
+     * @param clauses
+     *         All other SQL clauses of the query, like the selection and the sort order. Any of them may be <code>null</code>.
+     *
+     * @return The tables to use with a {@link android.database.sqlite.SQLiteQueryBuilder}.
+     */
+    public static String taskTables(SQLiteDatabase db, String[] projection, String... clauses)
+    {
+        Set<String> identifiers = identifiers(projection, clauses);
+        if (identifiers == null || identifiers.contains(Tables.TASKS_VIEW.toLowerCase(Locale.ENGLISH)))
+        {
+            return Tables.TASKS_VIEW;
+        }
+
+        for (String identifier : identifiers)
+        {
+            if (LIST_COLUMNS.contains(identifier) && !taskColumns(db).contains(identifier))
+            {
+                return Tables.TASKS_VIEW;
+            }
+        }
+        // the view contains all columns of the tasks table under the same names
+        return Tables.TASKS;
+    }
+
+
+    /**
+     * Returns the tables to query instead of {@link Tables#INSTANCE_VIEW}.
+     *
+     * @param db
+     *         The {@link SQLiteDatabase}.
+     * @param projection
+     *         The projection of the query, may be <code>null</code>.
+     * @param clauses
+     *         All other SQL clauses of the query, like the selection and the sort order. Any of them may be <code>null</code>.
+     *
+     * @return The tables to use with a {@link android.database.sqlite.SQLiteQueryBuilder}.
+     */
+    public static String instanceTables(SQLiteDatabase db, String[] projection, String... clauses)
+    {
+        Set<String> identifiers = identifiers(projection, clauses);
+        if (identifiers == null || identifiers.contains(Tables.INSTANCE_VIEW.toLowerCase(Locale.ENGLISH)))
+        {
+            return Tables.INSTANCE_VIEW;
+        }
+
+        Set<String> instanceColumns = instanceColumns(db);
+        Set<String> taskColumns = taskColumns(db);
+
+        // the view contains the instance columns first, so a column that exists in both tables refers to the instance
+        StringBuilder columns = new StringBuilder(256).append(Tables.INSTANCES).append(".*");
+        boolean needsTasks = false;
+        boolean needsLists = false;
+        for (String identifier : identifiers)
+        {
+            if (instanceColumns.contains(identifier))
+            {
+                continue;
+            }
+            if (taskColumns.contains(identifier))
+            {
+                columns.append(", ").append(Tables.TASKS).append('.').append(identifier);
+                needsTasks = true;
+            }
+            else if (LIST_COLUMNS.contains(identifier))
+            {
+                columns.append(", ").append(Tables.LISTS).append('.').append(identifier);
+                needsTasks = true;
+                needsLists = true;
+            }
+        }
+
+        if (!needsTasks)
+        {
+            return Tables.INSTANCES;
+        }
+
+        StringBuilder tables = new StringBuilder(columns.length() + 256);
+        tables.append("(SELECT ").append(columns).append(" FROM ").append(Tables.INSTANCES).append(" JOIN ").append(Tables.TASKS).append(" ON (")
+                .append(Tables.TASKS).append('.').append(Tasks._ID).append(" = ").append(Tables.INSTANCES).append('.').append(Instances.TASK_ID).append(')');
+        if (needsLists)
+        {
+            tables.append(" JOIN ").append(Tables.LISTS).append(" ON (").append(Tables.TASKS).append('.').append(Tasks.LIST_ID).append(" = ")
+                    .append(Tables.LISTS).append('.').append(TaskLists._ID).append(')');
+        }
+        return tables.append(')').toString();
+    }
+
+
+    /**
+     * Returns all identifiers the given projection and clauses refer to in lower case or <code>null</code> if the projection contains a wildcard.
+     */
+    private static Set<String> identifiers(String[] projection, String... clauses)
+    {
+        if (projection == null)
+        {
+            return null;
+        }
+
+        Set<String> result = new HashSet<String>(32);
+        for (String column : projection)
+        {
+            if (column == null || column.indexOf('*') >= 0)
+            {
+                return null;
+            }
+            addIdentifiers(result, column);
+        }
+        for (String clause : clauses)
+        {
+            if (clause != null)
+            {
+                addIdentifiers(result, clause);
+            }
+        }
+        return result;
+    }
+
+
+    private static void addIdentifiers(Set<String> result, String sql)
+    {
+        int length = sql.length();
+        int i = 0;
+        while (i < length)
+        {
+            char c = sql.charAt(i);
+            if (c == '\'')
+            {
+                // skip string literals, including escaped quotes
+                i = sql.indexOf('\'', i + 1);
+                while (i >= 0 && i + 1 < length && sql.charAt(i + 1) == '\'')
+                {
+                    i = sql.indexOf('\'', i + 2);
+                }
+                if (i < 0)
+                {
+                    return;
+                }
+                ++i;
+            }
+            else if (c == '"' || c == '`' || c == '[')
+            {
+                // a quoted identifier
+                int end = sql.indexOf(c == '[' ? ']' : c, i + 1);
+                if (end < 0)
+                {
+                    return;
+                }
+                result.add(sql.substring(i + 1, end).toLowerCase(Locale.ENGLISH));
+                i = end + 1;
+            }
+            else if (Character.isLetter(c) || c == '_')
+            {
+                int start = i;
+                while (i < length && (Character.isLetterOrDigit(sql.charAt(i)) || sql.charAt(i) == '_'))
+                {
+                    ++i;
+                }
+                result.add(sql.substring(start, i).toLowerCase(Locale.ENGLISH));
+            }
+            else if (Character.isDigit(c))
+            {
+                // skip numbers, so we don't take the exponent of 1e5 for an identifier
+                while (i < length && (Character.isLetterOrDigit(sql.charAt(i)) || sql.charAt(i) == '.'))
+                {
+                    ++i;
+                }
+            }
+            else
+            {
+                ++i;
+            }
+        }
+    }
+
+
+    private static Set<String> taskColumns(SQLiteDatabase db)
+    {
+        synchronized (ViewSelector.class)
+        {
+            if (sTaskColumns == null)
+            {
+                sTaskColumns = columns(db, Tables.TASKS);
+            }
+            return sTaskColumns;
+        }
+    }
+
+
+    private static Set<String> instanceColumns(SQLiteDatabase db)
+    {
+        synchronized (ViewSelector.class)
+        {
+            if (sInstanceColumns == null)
+            {
+                sInstanceColumns = columns(db, Tables.INSTANCES);
+            }
+            return sInstanceColumns;
+        }
+    }
+
+
+    private static Set<String> columns(SQLiteDatabase db, String table)
+    {
+        Set<String> result = new HashSet<String>(64);
+        Cursor cursor = db.rawQuery("PRAGMA table_info(" + table + ")", null);
+        try
+        {
+            int nameIdx = cursor.getColumnIndexOrThrow("name");
+            while (cursor.moveToNext())
+            {
+                result.add(cursor.getString(nameIdx).toLowerCase(Locale.ENGLISH));
+            }
+        }
+        finally
+        {
+            cursor.close();
+        }
+        return result;
+    }
+
+
+    private static Set<String> lowerCase(String... values)
+    {
+        Set<String> result = new HashSet<String>(values.length * 2);
+        for (String value : values)
+        {
+            result.add(value.toLowerCase(Locale.ENGLISH));
+        }
+        return result;
+    }
+}
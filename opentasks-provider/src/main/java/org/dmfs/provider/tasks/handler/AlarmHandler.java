@@ -20,6 +20,7 @@ import android.content.ContentValues;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 
+import org.dmfs.provider.tasks.AlarmScheduler;
 import org.dmfs.tasks.contract.TaskContract.Property;
 
 
@@ -102,6 +103,7 @@ public class AlarmHandler extends PropertyHandler
     public long insert(SQLiteDatabase db, long taskId, ContentValues values, boolean isSyncAdapter)
     {
         values = validateValues(db, taskId, -1, true, values, isSyncAdapter);
+        AlarmScheduler.markPending(taskId);
         return super.insert(db, taskId, values, isSyncAdapter);
     }
 
@@ -128,6 +130,7 @@ public class AlarmHandler extends PropertyHandler
     public int update(SQLiteDatabase db, long taskId, long propertyId, ContentValues values, Cursor oldValues, boolean isSyncAdapter)
     {
         values = validateValues(db, taskId, propertyId, false, values, isSyncAdapter);
+        AlarmScheduler.markPending(taskId);
         return super.update(db, taskId, propertyId, values, oldValues, isSyncAdapter);
     }
 }
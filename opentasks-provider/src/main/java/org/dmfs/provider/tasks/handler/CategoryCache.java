@@ -0,0 +1,195 @@
+/*
+ * Copyright 2017 dmfs GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dmfs.provider.tasks.handler;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.dmfs.provider.tasks.TaskDatabaseHelper.Tables;
+import org.dmfs.tasks.contract.TaskContract.Categories;
+
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ * A provider wide cache of the categories of each account.
+ * <p>
+ * Syncs usually add the same few categories to many tasks, so the first lookup of an account loads all categories of that account with a single query and
+ * all further lookups are served from memory. Categories that are inserted later are added to the cache. The cache must be invalidated whenever categories
+ * are modified by other means and when a transaction is rolled back, see {@link #invalidate()}.
+ *
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+public final class CategoryCache
+{
+    /**
+     * A cached category.
+     */
+    final static class CategoryInfo
+    {
+        final long id;
+        final String name;
+        final int color;
+
+
+        CategoryInfo(long id, String name, int color)
+        {
+            this.id = id;
+            this.name = name;
+            this.color = color;
+        }
+    }
+
+
+    /**
+     * The categories of an account.
+     */
+    private final static class AccountCategories
+    {
+        final Map<String, CategoryInfo> byName = new HashMap<String, CategoryInfo>(32);
+        final Map<Long, CategoryInfo> byId = new HashMap<Long, CategoryInfo>(32);
+
+
+        void add(CategoryInfo category)
+        {
+            // in case of duplicate names use the oldest category
+            if (!byName.containsKey(category.name))
+            {
+                byName.put(category.name, category);
+            }
+            byId.put(category.id, category);
+        }
+    }
+
+
+    private final static String[] CATEGORY_PROJECTION = { Categories._ID, Categories.NAME, Categories.COLOR };
+
+    private final static String ACCOUNT_SELECTION = Categories.ACCOUNT_NAME + "=? and " + Categories.ACCOUNT_TYPE + "=?";
+
+    /**
+     * The categories by account.
+     */
+    private final static Map<String, AccountCategories> CACHE = new HashMap<String, AccountCategories>(8);
+
+
+    /**
+     * Returns the category with the given name in the given account.
+     *
+     * @param db
+     *         The {@link SQLiteDatabase}.
+     * @param accountName
+     *         The name of the account.
+     * @param accountType
+     *         The type of the account.
+     * @param name
+     *         The name of the category.
+     *
+     * @return The {@link CategoryInfo} or <code>null</code> if the account has no such category.
+     */
+    static CategoryInfo byName(SQLiteDatabase db, String accountName, String accountType, String name)
+    {
+        synchronized (CACHE)
+        {
+            return account(db, accountName, accountType).byName.get(name);
+        }
+    }
+
+
+    /**
+     * Returns the category with the given id in the given account.
+     *
+     * @param db
+     *         The {@link SQLiteDatabase}.
+     * @param accountName
+     *         The name of the account.
+     * @param accountType
+     *         The type of the account.
+     * @param id
+     *         The row id of the category.
+     *
+     * @return The {@link CategoryInfo} or <code>null</code> if the account has no such category.
+     */
+    static CategoryInfo byId(SQLiteDatabase db, String accountName, String accountType, long id)
+    {
+        synchronized (CACHE)
+        {
+            return account(db, accountName, accountType).byId.get(id);
+        }
+    }
+
+
+    /**
+     * Adds a category that has just been inserted into the database.
+     *
+     * @param db
+     *         The {@link SQLiteDatabase}.
+     * @param accountName
+     *         The name of the account.
+     * @param accountType
+     *         The type of the account.
+     * @param category
+     *         The new {@link CategoryInfo}.
+     */
+    static void add(SQLiteDatabase db, String accountName, String accountType, CategoryInfo category)
+    {
+        synchronized (CACHE)
+        {
+            account(db, accountName, accountType).add(category);
+        }
+    }
+
+
+    /**
+     * Drops all cached categories. Call this whenever categories have been modified by other means than {@link CategoryHandler} and when a transaction has
+     * been rolled back.
+     */
+    public static void invalidate()
+    {
+        synchronized (CACHE)
+        {
+            CACHE.clear();
+        }
+    }
+
+
+    private static AccountCategories account(SQLiteDatabase db, String accountName, String accountType)
+    {
+        // prefix the type with its length, so no two accounts can have the same key
+        String key = accountType.length() + ":" + accountType + ":" + accountName;
+        AccountCategories categories = CACHE.get(key);
+        if (categories == null)
+        {
+            categories = new AccountCategories();
+            Cursor cursor = db.query(Tables.CATEGORIES, CATEGORY_PROJECTION, ACCOUNT_SELECTION, new String[] { accountName, accountType }, null, null,
+                    Categories._ID);
+            try
+            {
+                while (cursor.moveToNext())
+                {
+                    categories.add(new CategoryInfo(cursor.getLong(0), cursor.getString(1), cursor.getInt(2)));
+                }
+            }
+            finally
+            {
+                cursor.close();
+            }
+            CACHE.put(key, categories);
+        }
+        return categories;
+    }
+}
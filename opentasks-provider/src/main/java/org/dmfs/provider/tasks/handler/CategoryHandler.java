@@ -19,13 +19,16 @@ package org.dmfs.provider.tasks.handler;
 import android.content.ContentValues;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 
 import org.dmfs.provider.tasks.TaskDatabaseHelper.CategoriesMapping;
 import org.dmfs.provider.tasks.TaskDatabaseHelper.Tables;
+import org.dmfs.provider.tasks.TaskListCache;
+import org.dmfs.provider.tasks.TaskListCache.ListInfo;
+import org.dmfs.provider.tasks.handler.CategoryCache.CategoryInfo;
 import org.dmfs.tasks.contract.TaskContract.Categories;
 import org.dmfs.tasks.contract.TaskContract.Properties;
 import org.dmfs.tasks.contract.TaskContract.Property.Category;
-import org.dmfs.tasks.contract.TaskContract.Tasks;
 
 
 /**
@@ -36,13 +39,17 @@ import org.dmfs.tasks.contract.TaskContract.Tasks;
 public class CategoryHandler extends PropertyHandler
 {
 
-    private static final String[] CATEGORY_ID_PROJECTION = { Categories._ID, Categories.NAME, Categories.COLOR };
-
-    private static final String CATEGORY_ID_SELECTION = Categories._ID + "=? and " + Categories.ACCOUNT_NAME + "=? and " + Categories.ACCOUNT_TYPE + "=?";
-    private static final String CATEGORY_NAME_SELECTION = Categories.NAME + "=? and " + Categories.ACCOUNT_NAME + "=? and " + Categories.ACCOUNT_TYPE + "=?";
+    private static final String SQL_INSERT_RELATION = "INSERT INTO " + Tables.CATEGORIES_MAPPING + " (" + CategoriesMapping.TASK_ID + ", "
+            + CategoriesMapping.CATEGORY_ID + ", " + CategoriesMapping.PROPERTY_ID + ") VALUES (?, ?, ?)";
 
     public static final String IS_NEW_CATEGORY = "is_new_category";
 
+    /**
+     * The compiled statement to insert category mappings and the database it has been compiled for.
+     */
+    private SQLiteStatement mInsertRelationStatement;
+    private SQLiteDatabase mInsertRelationDb;
+
 
     /**
      * Validates the content of the category prior to insert and update transactions.
@@ -79,77 +86,47 @@ public class CategoryHandler extends PropertyHandler
         {
             throw new IllegalArgumentException("No task id was supplied for the category property");
         }
-        String[] queryArgs = { values.getAsString(Properties.TASK_ID) };
-        String[] queryProjection = { Tasks.ACCOUNT_NAME, Tasks.ACCOUNT_TYPE };
-        String querySelection = Tasks._ID + "=?";
-        Cursor taskCursor = db.query(Tables.TASKS_VIEW, queryProjection, querySelection, queryArgs, null, null, null);
-
         String accountName = null;
         String accountType = null;
-        try
+        Long taskIdValue = values.getAsLong(Properties.TASK_ID);
+        ListInfo list = taskIdValue == null ? null : TaskListCache.getByTask(db, taskIdValue);
+        if (list != null)
         {
-            if (taskCursor.moveToNext())
-            {
-                accountName = taskCursor.getString(0);
-                accountType = taskCursor.getString(1);
+            accountName = list.accountName;
+            accountType = list.accountType;
 
-                values.put(Categories.ACCOUNT_NAME, accountName);
-                values.put(Categories.ACCOUNT_TYPE, accountType);
-            }
-        }
-        finally
-        {
-            if (taskCursor != null)
-            {
-                taskCursor.close();
-            }
+            values.put(Categories.ACCOUNT_NAME, accountName);
+            values.put(Categories.ACCOUNT_TYPE, accountType);
         }
 
         if (accountName != null && accountType != null)
         {
             // search for matching categories
-            String[] categoryArgs;
-            Cursor cursor;
+            CategoryInfo category;
 
             if (values.containsKey(Categories._ID))
             {
                 // serach by ID
-                categoryArgs = new String[] { values.getAsString(Category.CATEGORY_ID), accountName, accountType };
-                cursor = db.query(Tables.CATEGORIES, CATEGORY_ID_PROJECTION, CATEGORY_ID_SELECTION, categoryArgs, null, null, null);
+                Long categoryId = values.getAsLong(Category.CATEGORY_ID);
+                category = categoryId == null ? null : CategoryCache.byId(db, accountName, accountType, categoryId);
             }
             else
             {
                 // search by name
-                categoryArgs = new String[] { values.getAsString(Category.CATEGORY_NAME), accountName, accountType };
-                cursor = db.query(Tables.CATEGORIES, CATEGORY_ID_PROJECTION, CATEGORY_NAME_SELECTION, categoryArgs, null, null, null);
+                category = CategoryCache.byName(db, accountName, accountType, values.getAsString(Category.CATEGORY_NAME));
             }
-            try
+
+            if (category != null)
             {
-                if (cursor != null && cursor.getCount() == 1)
-                {
-                    cursor.moveToNext();
-                    Long categoryID = cursor.getLong(0);
-                    String categoryName = cursor.getString(1);
-                    int color = cursor.getInt(2);
-
-                    values.put(Category.CATEGORY_ID, categoryID);
-                    values.put(Category.CATEGORY_NAME, categoryName);
-                    values.put(Category.CATEGORY_COLOR, color);
-                    values.put(IS_NEW_CATEGORY, false);
-                }
-                else
-                {
-                    values.put(IS_NEW_CATEGORY, true);
-                }
+                values.put(Category.CATEGORY_ID, category.id);
+                values.put(Category.CATEGORY_NAME, category.name);
+                values.put(Category.CATEGORY_COLOR, category.color);
+                values.put(IS_NEW_CATEGORY, false);
             }
-            finally
+            else
             {
-                if (cursor != null)
-                {
-                    cursor.close();
-                }
+                values.put(IS_NEW_CATEGORY, true);
             }
-
         }
 
         return values;
@@ -243,6 +220,14 @@ public class CategoryHandler extends PropertyHandler
 
             long categoryID = db.insert(Tables.CATEGORIES, "", newCategoryValues);
             values.put(Category.CATEGORY_ID, categoryID);
+
+            String name = values.getAsString(Category.CATEGORY_NAME);
+            if (categoryID >= 0 && name != null)
+            {
+                Integer color = values.getAsInteger(Category.CATEGORY_COLOR);
+                CategoryCache.add(db, values.getAsString(Categories.ACCOUNT_NAME), values.getAsString(Categories.ACCOUNT_TYPE), new CategoryInfo(categoryID,
+                        name, color == null ? 0 : color));
+            }
         }
 
         // remove redundant values
@@ -266,12 +251,21 @@ public class CategoryHandler extends PropertyHandler
      *
      * @return The row id of the inserted relation.
      */
-    private long insertRelation(SQLiteDatabase db, long taskId, long categoryId, long propertyId)
+    private synchronized long insertRelation(SQLiteDatabase db, long taskId, long categoryId, long propertyId)
     {
-        ContentValues relationValues = new ContentValues(3);
-        relationValues.put(CategoriesMapping.TASK_ID, taskId);
-        relationValues.put(CategoriesMapping.CATEGORY_ID, categoryId);
-        relationValues.put(CategoriesMapping.PROPERTY_ID, propertyId);
-        return db.insert(Tables.CATEGORIES_MAPPING, "", relationValues);
+        if (mInsertRelationStatement == null || mInsertRelationDb != db)
+        {
+            // the statement belongs to a specific database instance
+            if (mInsertRelationStatement != null)
+            {
+                mInsertRelationStatement.close();
+            }
+            mInsertRelationStatement = db.compileStatement(SQL_INSERT_RELATION);
+            mInsertRelationDb = db;
+        }
+        mInsertRelationStatement.bindLong(1, taskId);
+        mInsertRelationStatement.bindLong(2, categoryId);
+        mInsertRelationStatement.bindLong(3, propertyId);
+        return mInsertRelationStatement.executeInsert();
     }
 }
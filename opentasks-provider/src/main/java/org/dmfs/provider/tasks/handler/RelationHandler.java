@@ -28,6 +28,9 @@ import org.dmfs.tasks.contract.TaskContract.Tasks;
 
 /**
  * Handles any inserts, updates and deletes on the relations table.
+ * <p>
+ * {@link Relation#RELATED_ID}, {@link Relation#RELATED_UID} and the resulting {@link Tasks#PARENT_ID}s are not resolved here but by the {@link
+ * RelationResolver} before the transaction is committed.
  *
  * @author Marten Gajda <marten@dmfs.org>
  */
@@ -74,8 +77,8 @@ public class RelationHandler extends PropertyHandler
     public long insert(SQLiteDatabase db, long taskId, ContentValues values, boolean isSyncAdapter)
     {
         validateValues(db, taskId, -1, true, values, isSyncAdapter);
-        resolveFields(db, values);
-        updateParentId(db, taskId, values, null);
+        // the related task may not be known yet, so resolve the relation once the transaction is complete
+        RelationResolver.markPending(taskId);
         return super.insert(db, taskId, values, isSyncAdapter);
     }
 
@@ -84,8 +87,7 @@ public class RelationHandler extends PropertyHandler
     public int update(SQLiteDatabase db, long taskId, long propertyId, ContentValues values, Cursor oldValues, boolean isSyncAdapter)
     {
         validateValues(db, taskId, propertyId, false, values, isSyncAdapter);
-        resolveFields(db, values);
-        updateParentId(db, taskId, values, oldValues);
+        RelationResolver.markPending(taskId);
         return super.update(db, taskId, propertyId, values, oldValues, isSyncAdapter);
     }
 
@@ -98,128 +100,6 @@ public class RelationHandler extends PropertyHandler
     }
 
 
-    /**
-     * Resolve <code>_id</code> or <code>_uid</code>, depending of which value is given. We can't resolve anything if only {@link Relation#RELATED_URI} is
-     * given. The given values are update in-place.
-     * <p>
-     * TODO: store links into the calendar provider if we find an event that matches the UID.
-     * </p>
-     *
-     * @param db
-     *         The task database.
-     * @param values
-     *         The {@link ContentValues}.
-     */
-    private void resolveFields(SQLiteDatabase db, ContentValues values)
-    {
-        Long id = values.getAsLong(Relation.RELATED_ID);
-        String uid = values.getAsString(Relation.RELATED_UID);
-
-        if (id != null)
-        {
-            values.put(Relation.RELATED_UID, resolveTaskStringField(db, Tasks._ID, id.toString(), Tasks._UID));
-        }
-        else if (uid != null)
-        {
-            values.put(Relation.RELATED_ID, resolveTaskLongField(db, Tasks._UID, uid, Tasks._ID));
-        }
-    }
-
-
-    private Long resolveTaskLongField(SQLiteDatabase db, String selectionField, String selectionValue, String resultField)
-    {
-        String result = resolveTaskStringField(db, selectionField, selectionValue, resultField);
-        if (result != null)
-        {
-            return Long.parseLong(result);
-        }
-        return null;
-    }
-
-
-    private String resolveTaskStringField(SQLiteDatabase db, String selectionField, String selectionValue, String resultField)
-    {
-        Cursor c = db.query(TaskDatabaseHelper.Tables.TASKS, new String[] { resultField }, selectionField + "=?", new String[] { selectionValue }, null, null,
-                null);
-        if (c != null)
-        {
-            try
-            {
-                if (c.moveToNext())
-                {
-                    return c.getString(0);
-                }
-            }
-            finally
-            {
-                c.close();
-            }
-        }
-        return null;
-    }
-
-
-    /**
-     * Update {@link Tasks#PARENT_ID} when a parent is assigned to a child.
-     *
-     * @param db
-     * @param taskId
-     * @param values
-     * @param oldValues
-     */
-    private void updateParentId(SQLiteDatabase db, long taskId, ContentValues values, Cursor oldValues)
-    {
-        int type;
-        if (values.containsKey(Relation.RELATED_TYPE))
-        {
-            type = values.getAsInteger(Relation.RELATED_TYPE);
-        }
-        else
-        {
-            type = oldValues.getInt(oldValues.getColumnIndex(Relation.RELATED_TYPE));
-        }
-
-        if (type == RelType.PARENT.ordinal())
-        {
-            // this is a link to the parent, we need to update the PARENT_ID of this task, if we can
-
-            if (values.containsKey(Relation.RELATED_ID))
-            {
-                ContentValues taskValues = new ContentValues(1);
-                taskValues.put(Tasks.PARENT_ID, values.getAsLong(Relation.RELATED_ID));
-                db.update(TaskDatabaseHelper.Tables.TASKS, taskValues, Tasks._ID + "=" + taskId, null);
-            }
-            // else: the parent task is probably not synced yet, we have to fix this in RelationUpdaterHook
-        }
-        else if (type == RelType.CHILD.ordinal())
-        {
-            // this is a link to a child, we need to update the PARENT_ID of the linked task
-
-            if (values.getAsLong(Relation.RELATED_ID) != null)
-            {
-                ContentValues taskValues = new ContentValues(1);
-                taskValues.put(Tasks.PARENT_ID, taskId);
-                db.update(TaskDatabaseHelper.Tables.TASKS, taskValues, Tasks._ID + "=" + values.getAsLong(Relation.RELATED_ID), null);
-            }
-            // else: the child task is probably not synced yet, we have to fix this in RelationUpdaterHook
-        }
-        else if (type == RelType.SIBLING.ordinal())
-        {
-            // this is a link to a sibling, we need to copy the PARENT_ID of the linked task to this task
-            if (values.getAsLong(Relation.RELATED_ID) != null)
-            {
-                // get the parent of the other task first
-                Long otherParent = resolveTaskLongField(db, Tasks._ID, values.getAsString(Relation.RELATED_ID), Tasks.PARENT_ID);
-
-                ContentValues taskValues = new ContentValues(1);
-                taskValues.put(Tasks.PARENT_ID, otherParent);
-                db.update(TaskDatabaseHelper.Tables.TASKS, taskValues, Tasks._ID + "=" + taskId, null);
-            }
-            // else: the sibling task is probably not synced yet, we have to fix this in RelationUpdaterHook
-        }
-    }
-
-
     /**
      * Clear {@link Tasks#PARENT_ID} if a link is removed.
      *
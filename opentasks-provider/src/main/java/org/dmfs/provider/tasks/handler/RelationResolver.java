@@ -0,0 +1,270 @@
+/*
+ * Copyright 2017 dmfs GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dmfs.provider.tasks.handler;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.dmfs.provider.tasks.TaskDatabaseHelper.Tables;
+import org.dmfs.tasks.contract.TaskContract.Properties;
+import org.dmfs.tasks.contract.TaskContract.Property.Relation;
+import org.dmfs.tasks.contract.TaskContract.Property.Relation.RelType;
+import org.dmfs.tasks.contract.TaskContract.Tasks;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+
+/**
+ * Resolves relations between tasks once per transaction.
+ * <p>
+ * A relation may refer to a task by {@link Relation#RELATED_ID} or by {@link Relation#RELATED_UID}, and the related task may not even be in the database
+ * when the relation is written. So instead of looking up each related task when a relation is written, the relations and tasks that have been touched are
+ * recorded and resolved with a few set based statements right before the transaction is committed. This fills in the missing {@link Relation#RELATED_ID}s
+ * and {@link Relation#RELATED_UID}s and updates the {@link Tasks#PARENT_ID}s of the tasks that own the affected relations.
+ * <p>
+ * The state is kept per thread, since a transaction never spans multiple threads.
+ *
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+public final class RelationResolver
+{
+    /**
+     * The maximum number of task ids in a single statement.
+     */
+    private final static int MAX_IDS = 500;
+
+    private final static String RELATION_SELECTION = Properties.MIMETYPE + " = '" + Relation.CONTENT_ITEM_TYPE + "'";
+
+    /**
+     * Selects the relations that refer to a task by UID only, if the UID is one of the values in <code>%1$s</code>.
+     */
+    private final static String UNRESOLVED_UID_SELECTION = RELATION_SELECTION + " AND " + Relation.RELATED_ID + " IS NULL AND " + Relation.RELATED_UID
+            + " IN (%1$s)";
+
+    /**
+     * Sets the {@link Relation#RELATED_ID} of relations that refer to a task by UID, for all relations matching the selection in <code>%1$s</code>.
+     */
+    private final static String SQL_RESOLVE_IDS = "UPDATE " + Tables.PROPERTIES + " SET " + Relation.RELATED_ID + " = (SELECT " + Tasks._ID + " FROM "
+            + Tables.TASKS + " WHERE " + Tasks._UID + " = " + Tables.PROPERTIES + "." + Relation.RELATED_UID + " LIMIT 1) WHERE %1$s";
+
+    /**
+     * Sets the {@link Relation#RELATED_UID} of relations that refer to a task by id, for all relations matching the selection in <code>%1$s</code>.
+     */
+    private final static String SQL_RESOLVE_UIDS = "UPDATE " + Tables.PROPERTIES + " SET " + Relation.RELATED_UID + " = (SELECT " + Tasks._UID + " FROM "
+            + Tables.TASKS + " WHERE " + Tasks._ID + " = " + Tables.PROPERTIES + "." + Relation.RELATED_ID + ") WHERE %1$s";
+
+    /**
+     * Copies the parent of a sibling to the owner of the sibling relation.
+     */
+    private final static String SQL_UPDATE_SIBLINGS = "UPDATE " + Tables.TASKS + " SET " + Tasks.PARENT_ID + " = (SELECT sibling." + Tasks.PARENT_ID
+            + " FROM " + Tables.PROPERTIES + " JOIN " + Tables.TASKS + " AS sibling ON (sibling." + Tasks._ID + " = " + Relation.RELATED_ID + ") WHERE "
+            + RELATION_SELECTION + " AND " + Relation.RELATED_TYPE + " = " + RelType.SIBLING.ordinal() + " AND " + Properties.TASK_ID + " = " + Tables.TASKS
+            + "." + Tasks._ID + " LIMIT 1) WHERE " + Tasks._ID + " IN (SELECT " + Properties.TASK_ID + " FROM " + Tables.PROPERTIES + " WHERE "
+            + RELATION_SELECTION + " AND " + Relation.RELATED_TYPE + " = " + RelType.SIBLING.ordinal() + " AND " + Relation.RELATED_ID + " NOT NULL AND "
+            + Properties.TASK_ID + " IN (%1$s))";
+
+    /**
+     * Sets the parent of the owner of a parent relation.
+     */
+    private final static String SQL_UPDATE_PARENTS = "UPDATE " + Tables.TASKS + " SET " + Tasks.PARENT_ID + " = (SELECT " + Relation.RELATED_ID + " FROM "
+            + Tables.PROPERTIES + " WHERE " + RELATION_SELECTION + " AND " + Relation.RELATED_TYPE + " = " + RelType.PARENT.ordinal() + " AND "
+            + Relation.RELATED_ID + " NOT NULL AND " + Properties.TASK_ID + " = " + Tables.TASKS + "." + Tasks._ID + " LIMIT 1) WHERE " + Tasks._ID
+            + " IN (SELECT " + Properties.TASK_ID + " FROM " + Tables.PROPERTIES + " WHERE " + RELATION_SELECTION + " AND " + Relation.RELATED_TYPE + " = "
+            + RelType.PARENT.ordinal() + " AND " + Relation.RELATED_ID + " NOT NULL AND " + Properties.TASK_ID + " IN (%1$s))";
+
+    /**
+     * Sets the parent of the targets of child relations.
+     */
+    private final static String SQL_UPDATE_CHILDREN = "UPDATE " + Tables.TASKS + " SET " + Tasks.PARENT_ID + " = (SELECT " + Properties.TASK_ID + " FROM "
+            + Tables.PROPERTIES + " WHERE " + RELATION_SELECTION + " AND " + Relation.RELATED_TYPE + " = " + RelType.CHILD.ordinal() + " AND "
+            + Relation.RELATED_ID + " = " + Tables.TASKS + "." + Tasks._ID + " AND " + Properties.TASK_ID + " IN (%1$s) LIMIT 1) WHERE " + Tasks._ID
+            + " IN (SELECT " + Relation.RELATED_ID + " FROM " + Tables.PROPERTIES + " WHERE " + RELATION_SELECTION + " AND " + Relation.RELATED_TYPE + " = "
+            + RelType.CHILD.ordinal() + " AND " + Properties.TASK_ID + " IN (%1$s))";
+
+    /**
+     * The pending work of the current transaction or <code>null</code> if nothing is pending.
+     */
+    private final static ThreadLocal<Pending> PENDING = new ThreadLocal<Pending>();
+
+
+    /**
+     * The relations to resolve before a transaction is committed.
+     */
+    private final static class Pending
+    {
+        /**
+         * The ids of the tasks with relations that have been written.
+         */
+        final Set<Long> owners = new HashSet<Long>(16);
+
+        /**
+         * The UIDs that have been assigned to tasks.
+         */
+        final Set<String> uids = new HashSet<String>(16);
+
+        /**
+         * The ids of the tasks that have been assigned a UID.
+         */
+        final Set<Long> uidTasks = new HashSet<Long>(16);
+    }
+
+
+    /**
+     * Records that the relations of the given task need to be resolved before the current transaction is committed.
+     *
+     * @param taskId
+     *         The row id of the task that owns the relations.
+     */
+    public static void markPending(long taskId)
+    {
+        pending().owners.add(taskId);
+    }
+
+
+    /**
+     * Records that relations referring to the given task need to be resolved before the current transaction is committed, because the task has been
+     * inserted with a UID or has been assigned a new UID.
+     *
+     * @param taskId
+     *         The row id of the task.
+     * @param uid
+     *         The new UID of the task.
+     */
+    public static void markUidChanged(long taskId, String uid)
+    {
+        Pending pending = pending();
+        pending.uids.add(uid);
+        pending.uidTasks.add(taskId);
+    }
+
+
+    /**
+     * Resolves all pending relations. Call this right before the transaction is committed.
+     *
+     * @param db
+     *         A writable {@link SQLiteDatabase}.
+     */
+    public static void resolve(SQLiteDatabase db)
+    {
+        Pending pending = PENDING.get();
+        if (pending == null)
+        {
+            // nothing to do
+            return;
+        }
+        PENDING.remove();
+
+        Set<Long> taskIds = pending.owners;
+
+        List<String> uids = new ArrayList<String>(pending.uids);
+        for (int start = 0, count = uids.size(); start < count; start += MAX_IDS)
+        {
+            List<String> chunk = uids.subList(start, Math.min(count, start + MAX_IDS));
+            String selection = String.format(UNRESOLVED_UID_SELECTION, placeholders(chunk.size()));
+            String[] args = chunk.toArray(new String[chunk.size()]);
+
+            // the owners of relations that can be resolved by UID now need to update their parents as well
+            Cursor cursor = db.query(true, Tables.PROPERTIES, new String[] { Properties.TASK_ID }, selection, args, null, null, null, null);
+            try
+            {
+                while (cursor.moveToNext())
+                {
+                    taskIds.add(cursor.getLong(0));
+                }
+            }
+            finally
+            {
+                cursor.close();
+            }
+
+            db.execSQL(String.format(SQL_RESOLVE_IDS, selection), args);
+        }
+
+        List<Long> uidTaskIds = new ArrayList<Long>(pending.uidTasks);
+        for (int start = 0, count = uidTaskIds.size(); start < count; start += MAX_IDS)
+        {
+            // by-id references to tasks with a new UID
+            db.execSQL(String.format(SQL_RESOLVE_UIDS, RELATION_SELECTION + " AND " + Relation.RELATED_ID + " IN (" + idList(
+                    uidTaskIds.subList(start, Math.min(count, start + MAX_IDS))) + ")"));
+        }
+
+        List<Long> ids = new ArrayList<Long>(taskIds);
+        for (int start = 0, count = ids.size(); start < count; start += MAX_IDS)
+        {
+            String idList = idList(ids.subList(start, Math.min(count, start + MAX_IDS)));
+            // the relations that have been written may refer to tasks that are known by now
+            String ownerSelection = RELATION_SELECTION + " AND " + Properties.TASK_ID + " IN (" + idList + ")";
+            db.execSQL(String.format(SQL_RESOLVE_IDS, ownerSelection + " AND " + Relation.RELATED_ID + " IS NULL AND " + Relation.RELATED_UID + " NOT NULL"));
+            db.execSQL(String.format(SQL_RESOLVE_UIDS, ownerSelection + " AND " + Relation.RELATED_ID + " NOT NULL"));
+
+            // siblings first, an explicit parent relation takes precedence
+            db.execSQL(String.format(SQL_UPDATE_SIBLINGS, idList));
+            db.execSQL(String.format(SQL_UPDATE_PARENTS, idList));
+            db.execSQL(String.format(SQL_UPDATE_CHILDREN, idList));
+        }
+    }
+
+
+    /**
+     * Drops all pending relations of the current thread. Call this when a transaction has been rolled back.
+     */
+    public static void clear()
+    {
+        PENDING.remove();
+    }
+
+
+    private static Pending pending()
+    {
+        Pending pending = PENDING.get();
+        if (pending == null)
+        {
+            pending = new Pending();
+            PENDING.set(pending);
+        }
+        return pending;
+    }
+
+
+    private static String placeholders(int count)
+    {
+        StringBuilder result = new StringBuilder(count * 2);
+        for (int i = 0; i < count; ++i)
+        {
+            result.append(i > 0 ? ",?" : "?");
+        }
+        return result.toString();
+    }
+
+
+    private static String idList(List<Long> ids)
+    {
+        StringBuilder result = new StringBuilder(ids.size() * 8);
+        for (Long id : ids)
+        {
+            if (result.length() > 0)
+            {
+                result.append(',');
+            }
+            result.append(id);
+        }
+        return result.toString();
+    }
+}
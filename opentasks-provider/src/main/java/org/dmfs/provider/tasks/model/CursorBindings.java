@@ -0,0 +1,82 @@
+/*
+ * Copyright 2017 dmfs GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dmfs.provider.tasks.model;
+
+import android.database.Cursor;
+
+import org.dmfs.provider.tasks.model.adapters.BoundFieldAdapter;
+import org.dmfs.provider.tasks.model.adapters.FieldAdapter;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+
+/**
+ * The {@link FieldAdapter}s bound to a specific {@link Cursor}. Each {@link FieldAdapter} is bound on first use, so its columns are looked up only once for
+ * all rows of the cursor. Create one instance per cursor and share it among all the entity adapters of that cursor.
+ *
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+public final class CursorBindings
+{
+    private final Cursor mCursor;
+    private final Map<FieldAdapter<?, ?>, BoundFieldAdapter<?>> mBindings = new IdentityHashMap<FieldAdapter<?, ?>, BoundFieldAdapter<?>>(32);
+
+
+    /**
+     * Creates the bindings for the given {@link Cursor}.
+     *
+     * @param cursor
+     *         The {@link Cursor}, may be <code>null</code>.
+     */
+    public CursorBindings(Cursor cursor)
+    {
+        mCursor = cursor;
+    }
+
+
+    /**
+     * Returns the {@link Cursor} of these bindings.
+     *
+     * @return The {@link Cursor} or <code>null</code>.
+     */
+    public Cursor cursor()
+    {
+        return mCursor;
+    }
+
+
+    /**
+     * Returns the given {@link FieldAdapter} bound to the {@link Cursor}.
+     *
+     * @param fieldAdapter
+     *         The {@link FieldAdapter} to bind.
+     *
+     * @return A {@link BoundFieldAdapter}.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> BoundFieldAdapter<T> of(FieldAdapter<T, ?> fieldAdapter)
+    {
+        BoundFieldAdapter<T> result = (BoundFieldAdapter<T>) mBindings.get(fieldAdapter);
+        if (result == null)
+        {
+            result = fieldAdapter.bind(mCursor);
+            mBindings.put(fieldAdapter, result);
+        }
+        return result;
+    }
+}
@@ -31,14 +31,30 @@ import org.dmfs.tasks.contract.TaskContract;
 public class CursorContentValuesListAdapter extends AbstractListAdapter
 {
     private final long mId;
-    private final Cursor mCursor;
+    private final CursorBindings mBindings;
     private final ContentValues mValues;
 
 
     public CursorContentValuesListAdapter(long id, Cursor cursor, ContentValues values)
+    {
+        this(id, new CursorBindings(cursor), values);
+    }
+
+
+    /**
+     * Creates a {@link ListAdapter} for the current row of a cursor. Pass the same {@link CursorBindings} for all rows of the cursor.
+     *
+     * @param id
+     *         The row id of the list.
+     * @param bindings
+     *         The {@link CursorBindings} of the cursor.
+     * @param values
+     *         The {@link ContentValues} that receive the changes.
+     */
+    public CursorContentValuesListAdapter(long id, CursorBindings bindings, ContentValues values)
     {
         mId = id;
-        mCursor = cursor;
+        mBindings = bindings;
         mValues = values;
     }
 
@@ -53,14 +69,14 @@ public class CursorContentValuesListAdapter extends AbstractListAdapter
     @Override
     public <T> T valueOf(FieldAdapter<T, ListAdapter> fieldAdapter)
     {
-        return fieldAdapter.getFrom(mCursor, mValues);
+        return mBindings.of(fieldAdapter).value(mValues);
     }
 
 
     @Override
     public <T> T oldValueOf(FieldAdapter<T, ListAdapter> fieldAdapter)
     {
-        return fieldAdapter.getFrom(mCursor);
+        return mBindings.of(fieldAdapter).value();
     }
 
 
@@ -114,15 +130,16 @@ public class CursorContentValuesListAdapter extends AbstractListAdapter
     @Override
     public ListAdapter duplicate()
     {
+        Cursor cursor = mBindings.cursor();
         ContentValues newValues = new ContentValues(mValues);
 
         // copy all columns (except _ID) that are not in the values yet
-        for (int i = 0, count = mCursor.getColumnCount(); i < count; ++i)
+        for (int i = 0, count = cursor.getColumnCount(); i < count; ++i)
         {
-            String column = mCursor.getColumnName(i);
+            String column = cursor.getColumnName(i);
             if (!newValues.containsKey(column) && !TaskContract.Tasks._ID.equals(column))
             {
-                newValues.put(column, mCursor.getString(i));
+                newValues.put(column, cursor.getString(i));
             }
         }
 
@@ -34,29 +34,59 @@ import org.dmfs.tasks.contract.TaskContract;
 public class CursorContentValuesTaskAdapter extends AbstractTaskAdapter
 {
     private final long mId;
-    private final Cursor mCursor;
+    private final CursorBindings mBindings;
     private final ContentValues mValues;
 
 
     public CursorContentValuesTaskAdapter(Cursor cursor, ContentValues values)
     {
-        if (cursor == null && !_ID.existsIn(values))
+        this(new CursorBindings(cursor), values);
+    }
+
+
+    /**
+     * Creates a {@link TaskAdapter} for the current row of a cursor. Pass the same {@link CursorBindings} for all rows of the cursor.
+     *
+     * @param bindings
+     *         The {@link CursorBindings} of the cursor.
+     * @param values
+     *         The {@link ContentValues} that receive the changes, may be <code>null</code>.
+     */
+    public CursorContentValuesTaskAdapter(CursorBindings bindings, ContentValues values)
+    {
+        mBindings = bindings;
+        if (bindings.cursor() == null && !_ID.existsIn(values))
         {
             mId = -1L;
         }
         else
         {
-            mId = _ID.getFrom(cursor);
+            mId = bindings.of(_ID).value();
         }
-        mCursor = cursor;
         mValues = values;
     }
 
 
     public CursorContentValuesTaskAdapter(long id, Cursor cursor, ContentValues values)
+    {
+        this(id, new CursorBindings(cursor), values);
+    }
+
+
+    /**
+     * Creates a {@link TaskAdapter} for the current row of a cursor. Pass the same {@link CursorBindings} for all rows of the cursor.
+     *
+     * @param id
+     *         The row id of the task.
+     * @param bindings
+     *         The {@link CursorBindings} of the cursor.
+     * @param values
+     *         The {@link ContentValues} that receive the changes, may be <code>null</code>.
+     */
+    public CursorContentValuesTaskAdapter(long id, CursorBindings bindings, ContentValues values)
     {
         mId = id;
-        mCursor = cursor;
+        mBindings = bindings;
         mValues = values;
     }
 
@@ -73,16 +103,16 @@ public class CursorContentValuesTaskAdapter extends AbstractTaskAdapter
     {
         if (mValues == null)
         {
-            return fieldAdapter.getFrom(mCursor);
+            return mBindings.of(fieldAdapter).value();
         }
-        return fieldAdapter.getFrom(mCursor, mValues);
+        return mBindings.of(fieldAdapter).value(mValues);
     }
 
 
     @Override
     public <T> T oldValueOf(FieldAdapter<T, TaskAdapter> fieldAdapter)
     {
-        return fieldAdapter.getFrom(mCursor);
+        return mBindings.of(fieldAdapter).value();
     }
 
 
@@ -136,15 +166,16 @@ public class CursorContentValuesTaskAdapter extends AbstractTaskAdapter
     @Override
     public TaskAdapter duplicate()
     {
+        Cursor cursor = mBindings.cursor();
         ContentValues newValues = new ContentValues(mValues);
 
         // copy all columns (except _ID) that are not in the values yet
-        for (int i = 0, count = mCursor.getColumnCount(); i < count; ++i)
+        for (int i = 0, count = cursor.getColumnCount(); i < count; ++i)
         {
-            String column = mCursor.getColumnName(i);
+            String column = cursor.getColumnName(i);
             if (!newValues.containsKey(column) && !TaskContract.Tasks._ID.equals(column))
             {
-                newValues.put(column, mCursor.getString(i));
+                newValues.put(column, cursor.getString(i));
             }
         }
 
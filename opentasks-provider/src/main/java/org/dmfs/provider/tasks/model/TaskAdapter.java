@@ -71,6 +71,12 @@ public interface TaskAdapter extends EntityAdapter<TaskAdapter>
      */
     public final static StringFieldAdapter<TaskAdapter> ORIGINAL_INSTANCE_SYNC_ID = new StringFieldAdapter<TaskAdapter>(Tasks.ORIGINAL_INSTANCE_SYNC_ID);
 
+    /**
+     * Adapter for the original instance time of a task.
+     */
+    public final static DateTimeFieldAdapter<TaskAdapter> ORIGINAL_INSTANCE_TIME = new DateTimeFieldAdapter<TaskAdapter>(Tasks.ORIGINAL_INSTANCE_TIME,
+            Tasks.TZ, Tasks.ORIGINAL_INSTANCE_ALLDAY);
+
     /**
      * Adapter for the all day flag of a task.
      */
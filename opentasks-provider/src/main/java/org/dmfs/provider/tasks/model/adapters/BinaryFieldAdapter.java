@@ -68,14 +68,9 @@ public final class BinaryFieldAdapter<EntityType> extends SimpleFieldAdapter<byt
 
 
     @Override
-    public byte[] getFrom(Cursor cursor)
+    byte[] getFrom(Cursor cursor, int[] columnIdx)
     {
-        int columnIdx = cursor.getColumnIndex(mFieldName);
-        if (columnIdx < 0)
-        {
-            throw new IllegalArgumentException("The column '" + mFieldName + "' is missing in cursor.");
-        }
-        return cursor.isNull(columnIdx) ? null : cursor.getBlob(columnIdx);
+        return cursor.isNull(columnIdx[0]) ? null : cursor.getBlob(columnIdx[0]);
     }
 
 
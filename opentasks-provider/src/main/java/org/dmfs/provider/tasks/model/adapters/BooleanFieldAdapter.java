@@ -74,14 +74,9 @@ public final class BooleanFieldAdapter<EntityType> extends SimpleFieldAdapter<Bo
 
 
     @Override
-    public Boolean getFrom(Cursor cursor)
+    Boolean getFrom(Cursor cursor, int[] columnIdx)
     {
-        int columnIdx = cursor.getColumnIndex(mFieldName);
-        if (columnIdx < 0)
-        {
-            throw new IllegalArgumentException("The column '" + mFieldName + "' is missing in cursor.");
-        }
-        return !cursor.isNull(columnIdx) && cursor.getInt(columnIdx) > 0;
+        return !cursor.isNull(columnIdx[0]) && cursor.getInt(columnIdx[0]) > 0;
     }
 
 
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2017 dmfs GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dmfs.provider.tasks.model.adapters;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+
+
+/**
+ * A {@link FieldAdapter} that has been bound to a specific {@link Cursor}, see {@link FieldAdapter#bind(Cursor)}. The column indices have been resolved when
+ * the adapter was bound, so reading a value doesn't look up any columns by name.
+ *
+ * @param <FieldType>
+ *         The type of the value this adapter reads.
+ *
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+public interface BoundFieldAdapter<FieldType>
+{
+
+    /**
+     * Get the value from the current row of the bound {@link Cursor}.
+     *
+     * @return The value.
+     *
+     * @throws IllegalArgumentException
+     *         if a column of this field is missing in the cursor.
+     */
+    public FieldType value();
+
+    /**
+     * Get the value from the given {@link ContentValues} or the current row of the bound {@link Cursor}, with the {@link ContentValues} taking precedence
+     * over the cursor values.
+     *
+     * @param values
+     *         The {@link ContentValues} that contain the value to return, may be <code>null</code>.
+     *
+     * @return The value.
+     */
+    public FieldType value(ContentValues values);
+}
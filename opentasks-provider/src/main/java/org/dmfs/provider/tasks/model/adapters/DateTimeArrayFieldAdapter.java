@@ -106,15 +106,17 @@ public final class DateTimeArrayFieldAdapter<EntityType> extends SimpleFieldAdap
 
 
     @Override
-    public DateTime[] getFrom(Cursor cursor)
+    String[] columnNames()
     {
-        int tdLIdx = cursor.getColumnIndex(mDateTimeListFieldName);
-        int tzIdx = mTimeZoneFieldName == null ? -1 : cursor.getColumnIndex(mTimeZoneFieldName);
+        return new String[] { mDateTimeListFieldName, mTimeZoneFieldName };
+    }
 
-        if (tdLIdx < 0 || (mTimeZoneFieldName != null && tzIdx < 0))
-        {
-            throw new IllegalArgumentException("At least one column is missing in cursor.");
-        }
+
+    @Override
+    DateTime[] getFrom(Cursor cursor, int[] columnIdx)
+    {
+        int tdLIdx = columnIdx[0];
+        int tzIdx = columnIdx[1];
 
         if (cursor.isNull(tdLIdx))
         {
@@ -152,10 +154,10 @@ public final class DateTimeArrayFieldAdapter<EntityType> extends SimpleFieldAdap
 
 
     @Override
-    public DateTime[] getFrom(Cursor cursor, ContentValues values)
+    DateTime[] getFrom(Cursor cursor, int[] columnIdx, ContentValues values)
     {
-        int tsIdx;
-        int tzIdx;
+        int tsIdx = columnIdx[0];
+        int tzIdx = columnIdx[1];
         String datetimeList;
         String timeZoneId = null;
 
@@ -168,7 +170,7 @@ public final class DateTimeArrayFieldAdapter<EntityType> extends SimpleFieldAdap
             }
             datetimeList = values.getAsString(mDateTimeListFieldName);
         }
-        else if (cursor != null && (tsIdx = cursor.getColumnIndex(mDateTimeListFieldName)) >= 0)
+        else if (cursor != null && tsIdx >= 0)
         {
             if (cursor.isNull(tsIdx))
             {
@@ -188,7 +190,7 @@ public final class DateTimeArrayFieldAdapter<EntityType> extends SimpleFieldAdap
             {
                 timeZoneId = values.getAsString(mTimeZoneFieldName);
             }
-            else if (cursor != null && (tzIdx = cursor.getColumnIndex(mTimeZoneFieldName)) >= 0)
+            else if (cursor != null && tzIdx >= 0)
             {
                 timeZoneId = cursor.getString(tzIdx);
             }
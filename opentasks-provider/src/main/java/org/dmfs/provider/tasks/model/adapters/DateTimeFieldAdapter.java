@@ -109,16 +109,18 @@ public final class DateTimeFieldAdapter<EntityType> extends SimpleFieldAdapter<D
 
 
     @Override
-    public DateTime getFrom(Cursor cursor)
+    String[] columnNames()
     {
-        int tsIdx = cursor.getColumnIndex(mTimestampField);
-        int tzIdx = mTzField == null ? -1 : cursor.getColumnIndex(mTzField);
-        int adIdx = mAllDayField == null ? -1 : cursor.getColumnIndex(mAllDayField);
+        return new String[] { mTimestampField, mTzField, mAllDayField };
+    }
 
-        if (tsIdx < 0 || (mTzField != null && tzIdx < 0) || (mAllDayField != null && adIdx < 0))
-        {
-            throw new IllegalArgumentException("At least one column is missing in cursor.");
-        }
+
+    @Override
+    DateTime getFrom(Cursor cursor, int[] columnIdx)
+    {
+        int tsIdx = columnIdx[0];
+        int tzIdx = columnIdx[1];
+        int adIdx = columnIdx[2];
 
         if (cursor.isNull(tsIdx))
         {
@@ -144,11 +146,11 @@ public final class DateTimeFieldAdapter<EntityType> extends SimpleFieldAdapter<D
 
 
     @Override
-    public DateTime getFrom(Cursor cursor, ContentValues values)
+    DateTime getFrom(Cursor cursor, int[] columnIdx, ContentValues values)
     {
-        int tsIdx;
-        int tzIdx;
-        int adIdx;
+        int tsIdx = columnIdx[0];
+        int tzIdx = columnIdx[1];
+        int adIdx = columnIdx[2];
         long timestamp;
         String timeZoneId = null;
         Integer allDay = 0;
@@ -162,7 +164,7 @@ public final class DateTimeFieldAdapter<EntityType> extends SimpleFieldAdapter<D
             }
             timestamp = values.getAsLong(mTimestampField);
         }
-        else if (cursor != null && (tsIdx = cursor.getColumnIndex(mTimestampField)) >= 0)
+        else if (cursor != null && tsIdx >= 0)
         {
             if (cursor.isNull(tsIdx))
             {
@@ -182,7 +184,7 @@ public final class DateTimeFieldAdapter<EntityType> extends SimpleFieldAdapter<D
             {
                 timeZoneId = values.getAsString(mTzField);
             }
-            else if (cursor != null && (tzIdx = cursor.getColumnIndex(mTzField)) >= 0)
+            else if (cursor != null && tzIdx >= 0)
             {
                 timeZoneId = cursor.getString(tzIdx);
             }
@@ -198,7 +200,7 @@ public final class DateTimeFieldAdapter<EntityType> extends SimpleFieldAdapter<D
             {
                 allDay = values.getAsInteger(mAllDayField);
             }
-            else if (cursor != null && (adIdx = cursor.getColumnIndex(mAllDayField)) >= 0)
+            else if (cursor != null && adIdx >= 0)
             {
                 allDay = cursor.getInt(adIdx);
             }
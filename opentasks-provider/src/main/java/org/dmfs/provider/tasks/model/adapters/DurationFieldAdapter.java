@@ -73,20 +73,14 @@ public final class DurationFieldAdapter<EntityType> extends SimpleFieldAdapter<D
 
 
     @Override
-    public Duration getFrom(Cursor cursor)
+    Duration getFrom(Cursor cursor, int[] columnIdx)
     {
-        int columnIdx = cursor.getColumnIndex(mFieldName);
-        if (columnIdx < 0)
-        {
-            throw new IllegalArgumentException("The column '" + mFieldName + "' is missing in cursor.");
-        }
-
-        if (cursor.isNull(columnIdx))
+        if (cursor.isNull(columnIdx[0]))
         {
             return null;
         }
 
-        return Duration.parse(cursor.getString(columnIdx));
+        return Duration.parse(cursor.getString(columnIdx[0]));
     }
 
 
@@ -83,6 +83,17 @@ public interface FieldAdapter<FieldType, EntitType>
      */
     public FieldType getFrom(Cursor cursor);
 
+    /**
+     * Binds this adapter to the given {@link Cursor}. The returned {@link BoundFieldAdapter} resolves the column indices only once, so it's much cheaper to
+     * read the value from many rows of the same cursor. Missing columns are not reported before a value is read.
+     *
+     * @param cursor
+     *         The {@link Cursor} to read the value from, may be <code>null</code> if the values will always be taken from {@link ContentValues}.
+     *
+     * @return A {@link BoundFieldAdapter} for the given cursor.
+     */
+    public BoundFieldAdapter<FieldType> bind(Cursor cursor);
+
     /**
      * Check if a value is present and non-<code>null</code> in the given {@link Cursor} or {@link ContentValues}.
      *
@@ -68,14 +68,9 @@ public final class FloatFieldAdapter<EntityType> extends SimpleFieldAdapter<Floa
 
 
     @Override
-    public Float getFrom(Cursor cursor)
+    Float getFrom(Cursor cursor, int[] columnIdx)
     {
-        int columnIdx = cursor.getColumnIndex(mFieldName);
-        if (columnIdx < 0)
-        {
-            throw new IllegalArgumentException("The column '" + mFieldName + "' is missing in cursor.");
-        }
-        return cursor.isNull(columnIdx) ? null : cursor.getFloat(columnIdx);
+        return cursor.isNull(columnIdx[0]) ? null : cursor.getFloat(columnIdx[0]);
     }
 
 
@@ -69,14 +69,9 @@ public final class IntegerFieldAdapter<EntityType> extends SimpleFieldAdapter<In
 
 
     @Override
-    public Integer getFrom(Cursor cursor)
+    Integer getFrom(Cursor cursor, int[] columnIdx)
     {
-        int columnIdx = cursor.getColumnIndex(mFieldName);
-        if (columnIdx < 0)
-        {
-            throw new IllegalArgumentException("The column '" + mFieldName + "' is missing in cursor.");
-        }
-        return cursor.isNull(columnIdx) ? null : cursor.getInt(columnIdx);
+        return cursor.isNull(columnIdx[0]) ? null : cursor.getInt(columnIdx[0]);
     }
 
 
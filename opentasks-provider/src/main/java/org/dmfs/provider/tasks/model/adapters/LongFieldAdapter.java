@@ -68,14 +68,9 @@ public final class LongFieldAdapter<EntityType> extends SimpleFieldAdapter<Long,
 
 
     @Override
-    public Long getFrom(Cursor cursor)
+    Long getFrom(Cursor cursor, int[] columnIdx)
     {
-        int columnIdx = cursor.getColumnIndex(mFieldName);
-        if (columnIdx < 0)
-        {
-            throw new IllegalArgumentException("The column '" + mFieldName + "' is missing in cursor.");
-        }
-        return cursor.isNull(columnIdx) ? null : cursor.getLong(columnIdx);
+        return cursor.isNull(columnIdx[0]) ? null : cursor.getLong(columnIdx[0]);
     }
 
 
@@ -83,25 +83,20 @@ public final class RRuleFieldAdapter<EntityType> extends SimpleFieldAdapter<Recu
 
 
     @Override
-    public RecurrenceRule getFrom(Cursor cursor)
+    RecurrenceRule getFrom(Cursor cursor, int[] columnIdx)
     {
-        int columnIdx = cursor.getColumnIndex(mFieldName);
-        if (columnIdx < 0)
-        {
-            throw new IllegalArgumentException("The column '" + mFieldName + "' is missing in cursor.");
-        }
-        if (cursor.isNull(columnIdx))
+        if (cursor.isNull(columnIdx[0]))
         {
             return null;
         }
 
         try
         {
-            return new RecurrenceRule(cursor.getString(columnIdx));
+            return new RecurrenceRule(cursor.getString(columnIdx[0]));
         }
         catch (InvalidRecurrenceRuleException e)
         {
-            throw new IllegalArgumentException("can not parse RRULE '" + cursor.getString(columnIdx) + "'", e);
+            throw new IllegalArgumentException("can not parse RRULE '" + cursor.getString(columnIdx[0]) + "'", e);
         }
     }
 
@@ -41,6 +41,87 @@ public abstract class SimpleFieldAdapter<FieldType, EntityType> implements Field
     abstract String fieldName();
 
 
+    /**
+     * Returns the names of all columns this adapter reads from a {@link Cursor}. An entry may be <code>null</code> if the adapter has been configured to not
+     * use that column. By default this contains just the {@link #fieldName()}.
+     *
+     * @return An array of column names.
+     */
+    String[] columnNames()
+    {
+        return new String[] { fieldName() };
+    }
+
+
+    /**
+     * Get the value from the current row of the given {@link Cursor}.
+     *
+     * @param cursor
+     *         The {@link Cursor} that contains the value to return.
+     * @param columnIdx
+     *         The indices of the {@link #columnNames()} in the cursor. All columns with a name are guaranteed to exist.
+     *
+     * @return The value.
+     */
+    abstract FieldType getFrom(Cursor cursor, int[] columnIdx);
+
+
+    /**
+     * Get the value from the given {@link Cursor} or {@link ContentValues}, with the {@link ContentValues} taking precedence over the cursor values.
+     * <p>
+     * The default implementation returns the value from the {@link ContentValues} if they contain the {@link #fieldName()}. Adapters of multiple columns
+     * should override this.
+     *
+     * @param cursor
+     *         The {@link Cursor} that contains the value to return, may be <code>null</code>.
+     * @param columnIdx
+     *         The indices of the {@link #columnNames()} in the cursor or <code>-1</code> for missing columns.
+     * @param values
+     *         The {@link ContentValues} that contain the value to return, may be <code>null</code>.
+     *
+     * @return The value.
+     */
+    FieldType getFrom(Cursor cursor, int[] columnIdx, ContentValues values)
+    {
+        return values != null && values.containsKey(fieldName()) ? getFrom(values) : getFrom(cursor, checkColumns(columnIdx));
+    }
+
+
+    @Override
+    public final BoundFieldAdapter<FieldType> bind(final Cursor cursor)
+    {
+        final int[] columnIdx = columnIndices(cursor);
+        // validate the columns once, reading a value doesn't need to look at the column names again
+        final String missingColumn = missingColumn(columnIdx);
+        return new BoundFieldAdapter<FieldType>()
+        {
+            @Override
+            public FieldType value()
+            {
+                if (missingColumn != null)
+                {
+                    throw new IllegalArgumentException("The column '" + missingColumn + "' is missing in cursor.");
+                }
+                return getFrom(cursor, columnIdx);
+            }
+
+
+            @Override
+            public FieldType value(ContentValues values)
+            {
+                return getFrom(cursor, columnIdx, values);
+            }
+        };
+    }
+
+
+    @Override
+    public FieldType getFrom(Cursor cursor)
+    {
+        return getFrom(cursor, checkColumns(columnIndices(cursor)));
+    }
+
+
     @Override
     public boolean existsIn(ContentValues values)
     {
@@ -71,7 +152,7 @@ public abstract class SimpleFieldAdapter<FieldType, EntityType> implements Field
     @Override
     public FieldType getFrom(Cursor cursor, ContentValues values)
     {
-        return values.containsKey(fieldName()) ? getFrom(values) : getFrom(cursor);
+        return getFrom(cursor, columnIndices(cursor), values);
     }
 
 
@@ -102,4 +183,52 @@ public abstract class SimpleFieldAdapter<FieldType, EntityType> implements Field
         setIn(newValues, getFrom(oldValues));
     }
 
+
+    /**
+     * Returns the indices of the {@link #columnNames()} in the given {@link Cursor}, <code>-1</code> for missing columns.
+     */
+    private int[] columnIndices(Cursor cursor)
+    {
+        String[] columnNames = columnNames();
+        int[] result = new int[columnNames.length];
+        for (int i = 0; i < columnNames.length; ++i)
+        {
+            result[i] = cursor == null || columnNames[i] == null ? -1 : cursor.getColumnIndex(columnNames[i]);
+        }
+        return result;
+    }
+
+
+    /**
+     * Checks that all columns with a name exist.
+     *
+     * @return The given column indices.
+     */
+    final int[] checkColumns(int[] columnIdx)
+    {
+        String missingColumn = missingColumn(columnIdx);
+        if (missingColumn != null)
+        {
+            throw new IllegalArgumentException("The column '" + missingColumn + "' is missing in cursor.");
+        }
+        return columnIdx;
+    }
+
+
+    /**
+     * Returns the name of the first column with a name that doesn't exist or <code>null</code> if all of them exist.
+     */
+    private String missingColumn(int[] columnIdx)
+    {
+        String[] columnNames = columnNames();
+        for (int i = 0; i < columnNames.length; ++i)
+        {
+            if (columnNames[i] != null && columnIdx[i] < 0)
+            {
+                return columnNames[i];
+            }
+        }
+        return null;
+    }
+
 }
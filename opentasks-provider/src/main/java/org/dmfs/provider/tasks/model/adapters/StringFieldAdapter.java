@@ -69,14 +69,9 @@ public final class StringFieldAdapter<EntityType> extends SimpleFieldAdapter<Str
 
 
     @Override
-    public String getFrom(Cursor cursor)
+    String getFrom(Cursor cursor, int[] columnIdx)
     {
-        int columnIdx = cursor.getColumnIndex(mFieldName);
-        if (columnIdx < 0)
-        {
-            throw new IllegalArgumentException("The column '" + mFieldName + "' is missing in cursor.");
-        }
-        return cursor.getString(columnIdx);
+        return cursor.getString(columnIdx[0]);
     }
 
 
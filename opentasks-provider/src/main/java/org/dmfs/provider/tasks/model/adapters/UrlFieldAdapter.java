@@ -68,15 +68,9 @@ public final class UrlFieldAdapter<EntityType> extends SimpleFieldAdapter<URI, E
 
 
     @Override
-    public URI getFrom(Cursor cursor)
+    URI getFrom(Cursor cursor, int[] columnIdx)
     {
-        int columnIdx = cursor.getColumnIndex(mFieldName);
-        if (columnIdx < 0)
-        {
-            throw new IllegalArgumentException("The column '" + mFieldName + "' is missing in cursor.");
-        }
-
-        return cursor.isNull(columnIdx) ? null : URI.create(cursor.getString(columnIdx));
+        return cursor.isNull(columnIdx[0]) ? null : URI.create(cursor.getString(columnIdx[0]));
     }
 
 
@@ -20,6 +20,8 @@ import android.database.sqlite.SQLiteDatabase;
 
 import org.dmfs.provider.tasks.model.EntityAdapter;
 
+import java.util.Set;
+
 
 /**
  * A default implementation of {@link EntityProcessor} that does nothing. It can be used as the basis of concrete {@link EntityProcessor}s without having to
@@ -70,4 +72,12 @@ public abstract class AbstractEntityProcessor<T extends EntityAdapter<?>> implem
         // the default implementation doesn't do anything
     }
 
+
+    @Override
+    public Set<String> updateInterests(boolean isSyncAdapter)
+    {
+        // we don't know what subclasses do, so they have to see all updates
+        return null;
+    }
+
 }
@@ -20,6 +20,8 @@ import android.database.sqlite.SQLiteDatabase;
 
 import org.dmfs.provider.tasks.model.EntityAdapter;
 
+import java.util.Set;
+
 
 /**
  * EntityProcessors are called before and after any operation on an entity. They can be used to perform additional operations for each entity.
@@ -114,4 +116,20 @@ public interface EntityProcessor<T extends EntityAdapter<?>>
      * @param isSyncAdapter
      */
     public void afterDelete(SQLiteDatabase db, T entityAdapter, boolean isSyncAdapter);
+
+    /**
+     * Returns the names of the columns this processor needs to see when they are updated.
+     * <p>
+     * If an update doesn't contain any of the columns returned by any processor, the provider may apply the update to all matching entities with a single
+     * statement, without calling {@link #beforeUpdate(SQLiteDatabase, EntityAdapter, boolean)} and {@link #afterUpdate(SQLiteDatabase, EntityAdapter,
+     * boolean)} of any processor.
+     * </p>
+     *
+     * @param isSyncAdapter
+     *         <code>true</code> if the update is performed by a sync adapter, false otherwise.
+     *
+     * @return A {@link Set} of column names, an empty {@link Set} if this processor doesn't have any update logic or <code>null</code> if this processor must
+     * see every update.
+     */
+    public Set<String> updateInterests(boolean isSyncAdapter);
 }
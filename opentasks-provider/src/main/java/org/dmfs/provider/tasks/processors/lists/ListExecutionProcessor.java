@@ -19,10 +19,14 @@ package org.dmfs.provider.tasks.processors.lists;
 import android.database.sqlite.SQLiteDatabase;
 
 import org.dmfs.provider.tasks.TaskDatabaseHelper.Tables;
+import org.dmfs.provider.tasks.TaskListCache;
 import org.dmfs.provider.tasks.model.ListAdapter;
 import org.dmfs.provider.tasks.processors.AbstractEntityProcessor;
 import org.dmfs.tasks.contract.TaskContract;
 
+import java.util.Collections;
+import java.util.Set;
+
 
 /**
  * A processor that performs the actual operations on task lists.
@@ -36,6 +40,7 @@ public class ListExecutionProcessor extends AbstractEntityProcessor<ListAdapter>
     public void beforeInsert(SQLiteDatabase db, ListAdapter list, boolean isSyncAdapter)
     {
         list.commit(db);
+        TaskListCache.invalidate();
     }
 
 
@@ -43,6 +48,7 @@ public class ListExecutionProcessor extends AbstractEntityProcessor<ListAdapter>
     public void beforeUpdate(SQLiteDatabase db, ListAdapter list, boolean isSyncAdapter)
     {
         list.commit(db);
+        TaskListCache.invalidate();
     }
 
 
@@ -50,5 +56,14 @@ public class ListExecutionProcessor extends AbstractEntityProcessor<ListAdapter>
     public void beforeDelete(SQLiteDatabase db, ListAdapter list, boolean isSyncAdapter)
     {
         db.delete(Tables.LISTS, TaskContract.TaskLists._ID + "=" + list.id(), null);
+        TaskListCache.invalidate();
+    }
+
+
+    @Override
+    public Set<String> updateInterests(boolean isSyncAdapter)
+    {
+        // committing the values is all we do on update
+        return Collections.emptySet();
     }
 }
@@ -21,6 +21,12 @@ import android.text.TextUtils;
 
 import org.dmfs.provider.tasks.model.ListAdapter;
 import org.dmfs.provider.tasks.processors.AbstractEntityProcessor;
+import org.dmfs.tasks.contract.TaskContract.TaskLists;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
 
 
 /**
@@ -30,6 +36,24 @@ import org.dmfs.provider.tasks.processors.AbstractEntityProcessor;
  */
 public class ListValidatorProcessor extends AbstractEntityProcessor<ListAdapter>
 {
+    /**
+     * The columns that are validated when a sync adapter updates a list.
+     */
+    private final static Set<String> SYNC_ADAPTER_UPDATE_INTERESTS = Collections.unmodifiableSet(new HashSet<String>(Arrays.asList(TaskLists._ID,
+            TaskLists.ACCOUNT_NAME, TaskLists.ACCOUNT_TYPE)));
+
+    /**
+     * The columns that are validated when any other caller updates a list.
+     */
+    private final static Set<String> UPDATE_INTERESTS;
+
+    static
+    {
+        Set<String> interests = new HashSet<String>(SYNC_ADAPTER_UPDATE_INTERESTS);
+        interests.addAll(Arrays.asList(TaskLists.LIST_COLOR, TaskLists.LIST_NAME, TaskLists._SYNC_ID, TaskLists.SYNC_VERSION, TaskLists.OWNER));
+        UPDATE_INTERESTS = Collections.unmodifiableSet(interests);
+    }
+
     @Override
     public void beforeInsert(SQLiteDatabase db, ListAdapter list, boolean isSyncAdapter)
     {
@@ -69,6 +93,13 @@ public class ListValidatorProcessor extends AbstractEntityProcessor<ListAdapter>
     }
 
 
+    @Override
+    public Set<String> updateInterests(boolean isSyncAdapter)
+    {
+        return isSyncAdapter ? SYNC_ADAPTER_UPDATE_INTERESTS : UPDATE_INTERESTS;
+    }
+
+
     @Override
     public void beforeDelete(SQLiteDatabase db, ListAdapter list, boolean isSyncAdapter)
     {
@@ -28,6 +28,11 @@ import org.dmfs.rfc5545.DateTime;
 import org.dmfs.tasks.contract.TaskContract;
 import org.dmfs.tasks.contract.TaskContract.Tasks;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
 
 /**
  * A processor to adjust some task values automatically.
@@ -45,6 +50,13 @@ public class AutoUpdateProcessor extends AbstractEntityProcessor<TaskAdapter>
     private static final String SYNC_ID_SELECTION = Tasks._SYNC_ID + "=?";
     private static final String TASK_ID_SELECTION = Tasks._ID + "=?";
 
+    /**
+     * The columns this processor needs to see when a sync adapter updates a task. Updates by other callers always change the dirty flag and the
+     * modification time.
+     */
+    private static final Set<String> SYNC_ADAPTER_UPDATE_INTERESTS = Collections.unmodifiableSet(new HashSet<String>(Arrays.asList(Tasks.PRIORITY,
+            Tasks.ORIGINAL_INSTANCE_SYNC_ID, Tasks.ORIGINAL_INSTANCE_ID, Tasks.PERCENT_COMPLETE, Tasks.STATUS, Tasks._SYNC_ID)));
+
 
     @Override
     public void beforeInsert(SQLiteDatabase db, TaskAdapter task, boolean isSyncAdapter)
@@ -93,6 +105,13 @@ public class AutoUpdateProcessor extends AbstractEntityProcessor<TaskAdapter>
     }
 
 
+    @Override
+    public Set<String> updateInterests(boolean isSyncAdapter)
+    {
+        return isSyncAdapter ? SYNC_ADAPTER_UPDATE_INTERESTS : null;
+    }
+
+
     private void updateFields(SQLiteDatabase db, TaskAdapter task, boolean isSyncAdapter)
     {
         if (!isSyncAdapter)
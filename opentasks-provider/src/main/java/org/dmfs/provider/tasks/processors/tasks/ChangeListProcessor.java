@@ -21,11 +21,15 @@ import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 
 import org.dmfs.provider.tasks.TaskDatabaseHelper;
+import org.dmfs.provider.tasks.model.CursorBindings;
 import org.dmfs.provider.tasks.model.CursorContentValuesTaskAdapter;
 import org.dmfs.provider.tasks.model.TaskAdapter;
 import org.dmfs.provider.tasks.processors.AbstractEntityProcessor;
 import org.dmfs.tasks.contract.TaskContract;
 
+import java.util.Collections;
+import java.util.Set;
+
 
 /**
  * This processor makes sure that changing the list a task belongs is properly handled by sync adapters. This is achieved by emulating an atomic copy & delete
@@ -102,13 +106,14 @@ public class ChangeListProcessor extends AbstractEntityProcessor<TaskAdapter>
         if (task.isRecurring() || task.valueOf(TaskAdapter.ORIGINAL_INSTANCE_ID) != null)
         {
             // This task is recurring and may have exceptions or it's an exception itself. Move all (other) exceptions to the new list.
-            Cursor c = db.query(TaskDatabaseHelper.Tables.TASKS, null, TaskContract.Tasks.ORIGINAL_INSTANCE_ID + "=" + newMasterId + " and "
-                    + TaskContract.Tasks._ID + "!=" + task.id(), null, null, null, null);
+            Cursor c = db.query(TaskDatabaseHelper.Tables.TASKS, null, TaskContract.Tasks.ORIGINAL_INSTANCE_ID + "=" + newMasterId
+                    + " and " + TaskContract.Tasks._ID + "!=" + task.id(), null, null, null, null);
+            CursorBindings bindings = new CursorBindings(c);
             try
             {
                 while (c.moveToNext())
                 {
-                    moveTask(db, new CursorContentValuesTaskAdapter(c, new ContentValues(16)), oldList, newList, deletedMasterId, true);
+                    moveTask(db, new CursorContentValuesTaskAdapter(bindings, new ContentValues(16)), oldList, newList, deletedMasterId, true);
                 }
             }
             finally
@@ -120,6 +125,14 @@ public class ChangeListProcessor extends AbstractEntityProcessor<TaskAdapter>
     }
 
 
+    @Override
+    public Set<String> updateInterests(boolean isSyncAdapter)
+    {
+        // sync-adapters have to implement the move logic themselves
+        return isSyncAdapter ? Collections.<String>emptySet() : Collections.singleton(TaskContract.Tasks.LIST_ID);
+    }
+
+
     private Long moveTask(SQLiteDatabase db, TaskAdapter task, long oldList, long newList, Long deletedOriginalId, boolean commitTask)
     {
         /*
@@ -16,31 +16,112 @@
 
 package org.dmfs.provider.tasks.processors.tasks;
 
+import android.content.ContentValues;
 import android.database.sqlite.SQLiteDatabase;
 
 import org.dmfs.provider.tasks.FTSDatabaseHelper;
 import org.dmfs.provider.tasks.model.TaskAdapter;
+import org.dmfs.provider.tasks.model.adapters.BooleanFieldAdapter;
 import org.dmfs.provider.tasks.processors.AbstractEntityProcessor;
+import org.dmfs.tasks.contract.TaskContract.Tasks;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
 
 
 /**
  * A {@link TaskProcessor} to update the fast text search table when inserting or updating a task.
+ * <p>
+ * If requested via {@link #addDeferRequest(ContentValues)} the task is only added to the queue of pending index updates. The queue is processed in the
+ * background.
  *
  * @author Marten Gajda <marten@dmfs.org>
  */
 public class FtsProcessor extends AbstractEntityProcessor<TaskAdapter>
 {
 
+    /**
+     * This is a field adapter for a pseudo column to indicate that the search index should be updated in the background.
+     */
+    private final static BooleanFieldAdapter<TaskAdapter> DEFER_REQUESTED = new BooleanFieldAdapter<TaskAdapter>(
+            "org.dmfs.tasks.FtsProcessor.DEFER_REQUESTED");
+
+    /**
+     * The searchable columns of a task.
+     */
+    private final static Set<String> UPDATE_INTERESTS = Collections.unmodifiableSet(new HashSet<String>(Arrays.asList(Tasks.TITLE, Tasks.LOCATION,
+            Tasks.DESCRIPTION)));
+
+
+    /**
+     * Add a pseudo column to the given {@link ContentValues} to request that the search index of the task is updated in the background.
+     *
+     * @param values
+     *         The {@link ContentValues} to add the pseudo column to.
+     */
+    public static void addDeferRequest(ContentValues values)
+    {
+        DEFER_REQUESTED.setIn(values, true);
+    }
+
+
+    @Override
+    public void beforeInsert(SQLiteDatabase db, TaskAdapter task, boolean isSyncAdapter)
+    {
+        moveDeferRequestToState(task);
+    }
+
+
     @Override
     public void afterInsert(SQLiteDatabase db, TaskAdapter task, boolean isSyncAdapter)
     {
-        FTSDatabaseHelper.updateTaskFTSEntries(db, task);
+        if (task.getState(DEFER_REQUESTED))
+        {
+            FTSDatabaseHelper.deferTaskFTSEntries(db, task.id());
+        }
+        else
+        {
+            FTSDatabaseHelper.updateTaskFTSEntries(db, task);
+        }
+    }
+
+
+    @Override
+    public void beforeUpdate(SQLiteDatabase db, TaskAdapter task, boolean isSyncAdapter)
+    {
+        moveDeferRequestToState(task);
     }
 
 
     @Override
     public void afterUpdate(SQLiteDatabase db, TaskAdapter task, boolean isSyncAdapter)
     {
-        FTSDatabaseHelper.updateTaskFTSEntries(db, task);
+        if (!task.getState(DEFER_REQUESTED))
+        {
+            FTSDatabaseHelper.updateTaskFTSEntries(db, task);
+        }
+        else if (task.isUpdated(TaskAdapter.TITLE) || task.isUpdated(TaskAdapter.LOCATION) || task.isUpdated(TaskAdapter.DESCRIPTION))
+        {
+            FTSDatabaseHelper.deferTaskFTSEntries(db, task.id());
+        }
+    }
+
+
+    @Override
+    public Set<String> updateInterests(boolean isSyncAdapter)
+    {
+        return UPDATE_INTERESTS;
+    }
+
+
+    private void moveDeferRequestToState(TaskAdapter task)
+    {
+        if (task.isUpdated(DEFER_REQUESTED))
+        {
+            task.setState(DEFER_REQUESTED, task.valueOf(DEFER_REQUESTED));
+            task.unset(DEFER_REQUESTED);
+        }
     }
 }
@@ -0,0 +1,426 @@
+/*
+ * Copyright 2017 dmfs GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dmfs.provider.tasks.processors.tasks;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import org.dmfs.provider.tasks.TaskDatabaseHelper.Tables;
+import org.dmfs.provider.tasks.model.CursorBindings;
+import org.dmfs.provider.tasks.model.CursorContentValuesTaskAdapter;
+import org.dmfs.provider.tasks.model.TaskAdapter;
+import org.dmfs.rfc5545.DateTime;
+import org.dmfs.rfc5545.Duration;
+import org.dmfs.rfc5545.recur.RecurrenceRule;
+import org.dmfs.rfc5545.recurrenceset.RecurrenceList;
+import org.dmfs.rfc5545.recurrenceset.RecurrenceRuleAdapter;
+import org.dmfs.rfc5545.recurrenceset.RecurrenceSet;
+import org.dmfs.rfc5545.recurrenceset.RecurrenceSetIterator;
+import org.dmfs.tasks.contract.TaskContract.Instances;
+import org.dmfs.tasks.contract.TaskContract.Tasks;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+
+
+/**
+ * Materializes the instances of recurring tasks into the instances table.
+ * <p>
+ * Instances are expanded into a rolling window that starts {@link #WINDOW_PAST_MONTHS} months before and ends {@link #WINDOW_FUTURE_MONTHS} months after the
+ * current month. The window boundaries are aligned to the beginning of a month, so all expansions within the same month use the same window. The first
+ * instance of a recurring task is always materialized, even if it's outside of the window.
+ *
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+public final class InstanceExpander
+{
+    /**
+     * The number of months before the current month to expand instances for.
+     */
+    public final static int WINDOW_PAST_MONTHS = 1;
+
+    /**
+     * The number of months after the current month to expand instances for.
+     */
+    public final static int WINDOW_FUTURE_MONTHS = 12;
+
+    /**
+     * The maximum number of instances we materialize per task and expansion. This protects us from rules with a very high frequency.
+     */
+    public final static int MAX_INSTANCES = 1000;
+
+    private final static String LAST_INSTANCE = "last_instance";
+
+    private final static String SQL_INSERT_INSTANCE = "INSERT INTO " + Tables.INSTANCES + " (" + Instances.TASK_ID + ", " + Instances.INSTANCE_START + ", "
+            + Instances.INSTANCE_START_SORTING + ", " + Instances.INSTANCE_DUE + ", " + Instances.INSTANCE_DUE_SORTING + ", " + Instances.INSTANCE_DURATION
+            + ", " + Instances.INSTANCE_ORIGINAL_TIME + ") VALUES (?, ?, ?, ?, ?, ?, ?)";
+
+    private final static String SQL_SELECT_RECURRING_TASKS = "SELECT " + Tables.TASKS + ".*, (SELECT max(" + Instances.INSTANCE_ORIGINAL_TIME + ") FROM "
+            + Tables.INSTANCES + " WHERE " + Instances.TASK_ID + " = " + Tables.TASKS + "." + Tasks._ID + ") AS " + LAST_INSTANCE + " FROM " + Tables.TASKS
+            + " WHERE (" + Tasks.RRULE + " NOT NULL OR " + Tasks.RDATE + " NOT NULL) AND " + Tasks._DELETED + " = 0";
+
+    private final static String SQL_PRUNE_INSTANCES = "DELETE FROM " + Tables.INSTANCES + " WHERE " + Instances.INSTANCE_ORIGINAL_TIME + " < ? AND "
+            + Instances.INSTANCE_ORIGINAL_TIME + " > (SELECT min(i." + Instances.INSTANCE_ORIGINAL_TIME + ") FROM " + Tables.INSTANCES + " i WHERE i."
+            + Instances.TASK_ID + " = " + Tables.INSTANCES + "." + Instances.TASK_ID + ")";
+
+
+    private InstanceExpander()
+    {
+    }
+
+
+    /**
+     * Returns the start of the expansion window.
+     *
+     * @return The timestamp of the first moment in the current expansion window.
+     */
+    public static long windowStart()
+    {
+        return monthStart(-WINDOW_PAST_MONTHS);
+    }
+
+
+    /**
+     * Returns the end of the expansion window.
+     *
+     * @return The timestamp of the first moment after the current expansion window.
+     */
+    public static long windowEnd()
+    {
+        return monthStart(WINDOW_FUTURE_MONTHS + 1);
+    }
+
+
+    private static long monthStart(int monthOffset)
+    {
+        Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        calendar.set(Calendar.DAY_OF_MONTH, 1);
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        calendar.add(Calendar.MONTH, monthOffset);
+        return calendar.getTimeInMillis();
+    }
+
+
+    /**
+     * Inserts all instances of the given recurring task into the instances table, starting with the first instance of the recurrence set up to the end of the
+     * current expansion window.
+     *
+     * @param db
+     *         The writable database.
+     * @param task
+     *         The recurring task to expand.
+     *
+     * @return The number of instances that have been inserted.
+     */
+    public static int expand(SQLiteDatabase db, TaskAdapter task)
+    {
+        return expand(db, task, Long.MIN_VALUE, windowEnd());
+    }
+
+
+    /**
+     * Inserts all instances of the given recurring task that are after the given time and before the given end into the instances table. In addition, the
+     * first instance of the recurrence set is always inserted, if no lower bound has been given.
+     *
+     * @param db
+     *         The writable database.
+     * @param task
+     *         The recurring task to expand.
+     * @param after
+     *         Only instances after this timestamp are inserted, pass {@link Long#MIN_VALUE} to start with the first instance.
+     * @param until
+     *         Only instances before this timestamp are inserted.
+     *
+     * @return The number of instances that have been inserted.
+     */
+    public static int expand(SQLiteDatabase db, TaskAdapter task, long after, long until)
+    {
+        DateTime dtstart = task.valueOf(TaskAdapter.DTSTART);
+        DateTime due = task.valueOf(TaskAdapter.DUE);
+        DateTime anchor = dtstart != null ? dtstart : due;
+
+        if (anchor == null)
+        {
+            // nothing to expand, this case should be filtered by TaskValidatorProcessor
+            return 0;
+        }
+
+        Duration duration = task.valueOf(TaskAdapter.DURATION);
+        long offset = dtstart != null && due != null ? due.getTimestamp() - dtstart.getTimestamp() : 0;
+
+        RecurrenceSetIterator iterator = recurrenceSet(db, task, anchor).iterator(anchor.getTimeZone(), anchor.getTimestamp());
+
+        long windowStart = windowStart();
+        TimeZone localTz = TimeZone.getDefault();
+        SQLiteStatement statement = db.compileStatement(SQL_INSERT_INSTANCE);
+        int count = 0;
+        try
+        {
+            if (after == Long.MIN_VALUE && iterator.hasNext())
+            {
+                // always insert the first instance, then skip everything before the window
+                insertInstance(statement, task.id(), dtstart, due, duration, offset, iterator.next(), anchor, localTz);
+                count++;
+                after = windowStart - 1;
+            }
+
+            iterator.fastForward(after + 1);
+
+            while (iterator.hasNext() && count < MAX_INSTANCES)
+            {
+                long instance = iterator.next();
+                if (instance >= until)
+                {
+                    break;
+                }
+                if (instance <= after)
+                {
+                    continue;
+                }
+                insertInstance(statement, task.id(), dtstart, due, duration, offset, instance, anchor, localTz);
+                count++;
+            }
+        }
+        finally
+        {
+            statement.close();
+        }
+        return count;
+    }
+
+
+    /**
+     * Extends the instances of all recurring tasks to the given end of the expansion window and removes any instances before the start of the window (except
+     * for the first instance of each task).
+     *
+     * @param db
+     *         The writable database.
+     * @param until
+     *         The end of the new expansion window.
+     *
+     * @return The number of instances that have been inserted.
+     */
+    public static int extendAll(SQLiteDatabase db, long until)
+    {
+        long windowStart = windowStart();
+        int count = 0;
+        Cursor cursor = db.rawQuery(SQL_SELECT_RECURRING_TASKS, null);
+        CursorBindings bindings = new CursorBindings(cursor);
+        try
+        {
+            int lastInstanceIdx = cursor.getColumnIndex(LAST_INSTANCE);
+            while (cursor.moveToNext())
+            {
+                TaskAdapter task = new CursorContentValuesTaskAdapter(bindings, null);
+                if (cursor.isNull(lastInstanceIdx))
+                {
+                    // not expanded yet
+                    count += expand(db, task, Long.MIN_VALUE, until);
+                }
+                else
+                {
+                    count += expand(db, task, Math.max(cursor.getLong(lastInstanceIdx), windowStart - 1), until);
+                }
+            }
+        }
+        finally
+        {
+            cursor.close();
+        }
+
+        db.execSQL(SQL_PRUNE_INSTANCES, new Object[] { windowStart });
+        return count;
+    }
+
+
+    /**
+     * Removes the instance of the master task that has been replaced by the given exception.
+     *
+     * @param db
+     *         The writable database.
+     * @param exception
+     *         The {@link TaskAdapter} of an exception.
+     */
+    public static void removeOverriddenInstance(SQLiteDatabase db, TaskAdapter exception)
+    {
+        Long originalId = exception.valueOf(TaskAdapter.ORIGINAL_INSTANCE_ID);
+        DateTime originalTime = exception.valueOf(TaskAdapter.ORIGINAL_INSTANCE_TIME);
+        if (originalId == null || originalTime == null)
+        {
+            return;
+        }
+        db.delete(Tables.INSTANCES, Instances.TASK_ID + " = " + originalId + " AND " + Instances.INSTANCE_ORIGINAL_TIME + " = " + originalTime.getTimestamp(),
+                null);
+    }
+
+
+    /**
+     * Expands the instances of the given master task again. Call this when an exception of the task has been removed or no longer overrides the same instance,
+     * so the instance it used to override is restored.
+     *
+     * @param db
+     *         The writable database.
+     * @param masterId
+     *         The row id of the master task.
+     */
+    public static void reexpand(SQLiteDatabase db, long masterId)
+    {
+        Cursor cursor = db.query(Tables.TASKS, null, Tasks._ID + " = " + masterId + " AND " + Tasks._DELETED + " = 0", null, null, null, null);
+        try
+        {
+            if (cursor.moveToFirst())
+            {
+                TaskAdapter master = new CursorContentValuesTaskAdapter(cursor, null);
+                if (master.isRecurring())
+                {
+                    db.delete(Tables.INSTANCES, Instances.TASK_ID + " = " + masterId, null);
+                    expand(db, master);
+                }
+            }
+        }
+        finally
+        {
+            cursor.close();
+        }
+    }
+
+
+    private static RecurrenceSet recurrenceSet(SQLiteDatabase db, TaskAdapter task, DateTime anchor)
+    {
+        RecurrenceSet set = new RecurrenceSet();
+
+        RecurrenceRule rrule = task.valueOf(TaskAdapter.RRULE);
+        if (rrule != null)
+        {
+            set.addInstances(new RecurrenceRuleAdapter(rrule));
+        }
+        else
+        {
+            // without an RRULE the start is not part of the instances
+            set.addInstances(new RecurrenceList(new long[] { anchor.getTimestamp() }));
+        }
+
+        DateTime[] rdates = task.valueOf(TaskAdapter.RDATE);
+        if (rdates != null && rdates.length > 0)
+        {
+            set.addInstances(new RecurrenceList(timestamps(rdates)));
+        }
+
+        DateTime[] exdates = task.valueOf(TaskAdapter.EXDATE);
+        if (exdates != null && exdates.length > 0)
+        {
+            set.addExceptions(new RecurrenceList(timestamps(exdates)));
+        }
+
+        // instances that have been overridden by exceptions are not expanded
+        long[] overridden = overriddenInstances(db, task.id());
+        if (overridden.length > 0)
+        {
+            set.addExceptions(new RecurrenceList(overridden));
+        }
+        return set;
+    }
+
+
+    private static long[] overriddenInstances(SQLiteDatabase db, long masterId)
+    {
+        Cursor cursor = db.query(Tables.TASKS, new String[] { Tasks.ORIGINAL_INSTANCE_TIME }, Tasks.ORIGINAL_INSTANCE_ID + " = " + masterId + " AND "
+                + Tasks.ORIGINAL_INSTANCE_TIME + " NOT NULL", null, null, null, null);
+        try
+        {
+            long[] result = new long[cursor.getCount()];
+            int i = 0;
+            while (cursor.moveToNext())
+            {
+                result[i++] = cursor.getLong(0);
+            }
+            return result;
+        }
+        finally
+        {
+            cursor.close();
+        }
+    }
+
+
+    private static long[] timestamps(DateTime[] dateTimes)
+    {
+        long[] result = new long[dateTimes.length];
+        for (int i = 0, count = dateTimes.length; i < count; ++i)
+        {
+            result[i] = dateTimes[i].getTimestamp();
+        }
+        return result;
+    }
+
+
+    private static void insertInstance(SQLiteStatement statement, long taskId, DateTime dtstart, DateTime due, Duration duration, long offset, long instance,
+                                       DateTime anchor, TimeZone localTz)
+    {
+        DateTime instanceAnchor = anchor.isAllDay() ? new DateTime(DateTime.UTC, instance).toAllDay() : new DateTime(
+                anchor.getTimeZone() == null ? DateTime.UTC : anchor.getTimeZone(), instance);
+
+        DateTime instanceStart = null;
+        DateTime instanceDue = null;
+
+        if (dtstart != null)
+        {
+            instanceStart = instanceAnchor;
+            if (due != null)
+            {
+                instanceDue = due.isAllDay() ? new DateTime(DateTime.UTC, instance + offset).toAllDay() : new DateTime(due.getTimeZone(), instance + offset);
+            }
+            else if (duration != null)
+            {
+                instanceDue = instanceStart.addDuration(duration);
+            }
+        }
+        else
+        {
+            instanceDue = instanceAnchor;
+        }
+
+        statement.clearBindings();
+        statement.bindLong(1, taskId);
+        if (instanceStart != null)
+        {
+            statement.bindLong(2, instanceStart.getTimestamp());
+            statement.bindLong(3, sortingValue(instanceStart, localTz));
+        }
+        if (instanceDue != null)
+        {
+            statement.bindLong(4, instanceDue.getTimestamp());
+            statement.bindLong(5, sortingValue(instanceDue, localTz));
+            if (instanceStart != null)
+            {
+                statement.bindLong(6, instanceDue.getTimestamp() - instanceStart.getTimestamp());
+            }
+        }
+        statement.bindLong(7, instance);
+        statement.executeInsert();
+    }
+
+
+    private static long sortingValue(DateTime dateTime, TimeZone localTz)
+    {
+        return dateTime.isAllDay() ? dateTime.getInstance() : dateTime.shiftTimeZone(localTz).getInstance();
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright 2017 dmfs GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dmfs.provider.tasks.processors.tasks;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import org.dmfs.provider.tasks.TaskDatabaseHelper.Tables;
+import org.dmfs.rfc5545.DateTime;
+import org.dmfs.tasks.contract.TaskContract.Instances;
+import org.dmfs.tasks.contract.TaskContract.Tasks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TimeZone;
+
+
+/**
+ * Recomputes the {@link Instances#INSTANCE_START_SORTING} and {@link Instances#INSTANCE_DUE_SORTING} values of all instances after the local time zone has
+ * been changed.
+ * <p>
+ * The sorting value of a timed instance is its wall time in the local time zone, no matter which time zone the task has been stored in. All-day instances
+ * don't depend on the local time zone, so only timed instances are loaded. The new values are written with a few set based statements and only for rows that
+ * actually changed. Unlike a regular update of the tasks this doesn't touch the tasks themselves, so no dirty flags, search index entries or other derived
+ * data are updated.
+ *
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+public final class InstanceSorting
+{
+    /**
+     * The maximum number of instances to update with a single statement. Each instance takes 5 arguments, so this stays well below the argument limit of
+     * SQLite.
+     */
+    private final static int MAX_ROWS = 150;
+
+    private final static String SQL_SELECT_TIMED_INSTANCES = "SELECT i." + Instances._ID + ", i." + Instances.INSTANCE_START + ", i."
+            + Instances.INSTANCE_START_SORTING + ", i." + Instances.INSTANCE_DUE + ", i." + Instances.INSTANCE_DUE_SORTING + " FROM " + Tables.INSTANCES
+            + " AS i JOIN " + Tables.TASKS + " AS t ON (t." + Tasks._ID + " = i." + Instances.TASK_ID + ") WHERE ifnull(t." + Tasks.IS_ALLDAY + ", 0) = 0";
+
+
+    private InstanceSorting()
+    {
+    }
+
+
+    /**
+     * Updates the sorting values of all instances to the given local time zone.
+     *
+     * @param db
+     *         A writable {@link SQLiteDatabase}.
+     * @param localTz
+     *         The new local {@link TimeZone}.
+     *
+     * @return The number of instances that have been updated.
+     */
+    public static int update(SQLiteDatabase db, TimeZone localTz)
+    {
+        List<Long> changed = new ArrayList<Long>(256);
+        List<Long[]> values = new ArrayList<Long[]>(256);
+
+        Cursor cursor = db.rawQuery(SQL_SELECT_TIMED_INSTANCES, null);
+        try
+        {
+            while (cursor.moveToNext())
+            {
+                Long startSorting = sortingValue(cursor, 1, localTz);
+                Long dueSorting = sortingValue(cursor, 3, localTz);
+                if (!equal(cursor, 2, startSorting) || !equal(cursor, 4, dueSorting))
+                {
+                    changed.add(cursor.getLong(0));
+                    values.add(new Long[] { startSorting, dueSorting });
+                }
+            }
+        }
+        finally
+        {
+            cursor.close();
+        }
+
+        int count = changed.size();
+        SQLiteStatement statement = null;
+        try
+        {
+            for (int start = 0; start < count; start += MAX_ROWS)
+            {
+                int rows = Math.min(MAX_ROWS, count - start);
+                if (rows == MAX_ROWS)
+                {
+                    // all full chunks share the same statement
+                    if (statement == null)
+                    {
+                        statement = db.compileStatement(updateSql(MAX_ROWS));
+                    }
+                    Object[] args = args(changed, values, start, rows);
+                    statement.clearBindings();
+                    for (int i = 0; i < args.length; ++i)
+                    {
+                        if (args[i] == null)
+                        {
+                            statement.bindNull(i + 1);
+                        }
+                        else
+                        {
+                            statement.bindLong(i + 1, (Long) args[i]);
+                        }
+                    }
+                    statement.execute();
+                }
+                else
+                {
+                    db.execSQL(updateSql(rows), args(changed, values, start, rows));
+                }
+            }
+        }
+        finally
+        {
+            if (statement != null)
+            {
+                statement.close();
+            }
+        }
+        return count;
+    }
+
+
+    private static Long sortingValue(Cursor cursor, int column, TimeZone localTz)
+    {
+        if (cursor.isNull(column))
+        {
+            return null;
+        }
+        // the time zone of the task doesn't matter, the sorting value is the local wall time of the instance
+        return new DateTime(localTz, cursor.getLong(column)).getInstance();
+    }
+
+
+    private static boolean equal(Cursor cursor, int column, Long value)
+    {
+        return cursor.isNull(column) ? value == null : value != null && cursor.getLong(column) == value;
+    }
+
+
+    private static Object[] args(List<Long> ids, List<Long[]> values, int start, int rows)
+    {
+        Object[] args = new Object[rows * 5];
+        for (int i = 0; i < rows; ++i)
+        {
+            Long id = ids.get(start + i);
+            Long[] sorting = values.get(start + i);
+            args[i * 2] = id;
+            args[i * 2 + 1] = sorting[0];
+            args[rows * 2 + i * 2] = id;
+            args[rows * 2 + i * 2 + 1] = sorting[1];
+            args[rows * 4 + i] = id;
+        }
+        return args;
+    }
+
+
+    private static String updateSql(int rows)
+    {
+        StringBuilder sql = new StringBuilder(128 + rows * 32);
+        sql.append("UPDATE ").append(Tables.INSTANCES).append(" SET ").append(Instances.INSTANCE_START_SORTING).append(" = CASE ").append(Instances._ID);
+        appendCases(sql, rows);
+        sql.append(" END, ").append(Instances.INSTANCE_DUE_SORTING).append(" = CASE ").append(Instances._ID);
+        appendCases(sql, rows);
+        sql.append(" END WHERE ").append(Instances._ID).append(" IN (");
+        for (int i = 0; i < rows; ++i)
+        {
+            sql.append(i > 0 ? ", ?" : "?");
+        }
+        return sql.append(")").toString();
+    }
+
+
+    private static void appendCases(StringBuilder sql, int rows)
+    {
+        for (int i = 0; i < rows; ++i)
+        {
+            sql.append(" WHEN ? THEN ?");
+        }
+    }
+}
@@ -16,26 +16,29 @@
 
 package org.dmfs.provider.tasks.processors.tasks;
 
-import android.content.ContentValues;
 import android.database.sqlite.SQLiteDatabase;
 
 import org.dmfs.provider.tasks.TaskDatabaseHelper;
+import org.dmfs.provider.tasks.handler.RelationResolver;
 import org.dmfs.provider.tasks.model.TaskAdapter;
 import org.dmfs.provider.tasks.processors.AbstractEntityProcessor;
 import org.dmfs.tasks.contract.TaskContract.Property.Relation;
 import org.dmfs.tasks.contract.TaskContract.Tasks;
 
+import java.util.Collections;
+import java.util.Set;
+
 
 /**
  * A processor that updates relations for new tasks.
  * <p>
  * In general there is no guarantee that a related task is already in the database when a task is inserted. In such a case we can not set the
- * {@link Relation#RELATED_ID} value. This processor updates the {@link Relation#RELATED_ID} when a task is inserted.
+ * {@link Relation#RELATED_ID} value. This processor tells the {@link RelationResolver} to update the {@link Relation#RELATED_ID} and the {@link
+ * Tasks#PARENT_ID}s of the related tasks once the transaction is complete.
  * </p>
  * <p>
- * It also updates {@link Relation#RELATED_UID} when a tasks is synced the first time and a UID has been set.
+ * The same happens when a tasks is synced the first time and a UID has been set, so {@link Relation#RELATED_UID} can be updated.
  * </p>
- * TODO: update {@link Tasks#PARENT_ID} of related tasks.
  *
  * @author Marten Gajda <marten@dmfs.org>
  */
@@ -45,7 +48,7 @@ public class RelationProcessor extends AbstractEntityProcessor<TaskAdapter>
     @Override
     public void afterInsert(SQLiteDatabase db, TaskAdapter task, boolean isSyncAdapter)
     {
-        // A new task has been inserted by the sync adapter. Update all relations that point to this task.
+        // A new task has been inserted by the sync adapter. Relations that point to this task can be resolved now.
 
         if (!isSyncAdapter)
         {
@@ -54,14 +57,9 @@ public class RelationProcessor extends AbstractEntityProcessor<TaskAdapter>
         }
 
         String uid = task.valueOf(TaskAdapter._UID);
-
         if (uid != null)
         {
-            ContentValues v = new ContentValues(1);
-            v.put(Relation.RELATED_ID, task.id());
-
-            db.update(TaskDatabaseHelper.Tables.PROPERTIES, v, Relation.MIMETYPE + "= ? AND " + Relation.RELATED_UID + "=?", new String[] {
-                    Relation.CONTENT_ITEM_TYPE, uid });
+            RelationResolver.markUidChanged(task.id(), uid);
         }
     }
 
@@ -69,7 +67,7 @@ public class RelationProcessor extends AbstractEntityProcessor<TaskAdapter>
     @Override
     public void afterUpdate(SQLiteDatabase db, TaskAdapter task, boolean isSyncAdapter)
     {
-        // A task has been updated and may have received a UID by the sync adapter. Update all by-id references to this task.
+        // A task has been updated and may have received a UID by the sync adapter. By-id references to this task need the new UID.
 
         if (!isSyncAdapter)
         {
@@ -77,19 +75,28 @@ public class RelationProcessor extends AbstractEntityProcessor<TaskAdapter>
             return;
         }
 
-        String uid = task.valueOf(TaskAdapter._UID);
+        if (!task.isUpdated(TaskAdapter._UID))
+        {
+            // the UID didn't change, so all references are up to date
+            return;
+        }
 
+        String uid = task.valueOf(TaskAdapter._UID);
         if (uid != null)
         {
-            ContentValues v = new ContentValues(1);
-            v.put(Relation.RELATED_UID, uid);
-
-            db.update(TaskDatabaseHelper.Tables.PROPERTIES, v, Relation.MIMETYPE + "= ? AND " + Relation.RELATED_ID + "=?", new String[] {
-                    Relation.CONTENT_ITEM_TYPE, Long.toString(task.id()) });
+            RelationResolver.markUidChanged(task.id(), uid);
         }
     }
 
 
+    @Override
+    public Set<String> updateInterests(boolean isSyncAdapter)
+    {
+        // only sync adapters can assign a UID
+        return isSyncAdapter ? Collections.singleton(Tasks._UID) : Collections.<String>emptySet();
+    }
+
+
     @Override
     public void afterDelete(SQLiteDatabase db, TaskAdapter task, boolean isSyncAdapter)
     {
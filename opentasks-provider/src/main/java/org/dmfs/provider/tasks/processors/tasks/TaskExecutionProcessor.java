@@ -24,6 +24,9 @@ import org.dmfs.provider.tasks.processors.AbstractEntityProcessor;
 import org.dmfs.tasks.contract.TaskContract;
 import org.dmfs.tasks.contract.TaskContract.TaskColumns;
 
+import java.util.Collections;
+import java.util.Set;
+
 
 /**
  * A processor that perfomrs the actual operations on tasks.
@@ -64,4 +67,12 @@ public class TaskExecutionProcessor extends AbstractEntityProcessor<TaskAdapter>
             task.commit(db);
         }
     }
+
+
+    @Override
+    public Set<String> updateInterests(boolean isSyncAdapter)
+    {
+        // committing the values is all we do on update
+        return Collections.emptySet();
+    }
 }
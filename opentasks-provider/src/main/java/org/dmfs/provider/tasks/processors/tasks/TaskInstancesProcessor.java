@@ -18,7 +18,6 @@ package org.dmfs.provider.tasks.processors.tasks;
 
 import android.content.ContentValues;
 import android.database.sqlite.SQLiteDatabase;
-import android.net.Uri;
 
 import org.dmfs.provider.tasks.TaskDatabaseHelper.Tables;
 import org.dmfs.provider.tasks.model.TaskAdapter;
@@ -29,14 +28,15 @@ import org.dmfs.rfc5545.Duration;
 import org.dmfs.tasks.contract.TaskContract;
 import org.dmfs.tasks.contract.TaskContract.Instances;
 
-import java.sql.RowId;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.TimeZone;
 
 
 /**
- * A processor that creates or updates any instance values for a task.
- * <p/>
- * TODO: At present this does not support recurrence.
+ * A processor that creates or updates any instance values for a task. Recurring tasks are expanded by the {@link InstanceExpander}.
  *
  * @author Marten Gajda <marten@dmfs.org>
  */
@@ -50,6 +50,13 @@ public class TaskInstancesProcessor extends AbstractEntityProcessor<TaskAdapter>
     private final static BooleanFieldAdapter<TaskAdapter> UPDATE_REQUESTED = new BooleanFieldAdapter<TaskAdapter>(
             "org.dmfs.tasks.TaskInstanceProcessor.UPDATE_REQUESTED");
 
+    /**
+     * The columns the instances are derived from. The update request pseudo column is handled by the provider.
+     */
+    private final static Set<String> UPDATE_INTERESTS = Collections.unmodifiableSet(new HashSet<String>(Arrays.asList(Instances.DTSTART, Instances.DUE,
+            Instances.DURATION, Instances.TZ, Instances.IS_ALLDAY, Instances.RRULE, Instances.RDATE, Instances.EXDATE, Instances.ORIGINAL_INSTANCE_ID,
+            Instances.ORIGINAL_INSTANCE_SYNC_ID, Instances.ORIGINAL_INSTANCE_TIME)));
+
 
     /**
      * Add a pseudo column to the given {@link ContentValues} to request an instances update, even if no time value has changed.
@@ -85,13 +92,56 @@ public class TaskInstancesProcessor extends AbstractEntityProcessor<TaskAdapter>
     @Override
     public void afterUpdate(SQLiteDatabase db, TaskAdapter task, boolean isSyncAdapter)
     {
-        if (!task.isUpdated(TaskAdapter.DTSTART) && !task.isUpdated(TaskAdapter.DUE) && !task.isUpdated(TaskAdapter.DURATION)
-                && !task.getState(UPDATE_REQUESTED))
+        if (task.isUpdated(TaskAdapter.ORIGINAL_INSTANCE_ID) || task.isUpdated(TaskAdapter.ORIGINAL_INSTANCE_TIME))
+        {
+            // the exception may override another instance now, restore the old one and remove the new one
+            Long oldMasterId = task.oldValueOf(TaskAdapter.ORIGINAL_INSTANCE_ID);
+            Long masterId = task.valueOf(TaskAdapter.ORIGINAL_INSTANCE_ID);
+            if (oldMasterId != null)
+            {
+                InstanceExpander.reexpand(db, oldMasterId);
+            }
+            if (masterId != null && !masterId.equals(oldMasterId))
+            {
+                InstanceExpander.reexpand(db, masterId);
+            }
+        }
+
+        if (!task.recurrenceUpdated() && !task.getState(UPDATE_REQUESTED))
         {
             // date values didn't change and update not requested
             return;
         }
-        updateInstances(db, task);
+
+        if (task.isRecurring() || task.oldValueOf(TaskAdapter.RRULE) != null || task.oldValueOf(TaskAdapter.RDATE) != null)
+        {
+            // the recurrence set may have changed, expand it again
+            db.delete(Tables.INSTANCES, TaskContract.Instances.TASK_ID + " = " + task.id(), null);
+            createInstances(db, task);
+        }
+        else
+        {
+            updateInstances(db, task);
+        }
+    }
+
+
+    @Override
+    public void afterDelete(SQLiteDatabase db, TaskAdapter task, boolean isSyncAdapter)
+    {
+        Long masterId = task.valueOf(TaskAdapter.ORIGINAL_INSTANCE_ID);
+        if (masterId != null)
+        {
+            // restore the instance the exception has overridden, unless it has only been marked as deleted and still exists
+            InstanceExpander.reexpand(db, masterId);
+        }
+    }
+
+
+    @Override
+    public Set<String> updateInterests(boolean isSyncAdapter)
+    {
+        return UPDATE_INTERESTS;
     }
 
 
@@ -169,20 +219,26 @@ public class TaskInstancesProcessor extends AbstractEntityProcessor<TaskAdapter>
 
 
     /**
-     * Creates new instances for the given task {@link ContentValues}.
-     * <p>
-     * TODO: expand recurrence
-     * </p>
+     * Creates new instances for the given task. Recurring tasks are expanded into the current expansion window.
      *
-     * @param uri
-     *         The {@link Uri} used when inserting the task.
-     * @param values
-     *         The {@link ContentValues} of the task.
-     * @param rowId
-     *         The new {@link RowId} of the task.
+     * @param db
+     *         The writable database.
+     * @param task
+     *         The {@link TaskAdapter} of the task.
      */
     private void createInstances(SQLiteDatabase db, TaskAdapter task)
     {
+        if (task.isRecurring() && InstanceExpander.expand(db, task) > 0)
+        {
+            return;
+        }
+
+        if (task.valueOf(TaskAdapter.ORIGINAL_INSTANCE_ID) != null)
+        {
+            // this is an exception, it replaces an instance of the master task
+            InstanceExpander.removeOverriddenInstance(db, task);
+        }
+
         ContentValues instanceValues = generateInstanceValues(task);
 
         // set rowID of current Task
@@ -16,16 +16,19 @@
 
 package org.dmfs.provider.tasks.processors.tasks;
 
-import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 
-import org.dmfs.provider.tasks.TaskDatabaseHelper.Tables;
+import org.dmfs.provider.tasks.TaskListCache;
 import org.dmfs.provider.tasks.model.TaskAdapter;
 import org.dmfs.provider.tasks.processors.AbstractEntityProcessor;
 import org.dmfs.rfc5545.Duration;
-import org.dmfs.tasks.contract.TaskContract.TaskLists;
 import org.dmfs.tasks.contract.TaskContract.Tasks;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
 
 /**
  * A processor that validates the values of a task.
@@ -35,8 +38,25 @@ import org.dmfs.tasks.contract.TaskContract.Tasks;
 public class TaskValidatorProcessor extends AbstractEntityProcessor<TaskAdapter>
 {
 
-    private static final String[] TASKLIST_ID_PROJECTION = { TaskLists._ID };
-    private static final String TASKLISTS_ID_SELECTION = TaskLists._ID + "=";
+    /**
+     * The columns this processor validates or derives other values from.
+     */
+    private static final Set<String> SYNC_ADAPTER_UPDATE_INTERESTS = Collections.unmodifiableSet(new HashSet<String>(Arrays.asList(Tasks._ID,
+            Tasks.ACCOUNT_NAME, Tasks.ACCOUNT_TYPE, Tasks.LIST_COLOR, Tasks._DELETED, Tasks.IS_NEW, Tasks.IS_CLOSED, Tasks.HAS_PROPERTIES, Tasks.HAS_ALARMS,
+            Tasks.ORIGINAL_INSTANCE_SYNC_ID, Tasks.ORIGINAL_INSTANCE_ID, Tasks.CLASSIFICATION, Tasks.PRIORITY, Tasks.PERCENT_COMPLETE, Tasks.STATUS,
+            Tasks.DTSTART, Tasks.DUE, Tasks.DURATION, Tasks.TZ, Tasks.IS_ALLDAY)));
+
+    /**
+     * The columns this processor validates if the caller is not a sync adapter.
+     */
+    private static final Set<String> UPDATE_INTERESTS;
+
+    static
+    {
+        Set<String> interests = new HashSet<String>(SYNC_ADAPTER_UPDATE_INTERESTS);
+        interests.addAll(Arrays.asList(Tasks._UID, Tasks._DIRTY, Tasks.CREATED, Tasks.LAST_MODIFIED));
+        UPDATE_INTERESTS = Collections.unmodifiableSet(interests);
+    }
 
 
     @Override
@@ -51,24 +71,11 @@ public class TaskValidatorProcessor extends AbstractEntityProcessor<TaskAdapter>
             throw new IllegalArgumentException("LIST_ID is required on INSERT");
         }
 
-        // TODO: get rid of this query and use a cache instead
         // TODO: ensure that the list is writable unless the caller is a sync adapter
-        Cursor cursor = db.query(Tables.LISTS, TASKLIST_ID_PROJECTION, TASKLISTS_ID_SELECTION + listId, null, null, null, null);
-        try
+        if (TaskListCache.get(db, listId) == null)
         {
-            if (cursor == null || cursor.getCount() != 1)
-            {
-                throw new IllegalArgumentException("LIST_ID must refer to an existing TaskList");
-            }
+            throw new IllegalArgumentException("LIST_ID must refer to an existing TaskList");
         }
-        finally
-        {
-            if (cursor != null)
-            {
-                cursor.close();
-            }
-        }
-
     }
 
 
@@ -85,6 +92,13 @@ public class TaskValidatorProcessor extends AbstractEntityProcessor<TaskAdapter>
     }
 
 
+    @Override
+    public Set<String> updateInterests(boolean isSyncAdapter)
+    {
+        return isSyncAdapter ? SYNC_ADAPTER_UPDATE_INTERESTS : UPDATE_INTERESTS;
+    }
+
+
     /**
      * Performs tests that are common to insert an update operations.
      *
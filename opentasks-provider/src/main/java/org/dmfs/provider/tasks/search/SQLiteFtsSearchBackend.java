@@ -0,0 +1,354 @@
+/*
+ * Copyright 2017 dmfs GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dmfs.provider.tasks.search;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
+import android.text.TextUtils;
+
+import org.dmfs.provider.tasks.FTSDatabaseHelper.FTSContentColumns;
+import org.dmfs.provider.tasks.FTSDatabaseHelper.SearchableTypes;
+import org.dmfs.provider.tasks.TaskDatabaseHelper;
+import org.dmfs.provider.tasks.TaskDatabaseHelper.Tables;
+import org.dmfs.provider.tasks.TaskPurge;
+import org.dmfs.tasks.contract.TaskContract.Properties;
+import org.dmfs.tasks.contract.TaskContract.Tasks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+
+/**
+ * A {@link SearchBackend} that uses an SQLite full text search virtual table. Each searchable text of a task is stored in a row of the virtual table. The
+ * relation of the rows to the tasks is stored in a separate table, because virtual tables can't be searched efficiently by anything but the text.
+ * <p>
+ * In contrast to the n-gram index, a search term only matches words that start with the term. The score of a task is the fraction of the search terms that
+ * match any of its texts.
+ *
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+public final class SQLiteFtsSearchBackend implements SearchBackend
+{
+    /**
+     * The columns of the document table.
+     */
+    public interface DocumentColumns
+    {
+        /**
+         * The row id of the document. This is the docid of the text in {@link #FTS_TEXT_TABLE}.
+         */
+        public static final String DOCUMENT_ID = "fts_doc_id";
+
+        /**
+         * The searchable text, this column exists in {@link #FTS_TEXT_TABLE} only.
+         */
+        public static final String TEXT = "fts_text";
+    }
+
+
+    public static final String FTS_DOCUMENT_TABLE = "FTS_Document";
+    public static final String FTS_TEXT_TABLE = "FTS_Text";
+
+    /**
+     * The property id to use for task entries that don't belong to a property.
+     */
+    private final static long NO_PROPERTY = 0;
+
+    private final static String SQL_CREATE_DOCUMENT_TABLE = "CREATE TABLE " + FTS_DOCUMENT_TABLE + "( " + DocumentColumns.DOCUMENT_ID
+            + " Integer PRIMARY KEY AUTOINCREMENT, " + FTSContentColumns.TASK_ID + " Integer, " + FTSContentColumns.TYPE + " Integer, "
+            + FTSContentColumns.PROPERTY_ID + " Integer)";
+
+    private final static String SQL_CREATE_TEXT_TABLE = "CREATE VIRTUAL TABLE " + FTS_TEXT_TABLE + " USING %s (" + DocumentColumns.TEXT + ")";
+
+    private final static String SQL_CREATE_TASK_DELETE_TRIGGER = "CREATE TRIGGER fts_text_task_delete_trigger AFTER DELETE ON " + Tables.TASKS + " BEGIN "
+            + " DELETE FROM " + FTS_TEXT_TABLE + " WHERE docid IN (SELECT " + DocumentColumns.DOCUMENT_ID + " FROM " + FTS_DOCUMENT_TABLE + " WHERE "
+            + FTSContentColumns.TASK_ID + " = old." + Tasks._ID + "); DELETE FROM " + FTS_DOCUMENT_TABLE + " WHERE " + FTSContentColumns.TASK_ID + " = old."
+            + Tasks._ID + "; END";
+
+    private final static String SQL_CREATE_PROPERTY_DELETE_TRIGGER = "CREATE TRIGGER fts_text_property_delete_trigger AFTER DELETE ON " + Tables.PROPERTIES
+            + " BEGIN DELETE FROM " + FTS_TEXT_TABLE + " WHERE docid IN (SELECT "
+            + DocumentColumns.DOCUMENT_ID + " FROM " + FTS_DOCUMENT_TABLE + " WHERE "
+            + FTSContentColumns.TASK_ID + " = old." + Properties.TASK_ID + " AND " + FTSContentColumns.PROPERTY_ID + " = old." + Properties.PROPERTY_ID
+            + "); DELETE FROM " + FTS_DOCUMENT_TABLE + " WHERE " + FTSContentColumns.TASK_ID + " = old." + Properties.TASK_ID + " AND "
+            + FTSContentColumns.PROPERTY_ID + " = old." + Properties.PROPERTY_ID + "; END";
+
+    private final static String SQL_SELECT_DOCUMENT = "SELECT " + DocumentColumns.DOCUMENT_ID + " FROM " + FTS_DOCUMENT_TABLE + " WHERE "
+            + FTSContentColumns.TASK_ID + " = ? AND " + FTSContentColumns.TYPE + " = ? AND " + FTSContentColumns.PROPERTY_ID + " = ?";
+
+    private final static String SQL_INSERT_DOCUMENT = "INSERT INTO " + FTS_DOCUMENT_TABLE + " (" + FTSContentColumns.TASK_ID + ", " + FTSContentColumns.TYPE
+            + ", " + FTSContentColumns.PROPERTY_ID + ") VALUES (?, ?, ?)";
+
+    private final static String SQL_DELETE_DOCUMENT = "DELETE FROM " + FTS_DOCUMENT_TABLE + " WHERE " + DocumentColumns.DOCUMENT_ID + " = ?";
+
+    private final static String SQL_INSERT_TEXT = "INSERT INTO " + FTS_TEXT_TABLE + " (docid, " + DocumentColumns.TEXT + ") VALUES (?, ?)";
+
+    private final static String SQL_UPDATE_TEXT = "UPDATE " + FTS_TEXT_TABLE + " SET " + DocumentColumns.TEXT + " = ? WHERE docid = ?";
+
+    private final static String SQL_DELETE_TEXT = "DELETE FROM " + FTS_TEXT_TABLE + " WHERE docid = ?";
+
+    /**
+     * Selects the ids of all tasks with a text that matches a single search term and the highest weight of the matching texts.
+     */
+    private final static String SQL_SELECT_TERM_MATCHES = "SELECT " + FTSContentColumns.TASK_ID + ", max(%s) AS weight FROM " + FTS_DOCUMENT_TABLE
+            + " WHERE " + DocumentColumns.DOCUMENT_ID + " IN (SELECT docid FROM " + FTS_TEXT_TABLE + " WHERE " + FTS_TEXT_TABLE + " MATCH ?) GROUP BY "
+            + FTSContentColumns.TASK_ID;
+
+
+    /**
+     * Creates the tables and triggers of this backend.
+     *
+     * @param db
+     *         A writable {@link SQLiteDatabase}.
+     */
+    public static void onCreate(SQLiteDatabase db)
+    {
+        // FTS4 is available since Honeycomb
+        db.execSQL(String.format(SQL_CREATE_TEXT_TABLE, Build.VERSION.SDK_INT >= 11 ? "fts4" : "fts3"));
+        db.execSQL(SQL_CREATE_DOCUMENT_TABLE);
+        db.execSQL(SQL_CREATE_TASK_DELETE_TRIGGER);
+        db.execSQL(SQL_CREATE_PROPERTY_DELETE_TRIGGER);
+        db.execSQL(TaskDatabaseHelper.createIndexString(FTS_DOCUMENT_TABLE, true, FTSContentColumns.TASK_ID, FTSContentColumns.PROPERTY_ID,
+                FTSContentColumns.TYPE));
+    }
+
+
+    /**
+     * Recreates the triggers of this backend.
+     *
+     * @param db
+     *         A writable {@link SQLiteDatabase}.
+     */
+    public static void updateTriggers(SQLiteDatabase db)
+    {
+        db.execSQL("DROP TRIGGER IF EXISTS fts_text_task_delete_trigger");
+        db.execSQL(SQL_CREATE_TASK_DELETE_TRIGGER);
+        db.execSQL("DROP TRIGGER IF EXISTS fts_text_property_delete_trigger");
+        db.execSQL(SQL_CREATE_PROPERTY_DELETE_TRIGGER);
+    }
+
+
+    /**
+     * Removes the texts of all tasks staged by {@link TaskPurge}.
+     *
+     * @param db
+     *         A writable {@link SQLiteDatabase}.
+     */
+    public static void deleteStagedTasks(SQLiteDatabase db)
+    {
+        db.execSQL("DELETE FROM " + FTS_TEXT_TABLE + " WHERE docid IN (SELECT " + DocumentColumns.DOCUMENT_ID + " FROM " + FTS_DOCUMENT_TABLE + " WHERE "
+                + FTSContentColumns.TASK_ID + " IN " + TaskPurge.STAGED_TASK_IDS + ")");
+        db.execSQL("DELETE FROM " + FTS_DOCUMENT_TABLE + " WHERE " + FTSContentColumns.TASK_ID + " IN " + TaskPurge.STAGED_TASK_IDS);
+    }
+
+
+    @Override
+    public void updateTaskEntries(SQLiteDatabase db, long taskId, int[] types, String[] oldTexts, String[] texts)
+    {
+        for (int i = 0, count = types.length; i < count; ++i)
+        {
+            if (oldTexts == null || !TextUtils.equals(oldTexts[i], texts[i]))
+            {
+                updateEntry(db, taskId, types[i], NO_PROPERTY, texts[i]);
+            }
+        }
+    }
+
+
+    @Override
+    public void updatePropertyEntry(SQLiteDatabase db, long taskId, long propertyId, String text)
+    {
+        updateEntry(db, taskId, SearchableTypes.PROPERTY, propertyId, text);
+    }
+
+
+    @Override
+    public void clear(SQLiteDatabase db)
+    {
+        db.delete(FTS_TEXT_TABLE, null, null);
+        db.delete(FTS_DOCUMENT_TABLE, null, null);
+    }
+
+
+    @Override
+    public String scoreQuery(String searchString, SearchRanking ranking, List<String> args)
+    {
+        List<String> terms = terms(searchString);
+
+        if (terms.isEmpty())
+        {
+            // nothing to search for
+            return "SELECT NULL AS " + FTSContentColumns.TASK_ID + ", 0 AS " + Tasks.SCORE + " WHERE 0";
+        }
+
+        String termQuery = String.format(SQL_SELECT_TERM_MATCHES, ranking.weightExpression(FTSContentColumns.TYPE));
+
+        StringBuilder query = new StringBuilder(256 + terms.size() * termQuery.length());
+        query.append("SELECT ").append(FTSContentColumns.TASK_ID).append(", min(1.0*sum(weight)/").append(terms.size()).append(", 1.0) AS ").append(
+                Tasks.SCORE);
+        query.append(" FROM (");
+        boolean first = true;
+        for (String term : terms)
+        {
+            if (!first)
+            {
+                query.append(" UNION ALL ");
+            }
+            query.append(termQuery);
+            // match all words starting with the term
+            args.add(term + "*");
+            first = false;
+        }
+        query.append(") GROUP BY ").append(FTSContentColumns.TASK_ID).append(" HAVING ").append(Tasks.SCORE).append(" >= ").append(ranking.minScore());
+        return query.toString();
+    }
+
+
+    /**
+     * Inserts, updates or removes a single entry.
+     */
+    private void updateEntry(SQLiteDatabase db, long taskId, int type, long propertyId, String text)
+    {
+        long documentId = documentId(db, taskId, type, propertyId);
+
+        if (text == null || text.length() == 0)
+        {
+            if (documentId >= 0)
+            {
+                execute(db, SQL_DELETE_TEXT, documentId);
+                execute(db, SQL_DELETE_DOCUMENT, documentId);
+            }
+            return;
+        }
+
+        // the simple tokenizer only folds ASCII characters, so we store lower case text
+        text = text.toLowerCase(Locale.getDefault());
+
+        SQLiteStatement statement;
+        if (documentId < 0)
+        {
+            statement = db.compileStatement(SQL_INSERT_DOCUMENT);
+            try
+            {
+                statement.bindLong(1, taskId);
+                statement.bindLong(2, type);
+                statement.bindLong(3, propertyId);
+                documentId = statement.executeInsert();
+            }
+            finally
+            {
+                statement.close();
+            }
+
+            statement = db.compileStatement(SQL_INSERT_TEXT);
+            statement.bindLong(1, documentId);
+            statement.bindString(2, text);
+        }
+        else
+        {
+            statement = db.compileStatement(SQL_UPDATE_TEXT);
+            statement.bindString(1, text);
+            statement.bindLong(2, documentId);
+        }
+
+        try
+        {
+            statement.execute();
+        }
+        finally
+        {
+            statement.close();
+        }
+    }
+
+
+    /**
+     * Returns the id of the document of the given entry or <code>-1</code> if there is no such document.
+     */
+    private long documentId(SQLiteDatabase db, long taskId, int type, long propertyId)
+    {
+        SQLiteStatement statement = db.compileStatement(SQL_SELECT_DOCUMENT);
+        try
+        {
+            statement.bindLong(1, taskId);
+            statement.bindLong(2, type);
+            statement.bindLong(3, propertyId);
+            return statement.simpleQueryForLong();
+        }
+        catch (SQLiteDoneException e)
+        {
+            return -1;
+        }
+        finally
+        {
+            statement.close();
+        }
+    }
+
+
+    private void execute(SQLiteDatabase db, String sql, long id)
+    {
+        SQLiteStatement statement = db.compileStatement(sql);
+        try
+        {
+            statement.bindLong(1, id);
+            statement.execute();
+        }
+        finally
+        {
+            statement.close();
+        }
+    }
+
+
+    /**
+     * Splits the given search string into lower case search terms. Like the simple tokenizer of SQLite, this treats all ASCII characters that are not
+     * letters or digits as separators. This also ensures the terms don't contain any characters that have a special meaning in a MATCH expression.
+     */
+    private static List<String> terms(String searchString)
+    {
+        List<String> terms = new ArrayList<String>(8);
+        if (searchString == null)
+        {
+            return terms;
+        }
+
+        String lowerCase = searchString.toLowerCase(Locale.getDefault());
+        int start = -1;
+        for (int i = 0, length = lowerCase.length(); i <= length; ++i)
+        {
+            char c = i < length ? lowerCase.charAt(i) : ' ';
+            boolean isTokenChar = c > 127 || c >= 'a' && c <= 'z' || c >= '0' && c <= '9';
+            if (isTokenChar && start < 0)
+            {
+                start = i;
+            }
+            else if (!isTokenChar && start >= 0)
+            {
+                String term = lowerCase.substring(start, i);
+                if (!terms.contains(term))
+                {
+                    terms.add(term);
+                }
+                start = -1;
+            }
+        }
+        return terms;
+    }
+}
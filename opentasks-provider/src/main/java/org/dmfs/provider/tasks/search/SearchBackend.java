@@ -0,0 +1,88 @@
+/*
+ * Copyright 2017 dmfs GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dmfs.provider.tasks.search;
+
+import android.database.sqlite.SQLiteDatabase;
+
+import org.dmfs.provider.tasks.FTSDatabaseHelper;
+import org.dmfs.provider.tasks.FTSDatabaseHelper.FTSContentColumns;
+import org.dmfs.provider.tasks.FTSDatabaseHelper.SearchableTypes;
+import org.dmfs.tasks.contract.TaskContract.Tasks;
+
+import java.util.List;
+
+
+/**
+ * A search index of the searchable texts of tasks. Only the active backend is maintained, see {@link FTSDatabaseHelper#setSearchBackend(String)}.
+ *
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+public interface SearchBackend
+{
+    /**
+     * Updates the index entries of the given fields of a task.
+     *
+     * @param db
+     *         A writable {@link SQLiteDatabase}.
+     * @param taskId
+     *         The row id of the task.
+     * @param types
+     *         The {@link SearchableTypes} of the entries to update.
+     * @param oldTexts
+     *         The texts the index currently contains for the entries or <code>null</code> if they are not known.
+     * @param texts
+     *         The new texts of the entries, <code>null</code> or empty texts remove an entry.
+     */
+    public void updateTaskEntries(SQLiteDatabase db, long taskId, int[] types, String[] oldTexts, String[] texts);
+
+    /**
+     * Updates the index entry of a property.
+     *
+     * @param db
+     *         A writable {@link SQLiteDatabase}.
+     * @param taskId
+     *         The row id of the task the property belongs to.
+     * @param propertyId
+     *         The row id of the property.
+     * @param text
+     *         The searchable text of the property, <code>null</code> or an empty text removes the entry.
+     */
+    public void updatePropertyEntry(SQLiteDatabase db, long taskId, long propertyId, String text);
+
+    /**
+     * Removes all entries from the index.
+     *
+     * @param db
+     *         A writable {@link SQLiteDatabase}.
+     */
+    public void clear(SQLiteDatabase db);
+
+    /**
+     * Returns an SQL query that returns the row ids of all tasks that match the given search string in a column named {@link FTSContentColumns#TASK_ID}
+     * and their score in a column named {@link Tasks#SCORE}. Each task must be returned at most once and the score must be in the range [0..1].
+     *
+     * @param searchString
+     *         The search string.
+     * @param ranking
+     *         The {@link SearchRanking} that determines the weights of the matches and the minimum score.
+     * @param args
+     *         A {@link List} to add the arguments of the query to.
+     *
+     * @return The SQL query.
+     */
+    public String scoreQuery(String searchString, SearchRanking ranking, List<String> args);
+}
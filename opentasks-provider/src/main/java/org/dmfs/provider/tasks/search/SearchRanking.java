@@ -0,0 +1,215 @@
+/*
+ * Copyright 2017 dmfs GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dmfs.provider.tasks.search;
+
+import android.net.Uri;
+
+import org.dmfs.provider.tasks.FTSDatabaseHelper.SearchableTypes;
+import org.dmfs.tasks.contract.TaskContract.Tasks;
+
+
+/**
+ * The parameters of a search: the weights of the {@link SearchableTypes}, the minimum score and the maximum number of results.
+ *
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+public final class SearchRanking
+{
+    /**
+     * The minimum score of results if not specified otherwise.
+     */
+    public final static float DEFAULT_MIN_SCORE = 0.4f;
+
+    /**
+     * The default ranking. All matches have the same weight, the number of results is not limited.
+     */
+    public final static SearchRanking DEFAULT = new SearchRanking(null, DEFAULT_MIN_SCORE, 0);
+
+    /**
+     * The weights of ranked searches, indexed by {@link SearchableTypes}.
+     */
+    private final static float[] DEFAULT_WEIGHTS = new float[] { 0f, 1.0f /* title */, 0.6f /* description */, 0.8f /* location */, 0.4f /* property */ };
+
+    private final float[] mWeights;
+    private final float mMinScore;
+    private final int mLimit;
+
+
+    /**
+     * Creates a search ranking.
+     *
+     * @param weights
+     *         The weights of the matches indexed by {@link SearchableTypes} or <code>null</code> to give all matches the same weight.
+     * @param minScore
+     *         The minimum score of a result in the range [0..1].
+     * @param limit
+     *         The maximum number of results or <code>0</code> to return all results.
+     */
+    public SearchRanking(float[] weights, float minScore, int limit)
+    {
+        if (weights != null)
+        {
+            if (weights.length != DEFAULT_WEIGHTS.length)
+            {
+                throw new IllegalArgumentException("Expected " + DEFAULT_WEIGHTS.length + " weights, got " + weights.length);
+            }
+            for (float weight : weights)
+            {
+                if (!(weight >= 0) || Float.isInfinite(weight))
+                {
+                    throw new IllegalArgumentException("Invalid weight " + weight);
+                }
+            }
+        }
+        if (!(minScore >= 0 && minScore <= 1))
+        {
+            throw new IllegalArgumentException("Minimum score must be in the range [0..1], got " + minScore);
+        }
+        if (limit < 0)
+        {
+            throw new IllegalArgumentException("Limit must not be negative, got " + limit);
+        }
+        mWeights = weights == null ? null : weights.clone();
+        mMinScore = minScore;
+        mLimit = limit;
+    }
+
+
+    /**
+     * Returns the {@link SearchRanking} requested by the query parameters of the given search {@link Uri}.
+     *
+     * @param uri
+     *         The search {@link Uri}.
+     *
+     * @return The {@link SearchRanking}.
+     *
+     * @throws IllegalArgumentException
+     *         if any of the parameters is invalid.
+     */
+    public static SearchRanking fromUri(Uri uri)
+    {
+        String ranked = uri.getQueryParameter(Tasks.SEARCH_RANKED_PARAMETER);
+        float[] weights = ranked != null && !"false".equals(ranked) ? DEFAULT_WEIGHTS.clone() : null;
+
+        weights = weight(uri, Tasks.SEARCH_TITLE_WEIGHT_PARAMETER, SearchableTypes.TITLE, weights);
+        weights = weight(uri, Tasks.SEARCH_LOCATION_WEIGHT_PARAMETER, SearchableTypes.LOCATION, weights);
+        weights = weight(uri, Tasks.SEARCH_DESCRIPTION_WEIGHT_PARAMETER, SearchableTypes.DESCRIPTION, weights);
+        weights = weight(uri, Tasks.SEARCH_PROPERTY_WEIGHT_PARAMETER, SearchableTypes.PROPERTY, weights);
+
+        String minScore = uri.getQueryParameter(Tasks.SEARCH_MIN_SCORE_PARAMETER);
+        String limit = uri.getQueryParameter(Tasks.SEARCH_LIMIT_PARAMETER);
+
+        if (weights == null && minScore == null && limit == null)
+        {
+            return DEFAULT;
+        }
+
+        try
+        {
+            return new SearchRanking(weights, minScore == null ? DEFAULT_MIN_SCORE : Float.parseFloat(minScore), limit == null ? 0 : Integer.parseInt(limit));
+        }
+        catch (NumberFormatException e)
+        {
+            throw new IllegalArgumentException("Invalid search parameter in " + uri, e);
+        }
+    }
+
+
+    /**
+     * Returns an SQL expression that evaluates to the weight of a match in a field of the type stored in the given column. A term that matches multiple
+     * fields of the same task must only contribute the highest weight of those fields to the score of the task, so the backends take the <code>max()</code>
+     * of this expression per task and term before summing up.
+     *
+     * @param typeColumn
+     *         The name of the column containing the {@link SearchableTypes}.
+     *
+     * @return An SQL expression.
+     */
+    public String weightExpression(String typeColumn)
+    {
+        if (mWeights == null)
+        {
+            return "1";
+        }
+
+        StringBuilder expression = new StringBuilder(128);
+        expression.append("(CASE ").append(typeColumn);
+        for (int type = 1; type < mWeights.length; ++type)
+        {
+            expression.append(" WHEN ").append(type).append(" THEN ").append(mWeights[type]);
+        }
+        expression.append(" ELSE 0 END)");
+        return expression.toString();
+    }
+
+
+    /**
+     * Returns whether the matches have individual weights.
+     *
+     * @return <code>true</code> if the matches are weighted.
+     */
+    public boolean isWeighted()
+    {
+        return mWeights != null;
+    }
+
+
+    /**
+     * Returns the minimum score of the results.
+     *
+     * @return The minimum score.
+     */
+    public float minScore()
+    {
+        return mMinScore;
+    }
+
+
+    /**
+     * Returns the maximum number of results.
+     *
+     * @return The maximum number of results or <code>0</code> if the number is not limited.
+     */
+    public int limit()
+    {
+        return mLimit;
+    }
+
+
+    private static float[] weight(Uri uri, String parameter, int type, float[] weights)
+    {
+        String value = uri.getQueryParameter(parameter);
+        if (value == null)
+        {
+            return weights;
+        }
+
+        if (weights == null)
+        {
+            weights = DEFAULT_WEIGHTS.clone();
+        }
+        try
+        {
+            weights[type] = Float.parseFloat(value);
+        }
+        catch (NumberFormatException e)
+        {
+            throw new IllegalArgumentException("Invalid weight " + value + " in " + uri, e);
+        }
+        return weights;
+    }
+}
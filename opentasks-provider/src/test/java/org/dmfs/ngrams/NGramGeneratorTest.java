@@ -0,0 +1,89 @@
+/*
+ * Copyright 2017 dmfs GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dmfs.ngrams;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+
+/**
+ * Test for {@link NGramGenerator}.
+ *
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+public class NGramGeneratorTest
+{
+
+    @Test
+    public void testTrigrams()
+    {
+        NGramGenerator generator = new NGramGenerator(3, 1);
+
+        assertEquals(new HashSet<String>(Arrays.asList("tas", "ask", "sks", "to", "do", "1", "42")), generator.getNgrams("Tasks, to-DO: 1 42"));
+        assertEquals(new HashSet<String>(), generator.getNgrams(" ,.-!"));
+        assertEquals(new HashSet<String>(Arrays.asList("ähn", "hnl", "nli", "lic", "ich")), generator.getNgrams("Ähnlich"));
+    }
+
+
+    @Test
+    public void testSpaceInFront()
+    {
+        NGramGenerator generator = new NGramGenerator(3, 1).setAddSpaceInFront(true);
+
+        assertEquals(new HashSet<String>(Arrays.asList("a", " a", "bc", " bc", "def", "efg", " de")), generator.getNgrams("a Bc dEFg"));
+    }
+
+
+    @Test
+    public void testMinWordLength()
+    {
+        NGramGenerator generator = new NGramGenerator(4, 3).setAddSpaceInFront(true);
+
+        assertEquals(new HashSet<String>(Arrays.asList("abc", " abc", "abcd", "bcde")), generator.getNgrams("a ab abc abcde"));
+    }
+
+
+    @Test
+    public void testLocale()
+    {
+        assertEquals(new HashSet<String>(Arrays.asList("ıst", "ist")),
+                new NGramGenerator(3).setLocale(new Locale("tr")).getNgrams("Ist İst"));
+        assertEquals(new HashSet<String>(Arrays.asList("ist")), new NGramGenerator(3).setLocale(Locale.ENGLISH).getNgrams("Ist ist"));
+    }
+
+
+    @Test
+    public void testPacked()
+    {
+        NGramGenerator generator = new NGramGenerator(4);
+        LongHashSet ngrams = new LongHashSet(4);
+
+        generator.getNgrams("abcde ab", ngrams);
+
+        assertEquals(3, ngrams.size());
+        assertTrue(ngrams.contains(0x0061006200630064L));
+        assertTrue(ngrams.contains(0x0062006300640065L));
+        assertTrue(ngrams.contains(0x0061006200000000L));
+        assertEquals("ab", NGramGenerator.decode(0x0061006200000000L));
+    }
+}
@@ -83,6 +83,12 @@ public class TaskListWidgetUpdaterService extends RemoteViewsService
      */
     public static class TaskListViewsFactory implements RemoteViewsService.RemoteViewsFactory, TimeChangeListener
     {
+        /**
+         * The columns read by {@link #getWidgetItems(Cursor)}. With an explicit projection the provider doesn't need to join the full instance view.
+         */
+        public final static String[] PROJECTION = new String[] {
+                Instances.TASK_ID, Tasks.TITLE, Tasks.DUE, Tasks.TZ, Tasks.IS_ALLDAY, Tasks.LIST_COLOR, Tasks.IS_CLOSED };
+
         /**
          * The {@link TaskListWidgetItem} array which stores the tasks to be displayed. When the cursor loads it is updated.
          */
@@ -417,7 +423,7 @@ public class TaskListWidgetUpdaterService extends RemoteViewsService
                 // load all upcoming non-completed tasks
                 Cursor c = mContext.getContentResolver().query(
                         TaskContract.Instances.getContentUri(mAuthority),
-                        null,
+                        PROJECTION,
                         selection.toString(),
                         null,
                         Instances.INSTANCE_DUE + " is null, " + Instances.DEFAULT_SORT_ORDER + ", "